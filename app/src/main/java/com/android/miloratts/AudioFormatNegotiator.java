@@ -0,0 +1,77 @@
+package com.android.miloratts;
+
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+
+import com.android.miloratts.core.AudioStore;
+
+import java.util.Locale;
+
+/**
+ * 为每次下载选择 API 返回的音频格式。WAV 不经过 MediaCodec，省掉解码器准备和解码耗时，
+ * 但体积约为 MP3 的 8 倍，只在不按流量计费、实测网络吞吐足够、磁盘缓存也放得下时才使用；
+ * 其他情况以及还没有测到吞吐时都用 MP3。
+ */
+final class AudioFormatNegotiator {
+    static final String MP3 = "mp3";
+    static final String WAV = "wav";
+
+    // 24kHz 单声道 16 位 WAV 约 47KB/s，网络要有 4 倍余量，边下边播时才不会卡顿
+    private static final long WAV_MIN_BYTES_PER_SEC = 192 * 1024;
+    // WAV 会让同样的缓存容量少存很多条目，缓存上限太小时命中率的损失比省下的解码时间更重要
+    private static final long WAV_MIN_CACHE_BYTES = 100L * 1024 * 1024;
+    // 太小的传输主要反映首字节延迟而不是带宽，不参与估计
+    private static final long MIN_SAMPLE_BYTES = 8 * 1024;
+    private static final double EWMA_WEIGHT = 0.3;
+
+    private final SharedPreferences prefs;
+    private final ConnectivityManager connectivity;
+    private double bytesPerSecond = -1;
+    private volatile String lastFormat = MP3;
+
+    AudioFormatNegotiator(SharedPreferences prefs, ConnectivityManager connectivity) {
+        this.prefs = prefs;
+        this.connectivity = connectivity;
+    }
+
+    String chooseFormat(AudioStore cache) {
+        String format = MP3;
+        if (prefs.getBoolean(EngineSettings.KEY_AUTO_WAV, EngineSettings.DEFAULT_AUTO_WAV)
+                && connectivity != null && !connectivity.isActiveNetworkMetered()
+                && getBytesPerSecond() >= WAV_MIN_BYTES_PER_SEC
+                && (cache == null || cache.getMaxBytes() >= WAV_MIN_CACHE_BYTES)) {
+            format = WAV;
+        }
+        lastFormat = format;
+        return format;
+    }
+
+    /**
+     * 记录一次下载：bytes 是读到的字节数，readNanos 是阻塞在网络读取上的时间（不含解码和播放）。
+     */
+    synchronized void recordTransfer(long bytes, long readNanos) {
+        if (bytes < MIN_SAMPLE_BYTES || readNanos <= 0) {
+            return;
+        }
+        double sample = bytes * 1e9 / readNanos;
+        bytesPerSecond = bytesPerSecond < 0 ? sample : bytesPerSecond + EWMA_WEIGHT * (sample - bytesPerSecond);
+    }
+
+    synchronized long getBytesPerSecond() {
+        return (long) bytesPerSecond;
+    }
+
+    String describe() {
+        long throughput = getBytesPerSecond();
+        return String.format(Locale.US, "格式: 当前 %s，网络吞吐 %s", lastFormat,
+                throughput < 0 ? "未测量" : throughput / 1024 + " KB/s");
+    }
+
+    static String formatOf(String cacheKey) {
+        return cacheKey.endsWith("." + WAV) ? WAV : MP3;
+    }
+
+    static String otherFormat(String format) {
+        return WAV.equals(format) ? MP3 : WAV;
+    }
+}
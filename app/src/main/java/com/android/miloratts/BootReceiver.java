@@ -11,9 +11,8 @@ public class BootReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         String action = intent.getAction();
         Log.d("MiloraTTS", "开机启动: " + action);
-        
-        // 开机后自动启动TTS服务（可选）
-        // Intent serviceIntent = new Intent(context, TtsService.class);
-        // context.startService(serviceIntent);
+
+        // 不启动 TTS 服务，只确保缓存预热任务排上，等设备空闲、充电且连着不计流量的网络时执行
+        CacheWarmupJob.schedule(context);
     }
 }
\ No newline at end of file
@@ -0,0 +1,220 @@
+package com.android.miloratts;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.android.miloratts.core.ApiResponse;
+import com.android.miloratts.core.AudioStore;
+import com.android.miloratts.core.CacheKeys;
+import com.android.miloratts.core.CacheTeeInputStream;
+import com.android.miloratts.core.CancellableInputStream;
+import com.android.miloratts.core.CancellationToken;
+import com.android.miloratts.core.EngineMetrics;
+import com.android.miloratts.core.NamedThreadFactory;
+import com.android.miloratts.core.PhraseFrequencyLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 后台预热磁盘缓存：在设备空闲、充电并连着不计流量的网络时，把短句记录里最常用、
+ * 但当前不在缓存里的句子提前下载下来。缓存被清空或淘汰之后，来电、电量低这类提示音
+ * 第一次播报时不必再等网络。
+ * <p>
+ * 每次最多下载 {@link #BYTE_BUDGET} 字节，两次下载之间至少间隔 {@link #FETCH_INTERVAL_MS}，
+ * 约束条件不再满足时系统会停止任务，正在进行的下载随之取消。
+ */
+public class CacheWarmupJob extends JobService {
+    private static final String TAG = "MiloraTTS";
+    private static final int JOB_ID = 1;
+    private static final long PERIOD_MS = 12 * 60 * 60 * 1000;
+    // 每次预热考虑的常用短句数量，覆盖率也按这些短句计算
+    static final int TOP_PHRASES = 50;
+    private static final long BYTE_BUDGET = 4L * 1024 * 1024;
+    private static final long FETCH_INTERVAL_MS = 2000;
+    private static final int COPY_BUFFER_BYTES = 8192;
+
+    private volatile CancellationToken token;
+
+    /**
+     * 按设置排上或取消周期性的预热任务。已经排上时不重新排，避免推迟下一次执行。
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null) {
+            return;
+        }
+        SharedPreferences prefs = context.getSharedPreferences(EngineSettings.PREFS_NAME, Context.MODE_PRIVATE);
+        if (!prefs.getBoolean(EngineSettings.KEY_CACHE_WARMUP, EngineSettings.DEFAULT_CACHE_WARMUP)) {
+            scheduler.cancel(JOB_ID);
+            return;
+        }
+        for (JobInfo pending : scheduler.getAllPendingJobs()) {
+            if (pending.getId() == JOB_ID) {
+                return;
+            }
+        }
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, CacheWarmupJob.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setPeriodic(PERIOD_MS)
+                .setPersisted(true)
+                .build();
+        if (scheduler.schedule(job) == JobScheduler.RESULT_SUCCESS) {
+            Log.i(TAG, "已安排缓存预热任务");
+        } else {
+            Log.w(TAG, "安排缓存预热任务失败");
+        }
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final CancellationToken jobToken = new CancellationToken();
+        token = jobToken;
+        // 下载之间要等待，不占用共用的 I/O 线程
+        new NamedThreadFactory("MiloraWarmup", Thread.MIN_PRIORITY).newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    warmUp(jobToken);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "缓存预热失败", e);
+                } finally {
+                    jobFinished(params, false);
+                }
+            }
+        }).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        CancellationToken jobToken = token;
+        if (jobToken != null) {
+            jobToken.cancel();
+        }
+        // 周期任务到下一个周期会再次执行，不需要立即重试
+        return false;
+    }
+
+    private void warmUp(CancellationToken token) {
+        MiloraApp app = (MiloraApp) getApplication();
+        AudioStore cache = app.getAudioCache();
+        if (cache == null) {
+            return;
+        }
+        EngineMetrics metrics = app.getMetrics();
+        ResilientHttp http = app.getResilientHttp();
+        long startTime = System.currentTimeMillis();
+        List<PhraseFrequencyLog.Phrase> phrases = app.getPhraseLog().top(TOP_PHRASES);
+        int cachedBefore = 0;
+        int fetched = 0;
+        int failed = 0;
+        long bytes = 0;
+        long lastFetchAt = 0;
+        for (PhraseFrequencyLog.Phrase phrase : phrases) {
+            if (isCached(cache, phrase)) {
+                cachedBefore++;
+                continue;
+            }
+            if (token.isCancelled() || bytes >= BYTE_BUDGET || http.isCacheOnly()) {
+                continue;
+            }
+            long wait = lastFetchAt + FETCH_INTERVAL_MS - System.currentTimeMillis();
+            if (wait > 0 && !token.sleep(wait)) {
+                continue;
+            }
+            lastFetchAt = System.currentTimeMillis();
+            try {
+                bytes += fetch(http, cache, phrase, token);
+                if (cache.contains(phrase.key)) {
+                    fetched++;
+                }
+            } catch (IOException e) {
+                failed++;
+                Log.d(TAG, "预热下载失败: " + e.getMessage());
+            }
+        }
+
+        int cachedAfter = 0;
+        for (PhraseFrequencyLog.Phrase phrase : phrases) {
+            if (isCached(cache, phrase)) {
+                cachedAfter++;
+            }
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        int coverage = phrases.isEmpty() ? 100 : cachedAfter * 100 / phrases.size();
+        metrics.warmupTime.record(elapsed);
+        metrics.warmupFetches.addAndGet(fetched);
+        metrics.warmupBytes.addAndGet(bytes);
+        metrics.warmupCoverage.set(coverage);
+        String report = String.format(Locale.US,
+                "常用短句 %d 条，已缓存 %d → %d (%d%%)，下载 %d 条 %d KB，失败 %d，耗时 %d ms%s",
+                phrases.size(), cachedBefore, cachedAfter, coverage, fetched, bytes / 1024, failed, elapsed,
+                token.isCancelled() ? "，被系统停止" : "");
+        Log.i(TAG, "缓存预热完成: " + report);
+        getSharedPreferences(EngineSettings.PREFS_NAME, MODE_PRIVATE).edit()
+                .putString(EngineSettings.KEY_LAST_WARMUP, report).apply();
+    }
+
+    // 两种格式任意一种已在缓存里都算命中，合成时会直接使用
+    private static boolean isCached(AudioStore cache, PhraseFrequencyLog.Phrase phrase) {
+        return cache.contains(phrase.key) || cache.contains(CacheKeys.forText(
+                phrase.text, TtsService.VOICE, phrase.language, AudioFormatNegotiator.WAV));
+    }
+
+    /**
+     * 请求 API 并把音频原样写进缓存，不解码。统一下载 MP3，同样的预算能预热更多句子。
+     * 返回从网络读到的字节数，没能完整写入缓存的下载也计入预算。
+     */
+    private long fetch(ResilientHttp http, AudioStore cache, PhraseFrequencyLog.Phrase phrase,
+            CancellationToken token) throws IOException {
+        ApiResponse response = http.get(TtsService.apiCallFor(phrase.text, AudioFormatNegotiator.MP3),
+                TtsService.API_RESPONSE, token);
+        if (!response.isSuccess() || response.getAudioUrl() == null) {
+            throw new IOException("API返回错误: code=" + response.getCode());
+        }
+        HttpURLConnection conn = http.openStream(response.getAudioUrl(), token);
+        Runnable abort = HttpClient.abortOnCancel(conn);
+        token.addListener(abort);
+        CacheTeeInputStream tee = null;
+        boolean committed = false;
+        try {
+            CancellableInputStream network = new CancellableInputStream(conn.getInputStream(), token);
+            tee = new CacheTeeInputStream(network, cache, phrase.key, conn.getContentLength());
+            byte[] buffer = new byte[COPY_BUFFER_BYTES];
+            InputStream input = tee;
+            while (input.read(buffer) >= 0) {
+                // 只是把数据流过缓存写入端
+            }
+            committed = tee.commit();
+            ((MiloraApp) getApplication()).getMetrics().bytesDownloaded.addAndGet(network.getBytesRead());
+            return network.getBytesRead();
+        } catch (IOException e) {
+            if (token.isCancelled()) {
+                return 0;
+            }
+            throw e;
+        } finally {
+            token.removeListener(abort);
+            if (tee != null) {
+                tee.abandon();
+            }
+            if (committed) {
+                HttpClient.release(conn);
+            } else {
+                HttpClient.abort(conn);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.android.miloratts;
+
+import android.media.AudioFormat;
+import android.speech.tts.SynthesisCallback;
+import android.speech.tts.TextToSpeech;
+import android.util.Log;
+
+import com.android.miloratts.core.PcmFormatConverter;
+import com.android.miloratts.core.PcmSink;
+
+/**
+ * 把多个片段的 PCM 依次写入同一个 SynthesisCallback，只在第一个片段时调用 start。
+ * 输出格式由第一个片段决定，之后格式不同的片段经 {@link PcmFormatConverter} 转换后再写入。
+ */
+final class CallbackPcmSink implements PcmSink {
+    private static final String TAG = "MiloraTTS";
+
+    private final SynthesisCallback callback;
+    // 按第一个片段的格式直接写入 callback
+    private final PcmSink direct = new PcmSink() {
+        @Override
+        public boolean start(int sampleRate, int channelCount) {
+            return true;
+        }
+
+        @Override
+        public boolean write(byte[] buffer, int offset, int length) {
+            return writeToCallback(buffer, offset, length);
+        }
+
+        @Override
+        public int maxChunkSize() {
+            return callback.getMaxBufferSize();
+        }
+    };
+    private PcmFormatConverter converter;
+    private boolean converting;
+    private int sampleRate;
+    private int channelCount;
+    private boolean started;
+    private long firstAudioNanos;
+
+    CallbackPcmSink(SynthesisCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public boolean start(int sampleRate, int channelCount) {
+        if (started) {
+            converting = sampleRate != this.sampleRate || channelCount != this.channelCount;
+            if (!converting) {
+                return true;
+            }
+            // 按原格式写出会变速或声道错乱
+            Log.d(TAG, "片段音频格式 " + sampleRate + "Hz/" + channelCount + "声道，转换为当前输出的 "
+                    + this.sampleRate + "Hz/" + this.channelCount + "声道");
+            if (converter == null) {
+                converter = new PcmFormatConverter(direct, this.sampleRate, this.channelCount);
+            }
+            return converter.start(sampleRate, channelCount);
+        }
+        started = true;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        return callback.start(sampleRate, AudioFormat.ENCODING_PCM_16BIT, channelCount) == TextToSpeech.SUCCESS;
+    }
+
+    @Override
+    public boolean write(byte[] buffer, int offset, int length) {
+        return converting ? converter.write(buffer, offset, length) : writeToCallback(buffer, offset, length);
+    }
+
+    private boolean writeToCallback(byte[] buffer, int offset, int length) {
+        // 单次写入不能超过 getMaxBufferSize，内存中的整段音频需要拆开写
+        int maxChunk = callback.getMaxBufferSize();
+        int end = offset + length;
+        if (firstAudioNanos == 0 && length > 0) {
+            firstAudioNanos = System.nanoTime();
+        }
+        for (int chunkStart = offset; chunkStart < end; chunkStart += maxChunk) {
+            int chunkLength = Math.min(maxChunk, end - chunkStart);
+            if (callback.audioAvailable(buffer, chunkStart, chunkLength) == TextToSpeech.STOPPED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 第一次交出音频数据的时间（System.nanoTime），还没有输出时返回 0。
+     */
+    long getFirstAudioNanos() {
+        return firstAudioNanos;
+    }
+
+    @Override
+    public int maxChunkSize() {
+        return callback.getMaxBufferSize();
+    }
+}
@@ -0,0 +1,285 @@
+package com.android.miloratts;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import com.android.miloratts.core.LatencyHistogram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按 MIME 类型、采样率和声道数复用已启动的 MediaCodec 解码器。
+ * 用完的解码器 flush 后放回池中，下一次同格式的解码直接使用；出错的解码器直接释放，
+ * 闲置超过 idleTimeoutMs 的解码器由定时器线程释放。
+ */
+final class DecoderPool {
+    private static final String TAG = "MiloraTTS";
+    private static final int MAX_IDLE_DECODERS = 2;
+
+    private final long idleTimeoutMs;
+    private int maxIdle = MAX_IDLE_DECODERS;
+    private final LinkedList<IdleDecoder> idle = new LinkedList<>();
+    private final Map<MediaCodec, String> inUse = new IdentityHashMap<>();
+    private final ScheduledExecutorService sweeper;
+    private final LatencyHistogram setupHistogram;
+    private final Runnable sweepTask = new Runnable() {
+        @Override
+        public void run() {
+            sweepIdle();
+        }
+    };
+    private boolean sweepScheduled;
+    private boolean shutdown;
+
+    private long createdCount;
+    private long reusedCount;
+    private long totalSetupNanos;
+    private long lastSetupNanos;
+
+    /**
+     * sweeper 是共用的定时器，池只在上面登记清理任务，关闭池时不会关闭它。
+     * 每次 acquire 的准备耗时（毫秒）记录到 setupHistogram。
+     */
+    DecoderPool(long idleTimeoutMs, ScheduledExecutorService sweeper, LatencyHistogram setupHistogram) {
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.sweeper = sweeper;
+        this.setupHistogram = setupHistogram;
+    }
+
+    /**
+     * 取得一个已 start 的解码器，用完后必须调用 {@link #release}。
+     */
+    MediaCodec acquire(MediaFormat format) throws IOException {
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        String key = keyOf(format);
+        long startNanos = System.nanoTime();
+
+        MediaCodec codec = takeIdle(key);
+        boolean reused = codec != null;
+        if (codec == null) {
+            codec = MediaCodec.createDecoderByType(mime);
+            try {
+                codec.configure(format, null, null, 0);
+                codec.start();
+            } catch (RuntimeException e) {
+                codec.release();
+                throw e;
+            }
+        }
+
+        long setupNanos = System.nanoTime() - startNanos;
+        setupHistogram.record(setupNanos / 1000000);
+        synchronized (this) {
+            inUse.put(codec, key);
+            if (reused) {
+                reusedCount++;
+            } else {
+                createdCount++;
+            }
+            totalSetupNanos += setupNanos;
+            lastSetupNanos = setupNanos;
+        }
+        Log.d(TAG, "解码器准备耗时: " + setupNanos / 1000 + "us (" + (reused ? "复用" : "新建") + " " + key + ")");
+        return codec;
+    }
+
+    /**
+     * 提前创建并启动一个解码器放进闲置池，之后同格式的第一次解码直接复用。
+     * 不计入准备耗时统计，闲置超时后照常释放。
+     */
+    void prewarm(MediaFormat format) throws IOException {
+        String key = keyOf(format);
+        long startNanos = System.nanoTime();
+        MediaCodec codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+        try {
+            codec.configure(format, null, null, 0);
+            codec.start();
+        } catch (RuntimeException e) {
+            codec.release();
+            throw e;
+        }
+        boolean pooled = false;
+        synchronized (this) {
+            if (!shutdown && idle.size() < maxIdle) {
+                idle.addLast(new IdleDecoder(key, codec, System.currentTimeMillis()));
+                createdCount++;
+                scheduleSweepLocked();
+                pooled = true;
+            }
+        }
+        if (!pooled) {
+            destroyAll(Collections.singletonList(codec));
+            return;
+        }
+        Log.d(TAG, "解码器预热耗时: " + (System.nanoTime() - startNanos) / 1000 + "us (" + key + ")");
+    }
+
+    /**
+     * 归还解码器。reusable 为 false（解码过程中出过错）时直接释放，否则 flush 后放回池中。
+     */
+    void release(MediaCodec codec, boolean reusable) {
+        String key;
+        synchronized (this) {
+            key = inUse.remove(codec);
+        }
+        if (reusable && key != null) {
+            try {
+                // flush 之后解码器回到可接收输入的状态，即使之前已经收到过 EOS
+                codec.flush();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "解码器 flush 失败，不再复用", e);
+                reusable = false;
+            }
+        }
+
+        List<MediaCodec> toDestroy = new ArrayList<>();
+        synchronized (this) {
+            if (reusable && key != null && !shutdown) {
+                idle.addLast(new IdleDecoder(key, codec, System.currentTimeMillis()));
+                while (idle.size() > maxIdle) {
+                    toDestroy.add(idle.removeFirst().codec);
+                }
+                scheduleSweepLocked();
+            } else {
+                toDestroy.add(codec);
+            }
+        }
+        destroyAll(toDestroy);
+    }
+
+    /**
+     * 释放所有闲置的解码器，正在使用中的解码器不受影响。
+     */
+    void releaseIdle() {
+        List<MediaCodec> toDestroy = new ArrayList<>();
+        synchronized (this) {
+            for (IdleDecoder decoder : idle) {
+                toDestroy.add(decoder.codec);
+            }
+            idle.clear();
+        }
+        destroyAll(toDestroy);
+    }
+
+    /**
+     * 调整最多保留的闲置解码器数量，超出的部分（最早归还的）立即释放。内存紧张时调小，恢复后调回。
+     */
+    void setMaxIdle(int count) {
+        List<MediaCodec> toDestroy = new ArrayList<>();
+        synchronized (this) {
+            maxIdle = Math.max(0, Math.min(count, MAX_IDLE_DECODERS));
+            while (idle.size() > maxIdle) {
+                toDestroy.add(idle.removeFirst().codec);
+            }
+        }
+        destroyAll(toDestroy);
+    }
+
+    void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+        }
+        releaseIdle();
+    }
+
+    synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    synchronized long getReusedCount() {
+        return reusedCount;
+    }
+
+    synchronized long getLastSetupNanos() {
+        return lastSetupNanos;
+    }
+
+    synchronized long getAverageSetupNanos() {
+        long total = createdCount + reusedCount;
+        return total == 0 ? 0 : totalSetupNanos / total;
+    }
+
+    synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    private static String keyOf(MediaFormat format) {
+        return format.getString(MediaFormat.KEY_MIME) + "/" + format.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+                + "/" + format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+    }
+
+    private synchronized MediaCodec takeIdle(String key) {
+        // 优先取最近归还的解码器，它最有可能仍处于热状态
+        Iterator<IdleDecoder> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            IdleDecoder decoder = iterator.next();
+            if (decoder.key.equals(key)) {
+                iterator.remove();
+                return decoder.codec;
+            }
+        }
+        return null;
+    }
+
+    private void scheduleSweepLocked() {
+        if (!sweepScheduled && !shutdown) {
+            sweepScheduled = true;
+            sweeper.schedule(sweepTask, idleTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sweepIdle() {
+        List<MediaCodec> toDestroy = new ArrayList<>();
+        synchronized (this) {
+            sweepScheduled = false;
+            if (shutdown) {
+                return;
+            }
+            long deadline = System.currentTimeMillis() - idleTimeoutMs;
+            Iterator<IdleDecoder> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                IdleDecoder decoder = iterator.next();
+                if (decoder.idleSince <= deadline) {
+                    toDestroy.add(decoder.codec);
+                    iterator.remove();
+                }
+            }
+            if (!idle.isEmpty()) {
+                scheduleSweepLocked();
+            }
+        }
+        if (!toDestroy.isEmpty()) {
+            Log.d(TAG, "释放 " + toDestroy.size() + " 个闲置解码器");
+        }
+        destroyAll(toDestroy);
+    }
+
+    private static void destroyAll(List<MediaCodec> codecs) {
+        for (MediaCodec codec : codecs) {
+            try { codec.stop(); } catch (Exception e) { Log.e(TAG, "停止解码器失败", e); }
+            try { codec.release(); } catch (Exception e) { Log.e(TAG, "释放解码器失败", e); }
+        }
+    }
+
+    private static final class IdleDecoder {
+        final String key;
+        final MediaCodec codec;
+        final long idleSince;
+
+        IdleDecoder(String key, MediaCodec codec, long idleSince) {
+            this.key = key;
+            this.codec = codec;
+            this.idleSince = idleSince;
+        }
+    }
+}
@@ -4,27 +4,73 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.speech.tts.TextToSpeech;
 import android.text.InputType;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
-import java.io.File;
-import java.io.FilenameFilter;
+
+import com.android.miloratts.core.AudioStore;
+import com.android.miloratts.core.PcmMemoryCache;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class EngineSettings extends Activity {
     
     public static final String PREFS_NAME = "MiloraTtsPrefs";
-    public static final String KEY_CACHE_LIMIT = "cache_limit";
-    private static final int DEFAULT_CACHE_LIMIT = 50;
+    public static final String KEY_CACHE_LIMIT_MB = "cache_limit_mb";
+    public static final int DEFAULT_CACHE_LIMIT_MB = 50;
+    public static final String KEY_CONNECT_TIMEOUT_MS = "connect_timeout_ms";
+    public static final String KEY_READ_TIMEOUT_MS = "read_timeout_ms";
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+    // 最近一次使用的音频主机，下次启动时预热到它的连接
+    public static final String KEY_LAST_AUDIO_ORIGIN = "last_audio_origin";
+    // 最近一次 MP3 解码的采样率和声道数（"采样率/声道数"），服务启动时按它预先建好解码器
+    public static final String KEY_LAST_DECODER_FORMAT = "last_decoder_format";
+    public static final String KEY_METRICS_CSV = "metrics_csv";
+    public static final String KEY_PACK_CACHE = "pack_cache";
+    // 去掉片段前后的静音后，句子之间统一插入的间隔
+    public static final String KEY_SEGMENT_GAP_MS = "segment_gap_ms";
+    // 网络和缓存条件允许时改用 WAV，跳过 MP3 解码
+    public static final String KEY_AUTO_WAV = "auto_wav";
+    public static final boolean DEFAULT_AUTO_WAV = true;
+    // 记录常用短句，充电、空闲且连着不计流量的网络时提前下载到缓存
+    public static final String KEY_CACHE_WARMUP = "cache_warmup";
+    public static final boolean DEFAULT_CACHE_WARMUP = true;
+    // 按前后句规律在空闲时提前合成下一句
+    public static final String KEY_SPECULATIVE_PREFETCH = "speculative_prefetch";
+    public static final boolean DEFAULT_SPECULATIVE_PREFETCH = true;
+    // 最近一次预热的结果，进程重启后 dumpsys 仍能看到
+    public static final String KEY_LAST_WARMUP = "last_warmup";
+    public static final int DEFAULT_SEGMENT_GAP_MS = 200;
+    private static final int MAX_SEGMENT_GAP_MS = 2000;
+    private static final long STATS_REFRESH_MS = 1000;
 
     private SharedPreferences prefs;
     private EditText cacheLimitInput;
+    private EditText connectTimeoutInput;
+    private EditText readTimeoutInput;
+    private EditText segmentGapInput;
+    private TextView cacheStatsView;
+    private TextView metricsView;
+    // 缓存统计在 I/O 线程上读取，上一次还没返回时不再排新的
+    private final AtomicBoolean cacheStatsPending = new AtomicBoolean();
+    private final Runnable statsRefresher = new Runnable() {
+        @Override
+        public void run() {
+            refreshCacheStats();
+            updateMetrics();
+            cacheStatsView.postDelayed(this, STATS_REFRESH_MS);
+        }
+    };
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -45,7 +91,7 @@ public class EngineSettings extends Activity {
         
         // --- 缓存设置 ---
         TextView cacheLabel = new TextView(this);
-        cacheLabel.setText("缓存数量上限 (建议10-200):");
+        cacheLabel.setText("缓存容量上限 (MB，建议10-200):");
         cacheLabel.setTextSize(14);
         cacheLabel.setPadding(0, 50, 0, 10);
         mainLayout.addView(cacheLabel);
@@ -53,7 +99,7 @@ public class EngineSettings extends Activity {
         cacheLimitInput = new EditText(this);
         cacheLimitInput.setInputType(InputType.TYPE_CLASS_NUMBER);
         cacheLimitInput.setSingleLine(true);
-        int currentLimit = prefs.getInt(KEY_CACHE_LIMIT, DEFAULT_CACHE_LIMIT);
+        int currentLimit = prefs.getInt(KEY_CACHE_LIMIT_MB, DEFAULT_CACHE_LIMIT_MB);
         cacheLimitInput.setText(String.valueOf(currentLimit));
         mainLayout.addView(cacheLimitInput);
 
@@ -67,6 +113,131 @@ public class EngineSettings extends Activity {
         });
         mainLayout.addView(saveBtn);
 
+        cacheStatsView = new TextView(this);
+        cacheStatsView.setTextSize(14);
+        cacheStatsView.setPadding(0, 30, 0, 0);
+        cacheStatsView.setText("正在读取缓存统计...");
+        mainLayout.addView(cacheStatsView);
+
+        CheckBox packCheckBox = new CheckBox(this);
+        packCheckBox.setText("使用打包缓存（多段音频合并存储，切换时清空现有缓存）");
+        packCheckBox.setChecked(prefs.getBoolean(KEY_PACK_CACHE, false));
+        packCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                ((MiloraApp) getApplication()).setPackCacheEnabled(isChecked);
+            }
+        });
+        mainLayout.addView(packCheckBox);
+
+        CheckBox warmupCheckBox = new CheckBox(this);
+        warmupCheckBox.setText("记录常用短句，充电且空闲时提前下载到缓存（只记录重复出现的短句）");
+        warmupCheckBox.setChecked(prefs.getBoolean(KEY_CACHE_WARMUP, DEFAULT_CACHE_WARMUP));
+        warmupCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                ((MiloraApp) getApplication()).setCacheWarmupEnabled(isChecked);
+            }
+        });
+        mainLayout.addView(warmupCheckBox);
+
+        CheckBox speculativeCheckBox = new CheckBox(this);
+        speculativeCheckBox.setText("按朗读顺序提前合成可能的下一句（每分钟最多 512 KB 流量）");
+        speculativeCheckBox.setChecked(prefs.getBoolean(KEY_SPECULATIVE_PREFETCH, DEFAULT_SPECULATIVE_PREFETCH));
+        speculativeCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                ((MiloraApp) getApplication()).setSpeculativePrefetchEnabled(isChecked);
+            }
+        });
+        mainLayout.addView(speculativeCheckBox);
+
+        // --- 网络设置 ---
+        TextView timeoutLabel = new TextView(this);
+        timeoutLabel.setText("连接超时 / 读取超时 (毫秒):");
+        timeoutLabel.setTextSize(14);
+        timeoutLabel.setPadding(0, 50, 0, 10);
+        mainLayout.addView(timeoutLabel);
+
+        LinearLayout timeoutRow = new LinearLayout(this);
+        timeoutRow.setOrientation(LinearLayout.HORIZONTAL);
+        connectTimeoutInput = createTimeoutInput(prefs.getInt(KEY_CONNECT_TIMEOUT_MS, DEFAULT_CONNECT_TIMEOUT_MS));
+        readTimeoutInput = createTimeoutInput(prefs.getInt(KEY_READ_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS));
+        timeoutRow.addView(connectTimeoutInput);
+        timeoutRow.addView(readTimeoutInput);
+        mainLayout.addView(timeoutRow);
+
+        Button saveTimeoutBtn = new Button(this);
+        saveTimeoutBtn.setText("保存网络设置");
+        saveTimeoutBtn.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                saveTimeouts();
+            }
+        });
+        mainLayout.addView(saveTimeoutBtn);
+
+        CheckBox wavCheckBox = new CheckBox(this);
+        wavCheckBox.setText("网络快且不计流量时下载 WAV（不经解码，流量和缓存占用约为 MP3 的 8 倍）");
+        wavCheckBox.setChecked(prefs.getBoolean(KEY_AUTO_WAV, DEFAULT_AUTO_WAV));
+        wavCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                prefs.edit().putBoolean(KEY_AUTO_WAV, isChecked).apply();
+            }
+        });
+        mainLayout.addView(wavCheckBox);
+
+        // --- 播放设置 ---
+        TextView gapLabel = new TextView(this);
+        gapLabel.setText("句子之间的停顿 (毫秒，0-" + MAX_SEGMENT_GAP_MS + "):");
+        gapLabel.setTextSize(14);
+        gapLabel.setPadding(0, 50, 0, 10);
+        mainLayout.addView(gapLabel);
+
+        segmentGapInput = new EditText(this);
+        segmentGapInput.setInputType(InputType.TYPE_CLASS_NUMBER);
+        segmentGapInput.setSingleLine(true);
+        segmentGapInput.setText(String.valueOf(prefs.getInt(KEY_SEGMENT_GAP_MS, DEFAULT_SEGMENT_GAP_MS)));
+        mainLayout.addView(segmentGapInput);
+
+        Button saveGapBtn = new Button(this);
+        saveGapBtn.setText("保存播放设置");
+        saveGapBtn.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                saveSegmentGap();
+            }
+        });
+        mainLayout.addView(saveGapBtn);
+
+        // --- 性能统计 ---
+        TextView metricsLabel = new TextView(this);
+        metricsLabel.setText("性能统计:");
+        metricsLabel.setTextSize(14);
+        metricsLabel.setPadding(0, 50, 0, 10);
+        mainLayout.addView(metricsLabel);
+
+        metricsView = new TextView(this);
+        metricsView.setTextSize(12);
+        mainLayout.addView(metricsView);
+
+        final MetricsCsvExporter exporter = ((MiloraApp) getApplication()).getMetricsExporter();
+        CheckBox csvCheckBox = new CheckBox(this);
+        csvCheckBox.setText("每分钟导出统计到 " + exporter.getFile().getName());
+        csvCheckBox.setChecked(exporter.isEnabled());
+        csvCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                prefs.edit().putBoolean(KEY_METRICS_CSV, isChecked).apply();
+                exporter.setEnabled(isChecked);
+                if (isChecked) {
+                    Toast.makeText(EngineSettings.this, "统计将写入 " + exporter.getFile(), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+        mainLayout.addView(csvCheckBox);
+
         // --- 其他按钮 ---
         Button clearCacheBtn = new Button(this);
         clearCacheBtn.setText("删除所有缓存文件");
@@ -83,19 +254,102 @@ public class EngineSettings extends Activity {
             }
         });
         mainLayout.addView(clearCacheBtn);
-        
-        setContentView(mainLayout);
+
+        // 设置项和统计超出一屏，放进可滚动的容器
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(mainLayout);
+        setContentView(scrollView);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        statsRefresher.run();
+    }
+
+    @Override
+    protected void onPause() {
+        cacheStatsView.removeCallbacks(statsRefresher);
+        super.onPause();
+    }
+
+    /**
+     * 第一次访问磁盘缓存时要载入索引，缓存的方法也可能在等合成线程释放锁，
+     * 所以统计在 I/O 线程上读取，拼好文本后再回到界面线程显示。
+     */
+    private void refreshCacheStats() {
+        if (!cacheStatsPending.compareAndSet(false, true)) {
+            return;
+        }
+        final MiloraApp app = (MiloraApp) getApplication();
+        app.getIoExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final String stats;
+                try {
+                    stats = describeCaches(app);
+                } finally {
+                    cacheStatsPending.set(false);
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            cacheStatsView.setText(stats);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // 会做磁盘读写，不要在界面线程调用
+    private static String describeCaches(MiloraApp app) {
+        PcmMemoryCache memoryCache = app.getPcmMemoryCache();
+        long memoryHits = memoryCache.hitCount();
+        long memoryLookups = memoryHits + memoryCache.missCount();
+        String memoryStats = String.format(Locale.US,
+                "内存缓存 %d KB / %d KB，共 %d 段，命中 %d/%d (%.0f%%)",
+                memoryCache.size() / 1024, memoryCache.getMaxBytes() / 1024, memoryCache.entryCount(),
+                memoryHits, memoryLookups, memoryLookups == 0 ? 0.0 : memoryHits * 100.0 / memoryLookups);
+
+        AudioStore cache = app.getAudioCache();
+        if (cache == null) {
+            return "磁盘缓存不可用\n" + memoryStats;
+        }
+        long hits = cache.hitCount();
+        long lookups = hits + cache.missCount();
+        return String.format(Locale.US,
+                "已用 %.1f MB / %d MB，共 %d 条\n本次运行命中 %d/%d (%.0f%%)，淘汰 %d 个\n%s",
+                cache.size() / (1024.0 * 1024.0), cache.getMaxBytes() / (1024 * 1024),
+                cache.entryCount(), hits, lookups, lookups == 0 ? 0.0 : hits * 100.0 / lookups,
+                cache.evictionCount(), memoryStats);
+    }
+
+    private void updateMetrics() {
+        metricsView.setText(((MiloraApp) getApplication()).getMetrics().summary());
     }
 
     private void saveCacheLimit() {
         String valueStr = cacheLimitInput.getText().toString();
         try {
-            int newLimit = Integer.parseInt(valueStr);
+            final int newLimit = Integer.parseInt(valueStr);
             if (newLimit >= 0) {
                 SharedPreferences.Editor editor = prefs.edit();
-                editor.putInt(KEY_CACHE_LIMIT, newLimit);
+                editor.putInt(KEY_CACHE_LIMIT_MB, newLimit);
                 editor.apply();
-                Toast.makeText(this, "保存成功！缓存上限为 " + newLimit, Toast.LENGTH_SHORT).show();
+                // 缓存可能还没载入，载入和调整上限都放到 I/O 线程上
+                final MiloraApp app = (MiloraApp) getApplication();
+                app.getIoExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        AudioStore cache = app.getAudioCache();
+                        if (cache != null) {
+                            cache.setMaxBytes(newLimit * 1024L * 1024L);
+                        }
+                    }
+                });
+                Toast.makeText(this, "保存成功！缓存上限为 " + newLimit + " MB", Toast.LENGTH_SHORT).show();
             } else {
                 Toast.makeText(this, "请输入一个非负数", Toast.LENGTH_SHORT).show();
             }
@@ -104,47 +358,72 @@ public class EngineSettings extends Activity {
         }
     }
     
-    private void clearCache() {
-        new AsyncTask<Void, Void, Integer>() {
-            @Override
-            protected void onPreExecute() {
-                Toast.makeText(EngineSettings.this, "正在清理缓存...", Toast.LENGTH_SHORT).show();
+    private EditText createTimeoutInput(int value) {
+        EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_NUMBER);
+        input.setSingleLine(true);
+        input.setText(String.valueOf(value));
+        input.setLayoutParams(new LinearLayout.LayoutParams(0, LinearLayout.LayoutParams.WRAP_CONTENT, 1));
+        return input;
+    }
+
+    private void saveTimeouts() {
+        try {
+            int connectTimeout = Integer.parseInt(connectTimeoutInput.getText().toString());
+            int readTimeout = Integer.parseInt(readTimeoutInput.getText().toString());
+            if (connectTimeout < 500 || readTimeout < 500) {
+                Toast.makeText(this, "超时不能小于 500 毫秒", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            prefs.edit()
+                    .putInt(KEY_CONNECT_TIMEOUT_MS, connectTimeout)
+                    .putInt(KEY_READ_TIMEOUT_MS, readTimeout)
+                    .apply();
+            ((MiloraApp) getApplication()).getHttpClient().setTimeouts(connectTimeout, readTimeout);
+            Toast.makeText(this, "保存成功！", Toast.LENGTH_SHORT).show();
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "请输入有效的数字", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void saveSegmentGap() {
+        try {
+            int gapMs = Integer.parseInt(segmentGapInput.getText().toString());
+            if (gapMs < 0 || gapMs > MAX_SEGMENT_GAP_MS) {
+                Toast.makeText(this, "停顿需在 0-" + MAX_SEGMENT_GAP_MS + " 毫秒之间", Toast.LENGTH_SHORT).show();
+                return;
             }
+            // 合成时每次从设置读取，下一次朗读生效
+            prefs.edit().putInt(KEY_SEGMENT_GAP_MS, gapMs).apply();
+            Toast.makeText(this, "保存成功！", Toast.LENGTH_SHORT).show();
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "请输入有效的数字", Toast.LENGTH_SHORT).show();
+        }
+    }
 
+    private void clearCache() {
+        Toast.makeText(this, "正在清理缓存...", Toast.LENGTH_SHORT).show();
+        final MiloraApp app = (MiloraApp) getApplication();
+        app.getIoExecutor().execute(new Runnable() {
             @Override
-            protected Integer doInBackground(Void... voids) {
-                File cacheDir = getCacheDir();
-                if (cacheDir == null || !cacheDir.isDirectory()) {
-                    return 0;
-                }
-                
-                File[] files = cacheDir.listFiles(new FilenameFilter() {
+            public void run() {
+                app.getPcmMemoryCache().clear();
+                AudioStore cache = app.getAudioCache();
+                final int deletedCount = cache == null ? 0 : cache.clear();
+                runOnUiThread(new Runnable() {
                     @Override
-                    public boolean accept(File dir, String name) {
-                        return name.toLowerCase().endsWith(".mp3");
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        refreshCacheStats();
+                        Toast.makeText(EngineSettings.this,
+                            "清理完成！已删除 " + deletedCount + " 条缓存。",
+                            Toast.LENGTH_LONG).show();
                     }
                 });
-
-                if (files == null) {
-                    return 0;
-                }
-
-                int deletedCount = 0;
-                for (File file : files) {
-                    if (file.delete()) {
-                        deletedCount++;
-                    }
-                }
-                return deletedCount;
             }
-
-            @Override
-            protected void onPostExecute(Integer deletedCount) {
-                Toast.makeText(EngineSettings.this, 
-                    "清理完成！已删除 " + deletedCount + " 个缓存文件。", 
-                    Toast.LENGTH_LONG).show();
-            }
-        }.execute();
+        });
     }
 
     // 移除了 testTts 和 showAbout 方法，因为它们在这个文件中不存在
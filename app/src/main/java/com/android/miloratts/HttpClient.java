@@ -0,0 +1,195 @@
+package com.android.miloratts;
+
+import android.util.Log;
+
+import com.android.miloratts.core.CancellableInputStream;
+import com.android.miloratts.core.CancellationToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * 引擎访问合成 API 和音频地址的 HTTP 客户端。
+ * 平台的 HttpURLConnection 自带按主机复用的 keep-alive 连接池，但只有响应体被完整读完并 close、
+ * 且没有调用 disconnect() 时连接才会回到池中。这里统一处理这些细节，并提供超时配置和预热。
+ * 连接池的大小是进程级的系统属性，由 {@link MiloraApp#onCreate} 在打开任何连接之前设置。
+ */
+final class HttpClient {
+    private static final String TAG = "MiloraTTS";
+
+    private volatile int connectTimeoutMs;
+    private volatile int readTimeoutMs;
+
+    HttpClient(int connectTimeoutMs, int readTimeoutMs) {
+        setTimeouts(connectTimeoutMs, readTimeoutMs);
+    }
+
+    void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    /**
+     * 打开一个 GET 连接，readTimeoutMs 覆盖默认的读取超时。
+     * 调用方读完后用 {@link #release} 归还，出错时用 {@link #abort} 断开。
+     */
+    HttpURLConnection open(String urlStr, int readTimeoutMs) throws IOException {
+        HttpURLConnection conn = open(urlStr, "GET");
+        conn.setReadTimeout(readTimeoutMs);
+        return conn;
+    }
+
+    /**
+     * 边接收边解析响应体，非 200 时抛出 {@link HttpStatusException}。
+     * 解析器没读完的部分会被读空，无论成功与否连接都会被归还或断开。
+     */
+    <T> T get(String urlStr, int readTimeoutMs, CancellationToken token, BodyParser<T> parser) throws IOException {
+        HttpURLConnection conn = open(urlStr, readTimeoutMs);
+        Runnable abort = abortOnCancel(conn);
+        token.addListener(abort);
+        boolean reusable = false;
+        try {
+            int code = conn.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                reusable = drain(conn.getErrorStream());
+                throw new HttpStatusException(code);
+            }
+            InputStream input = new CancellableInputStream(conn.getInputStream(), token);
+            T result = parser.parse(input);
+            reusable = drain(input);
+            return result;
+        } finally {
+            token.removeListener(abort);
+            if (!reusable) {
+                abort(conn);
+            }
+        }
+    }
+
+    /**
+     * 读完剩余的响应体并关闭，让底层连接回到 keep-alive 池中。
+     * 响应体太长或读取失败时直接断开。
+     */
+    static void release(HttpURLConnection conn) {
+        boolean drained;
+        try {
+            drained = drain(conn.getInputStream());
+        } catch (IOException e) {
+            drained = false;
+        }
+        if (!drained) {
+            abort(conn);
+        }
+    }
+
+    /**
+     * 断开连接，底层 socket 不再复用。用于出错、取消等响应体状态未知的情况。
+     */
+    static void abort(HttpURLConnection conn) {
+        try {
+            conn.disconnect();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "断开连接失败", e);
+        }
+    }
+
+    static Runnable abortOnCancel(final HttpURLConnection conn) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                abort(conn);
+            }
+        };
+    }
+
+    /**
+     * 预先完成 DNS、TCP 和 TLS 握手，把连接留在池中。阻塞执行，应当在后台线程调用。
+     */
+    void prewarm(String urlStr) {
+        long startTime = System.currentTimeMillis();
+        HttpURLConnection conn = null;
+        try {
+            conn = open(urlStr, "HEAD");
+            int code = conn.getResponseCode();
+            InputStream body = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            if (!drain(body)) {
+                abort(conn);
+            }
+            Log.d(TAG, "连接预热完成: " + new URL(urlStr).getHost() + " (" + code + ")，耗时 "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+        } catch (IOException e) {
+            if (conn != null) {
+                abort(conn);
+            }
+            Log.w(TAG, "连接预热失败: " + urlStr + " - " + e.getMessage());
+        }
+    }
+
+    private HttpURLConnection open(String urlStr, String method) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(urlStr).openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(connectTimeoutMs);
+        conn.setReadTimeout(readTimeoutMs);
+        conn.setRequestProperty("Connection", "keep-alive");
+        conn.setUseCaches(false);
+        return conn;
+    }
+
+    /**
+     * 从响应体流中解析出结果。流由 {@link #get} 负责关闭，解析器不必读到末尾。
+     */
+    interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
+    }
+
+    /**
+     * 服务器返回了非 200 的响应。5xx、408 和 429 被视为暂时性错误，可以重试。
+     */
+    static final class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int code;
+
+        HttpStatusException(int code) {
+            super("HTTP 响应码: " + code);
+            this.code = code;
+        }
+
+        int getCode() {
+            return code;
+        }
+
+        boolean isRetryable() {
+            return code >= 500 || code == 408 || code == 429;
+        }
+    }
+
+    // 读空并关闭响应体；只读很小的一段，超过时放弃复用以免白白下载
+    private static boolean drain(InputStream input) {
+        if (input == null) {
+            return true;
+        }
+        try {
+            byte[] buffer = new byte[1024];
+            int remaining = 64 * 1024;
+            int read;
+            while (remaining > 0 && (read = input.read(buffer)) != -1) {
+                remaining -= read;
+            }
+            input.close();
+            return remaining > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.android.miloratts;
+
+import android.util.Log;
+
+import com.android.miloratts.core.EngineMetrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定期把 {@link EngineMetrics} 的快照追加到 CSV 文件，超过大小上限时滚动为 .1 备份，只保留一份。
+ */
+final class MetricsCsvExporter {
+    private static final String TAG = "MiloraTTS";
+    static final String FILE_NAME = "metrics.csv";
+    private static final long MAX_FILE_BYTES = 256 * 1024;
+    private static final long INTERVAL_SECONDS = 60;
+
+    private final EngineMetrics metrics;
+    private final File file;
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> task;
+
+    MetricsCsvExporter(EngineMetrics metrics, File directory, ScheduledExecutorService scheduler) {
+        this.metrics = metrics;
+        this.file = new File(directory, FILE_NAME);
+        this.scheduler = scheduler;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    synchronized void setEnabled(boolean enabled) {
+        if (enabled && task == null) {
+            task = scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    appendSnapshot();
+                }
+            }, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+            Log.i(TAG, "统计 CSV 导出已开启: " + file);
+        } else if (!enabled && task != null) {
+            task.cancel(false);
+            task = null;
+            Log.i(TAG, "统计 CSV 导出已关闭");
+        }
+    }
+
+    synchronized boolean isEnabled() {
+        return task != null;
+    }
+
+    private void appendSnapshot() {
+        if (file.length() > MAX_FILE_BYTES) {
+            File backup = new File(file.getPath() + ".1");
+            backup.delete();
+            file.renameTo(backup);
+        }
+        boolean newFile = !file.exists();
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+            if (newFile) {
+                writer.write(EngineMetrics.CSV_HEADER);
+                writer.write('\n');
+            }
+            writer.write(metrics.csvRow(System.currentTimeMillis()));
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.w(TAG, "写入统计 CSV 失败", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
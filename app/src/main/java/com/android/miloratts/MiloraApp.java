@@ -1,14 +1,346 @@
 package com.android.miloratts;
 
 import android.app.Application;
+import android.content.SharedPreferences;
 import android.util.Log;
 
+import com.android.miloratts.core.AudioCache;
+import com.android.miloratts.core.AudioStore;
+import com.android.miloratts.core.EngineMetrics;
+import com.android.miloratts.core.FairExecutor;
+import com.android.miloratts.core.NamedThreadFactory;
+import com.android.miloratts.core.NextUtterancePredictor;
+import com.android.miloratts.core.PackAudioCache;
+import com.android.miloratts.core.PcmMemoryCache;
+import com.android.miloratts.core.PhraseFrequencyLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class MiloraApp extends Application {
     private static final String TAG = "MiloraApp";
+    private static final long PCM_MEMORY_CACHE_BYTES = 4L * 1024 * 1024;
+    private static final int PCM_MEMORY_CACHE_MAX_ENTRY_BYTES = 256 * 1024;
+    // 预取、缓存维护和设置界面的清理共用的 I/O 线程数
+    private static final int IO_THREADS = 3;
+    // 每个主机保留的空闲连接数，API 和音频地址各需要前台合成加预取的并发量
+    private static final int MAX_IDLE_CONNECTIONS_PER_HOST = 4;
+    // 打包缓存放在缓存目录下的子目录里，与逐文件缓存互不干扰
+    private static final String PACK_CACHE_DIR = "audio_pack";
+    // 短句记录放在不参与备份的目录里，不会随备份离开设备
+    private static final String PHRASE_LOG_FILE = "phrase_log";
+    private static final int PHRASE_LOG_ENTRIES = 256;
+    private static final String PREDICTOR_FILE = "utterance_model";
+    private static final int PREDICTOR_CAPACITY = 2048;
+    // 合成后延迟一段时间再写文件，连续朗读时合并成一次写入
+    private static final long HISTORY_SAVE_DELAY_MS = 60000;
+
+    private final PcmMemoryCache pcmMemoryCache =
+            new PcmMemoryCache(PCM_MEMORY_CACHE_BYTES, PCM_MEMORY_CACHE_MAX_ENTRY_BYTES);
+    private ThreadPoolExecutor ioExecutor;
+    private FairExecutor fairExecutor;
+    private ScheduledExecutorService scheduler;
+    private final EngineMetrics metrics = new EngineMetrics();
+    private final ResourceGovernor resourceGovernor = new ResourceGovernor(metrics);
+    private MetricsCsvExporter metricsExporter;
+    private HttpClient httpClient;
+    private ResilientHttp resilientHttp;
+    private AudioStore audioCache;
+    private boolean audioCacheUnavailable;
+    private PhraseFrequencyLog phraseLog;
+    private NextUtterancePredictor utterancePredictor;
+    private final AtomicBoolean historySavePending = new AtomicBoolean();
+    private final AtomicBoolean serviceCreated = new AtomicBoolean();
     
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d(TAG, "Milora TTS 应用启动");
+        // HttpURLConnection 的 keep-alive 池是整个进程共用的，只在第一次打开连接时读取这两个属性，
+        // 所以必须在任何网络请求之前设置；进程里的其他 HTTP 调用也会受影响
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS_PER_HOST));
+        ioExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("MiloraIO", Thread.NORM_PRIORITY));
+        ioExecutor.allowCoreThreadTimeOut(true);
+        fairExecutor = new FairExecutor(ioExecutor, IO_THREADS);
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("MiloraTimer", Thread.MIN_PRIORITY));
+        SharedPreferences prefs = getSharedPreferences(EngineSettings.PREFS_NAME, MODE_PRIVATE);
+        httpClient = new HttpClient(
+                prefs.getInt(EngineSettings.KEY_CONNECT_TIMEOUT_MS, EngineSettings.DEFAULT_CONNECT_TIMEOUT_MS),
+                prefs.getInt(EngineSettings.KEY_READ_TIMEOUT_MS, EngineSettings.DEFAULT_READ_TIMEOUT_MS));
+        resilientHttp = new ResilientHttp(httpClient, metrics, scheduler);
+        // 优先写到应用外部目录，不需要 root 就能用 adb pull 取出
+        File metricsDir = getExternalFilesDir(null);
+        metricsExporter = new MetricsCsvExporter(metrics, metricsDir != null ? metricsDir : getFilesDir(), scheduler);
+        metricsExporter.setEnabled(prefs.getBoolean(EngineSettings.KEY_METRICS_CSV, false));
+        // 内存压力升高时按比例缩小 PCM 缓存，最严重时清空；回落后恢复容量，缓存随后续合成重新填充
+        resourceGovernor.register("PCM 内存缓存", new ResourceGovernor.Holder() {
+            @Override
+            public long residentBytes() {
+                return pcmMemoryCache.size();
+            }
+
+            @Override
+            public String usage() {
+                return String.format(Locale.US, "%d 条，%d / %d KB", pcmMemoryCache.entryCount(),
+                        pcmMemoryCache.size() / 1024, pcmMemoryCache.getMaxBytes() / 1024);
+            }
+
+            @Override
+            public void onPressureChanged(int stage) {
+                pcmMemoryCache.setMaxBytes(PCM_MEMORY_CACHE_BYTES * (ResourceGovernor.CRITICAL - stage)
+                        / ResourceGovernor.CRITICAL);
+            }
+        });
+        // 开机广播之外，安装或更新后第一次启动时也要排上预热任务。
+        // 查询和安排任务都是跨进程调用，放到后台线程，不拖慢冷启动
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                CacheWarmupJob.schedule(MiloraApp.this);
+            }
+        });
+    }
+
+    // 只有模拟器上会调用；真机上进程直接被杀，后台线程都是守护线程，随进程结束
+    @Override
+    public void onTerminate() {
+        resilientHttp.shutdown();
+        scheduler.shutdownNow();
+        ioExecutor.shutdown();
+        super.onTerminate();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        resourceGovernor.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        resourceGovernor.onLowMemory();
+    }
+
+    /**
+     * TTS 服务创建时调用。返回 true 表示这是进程启动后第一次创建服务，即冷启动。
+     */
+    boolean onServiceCreated() {
+        return serviceCreated.compareAndSet(false, true);
+    }
+
+    boolean isServiceCreated() {
+        return serviceCreated.get();
+    }
+
+    public EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 按系统内存压力收缩缓存、解码器等资源的入口，TTS 服务在这里登记自己持有的资源。
+     */
+    ResourceGovernor getResourceGovernor() {
+        return resourceGovernor;
+    }
+
+    public MetricsCsvExporter getMetricsExporter() {
+        return metricsExporter;
+    }
+
+    /**
+     * TTS 服务和设置界面共用的 HTTP 客户端，设置界面修改超时后立即生效。
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * 带重试、对冲和熔断的网络访问入口。熔断状态在整个进程内共享。
+     */
+    public ResilientHttp getResilientHttp() {
+        return resilientHttp;
+    }
+
+    /**
+     * 进程内共用的 I/O 线程池，用于预取片段、缓存淘汰和清理等阻塞操作。
+     * 合成本身运行在框架的合成线程上，不占用这里的线程。
+     */
+    public ThreadPoolExecutor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * 在 I/O 线程池上按调用方和优先级轮流调度的入口，合成相关的预取和地址解析都从这里提交，
+     * 一个调用方排进的大量任务不会挡住其他调用方。
+     */
+    public FairExecutor getFairExecutor() {
+        return fairExecutor;
+    }
+
+    /**
+     * 进程内共用的定时器线程，只用来执行很短的延迟任务（例如释放闲置解码器）。
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public PcmMemoryCache getPcmMemoryCache() {
+        return pcmMemoryCache;
+    }
+
+    /**
+     * TTS 服务和设置界面共用的音频缓存，首次调用时载入索引；缓存目录不可用时返回 null。
+     */
+    public synchronized AudioStore getAudioCache() {
+        if (audioCache == null && !audioCacheUnavailable) {
+            File cacheDir = getCacheDir();
+            if (cacheDir == null) {
+                Log.e(TAG, "无法获取缓存目录");
+                audioCacheUnavailable = true;
+                return null;
+            }
+            SharedPreferences prefs = getSharedPreferences(EngineSettings.PREFS_NAME, MODE_PRIVATE);
+            int limitMb = prefs.getInt(EngineSettings.KEY_CACHE_LIMIT_MB, EngineSettings.DEFAULT_CACHE_LIMIT_MB);
+            boolean packed = prefs.getBoolean(EngineSettings.KEY_PACK_CACHE, false);
+            try {
+                audioCache = packed
+                        ? PackAudioCache.open(new File(cacheDir, PACK_CACHE_DIR), limitMb * 1024L * 1024L, ioExecutor)
+                        : AudioCache.open(cacheDir, limitMb * 1024L * 1024L, ioExecutor);
+                Log.i(TAG, (packed ? "打包" : "逐文件") + "音频缓存索引已载入: " + audioCache.entryCount() + " 条, "
+                        + audioCache.size() / 1024 + " KB");
+            } catch (IOException e) {
+                Log.e(TAG, "打开音频缓存失败", e);
+                audioCacheUnavailable = true;
+            }
+        }
+        return audioCache;
+    }
+
+    /**
+     * 合成过的短句的出现次数，首次调用时从文件载入。
+     */
+    public synchronized PhraseFrequencyLog getPhraseLog() {
+        if (phraseLog == null) {
+            phraseLog = PhraseFrequencyLog.load(new File(getNoBackupFilesDir(), PHRASE_LOG_FILE), PHRASE_LOG_ENTRIES);
+        }
+        return phraseLog;
+    }
+
+    /**
+     * 前后句预测模型，首次调用时从文件载入。
+     */
+    public synchronized NextUtterancePredictor getUtterancePredictor() {
+        if (utterancePredictor == null) {
+            utterancePredictor = NextUtterancePredictor.load(new File(getNoBackupFilesDir(), PREDICTOR_FILE),
+                    PREDICTOR_CAPACITY);
+        }
+        return utterancePredictor;
+    }
+
+    /**
+     * 稍后在 I/O 线程上保存短句记录和预测模型，已经排上的保存不会重复排。
+     */
+    public void scheduleHistorySave() {
+        if (!historySavePending.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ioExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        saveHistory();
+                    }
+                });
+            }
+        }, HISTORY_SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 立即保存短句记录和预测模型，会做文件读写，不要在主线程调用。
+     */
+    public void saveHistory() {
+        historySavePending.set(false);
+        try {
+            getPhraseLog().saveIfDirty(new File(getNoBackupFilesDir(), PHRASE_LOG_FILE));
+        } catch (IOException e) {
+            Log.w(TAG, "保存短句记录失败: " + e.getMessage());
+        }
+        try {
+            getUtterancePredictor().saveIfDirty(new File(getNoBackupFilesDir(), PREDICTOR_FILE));
+        } catch (IOException e) {
+            Log.w(TAG, "保存预测模型失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 开关缓存预热。关闭时清空短句记录并取消预热任务。
+     */
+    public void setCacheWarmupEnabled(boolean enabled) {
+        getSharedPreferences(EngineSettings.PREFS_NAME, MODE_PRIVATE).edit()
+                .putBoolean(EngineSettings.KEY_CACHE_WARMUP, enabled).apply();
+        CacheWarmupJob.schedule(this);
+        if (!enabled) {
+            ioExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    getPhraseLog().clear();
+                    saveHistory();
+                }
+            });
+        }
+    }
+
+    /**
+     * 开关按预测提前合成。关闭时清空预测模型。
+     */
+    public void setSpeculativePrefetchEnabled(boolean enabled) {
+        getSharedPreferences(EngineSettings.PREFS_NAME, MODE_PRIVATE).edit()
+                .putBoolean(EngineSettings.KEY_SPECULATIVE_PREFETCH, enabled).apply();
+        if (!enabled) {
+            ioExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    getUtterancePredictor().clear();
+                    saveHistory();
+                }
+            });
+        }
+    }
+
+    /**
+     * 切换磁盘缓存的存储方式。旧缓存在后台清空，下次访问缓存时按新的方式打开。
+     */
+    public void setPackCacheEnabled(boolean enabled) {
+        getSharedPreferences(EngineSettings.PREFS_NAME, MODE_PRIVATE).edit()
+                .putBoolean(EngineSettings.KEY_PACK_CACHE, enabled).apply();
+        final AudioStore previous;
+        synchronized (this) {
+            previous = audioCache;
+            audioCache = null;
+            audioCacheUnavailable = false;
+        }
+        if (previous != null) {
+            ioExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // 先关闭再清空：还在下载的合成随后提交时会被拒绝，不会在清空之后写回旧缓存
+                    previous.close();
+                    Log.i(TAG, "已清空切换前的磁盘缓存: " + previous.clear() + " 条");
+                }
+            });
+        }
     }
-}
\ No newline at end of file
+}
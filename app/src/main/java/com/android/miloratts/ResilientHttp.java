@@ -0,0 +1,326 @@
+package com.android.miloratts;
+
+import android.util.Log;
+
+import com.android.miloratts.core.BackoffPolicy;
+import com.android.miloratts.core.CancellationToken;
+import com.android.miloratts.core.CircuitBreaker;
+import com.android.miloratts.core.EngineMetrics;
+import com.android.miloratts.core.LatencyEstimator;
+import com.android.miloratts.core.LatencyHistogram;
+import com.android.miloratts.core.NamedThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 在 {@link HttpClient} 之上加一层容错：按观测耗时自适应的超时、带抖动的指数退避、
+ * 慢请求的对冲重发，以及 API 持续失败时的熔断。每次调用（含重试）都有总时间预算，
+ * API 退化时一个片段不会再把引擎卡住几十秒。
+ */
+final class ResilientHttp {
+    private static final String TAG = "MiloraTTS";
+    private static final BackoffPolicy BACKOFF = new BackoffPolicy(3, 250, 4000);
+    private static final long CALL_BUDGET_MS = 20000;
+    private static final long MIN_TIMEOUT_MS = 2000;
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final int BREAKER_FAILURE_THRESHOLD = 5;
+    private static final long BREAKER_OPEN_MS = 15000;
+    private static final long BREAKER_MAX_OPEN_MS = 5 * 60 * 1000;
+
+    /**
+     * 端点处于熔断状态，请求没有发出。
+     */
+    static final class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 一个远端端点（API 或音频主机）的耗时统计和熔断状态。
+     */
+    static final class Endpoint {
+        final String name;
+        final LatencyEstimator latency = new LatencyEstimator();
+        final CircuitBreaker breaker =
+                new CircuitBreaker(BREAKER_FAILURE_THRESHOLD, BREAKER_OPEN_MS, BREAKER_MAX_OPEN_MS);
+        final LatencyHistogram histogram;
+
+        Endpoint(String name, LatencyHistogram histogram) {
+            this.name = name;
+            this.histogram = histogram;
+        }
+    }
+
+    private interface Attempt<T> {
+        T run(int timeoutMs, CancellationToken token) throws IOException;
+    }
+
+    private final HttpClient client;
+    private final EngineMetrics metrics;
+    private final ScheduledExecutorService timer;
+    // 对冲请求要立即发出，不能排在共用 I/O 线程池的预取任务后面，所以单独一个池；
+    // 守护线程，空闲 60 秒后退出，由 shutdown 在应用退出时停止
+    private final ExecutorService hedgeExecutor =
+            Executors.newCachedThreadPool(new NamedThreadFactory("MiloraHedge", Thread.NORM_PRIORITY));
+    private final Endpoint api;
+    private final Endpoint audio;
+    private volatile boolean hedgingEnabled = true;
+
+    /**
+     * timer 是共用的定时器，只用来在首字节超时时断开连接。
+     */
+    ResilientHttp(HttpClient client, EngineMetrics metrics, ScheduledExecutorService timer) {
+        this.client = client;
+        this.metrics = metrics;
+        this.timer = timer;
+        this.api = new Endpoint("API", metrics.apiLatency);
+        this.audio = new Endpoint("音频", metrics.audioConnectLatency);
+    }
+
+    Endpoint getApiEndpoint() {
+        return api;
+    }
+
+    Endpoint getAudioEndpoint() {
+        return audio;
+    }
+
+    void setHedgingEnabled(boolean enabled) {
+        hedgingEnabled = enabled;
+    }
+
+    /**
+     * 停止对冲线程，正在进行的对冲请求被断开。之后的 API 请求不再对冲，直接在调用线程发出。
+     */
+    void shutdown() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    /**
+     * API 或音频主机正在熔断，此时只应使用缓存。
+     */
+    boolean isCacheOnly() {
+        return api.breaker.getState() == CircuitBreaker.OPEN || audio.breaker.getState() == CircuitBreaker.OPEN;
+    }
+
+    /**
+     * 请求 API，响应体较小且请求幂等，慢的时候会对冲发出第二个请求，先返回的生效。
+     */
+    <T> T get(final String url, final HttpClient.BodyParser<T> parser, CancellationToken token) throws IOException {
+        return call(api, new Attempt<T>() {
+            @Override
+            public T run(int timeoutMs, CancellationToken attemptToken) throws IOException {
+                return hedgedGet(url, parser, timeoutMs, attemptToken);
+            }
+        }, token);
+    }
+
+    /**
+     * 建立音频下载连接，返回已确认 200 的连接。取消标记在连接建立之后不再关联，由调用方负责。
+     * <p>
+     * 自适应超时只约束到响应头到达为止，由定时器断开连接来实现；socket 的读取超时用设置里的读取超时，
+     * 响应体是边下边播的长音频，网络稍慢时读取间隔也可能超过首字节的超时，不能因此中断下载。
+     */
+    HttpURLConnection openStream(final String url, CancellationToken token) throws IOException {
+        return call(audio, new Attempt<HttpURLConnection>() {
+            @Override
+            public HttpURLConnection run(int timeoutMs, CancellationToken attemptToken) throws IOException {
+                final HttpURLConnection conn = client.open(url, Math.max(timeoutMs, client.getReadTimeoutMs()));
+                Runnable abort = HttpClient.abortOnCancel(conn);
+                attemptToken.addListener(abort);
+                final AtomicBoolean timedOut = new AtomicBoolean();
+                ScheduledFuture<?> watchdog = timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        timedOut.set(true);
+                        HttpClient.abort(conn);
+                    }
+                }, timeoutMs, TimeUnit.MILLISECONDS);
+                try {
+                    int code = conn.getResponseCode();
+                    watchdog.cancel(false);
+                    if (timedOut.get()) {
+                        // 响应头恰好在定时器断开连接的同时到达，连接已不可用
+                        throw new SocketTimeoutException("等待音频响应超过 " + timeoutMs + "ms");
+                    }
+                    if (code != HttpURLConnection.HTTP_OK) {
+                        HttpClient.abort(conn);
+                        throw new HttpClient.HttpStatusException(code);
+                    }
+                    return conn;
+                } catch (IOException | RuntimeException e) {
+                    watchdog.cancel(false);
+                    HttpClient.abort(conn);
+                    // 被定时器断开时各实现抛出的异常不同，统一成超时，按超时计入耗时估计并重试
+                    if (timedOut.get() && !(e instanceof SocketTimeoutException)) {
+                        SocketTimeoutException timeout =
+                                new SocketTimeoutException("等待音频响应超过 " + timeoutMs + "ms");
+                        timeout.initCause(e);
+                        throw timeout;
+                    }
+                    throw e;
+                } finally {
+                    attemptToken.removeListener(abort);
+                }
+            }
+        }, token);
+    }
+
+    private <T> T call(Endpoint endpoint, Attempt<T> attempt, CancellationToken token) throws IOException {
+        long deadline = System.currentTimeMillis() + CALL_BUDGET_MS;
+        IOException lastFailure = null;
+        for (int n = 1; n <= BACKOFF.getMaxAttempts(); n++) {
+            token.throwIfCancelled();
+            if (!endpoint.breaker.allowRequest()) {
+                throw new CircuitOpenException(endpoint.name + " 熔断中，" + endpoint.breaker.remainingOpenMs()
+                        + "ms 后重试");
+            }
+            // 超时按观测耗时估算，每次重试加倍（类似 TCP 的 RTO 退避），但不超过剩余预算
+            long estimated = endpoint.latency.timeoutMs(MIN_TIMEOUT_MS, client.getReadTimeoutMs());
+            long timeout = Math.min(Math.min(estimated << (n - 1), client.getReadTimeoutMs()),
+                    deadline - System.currentTimeMillis());
+            if (timeout < MIN_TIMEOUT_MS / 2) {
+                endpoint.breaker.recordIgnored();
+                break;
+            }
+
+            long startTime = System.currentTimeMillis();
+            try {
+                T result = attempt.run((int) timeout, token);
+                long latencyMs = System.currentTimeMillis() - startTime;
+                endpoint.latency.record(latencyMs);
+                endpoint.histogram.record(latencyMs);
+                endpoint.breaker.recordSuccess();
+                return result;
+            } catch (IOException e) {
+                if (token.isCancelled()) {
+                    endpoint.breaker.recordIgnored();
+                    throw e;
+                }
+                if (e instanceof SocketTimeoutException) {
+                    // 超时本身也是一个耗时样本，否则估计值偏小时会一直超时
+                    endpoint.latency.record(System.currentTimeMillis() - startTime);
+                }
+                boolean retryable = isRetryable(e);
+                if (retryable) {
+                    endpoint.breaker.recordFailure();
+                } else {
+                    // 4xx 说明服务本身是通的，只是这个请求不对
+                    endpoint.breaker.recordSuccess();
+                    throw e;
+                }
+                lastFailure = e;
+                Log.w(TAG, endpoint.name + " 请求尝试 " + n + "/" + BACKOFF.getMaxAttempts() + " 失败 (超时 " + timeout
+                        + "ms): " + e.getMessage());
+            }
+
+            long delay = BACKOFF.delayMs(n);
+            if (n == BACKOFF.getMaxAttempts() || System.currentTimeMillis() + delay >= deadline) {
+                break;
+            }
+            if (!token.sleep(delay)) {
+                throw new InterruptedIOException("合成已取消");
+            }
+            metrics.retries.incrementAndGet();
+        }
+        Log.e(TAG, endpoint.name + " 请求达到重试上限，放弃。", lastFailure);
+        throw lastFailure != null ? lastFailure : new SocketTimeoutException(endpoint.name + " 请求超出时间预算");
+    }
+
+    private <T> T hedgedGet(String url, HttpClient.BodyParser<T> parser, int timeoutMs, CancellationToken token)
+            throws IOException {
+        long hedgeDelay = hedgingEnabled ? api.latency.percentileMs(HEDGE_PERCENTILE) : -1;
+        if (hedgeDelay < 0 || hedgeDelay >= timeoutMs || hedgeExecutor.isShutdown()) {
+            return client.get(url, timeoutMs, token, parser);
+        }
+
+        final CancellationToken primaryToken = token.newChild();
+        final CancellationToken hedgeToken = token.newChild();
+        CompletionService<T> completion = new ExecutorCompletionService<>(hedgeExecutor);
+        try {
+            completion.submit(fetch(url, parser, timeoutMs, primaryToken));
+        } catch (RejectedExecutionException e) {
+            // 与 shutdown 同时发生
+            primaryToken.cancel();
+            hedgeToken.cancel();
+            return client.get(url, timeoutMs, token, parser);
+        }
+        int pending = 1;
+        try {
+            Future<T> done = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                try {
+                    completion.submit(fetch(url, parser, timeoutMs, hedgeToken));
+                    Log.d(TAG, "API 请求超过 p95 (" + hedgeDelay + "ms)，发出对冲请求");
+                    metrics.hedges.incrementAndGet();
+                    pending++;
+                } catch (RejectedExecutionException e) {
+                    Log.d(TAG, "对冲线程池已停止，只等待第一个请求");
+                }
+            }
+            while (true) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                pending--;
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    if (pending == 0) {
+                        throw asIOException(e.getCause());
+                    }
+                }
+                done = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待 API 响应时被中断");
+        } finally {
+            // 先返回的请求生效，另一个直接断开；取消后两个子标记也从调用方的标记上摘除
+            primaryToken.cancel();
+            hedgeToken.cancel();
+        }
+    }
+
+    private <T> Callable<T> fetch(final String url, final HttpClient.BodyParser<T> parser, final int timeoutMs,
+            final CancellationToken token) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws IOException {
+                return client.get(url, timeoutMs, token, parser);
+            }
+        };
+    }
+
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof HttpClient.HttpStatusException) {
+            return ((HttpClient.HttpStatusException) e).isRetryable();
+        }
+        return !(e instanceof CircuitOpenException);
+    }
+
+    private static IOException asIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        return new IOException("API 请求失败", cause);
+    }
+}
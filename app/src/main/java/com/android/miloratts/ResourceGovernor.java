@@ -0,0 +1,239 @@
+package com.android.miloratts;
+
+import android.content.ComponentCallbacks2;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.miloratts.core.EngineMetrics;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 按系统的内存压力收缩进程里可以重建的资源。应用把 onTrimMemory/onLowMemory 转给这里，
+ * 这里把级别归并成几个压力等级，通知登记过的持有方（内存缓存、解码器池、推测合成等）各自收缩。
+ * <p>
+ * 压力只在收到回调时升高，之后每过 {@link #RECOVERY_MS} 没有新的回调就降一级，持有方随之恢复容量；
+ * 系统不会在内存恢复时另行通知，只能这样逐步放开。TRIM_MEMORY_UI_HIDDEN 只表示界面不可见，
+ * 与本引擎的内存占用无关，不改变等级。
+ */
+final class ResourceGovernor {
+    private static final String TAG = "MiloraTTS";
+    static final int NORMAL = 0;
+    static final int MODERATE = 1;
+    static final int LOW = 2;
+    static final int CRITICAL = 3;
+    private static final String[] STAGE_NAMES = {"正常", "中等", "紧张", "严重"};
+    private static final long RECOVERY_MS = 60000;
+    // 预合成的片段在内存里最多保存多少 PCM，超过的改为朗读时从缓存流式解码
+    private static final long[] PREFETCH_BUFFER_BYTES = {1024 * 1024, 512 * 1024, 128 * 1024, 0};
+
+    /**
+     * 一类可以收缩的资源。onPressureChanged 在发出通知的线程上调用，不持有本类的锁。
+     */
+    interface Holder {
+        /**
+         * 当前大约占用的内存字节数，只用于报告。
+         */
+        long residentBytes();
+
+        /**
+         * 一行简短的占用说明，只用于报告。
+         */
+        String usage();
+
+        void onPressureChanged(int stage);
+    }
+
+    private final EngineMetrics metrics;
+    private final Map<String, Holder> holders = new LinkedHashMap<>();
+    private int stage = NORMAL;
+    private long stageSince = SystemClock.elapsedRealtime();
+    private int lastTrimLevel = -1;
+
+    ResourceGovernor(EngineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 登记持有方，并立即按当前等级通知一次；同名的持有方会被替换。
+     */
+    void register(String name, Holder holder) {
+        int current;
+        synchronized (this) {
+            holders.put(name, holder);
+            current = currentStageLocked();
+        }
+        holder.onPressureChanged(current);
+    }
+
+    synchronized void unregister(String name) {
+        holders.remove(name);
+    }
+
+    void onTrimMemory(int level) {
+        metrics.memoryTrims.incrementAndGet();
+        synchronized (this) {
+            lastTrimLevel = level;
+        }
+        raise(stageForLevel(level), "onTrimMemory(" + level + ")");
+    }
+
+    void onLowMemory() {
+        metrics.memoryTrims.incrementAndGet();
+        raise(CRITICAL, "onLowMemory");
+    }
+
+    /**
+     * 当前压力等级。距离上次升高已经足够久时在这里逐级回落，并通知持有方恢复。
+     */
+    int currentStage() {
+        List<Holder> toNotify;
+        int current;
+        synchronized (this) {
+            int before = stage;
+            current = currentStageLocked();
+            if (current == before) {
+                return current;
+            }
+            toNotify = new ArrayList<>(holders.values());
+        }
+        Log.i(TAG, "内存压力回落到" + STAGE_NAMES[current]);
+        notifyHolders(toNotify, current);
+        return current;
+    }
+
+    /**
+     * 预合成的片段在内存中最多保存的字节数。
+     */
+    long prefetchBufferBytes() {
+        return PREFETCH_BUFFER_BYTES[currentStage()];
+    }
+
+    void dump(PrintWriter writer) {
+        int current = currentStage();
+        List<Map.Entry<String, Holder>> entries;
+        int level;
+        synchronized (this) {
+            entries = new ArrayList<>(holders.entrySet());
+            level = lastTrimLevel;
+        }
+        writer.println(String.format(Locale.US, "  内存压力: %s，最近一次回调级别 %s，预合成缓冲上限 %d KB",
+                STAGE_NAMES[current], level < 0 ? "无" : String.valueOf(level), prefetchBufferBytes() / 1024));
+        for (Map.Entry<String, Holder> entry : entries) {
+            writer.println("    " + entry.getKey() + ": " + entry.getValue().usage());
+        }
+    }
+
+    /**
+     * 依次模拟系统发出的各级内存回调，每一步前后记录 Java 堆、native 堆、PSS 和各持有方的占用，
+     * 最后恢复到正常等级。由 dumpsys 的 trim 参数触发，用来确认各级收缩确实释放了内存。
+     */
+    void simulateTrimSequence(PrintWriter writer) {
+        int[] levels = {
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE,
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW,
+            ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL,
+            ComponentCallbacks2.TRIM_MEMORY_COMPLETE,
+        };
+        writer.println("模拟内存回调             Java 堆 KB  native KB    PSS KB  资源 KB");
+        printSnapshot(writer, "开始 (" + STAGE_NAMES[currentStage()] + ")");
+        for (int level : levels) {
+            // 不计入统计里的回调次数
+            raise(stageForLevel(level), "模拟 onTrimMemory(" + level + ")");
+            printSnapshot(writer, "级别 " + level + " → " + STAGE_NAMES[currentStage()]);
+        }
+        reset();
+        printSnapshot(writer, "恢复 (" + STAGE_NAMES[currentStage()] + ")");
+        dump(writer);
+    }
+
+    private void printSnapshot(PrintWriter writer, String label) {
+        Runtime runtime = Runtime.getRuntime();
+        // 先回收一次，让释放掉的对象反映在堆的用量上
+        runtime.gc();
+        long heapKb = (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+        long resident = 0;
+        synchronized (this) {
+            for (Holder holder : holders.values()) {
+                resident += holder.residentBytes();
+            }
+        }
+        writer.println(String.format(Locale.US, "  %-22s %10d %10d %9d %8d", label, heapKb,
+                Debug.getNativeHeapAllocatedSize() / 1024, Debug.getPss(), resident / 1024));
+    }
+
+    // 立即回到正常等级，只在模拟结束时使用
+    private void reset() {
+        List<Holder> toNotify;
+        synchronized (this) {
+            stage = NORMAL;
+            stageSince = SystemClock.elapsedRealtime();
+            toNotify = new ArrayList<>(holders.values());
+        }
+        notifyHolders(toNotify, NORMAL);
+    }
+
+    private void raise(int target, String reason) {
+        List<Holder> toNotify;
+        synchronized (this) {
+            int current = currentStageLocked();
+            // 同级的回调也刷新计时，压力持续时不会回落
+            stageSince = SystemClock.elapsedRealtime();
+            if (target <= current) {
+                return;
+            }
+            stage = target;
+            toNotify = new ArrayList<>(holders.values());
+        }
+        Log.i(TAG, reason + "，内存压力升到" + STAGE_NAMES[target]);
+        notifyHolders(toNotify, target);
+    }
+
+    private int currentStageLocked() {
+        long now = SystemClock.elapsedRealtime();
+        while (stage > NORMAL && now - stageSince >= RECOVERY_MS) {
+            stage--;
+            stageSince += RECOVERY_MS;
+        }
+        return stage;
+    }
+
+    private static void notifyHolders(List<Holder> toNotify, int stage) {
+        for (Holder holder : toNotify) {
+            try {
+                holder.onPressureChanged(stage);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "释放资源失败", e);
+            }
+        }
+    }
+
+    private static int stageForLevel(int level) {
+        // 后台级别按进程在 LRU 列表中的位置递增，越靠后越可能被杀
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return CRITICAL;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return LOW;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return MODERATE;
+        }
+        switch (level) {
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
+                return CRITICAL;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
+                return LOW;
+            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
+                return MODERATE;
+            default:
+                return NORMAL;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.android.miloratts;
+
+import android.util.Log;
+
+import com.android.miloratts.core.CancellationToken;
+import com.android.miloratts.core.EngineMetrics;
+import com.android.miloratts.core.FairExecutor;
+import com.android.miloratts.core.NextUtterancePredictor;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按 {@link NextUtterancePredictor} 的预测，在一句话合成完之后提前合成最可能的下一句，放进内存缓存。
+ * <p>
+ * 推测是纯粹的额外工作，不能和真正的合成抢资源：任务以后台优先级排队；真正的请求到来时，
+ * 除了恰好被猜中的那一句，其余推测立即取消；下载流量按令牌桶限制，每分钟最多 {@link #BYTES_PER_MINUTE}。
+ * 模型只记句子的键，文本只保存在内存里最近合成过的句子中，进程重启后要重新见过一次才能被推测。
+ */
+final class SpeculativePrefetcher {
+    private static final String TAG = "MiloraTTS";
+    // 每句话之后最多推测几句
+    static final int MAX_PREDICTIONS = 2;
+    private static final long BYTES_PER_MINUTE = 512 * 1024;
+    // 两句话间隔太久就不是同一次浏览，不作为前后句记录
+    private static final long CHAIN_GAP_MS = 60000;
+    private static final int RECENT_TEXTS = 512;
+
+    /**
+     * 实际的合成动作，由服务提供：合成并缓存这句话，不输出音频。
+     */
+    interface Fetcher {
+        void fetch(String text, String language, CancellationToken token) throws Exception;
+    }
+
+    private final NextUtterancePredictor predictor;
+    private final FairExecutor executor;
+    private final EngineMetrics metrics;
+    private final Fetcher fetcher;
+    private final long[] predictions = new long[MAX_PREDICTIONS];
+    // 最近合成过的句子的文本，按访问顺序淘汰
+    private final LinkedHashMap<Long, Utterance> recent = new LinkedHashMap<Long, Utterance>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Utterance> eldest) {
+            return size() > RECENT_TEXTS;
+        }
+    };
+    // 上一句之后发起的推测，下一个真正的请求到来时据此统计命中并取消其余的
+    private final Map<Long, CancellationToken> speculated = new HashMap<>();
+    private long budgetBytes = BYTES_PER_MINUTE;
+    private long budgetUpdatedAt = System.currentTimeMillis();
+
+    SpeculativePrefetcher(NextUtterancePredictor predictor, FairExecutor executor, EngineMetrics metrics,
+            Fetcher fetcher) {
+        this.predictor = predictor;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * 真正的请求到来时调用：记录前后句关系，取消没猜中的推测。返回这句话是否被提前推测过。
+     */
+    synchronized boolean onUtterance(SynthesisSession session, long key, String text, String language) {
+        recent.put(key, new Utterance(text, language));
+        long now = System.currentTimeMillis();
+        if (session.lastUtteranceKey != 0 && now - session.lastUtteranceAt <= CHAIN_GAP_MS) {
+            predictor.observe(session.lastUtteranceKey, key);
+        }
+        session.lastUtteranceKey = key;
+        session.lastUtteranceAt = now;
+
+        boolean hit = false;
+        for (Map.Entry<Long, CancellationToken> entry : speculated.entrySet()) {
+            if (entry.getKey() == key) {
+                hit = true;
+            } else {
+                entry.getValue().cancel();
+            }
+        }
+        speculated.clear();
+        if (hit) {
+            metrics.speculativeHits.incrementAndGet();
+        }
+        return hit;
+    }
+
+    /**
+     * 一句话合成完之后调用，按预测排入后台合成。
+     */
+    synchronized void speculate(long key) {
+        int count = predictor.predict(key, predictions);
+        for (int i = 0; i < count; i++) {
+            final long predicted = predictions[i];
+            final Utterance utterance = recent.get(predicted);
+            if (utterance == null || speculated.containsKey(predicted)) {
+                continue;
+            }
+            if (!takeBudget()) {
+                metrics.speculativeSkipped.incrementAndGet();
+                continue;
+            }
+            final CancellationToken token = new CancellationToken();
+            speculated.put(predicted, token);
+            metrics.speculativePrefetches.incrementAndGet();
+            executor.execute(this, FairExecutor.PRIORITY_BACKGROUND, new Runnable() {
+                @Override
+                public void run() {
+                    runSpeculation(utterance, token);
+                }
+            });
+        }
+    }
+
+    private void runSpeculation(Utterance utterance, CancellationToken token) {
+        if (token.isCancelled()) {
+            return;
+        }
+        // 推测只在两次请求之间运行，这段时间的下载量近似归到推测上；同时有前台下载时只会多扣，不会少扣
+        long bytesBefore = metrics.bytesDownloaded.get();
+        try {
+            fetcher.fetch(utterance.text, utterance.language, token);
+        } catch (Exception e) {
+            Log.d(TAG, "推测合成失败: " + e.getMessage());
+        } finally {
+            long bytes = metrics.bytesDownloaded.get() - bytesBefore;
+            metrics.speculativeBytes.addAndGet(bytes);
+            synchronized (this) {
+                budgetBytes -= bytes;
+            }
+        }
+    }
+
+    // 令牌桶：按经过的时间补充预算，上限为一分钟的额度；预算用完时不再发起新的推测
+    private boolean takeBudget() {
+        long now = System.currentTimeMillis();
+        budgetBytes = Math.min(BYTES_PER_MINUTE, budgetBytes + (now - budgetUpdatedAt) * BYTES_PER_MINUTE / 60000);
+        budgetUpdatedAt = now;
+        return budgetBytes > 0;
+    }
+
+    synchronized void clear() {
+        for (CancellationToken token : speculated.values()) {
+            token.cancel();
+        }
+        speculated.clear();
+        recent.clear();
+    }
+
+    private static final class Utterance {
+        final String text;
+        final String language;
+
+        Utterance(String text, String language) {
+            this.text = text;
+            this.language = language;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.android.miloratts;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.util.Log;
+
+/**
+ * 启动耗时基准：像系统里的普通客户端一样绑定本引擎并朗读一句话，记录从绑定到第一块音频的时间。
+ * 只接受持有 DUMP 权限的发送方（adb shell），由 scripts/startup_benchmark.sh 驱动：
+ * 先杀掉进程再发广播测冷启动，进程还在时直接发广播测热启动，结果从日志里读取。
+ */
+public class StartupBenchmarkReceiver extends BroadcastReceiver {
+    private static final String TAG = "MiloraTTS";
+    private static final String EXTRA_TEXT = "text";
+    private static final String DEFAULT_TEXT = "启动测试";
+    private static final String UTTERANCE_ID = "startup-benchmark";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final PendingResult result = goAsync();
+        final MiloraApp app = (MiloraApp) context.getApplicationContext();
+        final String text = intent.getStringExtra(EXTRA_TEXT) != null ? intent.getStringExtra(EXTRA_TEXT) : DEFAULT_TEXT;
+        // 进程刚被拉起、服务还没创建过时，这次绑定测的就是冷启动
+        final boolean cold = !app.isServiceCreated();
+        final long bindAt = SystemClock.elapsedRealtime();
+        final TextToSpeech[] holder = new TextToSpeech[1];
+        holder[0] = new TextToSpeech(app, new TextToSpeech.OnInitListener() {
+            @Override
+            public void onInit(int status) {
+                final TextToSpeech tts = holder[0];
+                if (status != TextToSpeech.SUCCESS) {
+                    Log.e(TAG, "启动基准: 绑定引擎失败 " + status);
+                    tts.shutdown();
+                    result.finish();
+                    return;
+                }
+                final long initAt = SystemClock.elapsedRealtime();
+                tts.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+                    private long firstAudioAt;
+
+                    @Override
+                    public void onStart(String utteranceId) {
+                    }
+
+                    @Override
+                    public void onAudioAvailable(String utteranceId, byte[] audio) {
+                        if (firstAudioAt == 0) {
+                            firstAudioAt = SystemClock.elapsedRealtime();
+                        }
+                    }
+
+                    @Override
+                    public void onDone(String utteranceId) {
+                        finish(true);
+                    }
+
+                    @Override
+                    public void onError(String utteranceId) {
+                        finish(false);
+                    }
+
+                    private void finish(boolean success) {
+                        // 结果行的格式由脚本解析，修改时同步修改 scripts/startup_benchmark.sh
+                        Log.i(TAG, "启动基准: " + (success ? "完成" : "失败")
+                                + " start=" + (cold ? "cold" : "warm")
+                                + " bind_ms=" + (initAt - bindAt)
+                                + " bind_to_first_audio_ms=" + (firstAudioAt == 0 ? -1 : firstAudioAt - bindAt));
+                        tts.shutdown();
+                        result.finish();
+                    }
+                });
+                tts.speak(text, TextToSpeech.QUEUE_FLUSH, null, UTTERANCE_ID);
+            }
+        }, app.getPackageName());
+    }
+}
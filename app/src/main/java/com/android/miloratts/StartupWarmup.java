@@ -0,0 +1,122 @@
+package com.android.miloratts;
+
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 服务创建时并行执行的预热步骤。每一步单独计时，合成请求只等待自己要用到的那一步，
+ * 其他步骤还没完成也不影响它。某一步失败只记日志，请求会在用到时按原来的方式自己完成这项准备。
+ */
+final class StartupWarmup {
+    private static final String TAG = "MiloraTTS";
+
+    static final String CACHE = "缓存索引";
+    static final String NETWORK = "网络连接";
+    static final String DECODER = "解码器";
+    static final String STATE = "设置与模型";
+
+    private final Executor executor;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    StartupWarmup(Executor executor) {
+        this.executor = executor;
+    }
+
+    void start(String name, Runnable task) {
+        Stage stage = new Stage(name, task);
+        synchronized (this) {
+            stages.put(name, stage);
+        }
+        executor.execute(stage);
+    }
+
+    /**
+     * 等待某一步完成，最多等待 timeoutMs。返回 false 表示超时或这一步不存在，调用方自己完成准备即可。
+     */
+    boolean await(String name, long timeoutMs) throws InterruptedException {
+        Stage stage;
+        synchronized (this) {
+            stage = stages.get(name);
+        }
+        if (stage == null) {
+            return false;
+        }
+        try {
+            stage.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 所有步骤都完成时返回从服务创建到最后一步完成的毫秒数，还有步骤在进行时返回 -1。
+     */
+    synchronized long totalMillis() {
+        long latest = 0;
+        for (Stage stage : stages.values()) {
+            if (!stage.isDone()) {
+                return -1;
+            }
+            latest = Math.max(latest, stage.finishedNanos);
+        }
+        return (latest - startNanos) / 1000000;
+    }
+
+    synchronized String describe() {
+        StringBuilder sb = new StringBuilder("启动预热:");
+        for (Stage stage : stages.values()) {
+            sb.append(' ').append(stage.name).append(' ');
+            if (!stage.isDone()) {
+                sb.append("进行中");
+            } else {
+                sb.append(String.format(Locale.US, "%d ms", (stage.finishedNanos - stage.startedNanos) / 1000000));
+                if (stage.failed) {
+                    sb.append("(失败)");
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private final class Stage extends FutureTask<Void> {
+        final String name;
+        volatile long startedNanos;
+        volatile long finishedNanos;
+        volatile boolean failed;
+
+        Stage(String name, Runnable task) {
+            super(task, null);
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            startedNanos = System.nanoTime();
+            super.run();
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            failed = true;
+            Log.w(TAG, "启动预热失败: " + name, t);
+            super.setException(t);
+        }
+
+        @Override
+        protected void done() {
+            finishedNanos = System.nanoTime();
+            Log.d(TAG, name + " 预热完成，排队 " + (startedNanos - startNanos) / 1000000 + "ms，耗时 "
+                    + (finishedNanos - startedNanos) / 1000000 + "ms");
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.android.miloratts;
+
+import com.android.miloratts.core.CancellationToken;
+import com.android.miloratts.core.FairExecutor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个调用方（按 uid 区分）的合成状态。停止只取消这个调用方自己的合成和它排队的预取，
+ * 共用线程池上的任务以它为单位轮流调度。
+ * 框架在合成线程上串行调用 onSynthesizeText，其他线程（onStop、dumpsys）只读取这里的状态，
+ * 所以可变字段都是 volatile 或原子变量；开始和取消之间的交接在本对象的锁上进行。
+ */
+final class SynthesisSession {
+    final int callerUid;
+    final String callerName;
+    final AtomicLong utterances = new AtomicLong();
+    final AtomicLong stops = new AtomicLong();
+    // 这个调用方上一句话的键和时间，用来记录前后句关系；只在合成线程上读写
+    long lastUtteranceKey;
+    long lastUtteranceAt;
+    private volatile boolean accessibility;
+    private volatile CancellationToken current;
+    // prepare 到 begin 之间到达的停止请求，由 begin 立即作用在新的取消标记上
+    private boolean starting;
+    private boolean stopPending;
+
+    SynthesisSession(int callerUid, String callerName) {
+        this.callerUid = callerUid;
+        this.callerName = callerName;
+    }
+
+    /**
+     * 在把本会话发布为正在合成的会话之前调用。之后到达的 {@link #cancel} 即使早于 {@link #begin}，
+     * 也会作用在 begin 创建的取消标记上，不会因为还没有标记而丢失。
+     */
+    synchronized void prepare() {
+        starting = true;
+        stopPending = false;
+    }
+
+    /**
+     * 开始这个调用方的一次合成。accessibility 表示调用方当前是已启用的无障碍服务。
+     */
+    CancellationToken begin(boolean accessibility) {
+        this.accessibility = accessibility;
+        CancellationToken token = new CancellationToken();
+        boolean stopped;
+        synchronized (this) {
+            current = token;
+            stopped = stopPending;
+            starting = false;
+            stopPending = false;
+        }
+        utterances.incrementAndGet();
+        if (stopped) {
+            token.cancel();
+        }
+        return token;
+    }
+
+    void end(CancellationToken token) {
+        if (token.isCancelled()) {
+            stops.incrementAndGet();
+        }
+        synchronized (this) {
+            if (current == token) {
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * 取消正在进行或正要开始的合成，返回 false 表示当前没有合成。
+     */
+    boolean cancel() {
+        CancellationToken token;
+        synchronized (this) {
+            token = current;
+            if (token == null) {
+                if (!starting) {
+                    return false;
+                }
+                stopPending = true;
+                return true;
+            }
+        }
+        // 取消回调会断开连接，不在本对象的锁里执行
+        token.cancel();
+        return true;
+    }
+
+    boolean isActive() {
+        return current != null;
+    }
+
+    /**
+     * 这个调用方正在播放的片段所需任务的优先级；推测性任务一律用后台优先级。
+     */
+    int priority() {
+        return accessibility ? FairExecutor.PRIORITY_ACCESSIBILITY : FairExecutor.PRIORITY_FOREGROUND;
+    }
+
+    boolean isAccessibility() {
+        return accessibility;
+    }
+}
@@ -1,40 +1,340 @@
 package com.android.miloratts;
 
+import android.accessibilityservice.AccessibilityServiceInfo;
 import android.content.SharedPreferences;
-import android.media.AudioFormat;
 import android.media.MediaCodec;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
-import android.os.AsyncTask;
+import android.net.ConnectivityManager;
 import android.speech.tts.SynthesisCallback;
 import android.speech.tts.SynthesisRequest;
 import android.speech.tts.TextToSpeech;
 import android.speech.tts.TextToSpeechService;
 import android.util.Log;
+import android.view.accessibility.AccessibilityManager;
+
+import com.android.miloratts.core.ApiResponse;
+import com.android.miloratts.core.ApiResponseParser;
+import com.android.miloratts.core.AudioStore;
+import com.android.miloratts.core.CacheKeys;
+import com.android.miloratts.core.CacheTeeInputStream;
+import com.android.miloratts.core.CachedAudio;
+import com.android.miloratts.core.CancellableInputStream;
+import com.android.miloratts.core.CancellationToken;
+import com.android.miloratts.core.CapturingPcmSink;
+import com.android.miloratts.core.CircuitBreaker;
+import com.android.miloratts.core.EngineMetrics;
+import com.android.miloratts.core.FairExecutor;
+import com.android.miloratts.core.Mp3FrameReader;
+import com.android.miloratts.core.NextUtterancePredictor;
+import com.android.miloratts.core.PcmBuffer;
+import com.android.miloratts.core.PcmChunkCopier;
+import com.android.miloratts.core.PcmClip;
+import com.android.miloratts.core.PcmMemoryCache;
+import com.android.miloratts.core.PcmSink;
+import com.android.miloratts.core.PhraseFrequencyLog;
+import com.android.miloratts.core.ResolvedUrlCache;
+import com.android.miloratts.core.SilenceTrimmer;
+import com.android.miloratts.core.SingleFlight;
+import com.android.miloratts.core.SpeechRateProcessor;
+import com.android.miloratts.core.SynthesisException;
+import com.android.miloratts.core.TextNormalizer;
+import com.android.miloratts.core.TextSegmenter;
+import com.android.miloratts.core.WavReader;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FilenameFilter;
+import java.io.IOException;
 import java.io.InputStream;
-import java.math.BigInteger;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 public class TtsService extends TextToSpeechService {
     private static final String TAG = "MiloraTTS";
     private static final String API_URL = "https://api.milorapart.top/apis/mbAIsc";
-    private SynthesisTask currentTask;
+    // API 目前只有一个发音人，发音人、语言和格式都参与缓存键，以后增加发音人不会串用缓存
+    static final String VOICE = "mbAIsc";
+    // WAV 直通时每次交给输出端的最大字节数
+    private static final int WAV_CHUNK_BYTES = 8192;
+    private static final Pattern SPEAKABLE = Pattern.compile("[\\p{L}\\p{N}]");
+    // 当前片段播放时最多提前下载并解码后面几个片段
+    private static final int PREFETCH_DEPTH = 2;
+    // 预取窗口之外再提前解析几个片段的音频地址，轮到它们预取时只剩下载
+    private static final int RESOLVE_AHEAD = 4;
+    // 服务器上的音频文件只保留一段时间，解析出的地址超过这个时间就不再使用
+    private static final long RESOLVED_URL_TTL_MS = 10 * 60 * 1000;
+    private static final int RESOLVED_URL_ENTRIES = 512;
+    // 估算报告里地址缓存的占用：键、地址字符串和时间戳，每条约这么多字节
+    private static final int RESOLVED_URL_ENTRY_BYTES = 256;
+    // 各级内存压力下最多保留的闲置解码器数量
+    private static final int[] IDLE_DECODERS_BY_STAGE = {2, 1, 0, 0};
+    private static final String HOLDER_DECODERS = "解码器池";
+    private static final String HOLDER_SPECULATION = "推测合成";
+    private static final String HOLDER_RESOLVED_URLS = "音频地址缓存";
+    static final HttpClient.BodyParser<ApiResponse> API_RESPONSE = new HttpClient.BodyParser<ApiResponse>() {
+        @Override
+        public ApiResponse parse(InputStream body) throws IOException {
+            return ApiResponseParser.parse(body);
+        }
+    };
+    private static final long DECODER_IDLE_TIMEOUT_MS = 30000;
+    // 启动预热正在创建解码器时最多等它这么久，超过后自己新建
+    private static final long DECODER_WARMUP_WAIT_MS = 300;
+    // 按调用方 uid 区分的合成状态；activeSession 只在合成线程上写入，onStop 从其他线程读取后取消
+    private final ConcurrentHashMap<Integer, SynthesisSession> sessions = new ConcurrentHashMap<>();
+    private volatile SynthesisSession activeSession;
+    // 已启用的无障碍服务的 uid，无障碍设置变化时置空，下次合成时重新读取
+    private volatile Set<Integer> accessibilityUids;
+    private AccessibilityManager accessibilityManager;
+    private final AccessibilityManager.AccessibilityStateChangeListener accessibilityListener =
+            new AccessibilityManager.AccessibilityStateChangeListener() {
+                @Override
+                public void onAccessibilityStateChanged(boolean enabled) {
+                    accessibilityUids = null;
+                }
+            };
+    private FairExecutor fairExecutor;
+    private AudioFormatNegotiator formatNegotiator;
+    private volatile SpeculativePrefetcher speculativePrefetcher;
+    private DecoderPool decoderPool;
+    private HttpClient httpClient;
+    private ResilientHttp resilientHttp;
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final SingleFlight urlFlight = new SingleFlight();
+    private final ResolvedUrlCache resolvedUrls = new ResolvedUrlCache(RESOLVED_URL_ENTRIES, RESOLVED_URL_TTL_MS);
+    private EngineMetrics metrics;
+    private ResourceGovernor governor;
+    private SharedPreferences prefs;
+    private volatile String lastAudioOrigin;
+    private volatile String lastDecoderFormat;
+    private StartupWarmup startupWarmup;
+    // 服务创建时间和是否是进程里第一次创建服务，用来统计从绑定到第一句出声的时间；后者只在合成线程上读写
+    private long createdNanos;
+    private boolean coldStart;
+    private boolean firstUtterancePending = true;
+
+    @Override
+    public void onCreate() {
+        // 这些字段会在框架的合成线程上读取。合成线程在 super.onCreate() 里启动，
+        // 先赋值再启动线程，字段对合成线程可见，不需要逐个加 volatile
+        createdNanos = System.nanoTime();
+        MiloraApp app = (MiloraApp) getApplication();
+        coldStart = app.onServiceCreated();
+        fairExecutor = app.getFairExecutor();
+        metrics = app.getMetrics();
+        decoderPool = new DecoderPool(DECODER_IDLE_TIMEOUT_MS, app.getScheduler(), metrics.codecSetupTime);
+        httpClient = app.getHttpClient();
+        resilientHttp = app.getResilientHttp();
+        prefs = getSharedPreferences(EngineSettings.PREFS_NAME, MODE_PRIVATE);
+        // 设置文件已经在应用启动时载入，这里的读取不会阻塞
+        lastAudioOrigin = prefs.getString(EngineSettings.KEY_LAST_AUDIO_ORIGIN, null);
+        lastDecoderFormat = prefs.getString(EngineSettings.KEY_LAST_DECODER_FORMAT, null);
+        formatNegotiator = new AudioFormatNegotiator(prefs,
+                (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE));
+        accessibilityManager = (AccessibilityManager) getSystemService(ACCESSIBILITY_SERVICE);
+        if (accessibilityManager != null) {
+            accessibilityManager.addAccessibilityStateChangeListener(accessibilityListener);
+        }
+        startupWarmup = new StartupWarmup(app.getIoExecutor());
+        governor = app.getResourceGovernor();
+        registerResourceHolders();
+        super.onCreate();
+        startWarmup(app);
+    }
+
+    /**
+     * 服务持有的可重建资源随内存压力收缩：闲置解码器逐级减少，压力紧张时停止推测合成并丢掉解析过的音频地址。
+     * 内存缓存由应用登记，HTTP 连接池没有公开的回收接口，不在这里处理。
+     */
+    private void registerResourceHolders() {
+        governor.register(HOLDER_DECODERS, new ResourceGovernor.Holder() {
+            @Override
+            public long residentBytes() {
+                // 解码器的缓冲区在 mediaserver/codec 进程和 native 堆里，Java 侧无法计量
+                return 0;
+            }
+
+            @Override
+            public String usage() {
+                return "闲置 " + decoderPool.getIdleCount();
+            }
+
+            @Override
+            public void onPressureChanged(int stage) {
+                decoderPool.setMaxIdle(IDLE_DECODERS_BY_STAGE[stage]);
+            }
+        });
+        governor.register(HOLDER_SPECULATION, new ResourceGovernor.Holder() {
+            @Override
+            public long residentBytes() {
+                return 0;
+            }
+
+            @Override
+            public String usage() {
+                return governor.currentStage() >= ResourceGovernor.LOW ? "已暂停" : "正常";
+            }
+
+            @Override
+            public void onPressureChanged(int stage) {
+                SpeculativePrefetcher prefetcher = speculativePrefetcher;
+                if (stage >= ResourceGovernor.LOW && prefetcher != null) {
+                    prefetcher.clear();
+                }
+            }
+        });
+        governor.register(HOLDER_RESOLVED_URLS, new ResourceGovernor.Holder() {
+            @Override
+            public long residentBytes() {
+                return (long) resolvedUrls.size() * RESOLVED_URL_ENTRY_BYTES;
+            }
+
+            @Override
+            public String usage() {
+                return resolvedUrls.size() + " 条";
+            }
+
+            @Override
+            public void onPressureChanged(int stage) {
+                if (stage >= ResourceGovernor.LOW) {
+                    resolvedUrls.clear();
+                }
+            }
+        });
+    }
+
+    /**
+     * 第一句话要用到的准备工作在 I/O 线程上并行进行，不占用主线程，也不在请求路径上串行等待。
+     * 直接提交到线程池而不经过公平调度，不会排在推测性任务后面。
+     */
+    private void startWarmup(final MiloraApp app) {
+        // 缓存索引：合成时 getAudioCache() 与这里用同一把锁，请求到得早也只是等索引载入完
+        startupWarmup.start(StartupWarmup.CACHE, new Runnable() {
+            @Override
+            public void run() {
+                app.getAudioCache();
+            }
+        });
+        // 先和 API 主机、上次的音频主机完成 DNS/TCP/TLS 握手，连接留在池里给第一句话用
+        final String audioOrigin = lastAudioOrigin;
+        startupWarmup.start(StartupWarmup.NETWORK, new Runnable() {
+            @Override
+            public void run() {
+                httpClient.prewarm(originOf(API_URL));
+                if (audioOrigin != null && !audioOrigin.equals(originOf(API_URL))) {
+                    httpClient.prewarm(audioOrigin);
+                }
+            }
+        });
+        // 按上次解码的格式建好一个解码器放进池里
+        final String decoderFormat = lastDecoderFormat;
+        if (decoderFormat != null) {
+            startupWarmup.start(StartupWarmup.DECODER, new Runnable() {
+                @Override
+                public void run() {
+                    prewarmDecoder(decoderFormat);
+                }
+            });
+        }
+        // 短句记录和预测模型的文件，以及文本处理各环节的类加载
+        startupWarmup.start(StartupWarmup.STATE, new Runnable() {
+            @Override
+            public void run() {
+                app.getPhraseLog();
+                app.getUtterancePredictor();
+                String text = TextNormalizer.normalize("预热。");
+                CacheKeys.forText(TextSegmenter.split(text, TextSegmenter.DEFAULT_MAX_LENGTH).get(0),
+                        VOICE, "", AudioFormatNegotiator.MP3);
+            }
+        });
+    }
+
+    private void prewarmDecoder(String decoderFormat) {
+        int separator = decoderFormat.indexOf('/');
+        try {
+            int sampleRate = Integer.parseInt(decoderFormat.substring(0, separator));
+            int channelCount = Integer.parseInt(decoderFormat.substring(separator + 1));
+            MediaFormat format = MediaFormat.createAudioFormat(
+                    MediaFormat.MIMETYPE_AUDIO_MPEG, sampleRate, channelCount);
+            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, Mp3FrameReader.MAX_FRAME_SIZE);
+            decoderPool.prewarm(format);
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            Log.w(TAG, "无效的解码格式记录: " + decoderFormat);
+        } catch (IOException e) {
+            Log.w(TAG, "预热解码器失败: " + e.getMessage());
+        }
+    }
+
+    private void rememberDecoderFormat(int sampleRate, int channelCount) {
+        String format = sampleRate + "/" + channelCount;
+        if (!format.equals(lastDecoderFormat)) {
+            lastDecoderFormat = format;
+            prefs.edit().putString(EngineSettings.KEY_LAST_DECODER_FORMAT, format).apply();
+        }
+    }
+
+    // 启动预热可能正在创建同样格式的解码器，等它放进池里比再新建一个快
+    private MediaCodec acquireDecoder(MediaFormat format) throws IOException {
+        try {
+            startupWarmup.await(StartupWarmup.DECODER, DECODER_WARMUP_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return decoderPool.acquire(format);
+    }
+
+    private static String originOf(String urlStr) {
+        try {
+            URL url = new URL(urlStr);
+            return url.getProtocol() + "://" + url.getAuthority() + "/";
+        } catch (java.net.MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private void rememberAudioOrigin(String audioUrl) {
+        String origin = originOf(audioUrl);
+        if (origin != null && !origin.equals(lastAudioOrigin)) {
+            lastAudioOrigin = origin;
+            prefs.edit().putString(EngineSettings.KEY_LAST_AUDIO_ORIGIN, origin).apply();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        for (SynthesisSession session : sessions.values()) {
+            session.cancel();
+        }
+        if (accessibilityManager != null) {
+            accessibilityManager.removeAccessibilityStateChangeListener(accessibilityListener);
+        }
+        SpeculativePrefetcher prefetcher = speculativePrefetcher;
+        if (prefetcher != null) {
+            prefetcher.clear();
+        }
+        governor.unregister(HOLDER_DECODERS);
+        governor.unregister(HOLDER_SPECULATION);
+        governor.unregister(HOLDER_RESOLVED_URLS);
+        decoderPool.shutdown();
+        super.onDestroy();
+    }
 
     @Override
     protected String[] onGetLanguage() {
@@ -63,291 +363,924 @@ public class TtsService extends TextToSpeechService {
         return onIsLanguageAvailable(lang, country, variant);
     }
 
+    // 框架只对正在合成的请求调用 onStop，其他调用方排队中的请求由框架自己丢弃，这里只取消当前调用方
     @Override
     protected void onStop() {
-        if (currentTask != null) {
-            currentTask.cancel(true);
+        SynthesisSession session = activeSession;
+        if (session != null && session.cancel()) {
+            Log.i(TAG, "收到停止请求，正在取消 " + session.callerName + " 的合成");
+        }
+    }
+
+    private SynthesisSession sessionFor(int callerUid) {
+        SynthesisSession session = sessions.get(callerUid);
+        if (session == null) {
+            String name = getPackageManager().getNameForUid(callerUid);
+            SynthesisSession created = new SynthesisSession(callerUid, name != null ? name : "uid " + callerUid);
+            session = sessions.putIfAbsent(callerUid, created);
+            if (session == null) {
+                session = created;
+            }
+        }
+        return session;
+    }
+
+    private boolean isAccessibilityCaller(int callerUid) {
+        Set<Integer> uids = accessibilityUids;
+        if (uids == null) {
+            uids = new HashSet<>();
+            if (accessibilityManager != null && accessibilityManager.isEnabled()) {
+                for (AccessibilityServiceInfo info : accessibilityManager.getEnabledAccessibilityServiceList(
+                        AccessibilityServiceInfo.FEEDBACK_ALL_MASK)) {
+                    if (info.getResolveInfo() != null && info.getResolveInfo().serviceInfo != null) {
+                        uids.add(info.getResolveInfo().serviceInfo.applicationInfo.uid);
+                    }
+                }
+            }
+            accessibilityUids = uids;
         }
+        return uids.contains(callerUid);
     }
 
+    /**
+     * 框架在自己的合成线程上调用本方法并等待它返回，因此合成在这里同步完成，
+     * start/audioAvailable/done 都从同一个线程回调。onStop 通过取消标记让它尽快返回。
+     */
     @Override
     protected void onSynthesizeText(SynthesisRequest request, SynthesisCallback callback) {
-        String text = request.getCharSequenceText().toString();
-
-        if (text == null || text.trim().isEmpty()) {
+        CharSequence rawText = request.getCharSequenceText();
+        if (rawText == null) {
             callback.done();
             return;
         }
-        Pattern pattern = Pattern.compile("[\\p{L}\\p{N}]");
-        if (!pattern.matcher(text).find()) {
-            Log.i(TAG, "文本只包含符号或空格，已忽略: \"" + text + "\"");
+        // 先规范化再分段和计算缓存键，只在全角/半角、空白、重复标点上不同的文本共用缓存
+        String text = TextNormalizer.normalize(rawText);
+        if (text.isEmpty()) {
             callback.done();
             return;
         }
-
-        if (currentTask != null && currentTask.getStatus() != AsyncTask.Status.FINISHED) {
-            Log.w(TAG, "上一个合成任务尚未完成，正在强制取消...");
-            currentTask.cancel(true);
+        if (!SPEAKABLE.matcher(text).find()) {
+            Log.i(TAG, "文本只包含符号或空格，已忽略: \"" + text + "\"");
+            callback.done();
+            return;
         }
 
         Log.i(TAG, "合成请求: " + request.getLanguage() + " - " +
               (text.length() > 30 ? text.substring(0, 30) + "..." : text));
 
-        currentTask = new SynthesisTask(text, callback);
-        currentTask.execute();
+        SynthesisSession session = sessionFor(request.getCallerUid());
+        boolean accessibility = isAccessibilityCaller(session.callerUid);
+        // 先发布会话再创建取消标记：两者之间到达的 onStop 记在会话上，由 begin 作用到新标记
+        session.prepare();
+        activeSession = session;
+        CancellationToken token = session.begin(accessibility);
+        metrics.utterances.incrementAndGet();
+        String language = request.getLanguage() != null ? request.getLanguage() : "";
+        // 整句的键只用来识别前后句，不对应缓存条目
+        long utteranceKey = NextUtterancePredictor.keyOf(pcmKeyFor(text, language));
+        // 内存紧张时暂停推测，预测模型也不再更新
+        boolean speculative = prefs.getBoolean(EngineSettings.KEY_SPECULATIVE_PREFETCH,
+                EngineSettings.DEFAULT_SPECULATIVE_PREFETCH) && governor.currentStage() < ResourceGovernor.LOW;
+        if (speculative) {
+            // 先取消没猜中的推测，再开始真正的合成
+            speculativePrefetcher().onUtterance(session, utteranceKey, text, language);
+        }
+        try {
+            // 系统以 100 表示正常语速和音调，在本地处理解码后的 PCM，缓存始终是原速音频
+            float rate = request.getSpeechRate() / 100f;
+            float pitch = request.getPitch() / 100f;
+            // 整句只选一次格式，所有片段、预取和提前解析都用它，吞吐估计或计费状态在句中变化时不会混用两种格式
+            String format = formatNegotiator.chooseFormat(((MiloraApp) getApplication()).getAudioCache());
+            synthesizeText(text, language, format, rate, pitch, callback, session, token);
+            if (token.isCancelled()) {
+                logStopped(token);
+            } else {
+                callback.done();
+                if (speculative) {
+                    speculativePrefetcher().speculate(utteranceKey);
+                    ((MiloraApp) getApplication()).scheduleHistorySave();
+                }
+            }
+        } catch (SynthesisException e) {
+            if (token.isCancelled()) {
+                logStopped(token);
+            } else {
+                Log.e(TAG, "合成任务失败: " + e.getMessage(), e.getCause());
+                metrics.errors.incrementAndGet();
+                callback.error(e.getErrorCode());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.i(TAG, "合成线程被中断");
+        } catch (RuntimeException e) {
+            Log.e(TAG, "合成任务失败", e);
+            metrics.errors.incrementAndGet();
+            callback.error();
+        } finally {
+            activeSession = null;
+            session.end(token);
+        }
+    }
+
+    // 预测模型在第一次用到时才从文件载入，不拖慢服务启动；只在合成线程上调用
+    private SpeculativePrefetcher speculativePrefetcher() {
+        if (speculativePrefetcher == null) {
+            final MiloraApp app = (MiloraApp) getApplication();
+            speculativePrefetcher = new SpeculativePrefetcher(app.getUtterancePredictor(), fairExecutor, metrics,
+                    new SpeculativePrefetcher.Fetcher() {
+                        @Override
+                        public void fetch(String text, String language, CancellationToken token)
+                                throws SynthesisException {
+                            // 只提前合成第一段：首个音频的等待只取决于它，后面的片段朗读时照常预取
+                            List<String> segments = TextSegmenter.split(text, TextSegmenter.DEFAULT_MAX_LENGTH);
+                            if (segments.isEmpty()) {
+                                return;
+                            }
+                            String first = segments.get(0);
+                            if (!app.getPcmMemoryCache().contains(pcmKeyFor(first, language))) {
+                                String format = formatNegotiator.chooseFormat(app.getAudioCache());
+                                new PrefetchTask(first, language, format, token).call();
+                            }
+                        }
+                    });
+        }
+        return speculativePrefetcher;
+    }
+
+    // 从 onStop 到合成线程真正退出的时间，即停止后还可能继续出声的上限
+    private void logStopped(CancellationToken token) {
+        metrics.stops.incrementAndGet();
+        Log.i(TAG, "合成已停止，停止到返回耗时: " + token.millisSinceCancel() + "ms");
+    }
+
+    /**
+     * adb shell dumpsys activity service com.android.miloratts/.TtsService 输出各阶段统计。
+     * 加上 trim 参数时改为模拟一遍各级内存回调，输出每一级收缩前后的内存占用。
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length > 0 && "trim".equals(args[0])) {
+            governor.simulateTrimSequence(writer);
+            return;
+        }
+        metrics.dump(writer);
+        writer.println(String.format(Locale.US, "  解码器: 新建 %d，复用 %d，闲置 %d",
+                decoderPool.getCreatedCount(), decoderPool.getReusedCount(), decoderPool.getIdleCount()));
+        writer.println("  单飞: 进行中 " + singleFlight.inFlightCount() + "，合并 " + singleFlight.coalescedCount());
+        writer.println("  熔断: API " + breakerStateName(resilientHttp.getApiEndpoint().breaker)
+                + "，音频 " + breakerStateName(resilientHttp.getAudioEndpoint().breaker));
+        writer.println("  " + formatNegotiator.describe());
+        writer.println("  " + startupWarmup.describe());
+        writer.println("  上次缓存预热: " + prefs.getString(EngineSettings.KEY_LAST_WARMUP, "无"));
+        writer.println("  调度: 排队 " + fairExecutor.queuedCount() + "，执行中 " + fairExecutor.runningCount());
+        governor.dump(writer);
+        for (SynthesisSession session : sessions.values()) {
+            writer.println(String.format(Locale.US, "  调用方 %s (uid %d)%s: 合成 %d，停止 %d%s",
+                    session.callerName, session.callerUid, session.isAccessibility() ? " [无障碍]" : "",
+                    session.utterances.get(), session.stops.get(), session.isActive() ? "，合成中" : ""));
+        }
+    }
+
+    private static String breakerStateName(CircuitBreaker breaker) {
+        switch (breaker.getState()) {
+            case CircuitBreaker.OPEN:
+                return "熔断中 (" + breaker.remainingOpenMs() + "ms)";
+            case CircuitBreaker.HALF_OPEN:
+                return "试探中";
+            default:
+                return "正常";
+        }
     }
 
-    private class SynthesisTask extends AsyncTask<Void, Void, Boolean> {
+    private class PrefetchTask implements Callable<PcmClip> {
         private final String text;
-        private final SynthesisCallback callback;
+        private final String language;
+        private final String format;
+        private final CancellationToken token;
 
-        SynthesisTask(String text, SynthesisCallback callback) {
+        PrefetchTask(String text, String language, String format, CancellationToken token) {
             this.text = text;
-            this.callback = callback;
+            this.language = language;
+            this.format = format;
+            this.token = token;
         }
 
         @Override
-        protected Boolean doInBackground(Void... params) {
-            try {
-                return synthesizeText(text, callback);
-            } catch (Exception e) {
-                Log.e(TAG, "合成任务失败", e);
-                callback.error();
-                return false;
+        public PcmClip call() throws SynthesisException {
+            if (token.isCancelled()) {
+                return null;
             }
+            // 内存紧张时只保留较短的片段，更长的只写入磁盘缓存，轮到时再流式解码
+            PcmBuffer buffer = new PcmBuffer(token, governor.prefetchBufferBytes());
+            synthesizeSegment(text, language, format, buffer, token);
+            return buffer.toClip();
+        }
+    }
+
+    /**
+     * 只请求 API 拿到音频地址，不下载音频。已经在磁盘缓存里的片段不需要地址，直接跳过。
+     */
+    private class ResolveTask implements Runnable {
+        private final String text;
+        private final String language;
+        private final String format;
+        private final CancellationToken token;
+
+        ResolveTask(String text, String language, String format, CancellationToken token) {
+            this.text = text;
+            this.language = language;
+            this.format = format;
+            this.token = token;
         }
 
         @Override
-        protected void onPostExecute(Boolean success) {
-            if (isCancelled()) {
+        public void run() {
+            if (token.isCancelled() || resilientHttp.isCacheOnly()) {
                 return;
             }
-            if (success) {
-                callback.done();
-            } else {
-                callback.error();
+            AudioStore cache = ((MiloraApp) getApplication()).getAudioCache();
+            String cacheKey = CacheKeys.forText(text, VOICE, language, format);
+            if (cache != null && (cache.contains(cacheKey) || cache.contains(
+                    CacheKeys.forText(text, VOICE, language, AudioFormatNegotiator.otherFormat(format))))) {
+                return;
+            }
+            try {
+                if (resolveAudioUrl(text, cacheKey, token) != null) {
+                    metrics.resolvedAhead.incrementAndGet();
+                }
+            } catch (SynthesisException | IOException e) {
+                // 真正预取时会重新解析并报告错误
+                Log.d(TAG, "提前解析音频地址失败: " + e.getMessage());
             }
         }
     }
 
-    private String generateCacheKey(String text) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-1");
-            byte[] hash = digest.digest(text.getBytes("UTF-8"));
-            BigInteger bi = new BigInteger(1, hash);
-            return bi.toString(16) + ".mp3";
-        } catch (Exception e) {
-            Log.e(TAG, "生成缓存键失败", e);
-            return text.replaceAll("[^a-zA-Z0-9.-]", "_") + ".mp3";
+    private void synthesizeText(String text, String language, String format, float rate, float pitch,
+            SynthesisCallback callback, SynthesisSession session, CancellationToken token)
+            throws SynthesisException, InterruptedException {
+        List<String> segments = TextSegmenter.split(text, TextSegmenter.DEFAULT_MAX_LENGTH);
+        if (segments.size() > 1) {
+            Log.i(TAG, "文本切分为 " + segments.size() + " 个片段");
         }
-    }
+        recordPhrases(segments, language);
 
-    private boolean synthesizeText(String text, SynthesisCallback callback) {
-        File cacheDir = getCacheDir();
-        if (cacheDir == null) {
-            Log.e(TAG, "无法获取缓存目录，直接进行网络请求");
-            return downloadAndDecode(text, callback, null);
+        long startNanos = System.nanoTime();
+        CallbackPcmSink callbackSink = new CallbackPcmSink(callback);
+        SpeechRateProcessor rateProcessor = null;
+        PcmSink rateSink = callbackSink;
+        if (!SpeechRateProcessor.isNeutral(rate, pitch)) {
+            Log.d(TAG, "本地调整语速 " + rate + "，音调 " + pitch);
+            rateProcessor = new SpeechRateProcessor(callbackSink, rate, pitch);
+            rateSink = rateProcessor;
         }
-        
-        String cacheKey = generateCacheKey(text);
-        File cachedFile = new File(cacheDir, cacheKey);
+        // 解码输出先去掉每段前后的静音，再变速，片段间隔随语速一起缩放
+        int gapMs = prefs.getInt(EngineSettings.KEY_SEGMENT_GAP_MS, EngineSettings.DEFAULT_SEGMENT_GAP_MS);
+        SilenceTrimmer sink = new SilenceTrimmer(rateSink, gapMs, metrics);
+        // 预取任务用单独的标记：本次合成停止时一起取消，正常结束时也取消还没用上的预取
+        CancellationToken prefetchToken = token.newChild();
+        List<Future<PcmClip>> prefetched =
+                new ArrayList<>(Collections.<Future<PcmClip>>nCopies(segments.size(), null));
+        int nextToSubmit = 1;
+        int nextToResolve = 1;
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                // 播放第 i 段之前，保证后面 PREFETCH_DEPTH 段已经在后台下载解码
+                for (; nextToSubmit < segments.size() && nextToSubmit <= i + PREFETCH_DEPTH; nextToSubmit++) {
+                    prefetched.set(nextToSubmit, fairExecutor.submit(session, session.priority(),
+                            new PrefetchTask(segments.get(nextToSubmit), language, format, prefetchToken)));
+                }
+                // 再往后 RESOLVE_AHEAD 段只解析音频地址，API 请求和前面片段的下载重叠进行
+                nextToResolve = Math.max(nextToResolve, nextToSubmit);
+                for (; nextToResolve < segments.size() && nextToResolve <= i + PREFETCH_DEPTH + RESOLVE_AHEAD;
+                        nextToResolve++) {
+                    fairExecutor.execute(session, FairExecutor.PRIORITY_BACKGROUND,
+                            new ResolveTask(segments.get(nextToResolve), language, format, prefetchToken));
+                }
 
-        if (cachedFile.exists() && cachedFile.length() > 0) {
-            Log.i(TAG, "缓存命中！从文件加载: " + cacheKey);
-            FileInputStream fis = null;
-            ByteArrayOutputStream baos = null;
-            try {
-                fis = new FileInputStream(cachedFile);
-                baos = new ByteArrayOutputStream();
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    baos.write(buffer, 0, bytesRead);
+                boolean keepGoing;
+                if (i == 0) {
+                    keepGoing = synthesizeSegment(segments.get(0), language, format, sink, token);
+                } else {
+                    PcmClip clip = awaitSegment(prefetched.get(i));
+                    prefetched.set(i, null);
+                    if (clip != null) {
+                        keepGoing = clip.writeTo(sink);
+                    } else if (token.isCancelled()) {
+                        keepGoing = false;
+                    } else {
+                        // 预取超出了内存缓冲上限，音频已在磁盘缓存里，现在边解码边播放
+                        metrics.prefetchStreamed.incrementAndGet();
+                        keepGoing = synthesizeSegment(segments.get(i), language, format, sink, token);
+                    }
                 }
-                byte[] mp3Data = baos.toByteArray();
-                cachedFile.setLastModified(System.currentTimeMillis());
-                return decodeMp3ToPcm(mp3Data, callback);
-            } catch (java.io.IOException e) {
-                Log.e(TAG, "读取缓存文件失败", e);
-                return downloadAndDecode(text, callback, cachedFile);
-            } finally {
-                try {
-                    if (fis != null) fis.close();
-                    if (baos != null) baos.close();
-                } catch (java.io.IOException e) {
-                    Log.e(TAG, "关闭缓存读取流失败", e);
+                if (!keepGoing || token.isCancelled()) {
+                    Log.i(TAG, "合成在第 " + (i + 1) + "/" + segments.size() + " 段被停止");
+                    break;
+                }
+            }
+            // 去静音和变速都会留住最后一小段音频，全部片段写完后再输出
+            if (!token.isCancelled() && sink.flush() && rateProcessor != null) {
+                rateProcessor.flush();
+            }
+        } finally {
+            if (callbackSink.getFirstAudioNanos() != 0) {
+                metrics.timeToFirstAudio.record((callbackSink.getFirstAudioNanos() - startNanos) / 1000000);
+                if (firstUtterancePending) {
+                    // 服务由绑定创建，创建后的第一句话出声的时间包含了全部启动开销
+                    firstUtterancePending = false;
+                    long sinceCreate = (callbackSink.getFirstAudioNanos() - createdNanos) / 1000000;
+                    (coldStart ? metrics.coldStartFirstAudio : metrics.warmStartFirstAudio).record(sinceCreate);
+                    Log.i(TAG, (coldStart ? "冷" : "热") + "启动后第一句出声: " + sinceCreate + "ms，"
+                            + startupWarmup.describe());
+                }
+            }
+            prefetchToken.cancel();
+            for (Future<PcmClip> future : prefetched) {
+                if (future != null) {
+                    // 不中断线程：正在运行的预取会在下一次检查取消标记时退出
+                    future.cancel(false);
                 }
             }
+        }
+    }
+
+    // 记下合成过的短句，后台预热时按出现次数挑选；是否符合记录条件由短句记录自己判断
+    private void recordPhrases(List<String> segments, String language) {
+        if (!prefs.getBoolean(EngineSettings.KEY_CACHE_WARMUP, EngineSettings.DEFAULT_CACHE_WARMUP)) {
+            return;
+        }
+        MiloraApp app = (MiloraApp) getApplication();
+        PhraseFrequencyLog phraseLog = app.getPhraseLog();
+        boolean recorded = false;
+        for (String segment : segments) {
+            String key = CacheKeys.forText(segment, VOICE, language, AudioFormatNegotiator.MP3);
+            recorded |= phraseLog.record(key, segment, language);
+        }
+        if (recorded) {
+            app.scheduleHistorySave();
+        }
+    }
+
+    private PcmClip awaitSegment(Future<PcmClip> future) throws SynthesisException, InterruptedException {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SynthesisException) {
+                throw (SynthesisException) e.getCause();
+            }
+            throw new SynthesisException(TextToSpeech.ERROR_SYNTHESIS, "预取片段失败", e.getCause());
+        }
+    }
+
+    /**
+     * 内存 PCM 缓存的键。解码后的 PCM 与下载时用的格式无关，统一用 MP3 格式的缓存键，
+     * 格式偏好变化后常用短句仍然命中内存缓存；预测模型和短句记录用的也是这个键。
+     */
+    private static String pcmKeyFor(String text, String language) {
+        return CacheKeys.forText(text, VOICE, language, AudioFormatNegotiator.MP3);
+    }
+
+    /**
+     * 合成单个片段：依次查内存 PCM 缓存、磁盘缓存，都未命中时按 format 走网络。返回 false 表示输出端已停止。
+     */
+    private boolean synthesizeSegment(String text, String language, String format, PcmSink sink,
+            CancellationToken token) throws SynthesisException {
+        MiloraApp app = (MiloraApp) getApplication();
+        AudioStore cache = app.getAudioCache();
+        String cacheKey = CacheKeys.forText(text, VOICE, language, format);
+        String memoryKey = pcmKeyFor(text, language);
+        PcmMemoryCache memoryCache = app.getPcmMemoryCache();
+        PcmClip clip = memoryCache.get(memoryKey);
+        if (clip != null) {
+            Log.i(TAG, "内存缓存命中: " + memoryKey);
+            metrics.memoryHits.incrementAndGet();
+            return clip.writeTo(sink);
+        }
+
+        // 磁盘上已经有另一种格式时直接用它，格式偏好变化不会导致重新下载
+        String diskKey = cacheKey;
+        if (cache != null && !cache.contains(cacheKey)) {
+            String otherKey = CacheKeys.forText(text, VOICE, language, AudioFormatNegotiator.otherFormat(format));
+            if (cache.contains(otherKey)) {
+                diskKey = otherKey;
+            }
+        }
+
+        // 内存缓存被压力收缩时不必复制放不进去的片段
+        CapturingPcmSink capture = new CapturingPcmSink(sink,
+                (int) Math.min(memoryCache.getMaxEntryBytes(), memoryCache.getMaxBytes()));
+        boolean completed = synthesizeFromDiskOrNetwork(text, diskKey, memoryKey, cache, capture, token);
+        if (completed) {
+            PcmClip decoded = capture.toClip();
+            if (decoded != null) {
+                memoryCache.put(memoryKey, decoded);
+            }
+        }
+        return completed;
+    }
+
+    private boolean synthesizeFromDiskOrNetwork(String text, String cacheKey, String memoryKey, AudioStore cache,
+            PcmSink sink, CancellationToken token) throws SynthesisException {
+        if (cache == null) {
+            Log.e(TAG, "缓存不可用，直接进行网络请求");
+            return downloadShared(text, cacheKey, memoryKey, null, sink, token);
+        }
+
+        CachedAudio cached = cache.get(cacheKey);
+
+        if (cached != null) {
+            Log.i(TAG, "缓存命中！直接从缓存解码: " + cacheKey);
+            metrics.diskHits.incrementAndGet();
+            Boolean completed = decodeCached(cacheKey, cache, cached, sink, token);
+            if (completed != null) {
+                return completed;
+            }
+            // 缓存文件丢失或损坏，此时还没有输出任何音频，可以安全地改走网络
+        } else if (resilientHttp.isCacheOnly()) {
+            // API 熔断期间只用缓存，未命中立即失败，不再等待注定超时的请求
+            metrics.cacheOnlyRejects.incrementAndGet();
+            throw new SynthesisException(TextToSpeech.ERROR_NETWORK, "网络服务暂不可用，仅使用缓存: " + cacheKey);
         } else {
             Log.i(TAG, "缓存未命中，从网络请求: " + cacheKey);
-            return downloadAndDecode(text, callback, cachedFile);
         }
+        return downloadShared(text, cacheKey, memoryKey, cache, sink, token);
     }
 
-    private boolean downloadAndDecode(String text, SynthesisCallback callback, File cacheFile) {
+    /**
+     * 直接从磁盘缓存解码。文件丢失或损坏时把它移出缓存并返回 null，此时还没有输出任何音频。
+     */
+    private Boolean decodeCached(String cacheKey, AudioStore cache, CachedAudio cached, PcmSink sink,
+            CancellationToken token) throws SynthesisException {
+        if (AudioFormatNegotiator.WAV.equals(AudioFormatNegotiator.formatOf(cacheKey))) {
+            return decodeCachedWav(cacheKey, cache, cached, sink, token);
+        }
+        File cachedFile = cached.getFile();
+        if (cachedFile == null) {
+            return decodePackedData(cacheKey, cache, cached, sink, token);
+        }
+        long startTime = System.currentTimeMillis();
+        long length = cachedFile.length();
+        FileInputStream fis = null;
+        MediaExtractor extractor = null;
         try {
-            String encodedText = URLEncoder.encode(text, "UTF-8");
-            String apiCall = API_URL + "?text=" + encodedText + "&format=mp3";
-            
-            Log.d(TAG, "调用API: " + apiCall);
-            
-            String jsonResponse = httpGet(apiCall);
-            if (jsonResponse == null || !jsonResponse.contains("\"code\":200")) {
-                Log.e(TAG, "API返回错误或非200状态: " + jsonResponse);
-                callback.error(TextToSpeech.ERROR_NETWORK);
-                return false;
+            fis = new FileInputStream(cachedFile);
+            extractor = openAudioExtractor(fis.getFD(), length);
+        } catch (java.io.IOException e) {
+            Log.e(TAG, "打开缓存文件失败", e);
+        }
+
+        if (extractor == null) {
+            closeQuietly(fis);
+            cache.remove(cacheKey);
+            return null;
+        }
+        try {
+            return decodeExtractor(extractor, sink, token);
+        } finally {
+            try { extractor.release(); } catch (Exception e) { Log.e(TAG, "释放提取器失败", e); }
+            closeQuietly(fis);
+            Log.d(TAG, "缓存解码完成: 读取 " + length + " 字节，无临时文件，耗时 "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * 打包缓存的数据已经映射在内存里，直接按 MP3 帧切分后送进解码器，不需要再打开文件或创建 MediaExtractor。
+     * 数据无法解码时把条目移出缓存，下次改走网络。
+     */
+    private boolean decodePackedData(String cacheKey, AudioStore cache, CachedAudio cached, PcmSink sink,
+            CancellationToken token) throws SynthesisException {
+        long startTime = System.currentTimeMillis();
+        try {
+            return decodeMp3Stream(cached.openStream(), sink, token);
+        } catch (java.io.IOException e) {
+            cache.remove(cacheKey);
+            throw new SynthesisException(TextToSpeech.ERROR_SYNTHESIS, "读取打包缓存失败", e);
+        } catch (SynthesisException e) {
+            cache.remove(cacheKey);
+            throw e;
+        } finally {
+            Log.d(TAG, "打包缓存解码完成: 映射读取 " + cached.length() + " 字节，耗时 "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * 缓存的 WAV 不需要解码器，文件和打包缓存都直接按流读取。打不开时移出缓存并返回 null。
+     */
+    private Boolean decodeCachedWav(String cacheKey, AudioStore cache, CachedAudio cached, PcmSink sink,
+            CancellationToken token) throws SynthesisException {
+        InputStream input;
+        try {
+            input = cached.openStream();
+        } catch (java.io.IOException e) {
+            Log.e(TAG, "打开缓存文件失败", e);
+            cache.remove(cacheKey);
+            return null;
+        }
+        try {
+            return decodeWavStream(input, sink, token);
+        } catch (SynthesisException e) {
+            cache.remove(cacheKey);
+            throw e;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * 同一缓存键同时只有一个请求访问网络。后到的请求等领头者写完缓存后各自从缓存解码；
+     * 领头者中途停止或结果没能进缓存时，由等待者之一重新下载。
+     */
+    private boolean downloadShared(String text, String cacheKey, String memoryKey, AudioStore cache, PcmSink sink,
+            CancellationToken token) throws SynthesisException {
+        PcmMemoryCache memoryCache = ((MiloraApp) getApplication()).getPcmMemoryCache();
+        while (true) {
+            SingleFlight.Ticket ticket = singleFlight.join(cacheKey);
+            if (ticket.isLeader()) {
+                metrics.networkFetches.incrementAndGet();
+                try {
+                    return downloadAndDecode(text, sink, cache, cacheKey, token);
+                } catch (SynthesisException e) {
+                    ticket.fail(e);
+                    throw e;
+                } finally {
+                    ticket.finish();
+                }
             }
 
-            String audioUrl = parseJsonUrl(jsonResponse);
-            if (audioUrl == null) {
-                Log.e(TAG, "无法从JSON中解析出URL: " + jsonResponse);
-                callback.error(TextToSpeech.ERROR_INVALID_REQUEST);
+            Log.i(TAG, "相同文本正在下载，等待共享结果: " + cacheKey);
+            metrics.coalesced.incrementAndGet();
+            if (!ticket.await(token)) {
                 return false;
             }
-            
-            byte[] mp3Data = httpGetBytes(audioUrl);
-            if (mp3Data == null || mp3Data.length == 0) {
-                callback.error(TextToSpeech.ERROR_NETWORK);
+            PcmClip clip = memoryCache.get(memoryKey);
+            if (clip != null) {
+                return clip.writeTo(sink);
+            }
+            CachedAudio cached = cache != null ? cache.get(cacheKey) : null;
+            if (cached != null) {
+                Boolean completed = decodeCached(cacheKey, cache, cached, sink, token);
+                if (completed != null) {
+                    return completed;
+                }
+            }
+            if (token.isCancelled()) {
                 return false;
             }
-            
-            Log.d(TAG, "下载MP3完成，大小: " + mp3Data.length + " bytes");
+            Log.i(TAG, "共享下载没有留下缓存，重新下载: " + cacheKey);
+        }
+    }
 
-            if (cacheFile != null) {
-                FileOutputStream fos = null;
-                try {
-                    fos = new FileOutputStream(cacheFile);
-                    fos.write(mp3Data);
-                    Log.i(TAG, "已缓存音频到: " + cacheFile.getName());
-                    pruneCache(cacheFile.getParentFile());
-                } catch (java.io.IOException e) {
-                    Log.e(TAG, "写入缓存文件失败", e);
-                } finally {
-                    if (fos != null) {
-                        try {
-                            fos.close();
-                        } catch (java.io.IOException e) {
-                            Log.e(TAG, "关闭缓存写入流失败", e);
-                        }
-                    }
+    private boolean downloadAndDecode(String text, PcmSink sink, AudioStore cache, String cacheKey,
+            CancellationToken token) throws SynthesisException {
+        HttpURLConnection conn = null;
+        CacheTeeInputStream tee = null;
+        Runnable abort = null;
+        boolean completed = false;
+        try {
+            String audioUrl = resolveAudioUrl(text, cacheKey, token);
+            if (audioUrl == null) {
+                return false;
+            }
+
+            long downloadStart = System.currentTimeMillis();
+            try {
+                conn = resilientHttp.openStream(audioUrl, token);
+            } catch (HttpClient.HttpStatusException e) {
+                if (e.isRetryable()) {
+                    throw e;
                 }
+                // 缓存或提前解析的地址可能已经在音频主机上过期，丢掉它重新请求 API 一次
+                Log.i(TAG, "音频地址已失效 (" + e.getCode() + ")，重新解析: " + cacheKey);
+                resolvedUrls.remove(cacheKey);
+                audioUrl = resolveAudioUrl(text, cacheKey, token);
+                if (audioUrl == null) {
+                    return false;
+                }
+                conn = resilientHttp.openStream(audioUrl, token);
             }
-            
-            return decodeMp3ToPcm(mp3Data, callback);
-            
+
+            rememberAudioOrigin(audioUrl);
+            // 取消时直接断开连接，让阻塞中的读取立即返回
+            abort = HttpClient.abortOnCancel(conn);
+            token.addListener(abort);
+            CancellableInputStream network = new CancellableInputStream(conn.getInputStream(), token);
+            InputStream input = network;
+            if (cache != null) {
+                tee = new CacheTeeInputStream(input, cache, cacheKey, conn.getContentLength());
+                input = tee;
+            }
+
+            try {
+                completed = AudioFormatNegotiator.WAV.equals(AudioFormatNegotiator.formatOf(cacheKey))
+                        ? decodeWavStream(input, sink, token)
+                        : decodeMp3Stream(input, sink, token);
+            } finally {
+                metrics.bytesDownloaded.addAndGet(network.getBytesRead());
+                formatNegotiator.recordTransfer(network.getBytesRead(), network.getReadNanos());
+            }
+            // 下载与播放同步进行，这里的耗时包含输出端的阻塞
+            metrics.downloadTime.record(System.currentTimeMillis() - downloadStart);
+            if (tee != null) {
+                metrics.cacheWriteTime.record(tee.getWriteNanos() / 1000000);
+            }
+            if (completed && tee != null && tee.commit()) {
+                Log.i(TAG, "已缓存音频: " + cacheKey);
+            }
+            return completed;
+
+        } catch (SynthesisException e) {
+            throw e;
+        } catch (java.io.IOException e) {
+            if (token.isCancelled()) {
+                return false;
+            }
+            int errorCode = e instanceof java.net.SocketTimeoutException
+                    ? TextToSpeech.ERROR_NETWORK_TIMEOUT : TextToSpeech.ERROR_NETWORK;
+            throw new SynthesisException(errorCode, "下载和解码流程失败: " + e.getMessage(), e);
         } catch (Exception e) {
-            Log.e(TAG, "下载和解码流程失败", e);
-            callback.error(TextToSpeech.ERROR_NETWORK);
-            return false;
+            throw new SynthesisException(TextToSpeech.ERROR_NETWORK, "下载和解码流程失败", e);
+        } finally {
+            if (abort != null) {
+                token.removeListener(abort);
+            }
+            if (tee != null) {
+                tee.abandon();
+            }
+            if (conn != null) {
+                // 完整读完的连接归还给 keep-alive 池，中途停止或出错的连接直接断开
+                if (completed) {
+                    HttpClient.release(conn);
+                } else {
+                    HttpClient.abort(conn);
+                }
+            }
         }
     }
 
-    private void pruneCache(final File cacheDir) {
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... voids) {
-                SharedPreferences prefs = getSharedPreferences("MiloraTtsPrefs", MODE_PRIVATE);
-                int cacheLimit = prefs.getInt("cache_limit", 50);
-
-                if (cacheDir == null || !cacheDir.isDirectory()) {
+    /**
+     * 取得文本对应的音频地址：有效期内的地址直接复用，否则请求 API。
+     * 同一缓存键同时只有一个 API 请求，提前解析和真正下载撞在一起时后到的等待结果。
+     * 本次合成被停止时返回 null。
+     */
+    private String resolveAudioUrl(String text, String cacheKey, CancellationToken token)
+            throws SynthesisException, IOException {
+        while (true) {
+            String audioUrl = resolvedUrls.get(cacheKey);
+            if (audioUrl != null) {
+                metrics.resolvedUrlHits.incrementAndGet();
+                return audioUrl;
+            }
+            SingleFlight.Ticket ticket = urlFlight.join(cacheKey);
+            if (!ticket.isLeader()) {
+                if (!ticket.await(token)) {
                     return null;
                 }
-                try {
-                    File[] files = cacheDir.listFiles(new FilenameFilter() {
-                        @Override
-                        public boolean accept(File dir, String name) {
-                            return name.toLowerCase().endsWith(".mp3");
-                        }
-                    });
+                // 领头者失败时缓存里仍然没有地址，下一轮由自己请求
+                continue;
+            }
+            try {
+                audioUrl = requestAudioUrl(text, AudioFormatNegotiator.formatOf(cacheKey), token);
+                resolvedUrls.put(cacheKey, audioUrl);
+                return audioUrl;
+            } catch (SynthesisException e) {
+                ticket.fail(e);
+                throw e;
+            } finally {
+                ticket.finish();
+            }
+        }
+    }
 
-                    if (files == null || files.length <= cacheLimit) {
-                        return null;
-                    }
+    static String apiCallFor(String text, String format) throws IOException {
+        return API_URL + "?text=" + URLEncoder.encode(text, "UTF-8") + "&format=" + format;
+    }
 
-                    Log.i(TAG, "缓存数量 " + files.length + ", 超出限制 " + cacheLimit);
+    private String requestAudioUrl(String text, String format, CancellationToken token)
+            throws SynthesisException, IOException {
+        String apiCall = apiCallFor(text, format);
+        Log.d(TAG, "调用API: " + apiCall);
 
-                    Arrays.sort(files, new Comparator<File>() {
-                        @Override
-                        public int compare(File f1, File f2) {
-                            return Long.compare(f1.lastModified(), f2.lastModified());
-                        }
-                    });
+        ApiResponse response = resilientHttp.get(apiCall, API_RESPONSE, token);
+        if (!response.isSuccess()) {
+            throw new SynthesisException(TextToSpeech.ERROR_NETWORK, "API返回错误或非200状态: code=" + response.getCode());
+        }
+        if (response.getAudioUrl() == null) {
+            throw new SynthesisException(TextToSpeech.ERROR_INVALID_REQUEST, "无法从API响应中解析出URL");
+        }
+        return response.getAudioUrl();
+    }
+
+    /**
+     * WAV 直通：解析完 RIFF 头后把 PCM 按到达的大小直接交给输出端，不经过 MediaCodec。
+     * 返回 false 表示输出端中途停止。
+     */
+    private boolean decodeWavStream(InputStream input, PcmSink sink, CancellationToken token)
+            throws SynthesisException {
+        long startTime = System.currentTimeMillis();
+        try {
+            WavReader reader = new WavReader(input);
+            reader.readHeader();
+            Log.d(TAG, "WAV 直通格式: " + reader.getSampleRate() + "Hz, " + reader.getChannelCount() + "声道");
+            if (!sink.start(reader.getSampleRate(), reader.getChannelCount())) {
+                return false;
+            }
+            boolean completed = reader.copyTo(sink, new byte[Math.min(sink.maxChunkSize(), WAV_CHUNK_BYTES)]);
+            Log.d(TAG, "WAV 直通完成，耗时 " + (System.currentTimeMillis() - startTime) + "ms");
+            return completed && !token.isCancelled();
+        } catch (InterruptedIOException e) {
+            if (token.isCancelled()) {
+                return false;
+            }
+            throw new SynthesisException(TextToSpeech.ERROR_NETWORK_TIMEOUT, "读取音频流超时", e);
+        } catch (java.io.IOException e) {
+            throw new SynthesisException(TextToSpeech.ERROR_NETWORK, "读取WAV音频失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 边下载边解码，返回 false 表示输出端中途停止。
+     */
+    private boolean decodeMp3Stream(InputStream input, PcmSink sink, CancellationToken token)
+            throws SynthesisException {
+        MediaCodec codec = null;
+        boolean codecFailed = false;
+        long startTime = System.currentTimeMillis();
 
-                    int filesToDelete = files.length - cacheLimit;
-                    Log.i(TAG, "准备删除 " + filesToDelete + " 个最旧的缓存文件...");
-                    for (int i = 0; i < filesToDelete; i++) {
-                        if (files[i].delete()) {
-                            Log.d(TAG, "已删除旧缓存: " + files[i].getName());
+        try {
+            Mp3FrameReader reader = new Mp3FrameReader(input);
+            byte[] frame = new byte[Mp3FrameReader.MAX_FRAME_SIZE];
+            int frameLength = reader.readFrame(frame);
+            if (frameLength < 0) {
+                throw new SynthesisException(TextToSpeech.ERROR_INVALID_REQUEST, "音频流中未找到有效的MP3帧");
+            }
+
+            int sampleRate = reader.getSampleRate();
+            int channelCount = reader.getChannelCount();
+            MediaFormat format = MediaFormat.createAudioFormat(
+                    MediaFormat.MIMETYPE_AUDIO_MPEG, sampleRate, channelCount);
+            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, Mp3FrameReader.MAX_FRAME_SIZE);
+
+            codec = acquireDecoder(format);
+            rememberDecoderFormat(sampleRate, channelCount);
+
+            Log.d(TAG, "流式解码格式: " + sampleRate + "Hz, " + channelCount + "声道");
+            if (!sink.start(sampleRate, channelCount)) {
+                return false;
+            }
+
+            final long timeoutUs = 10000;
+            final long frameDurationUs = reader.getSamplesPerFrame() * 1000000L / sampleRate;
+            PcmChunkCopier copier = new PcmChunkCopier(sink.maxChunkSize());
+            MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            // 等待网络和输出端的时间不算解码耗时
+            long loopStart = System.nanoTime();
+            long blockedNanos = 0;
+            long pcmBytes = 0;
+            boolean isInputDone = false;
+            boolean needFrame = false;
+            boolean firstChunk = true;
+            long presentationTimeUs = 0;
+
+            while (!token.isCancelled()) {
+                if (!isInputDone) {
+                    int inputBufIndex = codec.dequeueInputBuffer(timeoutUs);
+                    if (inputBufIndex >= 0) {
+                        // 拿到输入缓冲后才读下一帧，读网络阻塞前已经把上一轮的输出交出去了
+                        if (needFrame) {
+                            long readStart = System.nanoTime();
+                            frameLength = reader.readFrame(frame);
+                            blockedNanos += System.nanoTime() - readStart;
+                            needFrame = false;
+                        }
+                        ByteBuffer inputBuffer = codec.getInputBuffer(inputBufIndex);
+                        inputBuffer.clear();
+                        if (frameLength < 0) {
+                            codec.queueInputBuffer(inputBufIndex, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            isInputDone = true;
                         } else {
-                            Log.w(TAG, "删除旧缓存失败: " + files[i].getName());
+                            inputBuffer.put(frame, 0, frameLength);
+                            codec.queueInputBuffer(inputBufIndex, 0, frameLength, presentationTimeUs, 0);
+                            presentationTimeUs += frameDurationUs;
+                            needFrame = true;
                         }
                     }
-                } catch (Exception e) {
-                    Log.e(TAG, "清理缓存时出错", e);
                 }
-                return null;
+
+                int outputBufIndex = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+                if (outputBufIndex >= 0) {
+                    boolean keepGoing = true;
+                    if (bufferInfo.size > 0) {
+                        if (firstChunk) {
+                            firstChunk = false;
+                            Log.d(TAG, "首个PCM块耗时: " + (System.currentTimeMillis() - startTime)
+                                    + "ms, 已读取 " + reader.getFramesRead() + " 帧");
+                        }
+                        long writeStart = System.nanoTime();
+                        keepGoing = copier.copy(codec.getOutputBuffer(outputBufIndex),
+                                bufferInfo.offset, bufferInfo.size, sink);
+                        blockedNanos += System.nanoTime() - writeStart;
+                        pcmBytes += bufferInfo.size;
+                    }
+                    codec.releaseOutputBuffer(outputBufIndex, false);
+
+                    if (!keepGoing) {
+                        return false;
+                    }
+                    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        break;
+                    }
+                }
             }
-        }.execute();
-    }
 
-    private boolean decodeMp3ToPcm(byte[] mp3Data, SynthesisCallback callback) {
-        MediaExtractor extractor = null;
-        MediaCodec codec = null;
-        File tempFile = null;
+            Log.d(TAG, "流式解码完成，共 " + reader.getFramesRead() + " 帧，耗时 "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+            recordDecode(pcmBytes, sampleRate, channelCount, System.nanoTime() - loopStart - blockedNanos);
+            return !token.isCancelled();
 
-        try {
-            tempFile = File.createTempFile("tts_audio", ".mp3", getCacheDir());
-            FileOutputStream fos = null;
-            try {
-                fos = new FileOutputStream(tempFile);
-                fos.write(mp3Data);
-            } finally {
-                if (fos != null) { try { fos.close(); } catch (java.io.IOException e) { /* ignore */ } }
+        } catch (SynthesisException e) {
+            throw e;
+        } catch (InterruptedIOException e) {
+            if (token.isCancelled()) {
+                return false;
             }
-            
-            extractor = new MediaExtractor();
-            extractor.setDataSource(tempFile.getAbsolutePath());
+            throw new SynthesisException(TextToSpeech.ERROR_NETWORK_TIMEOUT, "读取音频流超时", e);
+        } catch (java.io.IOException e) {
+            throw new SynthesisException(TextToSpeech.ERROR_NETWORK, "读取音频流失败", e);
+        } catch (Exception e) {
+            codecFailed = true;
+            throw new SynthesisException(TextToSpeech.ERROR_SYNTHESIS, "MP3流式解码失败", e);
+        } finally {
+            if (codec != null) {
+                decoderPool.release(codec, !codecFailed);
+            }
+        }
+    }
 
-            MediaFormat format = null;
-            String mime = null;
+    /**
+     * 在文件描述符上直接创建 MediaExtractor 并选中音轨，不再把数据复制到临时文件。
+     * 文件中没有音轨时返回 null。
+     */
+    private MediaExtractor openAudioExtractor(FileDescriptor fd, long length) throws java.io.IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(fd, 0, length);
             for (int i = 0; i < extractor.getTrackCount(); i++) {
-                format = extractor.getTrackFormat(i);
-                mime = format.getString(MediaFormat.KEY_MIME);
+                String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
                 if (mime != null && mime.startsWith("audio/")) {
                     extractor.selectTrack(i);
-                    break;
+                    return extractor;
                 }
             }
+        } catch (java.io.IOException e) {
+            extractor.release();
+            throw e;
+        } catch (RuntimeException e) {
+            extractor.release();
+            throw new java.io.IOException("无法解析音频文件", e);
+        }
+        Log.e(TAG, "在音频文件中未找到音轨");
+        extractor.release();
+        return null;
+    }
 
-            if (format == null || mime == null) {
-                Log.e(TAG, "在MP3中未找到音轨");
-                callback.error(TextToSpeech.ERROR_INVALID_REQUEST);
-                return false;
-            }
+    /**
+     * 解码已选好音轨的 extractor，extractor 由调用方释放。返回 false 表示输出端中途停止。
+     */
+    private boolean decodeExtractor(MediaExtractor extractor, PcmSink sink, CancellationToken token)
+            throws SynthesisException {
+        MediaCodec codec = null;
+        boolean codecFailed = false;
 
-            codec = MediaCodec.createDecoderByType(mime);
-            codec.configure(format, null, null, 0);
-            codec.start();
+        try {
+            MediaFormat format = extractor.getTrackFormat(extractor.getSampleTrackIndex());
+            codec = acquireDecoder(format);
 
             MediaFormat outputFormat = codec.getOutputFormat();
             int sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
             int channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
-            int pcmEncoding = AudioFormat.ENCODING_PCM_16BIT;
 
             Log.d(TAG, "解码器真实输出格式: " + sampleRate + "Hz, " + channelCount + "声道");
-            callback.start(sampleRate, pcmEncoding, channelCount);
+            if (!sink.start(sampleRate, channelCount)) {
+                return false;
+            }
 
             final long timeoutUs = 10000;
-            ByteBuffer[] inputBuffers = codec.getInputBuffers();
-            ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+            PcmChunkCopier copier = new PcmChunkCopier(sink.maxChunkSize());
             MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            long loopStart = System.nanoTime();
+            long blockedNanos = 0;
+            long pcmBytes = 0;
             boolean isExtractorDone = false;
 
-            while (!Thread.currentThread().isInterrupted()) {
+            while (!token.isCancelled()) {
                 if (!isExtractorDone) {
                     int inputBufIndex = codec.dequeueInputBuffer(timeoutUs);
                     if (inputBufIndex >= 0) {
-                        ByteBuffer inputBuffer = inputBuffers[inputBufIndex];
+                        ByteBuffer inputBuffer = codec.getInputBuffer(inputBufIndex);
                         int sampleSize = extractor.readSampleData(inputBuffer, 0);
                         if (sampleSize < 0) {
                             codec.queueInputBuffer(inputBufIndex, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
@@ -361,149 +1294,49 @@ public class TtsService extends TextToSpeechService {
 
                 int outputBufIndex = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
                 if (outputBufIndex >= 0) {
-                    ByteBuffer outputBuffer = outputBuffers[outputBufIndex];
-                    final byte[] chunk = new byte[bufferInfo.size];
-                    outputBuffer.get(chunk);
-                    outputBuffer.clear();
-
-                    if (chunk.length > 0) {
-                        if (callback.audioAvailable(chunk, 0, chunk.length) == TextToSpeech.STOPPED) {
-                            break;
-                        }
-                    }
+                    long writeStart = System.nanoTime();
+                    boolean keepGoing = bufferInfo.size <= 0 || copier.copy(
+                            codec.getOutputBuffer(outputBufIndex), bufferInfo.offset, bufferInfo.size, sink);
+                    blockedNanos += System.nanoTime() - writeStart;
+                    pcmBytes += Math.max(0, bufferInfo.size);
                     codec.releaseOutputBuffer(outputBufIndex, false);
 
+                    if (!keepGoing) {
+                        return false;
+                    }
                     if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
                         break;
                     }
-                } else if (outputBufIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                    outputBuffers = codec.getOutputBuffers();
                 }
             }
             
-            return true;
+            recordDecode(pcmBytes, sampleRate, channelCount, System.nanoTime() - loopStart - blockedNanos);
+            return !token.isCancelled();
 
         } catch (Exception e) {
-            Log.e(TAG, "MediaCodec解码失败", e);
-            callback.error(TextToSpeech.ERROR_SYNTHESIS);
-            return false;
+            codecFailed = true;
+            throw new SynthesisException(TextToSpeech.ERROR_SYNTHESIS, "MediaCodec解码失败", e);
         } finally {
             if (codec != null) {
-                try { codec.stop(); } catch (Exception e) { Log.e(TAG, "停止解码器失败", e); }
-                try { codec.release(); } catch (Exception e) { Log.e(TAG, "释放解码器失败", e); }
-            }
-            if (extractor != null) {
-                try { extractor.release(); } catch (Exception e) { Log.e(TAG, "释放提取器失败", e); }
-            }
-            if (tempFile != null && tempFile.exists()) {
-                tempFile.delete();
+                decoderPool.release(codec, !codecFailed);
             }
         }
     }
 
-    private String httpGet(String urlStr) {
-        final int MAX_RETRIES = 3;
-        final int TIMEOUT_MS = 15000;
-        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
-            HttpURLConnection conn = null;
-            try {
-                URL url = new URL(urlStr);
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-                conn.setConnectTimeout(TIMEOUT_MS);
-                conn.setReadTimeout(TIMEOUT_MS);
-                
-                if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                    Log.w(TAG, "HTTP GET 请求失败，响应码: " + conn.getResponseCode());
-                    continue;
-                }
-
-                InputStream input = conn.getInputStream();
-                ByteArrayOutputStream output = new ByteArrayOutputStream();
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = input.read(buffer)) != -1) {
-                    output.write(buffer, 0, bytesRead);
-                }
-                input.close();
-                return output.toString("UTF-8");
-
-            } catch (Exception e) {
-                Log.w(TAG, "HTTP GET 尝试 " + attempt + "/" + MAX_RETRIES + " 失败: " + e.getMessage());
-                if (attempt == MAX_RETRIES) {
-                    Log.e(TAG, "HTTP GET 达到最大重试次数，放弃。", e);
-                    return null;
-                }
-                try { Thread.sleep(500); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); return null; }
-            } finally {
-                if (conn != null) {
-                    conn.disconnect();
-                }
-            }
+    private void recordDecode(long pcmBytes, int sampleRate, int channelCount, long workNanos) {
+        long bytesPerSecond = sampleRate * channelCount * 2L;
+        if (bytesPerSecond > 0) {
+            metrics.recordDecode(pcmBytes * 1000 / bytesPerSecond, workNanos);
         }
-        return null;
     }
-    
-    private byte[] httpGetBytes(String urlStr) {
-        final int MAX_RETRIES = 3;
-        final int TIMEOUT_MS = 15000;
-        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
-            HttpURLConnection conn = null;
-            try {
-                URL url = new URL(urlStr);
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setConnectTimeout(TIMEOUT_MS);
-                conn.setReadTimeout(TIMEOUT_MS);
-                
-                if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
-                    Log.w(TAG, "HTTP GET字节请求失败，响应码: " + conn.getResponseCode());
-                    continue;
-                }
 
-                InputStream input = conn.getInputStream();
-                ByteArrayOutputStream output = new ByteArrayOutputStream();
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = input.read(buffer)) != -1) {
-                    output.write(buffer, 0, bytesRead);
-                }
-                input.close();
-                return output.toByteArray();
-
-            } catch (Exception e) {
-                Log.w(TAG, "HTTP GET字节 尝试 " + attempt + "/" + MAX_RETRIES + " 失败: " + e.getMessage());
-                if (attempt == MAX_RETRIES) {
-                    Log.e(TAG, "HTTP GET字节 达到最大重试次数，放弃。", e);
-                    return null;
-                }
-                try { Thread.sleep(500); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); return null; }
-            } finally {
-                if (conn != null) {
-                    conn.disconnect();
-                }
-            }
-        }
-        return null;
-    }
-    
-    private String parseJsonUrl(String json) {
-        try {
-            String urlKey = "\"url\":\"";
-            int urlKeyIndex = json.indexOf(urlKey);
-            if (urlKeyIndex == -1) {
-                Log.e(TAG, "JSON中没有找到url键");
-                return null;
-            }
-            
-            int start = urlKeyIndex + 7;
-            int end = json.indexOf("\"", start);
-            
-            if (end > start) {
-                return json.substring(start, end);
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (java.io.IOException e) {
+                // ignore
             }
-        } catch (Exception e) {
-            Log.e(TAG, "解析JSON失败", e);
         }
-        return null;
     }
 }
\ No newline at end of file
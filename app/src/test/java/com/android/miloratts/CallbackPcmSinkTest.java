@@ -0,0 +1,76 @@
+package com.android.miloratts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.speech.tts.SynthesisCallback;
+import android.speech.tts.TextToSpeech;
+
+import org.junit.Test;
+
+public class CallbackPcmSinkTest {
+
+    @Test
+    public void laterSegmentInAnotherFormatIsConverted() {
+        RecordingCallback callback = new RecordingCallback();
+        CallbackPcmSink sink = new CallbackPcmSink(callback);
+
+        assertTrue(sink.start(24000, 1));
+        assertTrue(sink.write(new byte[4800], 0, 4800));
+        // 第二个片段来自另一种格式的缓存：48kHz 立体声 0.1 秒
+        assertTrue(sink.start(48000, 2));
+        assertTrue(sink.write(new byte[48000 * 2 * 2 / 10], 0, 48000 * 2 * 2 / 10));
+        assertTrue(sink.start(24000, 1));
+        assertTrue(sink.write(new byte[4800], 0, 4800));
+
+        assertEquals(1, callback.starts);
+        // 每段都是 0.1 秒 24kHz 单声道，转换的那段只差插值末尾的一帧
+        assertEquals(3 * 4800, callback.bytes, 2);
+    }
+
+    private static final class RecordingCallback implements SynthesisCallback {
+        int starts;
+        long bytes;
+
+        @Override
+        public int getMaxBufferSize() {
+            return 1024;
+        }
+
+        @Override
+        public int start(int sampleRateInHz, int audioFormat, int channelCount) {
+            starts++;
+            return TextToSpeech.SUCCESS;
+        }
+
+        @Override
+        public int audioAvailable(byte[] buffer, int offset, int length) {
+            assertTrue(length <= getMaxBufferSize());
+            bytes += length;
+            return TextToSpeech.SUCCESS;
+        }
+
+        @Override
+        public int done() {
+            return TextToSpeech.SUCCESS;
+        }
+
+        @Override
+        public void error() {
+        }
+
+        @Override
+        public void error(int errorCode) {
+        }
+
+        @Override
+        public boolean hasStarted() {
+            return starts > 0;
+        }
+
+        @Override
+        public boolean hasFinished() {
+            return false;
+        }
+    }
+}
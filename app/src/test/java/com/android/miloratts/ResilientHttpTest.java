@@ -0,0 +1,242 @@
+package com.android.miloratts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.android.miloratts.core.CancellationToken;
+import com.android.miloratts.core.CircuitBreaker;
+import com.android.miloratts.core.EngineMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 用本地 HTTP 服务注入故障：首字节慢、连续 5xx、响应体中途停顿。
+ */
+public class ResilientHttpTest {
+    private static final int READ_TIMEOUT_MS = 10000;
+    private static final HttpClient.BodyParser<String> TEXT = new HttpClient.BodyParser<String>() {
+        @Override
+        public String parse(InputStream in) throws IOException {
+            return new String(readAll(in), "UTF-8");
+        }
+    };
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private final EngineMetrics metrics = new EngineMetrics();
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ScheduledExecutorService timer;
+    private ResilientHttp http;
+    private volatile Fault fault;
+
+    /**
+     * 第 n 个请求（从 1 开始）的处理方式。
+     */
+    private interface Fault {
+        void handle(int n, HttpExchange exchange) throws IOException, InterruptedException;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    fault.handle(requests.incrementAndGet(), exchange);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    // 客户端断开了连接
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        timer = Executors.newSingleThreadScheduledExecutor();
+        http = new ResilientHttp(new HttpClient(5000, READ_TIMEOUT_MS), metrics, timer);
+    }
+
+    @After
+    public void tearDown() {
+        http.shutdown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    @Test(timeout = 20000)
+    public void slowFirstByteTriggersHedge() throws IOException {
+        fault = new Fault() {
+            @Override
+            public void handle(int n, HttpExchange exchange) throws IOException, InterruptedException {
+                if (n == 1) {
+                    Thread.sleep(5000);
+                }
+                respond(exchange, 200, "ok " + n);
+            }
+        };
+        recordSamples(http.getApiEndpoint(), 50);
+
+        long start = System.currentTimeMillis();
+        String body = http.get(url(), TEXT, new CancellationToken());
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 对冲请求先返回，不用等第一个请求
+        assertEquals("ok 2", body);
+        assertEquals(1, metrics.hedges.get());
+        assertTrue("耗时 " + elapsed + "ms", elapsed < 2000);
+    }
+
+    @Test(timeout = 20000)
+    public void requestsAfterShutdownAreNotHedged() throws IOException {
+        fault = new Fault() {
+            @Override
+            public void handle(int n, HttpExchange exchange) throws IOException, InterruptedException {
+                if (n == 1) {
+                    Thread.sleep(500);
+                }
+                respond(exchange, 200, "ok " + n);
+            }
+        };
+        recordSamples(http.getApiEndpoint(), 50);
+
+        http.shutdown();
+        String body = http.get(url(), TEXT, new CancellationToken());
+
+        // 对冲线程池停止后请求直接在调用线程发出，慢也不再对冲
+        assertEquals("ok 1", body);
+        assertEquals(0, metrics.hedges.get());
+        assertEquals(1, requests.get());
+    }
+
+    @Test(timeout = 20000)
+    public void breakerOpensAfterConsecutiveFailures() throws IOException {
+        fault = new Fault() {
+            @Override
+            public void handle(int n, HttpExchange exchange) throws IOException {
+                respond(exchange, 503, "busy");
+            }
+        };
+
+        // 第一次调用重试 3 次都失败
+        try {
+            http.get(url(), TEXT, new CancellationToken());
+            fail();
+        } catch (HttpClient.HttpStatusException expected) {
+            assertEquals(503, expected.getCode());
+        }
+        assertTrue(http.getApiEndpoint().breaker.getState() != CircuitBreaker.OPEN);
+
+        // 第二次调用在第 5 次连续失败时熔断，剩下的重试不再发出
+        try {
+            http.get(url(), TEXT, new CancellationToken());
+            fail();
+        } catch (ResilientHttp.CircuitOpenException expected) {
+            assertEquals(5, requests.get());
+        }
+        assertEquals(CircuitBreaker.OPEN, http.getApiEndpoint().breaker.getState());
+
+        try {
+            http.get(url(), TEXT, new CancellationToken());
+            fail();
+        } catch (ResilientHttp.CircuitOpenException expected) {
+            // 熔断期间请求不再发出
+        }
+        assertEquals(5, requests.get());
+        assertTrue(http.isCacheOnly());
+    }
+
+    @Test(timeout = 30000)
+    public void slowResponseHeadersAreRetried() throws IOException {
+        fault = new Fault() {
+            @Override
+            public void handle(int n, HttpExchange exchange) throws IOException, InterruptedException {
+                if (n == 1) {
+                    Thread.sleep(4000);
+                }
+                respond(exchange, 200, "audio " + n);
+            }
+        };
+        recordSamples(http.getAudioEndpoint(), 50);
+
+        HttpURLConnection conn = http.openStream(url(), new CancellationToken());
+
+        // 第一次在首字节超时（2 秒）时被断开，第二次成功
+        assertEquals("audio 2", new String(readAll(conn.getInputStream()), "UTF-8"));
+        assertEquals(2, requests.get());
+        assertEquals(1, metrics.retries.get());
+    }
+
+    @Test(timeout = 30000)
+    public void slowBodyIsNotCutByFirstByteTimeout() throws IOException {
+        final byte[] audio = new byte[64 * 1024];
+        fault = new Fault() {
+            @Override
+            public void handle(int n, HttpExchange exchange) throws IOException, InterruptedException {
+                exchange.sendResponseHeaders(200, audio.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(audio, 0, audio.length / 2);
+                out.flush();
+                // 停顿超过首字节超时，但在读取超时之内
+                Thread.sleep(3000);
+                out.write(audio, audio.length / 2, audio.length - audio.length / 2);
+            }
+        };
+        recordSamples(http.getAudioEndpoint(), 50);
+
+        HttpURLConnection conn = http.openStream(url(), new CancellationToken());
+
+        assertEquals(audio.length, readAll(conn.getInputStream()).length);
+        assertEquals(1, requests.get());
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    private static void recordSamples(ResilientHttp.Endpoint endpoint, long latencyMs) {
+        for (int i = 0; i < 10; i++) {
+            endpoint.latency.record(latencyMs);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
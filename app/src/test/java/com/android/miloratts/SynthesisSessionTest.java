@@ -0,0 +1,98 @@
+package com.android.miloratts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.miloratts.core.CancellationToken;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SynthesisSessionTest {
+
+    @Test
+    public void stopBeforeBeginCancelsTheNewToken() {
+        SynthesisSession session = new SynthesisSession(1000, "test");
+        session.prepare();
+
+        assertTrue(session.cancel());
+        CancellationToken token = session.begin(false);
+
+        assertTrue(token.isCancelled());
+        session.end(token);
+        assertEquals(1, session.stops.get());
+    }
+
+    @Test
+    public void stopWhileIdleIsIgnored() {
+        SynthesisSession session = new SynthesisSession(1000, "test");
+
+        assertFalse(session.cancel());
+        session.prepare();
+        assertFalse(session.begin(false).isCancelled());
+    }
+
+    @Test
+    public void stopAfterEndDoesNotCarryOver() {
+        SynthesisSession session = new SynthesisSession(1000, "test");
+        session.prepare();
+        CancellationToken first = session.begin(false);
+        session.end(first);
+
+        assertFalse(session.cancel());
+        session.prepare();
+        assertFalse(session.begin(false).isCancelled());
+    }
+
+    @Test
+    public void stopDuringSynthesisCancelsCurrentToken() {
+        SynthesisSession session = new SynthesisSession(1000, "test");
+        session.prepare();
+        CancellationToken token = session.begin(true);
+
+        assertTrue(session.isActive());
+        assertTrue(session.cancel());
+        assertTrue(token.isCancelled());
+        session.end(token);
+        assertFalse(session.isActive());
+    }
+
+    /**
+     * 按服务里的顺序发布会话，另一个线程一看到发布就停止：无论停止落在 begin 之前还是之后，
+     * 这一次合成的取消标记都必须被取消。
+     */
+    @Test(timeout = 30000)
+    public void stopRacingWithBeginIsNeverLost() throws Exception {
+        final SynthesisSession session = new SynthesisSession(1000, "test");
+        final AtomicReference<SynthesisSession> active = new AtomicReference<>();
+        for (int i = 0; i < 2000; i++) {
+            final CountDownLatch stopped = new CountDownLatch(1);
+            Thread stopper = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SynthesisSession published;
+                    while ((published = active.get()) == null) {
+                        Thread.yield();
+                    }
+                    published.cancel();
+                    stopped.countDown();
+                }
+            });
+            stopper.start();
+
+            session.prepare();
+            active.set(session);
+            CancellationToken token = session.begin(false);
+            assertTrue(stopped.await(5, TimeUnit.SECONDS));
+            assertTrue("第 " + i + " 次停止丢失", token.isCancelled());
+            active.set(null);
+            session.end(token);
+            stopper.join();
+        }
+        assertEquals(2000, session.stops.get());
+    }
+}
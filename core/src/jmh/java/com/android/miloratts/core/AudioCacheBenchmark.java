@@ -0,0 +1,85 @@
+package com.android.miloratts.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多个线程同时查缓存时的索引开销：命中要追加 READ 日志，未命中只查内存表。
+ * 缓存目录放在临时目录下，后台淘汰直接在调用线程执行。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AudioCacheBenchmark {
+    private static final int ENTRY_COUNT = 512;
+
+    private File directory;
+    private AudioCache cache;
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = File.createTempFile("milora-cache", "");
+        directory.delete();
+        directory.mkdirs();
+        Executor sameThread = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        cache = AudioCache.open(directory, 64L * 1024 * 1024, sameThread);
+        keys = new String[ENTRY_COUNT];
+        byte[] payload = new byte[4096];
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            keys[i] = CacheKeys.forText("片段 " + i, "mbAIsc", "zho", "mp3");
+            File temp = cache.newTempFile(keys[i]);
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(payload);
+            } finally {
+                out.close();
+            }
+            cache.commit(keys[i], temp);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.clear();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CachedAudio hit() {
+        return cache.get(keys[ThreadLocalRandom.current().nextInt(ENTRY_COUNT)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CachedAudio miss() {
+        return cache.get("missing-" + ThreadLocalRandom.current().nextInt(ENTRY_COUNT));
+    }
+}
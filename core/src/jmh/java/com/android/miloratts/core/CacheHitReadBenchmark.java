@@ -0,0 +1,137 @@
+package com.android.miloratts.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 逐文件缓存命中时把 MP3 交给解码器之前的文件读写开销。
+ * tempFileCopy 是旧做法：整个文件读进字节数组，写到新的临时文件，解码器再按路径读一遍；
+ * descriptor 是现在的做法：打开缓存文件，解码器在同一个文件描述符上按偏移读一遍。
+ * 解码器本身在普通 JVM 上不可用，这里用按位置的顺序读代替 MediaExtractor 的读取，两边相同。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheHitReadBenchmark {
+    // 与旧代码的读缓冲区相同
+    private static final int READ_BUFFER = 4096;
+
+    // 约 1 秒、5 秒和 30 秒的 48kbps MP3
+    @Param({"6144", "30720", "184320"})
+    public int clipBytes;
+
+    private final byte[] buffer = new byte[READ_BUFFER];
+    private final ByteBuffer extractorBuffer = ByteBuffer.allocate(READ_BUFFER);
+    private File directory;
+    private File cached;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = File.createTempFile("milora-hit", "");
+        directory.delete();
+        directory.mkdirs();
+        cached = new File(directory, CacheKeys.forText("缓存命中", "mbAIsc", "zho", "mp3"));
+        byte[] payload = new byte[clipBytes];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i * 31);
+        }
+        FileOutputStream out = new FileOutputStream(cached);
+        try {
+            out.write(payload);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public long tempFileCopy() throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        FileInputStream in = new FileInputStream(cached);
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                data.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        byte[] mp3 = data.toByteArray();
+
+        File temp = File.createTempFile("tts_audio", ".mp3", directory);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(mp3);
+            } finally {
+                out.close();
+            }
+            FileInputStream extractorInput = new FileInputStream(temp);
+            try {
+                return extract(extractorInput.getFD(), extractorInput.getChannel(), temp.length());
+            } finally {
+                extractorInput.close();
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    @Benchmark
+    public long descriptor() throws IOException {
+        long length = cached.length();
+        FileInputStream in = new FileInputStream(cached);
+        try {
+            return extract(in.getFD(), in.getChannel(), length);
+        } finally {
+            in.close();
+        }
+    }
+
+    // MediaExtractor.setDataSource(fd, offset, length) 之后按位置读取，不移动文件描述符的读位置
+    private long extract(FileDescriptor fd, FileChannel channel, long length) throws IOException {
+        if (!fd.valid()) {
+            throw new IOException("文件描述符无效");
+        }
+        long position = 0;
+        long checksum = 0;
+        while (position < length) {
+            extractorBuffer.clear();
+            int read = channel.read(extractorBuffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+            checksum += extractorBuffer.get(0);
+        }
+        return checksum + position;
+    }
+}
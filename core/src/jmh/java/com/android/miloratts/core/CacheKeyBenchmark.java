@@ -0,0 +1,45 @@
+package com.android.miloratts.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每段文本在查缓存之前都要规范化并计算一次缓存键，这里衡量短句和长段落的规范化和键计算耗时。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheKeyBenchmark {
+    @Param({"12", "100"})
+    public int length;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder(length);
+        String sample = "今天天气很好，我们一起去公园散步吧。Ｈｅｌｌｏ  world！！";
+        while (sb.length() < length) {
+            sb.append(sample);
+        }
+        text = sb.substring(0, length);
+    }
+
+    @Benchmark
+    public String forText() {
+        return CacheKeys.forText(text, "mbAIsc", "zho", "mp3");
+    }
+
+    @Benchmark
+    public String normalize() {
+        return TextNormalizer.normalize(text);
+    }
+}
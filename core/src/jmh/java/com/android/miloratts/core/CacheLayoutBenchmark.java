@@ -0,0 +1,117 @@
+package com.android.miloratts.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 逐文件缓存与打包缓存在大量条目下的对比：随机命中并读出整条音频的耗时，以及重新打开（载入索引）的耗时。
+ * 每条音频 2 KB，10 万条时每种布局约占 200 MB 临时目录。
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheLayoutBenchmark {
+    private static final int PAYLOAD_BYTES = 2048;
+
+    @Param({"10000", "100000"})
+    public int entries;
+
+    @Param({"file", "pack"})
+    public String layout;
+
+    private final Executor sameThread = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private final byte[] scratch = new byte[PAYLOAD_BYTES];
+    private File directory;
+    private AudioStore cache;
+    private String[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = File.createTempFile("milora-layout", "");
+        directory.delete();
+        directory.mkdirs();
+        cache = open();
+        keys = new String[entries];
+        byte[] payload = new byte[PAYLOAD_BYTES];
+        for (int i = 0; i < entries; i++) {
+            keys[i] = CacheKeys.forText("片段 " + i, "mbAIsc", "zho", "mp3");
+            File temp = cache.newTempFile(keys[i]);
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(payload);
+            } finally {
+                out.close();
+            }
+            cache.commit(keys[i], temp);
+        }
+        // 重新打开一次，让两种布局都从持久化的索引开始
+        cache = open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.clear();
+        deleteRecursively(directory);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public int readHit() throws IOException {
+        CachedAudio audio = cache.get(keys[ThreadLocalRandom.current().nextInt(entries)]);
+        InputStream in = audio.openStream();
+        try {
+            int total = 0;
+            int read;
+            while ((read = in.read(scratch, 0, scratch.length)) > 0) {
+                total += read;
+            }
+            return total;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public AudioStore reopen() throws IOException {
+        return open();
+    }
+
+    private AudioStore open() throws IOException {
+        long maxBytes = Long.MAX_VALUE;
+        return "pack".equals(layout)
+                ? PackAudioCache.open(directory, maxBytes, sameThread)
+                : AudioCache.open(directory, maxBytes, sameThread);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
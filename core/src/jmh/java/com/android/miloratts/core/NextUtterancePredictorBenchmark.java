@@ -0,0 +1,57 @@
+package com.android.miloratts.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次合成都要在合成线程上记录一次前后句并做一次预测，这里衡量表已经装满、不断有新句子挤入时两者的耗时。
+ * 界面遍历顺序用 200 句的固定序列模拟，每 10 句插入一句随机的新句子。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NextUtterancePredictorBenchmark {
+    private static final int SEQUENCE = 200;
+
+    private final long[] sequence = new long[SEQUENCE];
+    private final long[] out = new long[2];
+    private NextUtterancePredictor predictor;
+    private Random random;
+    private int position;
+    private long previous;
+
+    @Setup
+    public void setUp() {
+        random = new Random(42);
+        for (int i = 0; i < SEQUENCE; i++) {
+            sequence[i] = random.nextLong() | 1;
+        }
+        predictor = new NextUtterancePredictor(2048);
+        for (int i = 0; i < 4096; i++) {
+            predictor.observe(random.nextLong() | 1, random.nextLong() | 1);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 1; i < SEQUENCE; i++) {
+                predictor.observe(sequence[i - 1], sequence[i]);
+            }
+        }
+        previous = sequence[0];
+    }
+
+    @Benchmark
+    public int observeAndPredict() {
+        position = (position + 1) % SEQUENCE;
+        long next = position % 10 == 0 ? random.nextLong() | 1 : sequence[position];
+        predictor.observe(previous, next);
+        previous = next;
+        return predictor.predict(next, out);
+    }
+}
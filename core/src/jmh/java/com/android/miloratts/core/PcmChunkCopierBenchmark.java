@@ -0,0 +1,57 @@
+package com.android.miloratts.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模拟解码器输出缓冲（direct ByteBuffer）交给 sink 的复制开销，sink 只消费数据不做其他事情。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PcmChunkCopierBenchmark {
+    @Param({"4096", "16384"})
+    public int outputSize;
+
+    private ByteBuffer output;
+    private PcmChunkCopier copier;
+    private PcmSink sink;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        output = ByteBuffer.allocateDirect(outputSize);
+        sink = new PcmSink() {
+            @Override
+            public boolean start(int sampleRate, int channelCount) {
+                return true;
+            }
+
+            @Override
+            public boolean write(byte[] buffer, int offset, int length) {
+                blackhole.consume(buffer);
+                return true;
+            }
+
+            @Override
+            public int maxChunkSize() {
+                return PcmChunkCopier.DEFAULT_CHUNK_SIZE;
+            }
+        };
+        copier = new PcmChunkCopier(sink.maxChunkSize());
+    }
+
+    @Benchmark
+    public boolean copy() {
+        return copier.copy(output, 0, outputSize, sink);
+    }
+}
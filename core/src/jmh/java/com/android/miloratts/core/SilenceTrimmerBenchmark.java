@@ -0,0 +1,76 @@
+package com.android.miloratts.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 去静音处理一个 24kHz 单声道片段的耗时：开头 250ms、句中 100ms、结尾 400ms 低噪声静音，
+ * 中间是 1.5 秒有声部分，按 MP3 帧大小分块写入。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SilenceTrimmerBenchmark {
+    private static final int SAMPLE_RATE = 24000;
+    private static final int CHUNK_BYTES = 1152 * 2;
+
+    private byte[] pcm;
+    private SilenceTrimmer trimmer;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        int[] lengthsMs = {250, 1000, 100, 500, 400};
+        int total = 0;
+        for (int lengthMs : lengthsMs) {
+            total += SAMPLE_RATE * lengthMs / 1000;
+        }
+        pcm = new byte[total * 2];
+        Random random = new Random(42);
+        int index = 0;
+        for (int part = 0; part < lengthsMs.length; part++) {
+            boolean voiced = part % 2 == 1;
+            int samples = SAMPLE_RATE * lengthsMs[part] / 1000;
+            for (int i = 0; i < samples; i++, index++) {
+                double value = voiced ? Math.sin(2 * Math.PI * 200 * i / SAMPLE_RATE) * 8000 : random.nextGaussian() * 30;
+                short sample = (short) value;
+                pcm[2 * index] = (byte) sample;
+                pcm[2 * index + 1] = (byte) (sample >> 8);
+            }
+        }
+        trimmer = new SilenceTrimmer(new PcmSink() {
+            @Override
+            public boolean start(int sampleRate, int channelCount) {
+                return true;
+            }
+
+            @Override
+            public boolean write(byte[] buffer, int offset, int length) {
+                blackhole.consume(buffer);
+                return true;
+            }
+
+            @Override
+            public int maxChunkSize() {
+                return PcmChunkCopier.DEFAULT_CHUNK_SIZE;
+            }
+        }, 200, null);
+    }
+
+    @Benchmark
+    public boolean trimSegment() {
+        trimmer.start(SAMPLE_RATE, 1);
+        for (int offset = 0; offset < pcm.length; offset += CHUNK_BYTES) {
+            trimmer.write(pcm, offset, Math.min(CHUNK_BYTES, pcm.length - offset));
+        }
+        return trimmer.flush();
+    }
+}
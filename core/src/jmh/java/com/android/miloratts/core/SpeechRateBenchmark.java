@@ -0,0 +1,81 @@
+package com.android.miloratts.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程处理 10 秒 24kHz 单声道音频的耗时，结果（毫秒）除以 10000 即实时率，小于 1 表示快于实时。
+ * 输入是基频在 100~200Hz 之间缓慢变化的谐波信号加少量噪声，按 MP3 帧大小分块写入。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SpeechRateBenchmark {
+    private static final int SAMPLE_RATE = 24000;
+    private static final int SECONDS = 10;
+    private static final int CHUNK_BYTES = 1152 * 2;
+
+    @Param({"0.5", "1.5", "2.0"})
+    public float rate;
+
+    @Param({"1.0", "1.25"})
+    public float pitch;
+
+    private byte[] pcm;
+    private SpeechRateProcessor processor;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        int samples = SAMPLE_RATE * SECONDS;
+        pcm = new byte[samples * 2];
+        Random random = new Random(42);
+        double phase = 0;
+        for (int i = 0; i < samples; i++) {
+            double f0 = 150 + 50 * Math.sin(2 * Math.PI * 0.5 * i / SAMPLE_RATE);
+            phase += 2 * Math.PI * f0 / SAMPLE_RATE;
+            double value = 0;
+            for (int harmonic = 1; harmonic <= 8; harmonic++) {
+                value += Math.sin(harmonic * phase) / harmonic;
+            }
+            short sample = (short) (value * 6000 + random.nextGaussian() * 300);
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        processor = new SpeechRateProcessor(new PcmSink() {
+            @Override
+            public boolean start(int sampleRate, int channelCount) {
+                return true;
+            }
+
+            @Override
+            public boolean write(byte[] buffer, int offset, int length) {
+                blackhole.consume(buffer);
+                return true;
+            }
+
+            @Override
+            public int maxChunkSize() {
+                return PcmChunkCopier.DEFAULT_CHUNK_SIZE;
+            }
+        }, rate, pitch);
+        processor.start(SAMPLE_RATE, 1);
+    }
+
+    @Benchmark
+    public boolean process() {
+        for (int offset = 0; offset < pcm.length; offset += CHUNK_BYTES) {
+            processor.write(pcm, offset, Math.min(CHUNK_BYTES, pcm.length - offset));
+        }
+        return processor.flush();
+    }
+}
@@ -0,0 +1,37 @@
+package com.android.miloratts.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段在 onSynthesizeText 的关键路径上，首段音频之前必须完成，这里衡量一篇约 2000 字文章的分段耗时。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TextSegmenterBenchmark {
+    private String article;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 2000) {
+            sb.append("语音合成服务把长文本切成较短的片段，逐段请求并播放；")
+                    .append("第一段越短，用户听到声音就越快。Hello, world! 这是第二句话？\n");
+        }
+        article = sb.toString();
+    }
+
+    @Benchmark
+    public List<String> split() {
+        return TextSegmenter.split(article, TextSegmenter.DEFAULT_MAX_LENGTH);
+    }
+}
@@ -0,0 +1,161 @@
+package com.android.miloratts.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Locale;
+
+/**
+ * 对比连接复用和每次新建连接：对替身合成服务按顺序发出同样的“API 请求 + 下载音频”，
+ * 一轮读完响应体后 close（与 app 的 HttpClient.release 相同，连接回到 keep-alive 池），
+ * 另一轮每次都关闭连接（旧代码的做法，每个请求都重新握手）。
+ * 替身服务在新连接的第一个请求上等待 handshakeLatencyMs，代替到真实主机的 TCP 和 TLS 握手。
+ * <pre>
+ * ./gradlew :core:connectionReuse -PconnectionReuseArgs="--requests 200 --handshake-latency 120"
+ * </pre>
+ */
+public final class ConnectionReuseComparison {
+    private static final int TIMEOUT_MS = 10000;
+    private static final int WARMUP_REQUESTS = 10;
+
+    private final String apiUrl;
+    private final StandInSynthesisServer server;
+    private final byte[] buffer = new byte[8192];
+
+    private ConnectionReuseComparison(StandInSynthesisServer server) {
+        this.server = server;
+        this.apiUrl = server.baseUrl() + StandInSynthesisServer.API_PATH;
+    }
+
+    public static void main(String[] args) throws Exception {
+        StandInSynthesisServer.Profile profile = new StandInSynthesisServer.Profile();
+        // 只比较连接开销：默认没有服务端延迟、限速、错误和长尾
+        profile.apiLatencyMs = 0;
+        profile.audioLatencyMs = 0;
+        profile.bytesPerSecond = 1L << 30;
+        profile.errorRate = 0;
+        profile.tailRate = 0;
+        profile.handshakeLatencyMs = 100;
+        int requests = 100;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String arg = args[i];
+            String value = args[i + 1];
+            if ("--requests".equals(arg)) {
+                requests = Integer.parseInt(value);
+            } else if ("--handshake-latency".equals(arg)) {
+                profile.handshakeLatencyMs = Long.parseLong(value);
+            } else if ("--api-latency".equals(arg)) {
+                profile.apiLatencyMs = Long.parseLong(value);
+            } else if ("--audio-latency".equals(arg)) {
+                profile.audioLatencyMs = Long.parseLong(value);
+            } else {
+                usage("未知参数: " + arg + " " + value);
+            }
+        }
+        if (args.length % 2 != 0) {
+            usage("缺少参数值: " + args[args.length - 1]);
+        }
+
+        // 响应头和响应体分两次写出，开着 Nagle 算法时每个响应都会多等一个延迟确认，盖过握手的差别
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        StandInSynthesisServer server = new StandInSynthesisServer(profile);
+        server.start();
+        try {
+            System.out.println("替身服务 " + server.baseUrl() + ": " + profile);
+            System.out.println("每轮 " + requests + " 句，每句一个 API 请求和一个音频请求");
+            ConnectionReuseComparison comparison = new ConnectionReuseComparison(server);
+            comparison.round("新建连接", false, requests);
+            comparison.round("复用连接", true, requests);
+        } finally {
+            server.stop();
+        }
+        System.exit(0);
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("参数: [--requests 句数] [--handshake-latency ms] [--api-latency ms] [--audio-latency ms]");
+        System.exit(2);
+    }
+
+    private void round(String name, boolean reuse, int requests) throws IOException {
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            utterance("预热 " + i, reuse, new LatencyHistogram(), new LatencyHistogram());
+        }
+        LatencyHistogram api = new LatencyHistogram();
+        LatencyHistogram audio = new LatencyHistogram();
+        LatencyHistogram total = new LatencyHistogram();
+        long connectionsBefore = server.connections.get();
+        for (int i = 0; i < requests; i++) {
+            long startNanos = System.nanoTime();
+            utterance(name + " 第 " + i + " 句", reuse, api, audio);
+            total.record((System.nanoTime() - startNanos) / 1000);
+        }
+        long connections = server.connections.get() - connectionsBefore;
+        System.out.println(String.format(Locale.US,
+                "%s: 每句 p50 %.2f ms  p95 %.2f ms  平均 %.2f ms；API 响应头 p50 %.2f ms，音频响应头 p50 %.2f ms；"
+                        + "新连接 %d 个",
+                name, millis(total.percentile(0.5)), millis(total.percentile(0.95)), millis(total.mean()),
+                millis(api.percentile(0.5)), millis(audio.percentile(0.5)), connections));
+    }
+
+    // 一句话：请求 API 拿到音频地址，再把音频完整读下来；耗时以微秒记录到响应头到达为止
+    private void utterance(String text, boolean reuse, LatencyHistogram api, LatencyHistogram audio)
+            throws IOException {
+        String apiCall = apiUrl + "?text=" + URLEncoder.encode(text, "UTF-8") + "&format=mp3";
+        HttpURLConnection conn = open(apiCall, reuse, api);
+        String audioUrl;
+        try {
+            ApiResponse response = ApiResponseParser.parse(conn.getInputStream());
+            if (!response.isSuccess() || response.getAudioUrl() == null) {
+                throw new IOException("API返回错误: code=" + response.getCode());
+            }
+            audioUrl = response.getAudioUrl();
+        } finally {
+            finish(conn, reuse);
+        }
+        conn = open(audioUrl, reuse, audio);
+        finish(conn, reuse);
+    }
+
+    private static HttpURLConnection open(String url, boolean reuse, LatencyHistogram latency)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(TIMEOUT_MS);
+        conn.setReadTimeout(TIMEOUT_MS);
+        if (!reuse) {
+            // JDK 在响应体读完时已经把连接放回池中，之后的 disconnect 不再关闭它；
+            // 旧代码在 Android 上 disconnect 会关闭 socket，这里用 Connection: close 得到同样的效果
+            conn.setRequestProperty("Connection", "close");
+        }
+        int status = conn.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            conn.disconnect();
+            throw new IOException("HTTP " + status + ": " + url);
+        }
+        latency.record((System.nanoTime() - startNanos) / 1000);
+        return conn;
+    }
+
+    // 读完剩余的响应体再 close；复用时连接回到池中，否则再 disconnect
+    private void finish(HttpURLConnection conn, boolean reuse) throws IOException {
+        InputStream in = conn.getInputStream();
+        try {
+            while (in.read(buffer) >= 0) {
+                // 丢弃
+            }
+        } finally {
+            in.close();
+            if (!reuse) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,371 @@
+package com.android.miloratts.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 负载测试：启动本机的替身合成服务，把读屏风格的请求序列按原来的时间间隔回放给 {@link ReplayEngine}，
+ * 最后输出首个音频耗时的分位数、缓存命中率、上游请求数和堆分配量。
+ * <p>
+ * 与系统的 TTS 框架一样只有一个合成线程：flush 请求丢弃排队的请求并停止正在合成的一句，
+ * 首个音频耗时从请求到达算起，包含排队时间。输出端按实时速度“播放”，只比播放进度多缓冲
+ * {@link #PLAYBACK_BUFFER_MS}，长句在播完之前一直占着合成线程，与真机上一样会被下一次滑动打断。
+ * <pre>
+ * ./gradlew :core:loadtest -PloadtestArgs="--events 600 --error-rate 0.05 --format wav"
+ * </pre>
+ */
+public final class LoadTest {
+    private static final long PLAYBACK_BUFFER_MS = 250;
+    private static final long DEFAULT_CACHE_MB = 50;
+
+    private final List<ReplayTrace.Event> events;
+    private final ReplayEngine engine;
+    private final StandInSynthesisServer server;
+    private final boolean pacing;
+    private final LatencyHistogram firstAudio = new LatencyHistogram();
+    private final AtomicLong stoppedBeforeAudio = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final LinkedBlockingDeque<Pending> queue = new LinkedBlockingDeque<>();
+    private final List<Thread> ioThreads = new ArrayList<>();
+    // 合成线程退出前记下自己的分配量，线程结束后就查不到了
+    private volatile long synthesisAllocatedBytes;
+    // 以下两项只在持有 queue 锁时读写：正在合成的请求，以及 flush 的次数。
+    // 合成线程取出请求时如果期间又有过 flush，这个请求已经被丢弃
+    private CancellationToken active;
+    private long flushGeneration;
+
+    private LoadTest(List<ReplayTrace.Event> events, StandInSynthesisServer server, String format, long cacheBytes,
+            boolean pacing) throws IOException {
+        this.events = events;
+        this.server = server;
+        this.pacing = pacing;
+        File cacheDir = File.createTempFile("milora-loadtest", "");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        cacheDir.deleteOnExit();
+        final ThreadFactory factory = new NamedThreadFactory("ReplayIO", Thread.NORM_PRIORITY);
+        engine = new ReplayEngine(server.baseUrl() + StandInSynthesisServer.API_PATH, format, cacheDir, cacheBytes,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = factory.newThread(r);
+                        synchronized (ioThreads) {
+                            ioThreads.add(thread);
+                        }
+                        return thread;
+                    }
+                });
+    }
+
+    public static void main(String[] args) throws Exception {
+        StandInSynthesisServer.Profile profile = new StandInSynthesisServer.Profile();
+        File traceFile = null;
+        int eventCount = 400;
+        long seed = 1;
+        String format = "mp3";
+        long cacheMb = DEFAULT_CACHE_MB;
+        boolean pacing = true;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--no-pacing".equals(arg)) {
+                pacing = false;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                usage("缺少参数值: " + arg);
+            }
+            String value = args[++i];
+            if ("--trace".equals(arg)) {
+                traceFile = new File(value);
+            } else if ("--events".equals(arg)) {
+                eventCount = Integer.parseInt(value);
+            } else if ("--seed".equals(arg)) {
+                seed = Long.parseLong(value);
+            } else if ("--format".equals(arg) && ("mp3".equals(value) || "wav".equals(value))) {
+                format = value;
+            } else if ("--cache-mb".equals(arg)) {
+                cacheMb = Long.parseLong(value);
+            } else if ("--api-latency".equals(arg)) {
+                profile.apiLatencyMs = Long.parseLong(value);
+            } else if ("--audio-latency".equals(arg)) {
+                profile.audioLatencyMs = Long.parseLong(value);
+            } else if ("--bandwidth-kb".equals(arg)) {
+                profile.bytesPerSecond = Long.parseLong(value) * 1024;
+            } else if ("--error-rate".equals(arg)) {
+                profile.errorRate = Double.parseDouble(value);
+            } else if ("--tail-rate".equals(arg)) {
+                profile.tailRate = Double.parseDouble(value);
+            } else if ("--tail-latency".equals(arg)) {
+                profile.tailLatencyMs = Long.parseLong(value);
+            } else if ("--handshake-latency".equals(arg)) {
+                profile.handshakeLatencyMs = Long.parseLong(value);
+            } else if ("--fixtures".equals(arg)) {
+                profile.fixtureDir = new File(value);
+            } else {
+                usage("未知参数: " + arg + " " + value);
+            }
+        }
+
+        List<ReplayTrace.Event> events = traceFile != null
+                ? ReplayTrace.load(traceFile) : ReplayTrace.talkBackSession(seed, eventCount);
+        StandInSynthesisServer server = new StandInSynthesisServer(profile);
+        server.start();
+        try {
+            System.out.println("替身服务 " + server.baseUrl() + ": " + profile);
+            System.out.println("回放 " + (traceFile != null ? traceFile.getPath() : "生成的读屏序列 (seed " + seed + ")")
+                    + "，" + events.size() + " 条请求，格式 " + format + (pacing ? "" : "，不按实时播放"));
+            new LoadTest(events, server, format, cacheMb * 1024 * 1024, pacing).run();
+        } finally {
+            server.stop();
+        }
+        System.exit(0);
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("参数: [--trace 文件 | --events 条数 --seed 种子] [--format mp3|wav] [--cache-mb MB]"
+                + " [--api-latency ms] [--audio-latency ms] [--bandwidth-kb KB/s] [--error-rate 0..1]"
+                + " [--tail-rate 0..1] [--tail-latency ms] [--handshake-latency ms] [--fixtures 目录] [--no-pacing]");
+        System.exit(2);
+    }
+
+    private void run() throws InterruptedException {
+        Thread synthesisThread = new NamedThreadFactory("ReplaySynthesis", Thread.NORM_PRIORITY)
+                .newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        synthesisLoop();
+                    }
+                });
+        long[] gcBefore = gcTotals();
+        long startNanos = System.nanoTime();
+        synthesisThread.start();
+
+        for (ReplayTrace.Event event : events) {
+            long wait = event.offsetMs - (System.nanoTime() - startNanos) / 1000000;
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+            synchronized (queue) {
+                if (event.flush) {
+                    flushGeneration++;
+                    dropped.addAndGet(queue.size());
+                    queue.clear();
+                    if (active != null && !active.isCancelled()) {
+                        flushes.incrementAndGet();
+                        active.cancel();
+                    }
+                }
+                queue.addLast(new Pending(event, flushGeneration));
+            }
+        }
+        queue.addLast(Pending.END);
+        synthesisThread.join();
+        long elapsedMs = (System.nanoTime() - startNanos) / 1000000;
+        long allocated = allocatedBytes();
+        long[] gcAfter = gcTotals();
+        engine.shutdown();
+        report(elapsedMs, allocated, gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+    }
+
+    private void synthesisLoop() {
+        while (true) {
+            Pending pending;
+            CancellationToken token = new CancellationToken();
+            try {
+                pending = queue.takeFirst();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (pending == Pending.END) {
+                synthesisAllocatedBytes = threadAllocatedBytes(Thread.currentThread().getId());
+                return;
+            }
+            synchronized (queue) {
+                if (pending.generation != flushGeneration) {
+                    dropped.incrementAndGet();
+                    continue;
+                }
+                active = token;
+            }
+            engine.metrics.utterances.incrementAndGet();
+            PlaybackSink sink = new PlaybackSink(token, pacing);
+            try {
+                if (!engine.synthesize(pending.event.text, pending.event.caller, sink, token)) {
+                    engine.metrics.stops.incrementAndGet();
+                }
+            } catch (IOException e) {
+                if (token.isCancelled()) {
+                    engine.metrics.stops.incrementAndGet();
+                } else {
+                    engine.metrics.errors.incrementAndGet();
+                    System.err.println("合成失败: " + e.getMessage() + " (" + pending.event.text + ")");
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                engine.metrics.errors.incrementAndGet();
+                e.printStackTrace();
+            } finally {
+                synchronized (queue) {
+                    active = null;
+                }
+            }
+            if (sink.firstAudioNanos != 0) {
+                long latency = (sink.firstAudioNanos - pending.arrivedNanos) / 1000000;
+                firstAudio.record(latency);
+                engine.metrics.timeToFirstAudio.record(latency);
+            } else if (token.isCancelled()) {
+                stoppedBeforeAudio.incrementAndGet();
+            }
+        }
+    }
+
+    private void report(long elapsedMs, long allocatedBytes, long gcCount, long gcMillis) {
+        EngineMetrics metrics = engine.metrics;
+        long memory = metrics.memoryHits.get();
+        long disk = metrics.diskHits.get();
+        long network = metrics.networkFetches.get();
+        long coalesced = metrics.coalesced.get();
+        long lookups = memory + disk + network + coalesced;
+        long utterances = metrics.utterances.get();
+        System.out.println();
+        System.out.println(String.format(Locale.US, "用时 %.1f s，合成 %d 句，打断 %d 次，丢弃排队 %d 条，失败 %d 句",
+                elapsedMs / 1000.0, utterances, flushes.get(), dropped.get(), metrics.errors.get()));
+        System.out.println(String.format(Locale.US,
+                "首个音频 (ms，含排队): p50 %d  p95 %d  p99 %d  最大 %d  平均 %d，共 %d 句；出声前被打断 %d 句",
+                firstAudio.percentile(0.5), firstAudio.percentile(0.95), firstAudio.percentile(0.99),
+                firstAudio.max(), firstAudio.mean(), firstAudio.count(), stoppedBeforeAudio.get()));
+        System.out.println(String.format(Locale.US,
+                "片段来源: 内存 %d (%s)，磁盘 %d (%s)，网络 %d (%s)，合并 %d；缓存命中率 %s",
+                memory, percent(memory, lookups), disk, percent(disk, lookups), network, percent(network, lookups),
+                coalesced, percent(memory + disk, lookups)));
+        System.out.println(String.format(Locale.US,
+                "缓存: 内存 %d 条 %d KB，磁盘 %d 条 %d KB",
+                engine.getMemoryCache().entryCount(), engine.getMemoryCache().size() / 1024,
+                engine.getCache().entryCount(), engine.getCache().size() / 1024));
+        System.out.println(String.format(Locale.US,
+                "上游: API 请求 %d 次，音频请求 %d 次，新连接 %d 个，注入错误 %d 次，长尾 %d 次，发送 %d KB；引擎重试 %d 次",
+                server.apiRequests.get(), server.audioRequests.get(), server.connections.get(),
+                server.injectedErrors.get(), server.tailResponses.get(), server.bytesServed.get() / 1024, metrics.retries.get()));
+        System.out.println(String.format(Locale.US,
+                "网络耗时 (ms): API p50 %d p95 %d，音频连接 p50 %d p95 %d",
+                metrics.apiLatency.percentile(0.5), metrics.apiLatency.percentile(0.95),
+                metrics.audioConnectLatency.percentile(0.5), metrics.audioConnectLatency.percentile(0.95)));
+        System.out.println(allocatedBytes < 0 ? "堆分配: 当前 JVM 不支持按线程统计"
+                : String.format(Locale.US, "堆分配: 合成和 I/O 线程共 %.1f MB，平均每句 %d KB；GC %d 次，%d ms",
+                        allocatedBytes / 1048576.0, utterances == 0 ? 0 : allocatedBytes / utterances / 1024,
+                        gcCount, gcMillis));
+    }
+
+    private static String percent(long part, long total) {
+        return total == 0 ? "-" : String.format(Locale.US, "%.1f%%", part * 100.0 / total);
+    }
+
+    // 合成线程和 I/O 线程分配的字节数，替身服务的线程不计入；JVM 不支持时返回 -1
+    private long allocatedBytes() {
+        long total = synthesisAllocatedBytes;
+        if (total < 0) {
+            return -1;
+        }
+        synchronized (ioThreads) {
+            for (Thread thread : ioThreads) {
+                total += Math.max(0, threadAllocatedBytes(thread.getId()));
+            }
+        }
+        return total;
+    }
+
+    private static long threadAllocatedBytes(long threadId) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        if (!allocation.isThreadAllocatedMemorySupported() || !allocation.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return allocation.getThreadAllocatedBytes(threadId);
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[] {count, millis};
+    }
+
+    private static final class Pending {
+        static final Pending END = new Pending(null, 0);
+
+        final ReplayTrace.Event event;
+        final long generation;
+        final long arrivedNanos = System.nanoTime();
+
+        Pending(ReplayTrace.Event event, long generation) {
+            this.event = event;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * 代替 SynthesisCallback：记录第一块音频的时间，按实时速度消耗音频，被停止时立即返回 false。
+     */
+    private static final class PlaybackSink implements PcmSink {
+        private final CancellationToken token;
+        private final boolean pacing;
+        private long bytesPerSecond;
+        private long playedBytes;
+        long firstAudioNanos;
+
+        PlaybackSink(CancellationToken token, boolean pacing) {
+            this.token = token;
+            this.pacing = pacing;
+        }
+
+        @Override
+        public boolean start(int sampleRate, int channelCount) {
+            // 分段之间格式不变，以第一次为准
+            if (bytesPerSecond == 0) {
+                bytesPerSecond = (long) sampleRate * channelCount * 2;
+            }
+            return !token.isCancelled();
+        }
+
+        @Override
+        public boolean write(byte[] buffer, int offset, int length) {
+            if (token.isCancelled()) {
+                return false;
+            }
+            if (firstAudioNanos == 0) {
+                firstAudioNanos = System.nanoTime();
+            }
+            playedBytes += length;
+            if (pacing && bytesPerSecond > 0) {
+                long aheadMs = playedBytes * 1000 / bytesPerSecond - (System.nanoTime() - firstAudioNanos) / 1000000;
+                if (aheadMs > PLAYBACK_BUFFER_MS && !token.sleep(aheadMs - PLAYBACK_BUFFER_MS)) {
+                    return false;
+                }
+            }
+            return !token.isCancelled();
+        }
+
+        @Override
+        public int maxChunkSize() {
+            return PcmChunkCopier.DEFAULT_CHUNK_SIZE;
+        }
+    }
+}
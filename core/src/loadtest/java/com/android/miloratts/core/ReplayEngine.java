@@ -0,0 +1,376 @@
+package com.android.miloratts.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在普通 JVM 上按 TtsService 的顺序合成一句话：分段后依次查内存 PCM 缓存、磁盘缓存，
+ * 都未命中时由同一缓存键的领头请求下载，边下载边解码边写缓存；播放当前片段时后台预取后面两段。
+ * 缓存、分段、合并和取消用的都是引擎本身的核心类，参数与 MiloraApp 相同。
+ * <p>
+ * 依赖平台的部分换成了简化实现：HTTP 用 HttpURLConnection 加同样的退避重试，没有对冲和熔断；
+ * MP3 不真正解码，按帧头输出等长的静音 PCM，WAV 与服务一样直通。
+ * 因此测得的是缓存、合并、预取和网络的行为，不含解码器耗时。
+ */
+final class ReplayEngine {
+    static final String VOICE = "mbAIsc";
+    static final String LANGUAGE = "zho";
+    private static final int PREFETCH_DEPTH = 2;
+    private static final int IO_THREADS = 3;
+    private static final long PCM_MEMORY_CACHE_BYTES = 4L * 1024 * 1024;
+    private static final int PCM_MEMORY_CACHE_MAX_ENTRY_BYTES = 256 * 1024;
+    private static final BackoffPolicy BACKOFF = new BackoffPolicy(3, 250, 4000);
+    private static final int TIMEOUT_MS = 10000;
+    private static final int WAV_CHUNK_BYTES = 8192;
+    // 与 TextToSpeech.ERROR_NETWORK 相同，核心模块不依赖 Android
+    private static final int ERROR_NETWORK = -6;
+
+    final EngineMetrics metrics = new EngineMetrics();
+    private final String apiUrl;
+    private final String format;
+    private final AudioStore cache;
+    private final PcmMemoryCache memoryCache =
+            new PcmMemoryCache(PCM_MEMORY_CACHE_BYTES, PCM_MEMORY_CACHE_MAX_ENTRY_BYTES);
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final ThreadPoolExecutor ioExecutor;
+    private final FairExecutor fairExecutor;
+
+    ReplayEngine(String apiUrl, String format, File cacheDir, long cacheBytes, ThreadFactory threadFactory)
+            throws IOException {
+        this.apiUrl = apiUrl;
+        this.format = format;
+        ioExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        fairExecutor = new FairExecutor(ioExecutor, IO_THREADS);
+        cache = PackAudioCache.open(cacheDir, cacheBytes, ioExecutor);
+    }
+
+    AudioStore getCache() {
+        return cache;
+    }
+
+    PcmMemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    void shutdown() {
+        ioExecutor.shutdownNow();
+    }
+
+    /**
+     * 合成一句话并写入 sink，返回 false 表示中途被停止。owner 相当于调用方的会话，用于公平调度。
+     */
+    boolean synthesize(String rawText, Object owner, PcmSink sink, CancellationToken token)
+            throws IOException, InterruptedException {
+        String text = TextNormalizer.normalize(rawText);
+        List<String> segments = TextSegmenter.split(text, TextSegmenter.DEFAULT_MAX_LENGTH);
+        CancellationToken prefetchToken = token.newChild();
+        List<Future<PcmClip>> prefetched =
+                new ArrayList<>(Collections.<Future<PcmClip>>nCopies(segments.size(), null));
+        int nextToSubmit = 1;
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                for (; nextToSubmit < segments.size() && nextToSubmit <= i + PREFETCH_DEPTH; nextToSubmit++) {
+                    prefetched.set(nextToSubmit, fairExecutor.submit(owner, FairExecutor.PRIORITY_FOREGROUND,
+                            new PrefetchTask(segments.get(nextToSubmit), prefetchToken)));
+                }
+                boolean keepGoing;
+                if (i == 0) {
+                    keepGoing = synthesizeSegment(segments.get(0), sink, token);
+                } else {
+                    PcmClip clip = awaitSegment(prefetched.get(i));
+                    keepGoing = clip == null || clip.writeTo(sink);
+                    prefetched.set(i, null);
+                }
+                if (!keepGoing || token.isCancelled()) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            prefetchToken.cancel();
+            for (Future<PcmClip> future : prefetched) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    private PcmClip awaitSegment(Future<PcmClip> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("预取片段失败", e.getCause());
+        }
+    }
+
+    private class PrefetchTask implements Callable<PcmClip> {
+        private final String text;
+        private final CancellationToken token;
+
+        PrefetchTask(String text, CancellationToken token) {
+            this.text = text;
+            this.token = token;
+        }
+
+        @Override
+        public PcmClip call() throws IOException {
+            if (token.isCancelled()) {
+                return null;
+            }
+            PcmBuffer buffer = new PcmBuffer(token);
+            synthesizeSegment(text, buffer, token);
+            return buffer.toClip();
+        }
+    }
+
+    private boolean synthesizeSegment(String text, PcmSink sink, CancellationToken token) throws IOException {
+        String cacheKey = CacheKeys.forText(text, VOICE, LANGUAGE, format);
+        PcmClip clip = memoryCache.get(cacheKey);
+        if (clip != null) {
+            metrics.memoryHits.incrementAndGet();
+            return clip.writeTo(sink);
+        }
+        CapturingPcmSink capture = new CapturingPcmSink(sink, memoryCache.getMaxEntryBytes());
+        boolean completed;
+        CachedAudio cached = cache.get(cacheKey);
+        if (cached != null) {
+            metrics.diskHits.incrementAndGet();
+            completed = decodeCached(cacheKey, cached, capture, token);
+        } else {
+            completed = downloadShared(text, cacheKey, capture, token);
+        }
+        if (completed) {
+            PcmClip decoded = capture.toClip();
+            if (decoded != null) {
+                memoryCache.put(cacheKey, decoded);
+            }
+        }
+        return completed;
+    }
+
+    private boolean decodeCached(String cacheKey, CachedAudio cached, PcmSink sink, CancellationToken token)
+            throws IOException {
+        InputStream input = cached.openStream();
+        try {
+            return decode(input, sink, token);
+        } catch (IOException e) {
+            cache.remove(cacheKey);
+            throw e;
+        } finally {
+            input.close();
+        }
+    }
+
+    private boolean downloadShared(String text, String cacheKey, PcmSink sink, CancellationToken token)
+            throws IOException {
+        while (true) {
+            SingleFlight.Ticket ticket = singleFlight.join(cacheKey);
+            if (ticket.isLeader()) {
+                metrics.networkFetches.incrementAndGet();
+                try {
+                    return downloadAndDecode(text, cacheKey, sink, token);
+                } catch (IOException e) {
+                    ticket.fail(new SynthesisException(ERROR_NETWORK, e.getMessage(), e));
+                    throw e;
+                } finally {
+                    ticket.finish();
+                }
+            }
+            metrics.coalesced.incrementAndGet();
+            try {
+                if (!ticket.await(token)) {
+                    return false;
+                }
+            } catch (SynthesisException e) {
+                throw new IOException("共享下载失败: " + e.getMessage(), e);
+            }
+            PcmClip clip = memoryCache.get(cacheKey);
+            if (clip != null) {
+                return clip.writeTo(sink);
+            }
+            CachedAudio cached = cache.get(cacheKey);
+            if (cached != null) {
+                return decodeCached(cacheKey, cached, sink, token);
+            }
+            if (token.isCancelled()) {
+                return false;
+            }
+        }
+    }
+
+    private boolean downloadAndDecode(String text, String cacheKey, PcmSink sink, CancellationToken token)
+            throws IOException {
+        String audioUrl = requestAudioUrl(text, token);
+        if (audioUrl == null) {
+            return false;
+        }
+        long downloadStart = System.currentTimeMillis();
+        HttpURLConnection conn = open(audioUrl, metrics.audioConnectLatency, token);
+        if (conn == null) {
+            return false;
+        }
+        Runnable abort = abortOnCancel(conn);
+        token.addListener(abort);
+        CacheTeeInputStream tee = null;
+        boolean completed = false;
+        try {
+            CancellableInputStream network = new CancellableInputStream(conn.getInputStream(), token);
+            tee = new CacheTeeInputStream(network, cache, cacheKey, conn.getContentLength());
+            try {
+                completed = decode(tee, sink, token);
+            } finally {
+                metrics.bytesDownloaded.addAndGet(network.getBytesRead());
+            }
+            metrics.downloadTime.record(System.currentTimeMillis() - downloadStart);
+            if (completed) {
+                tee.commit();
+            }
+            return completed;
+        } catch (IOException e) {
+            if (token.isCancelled()) {
+                return false;
+            }
+            throw e;
+        } finally {
+            token.removeListener(abort);
+            if (tee != null) {
+                tee.abandon();
+            }
+            if (completed) {
+                conn.getInputStream().close();
+            } else {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private String requestAudioUrl(String text, CancellationToken token) throws IOException {
+        String apiCall = apiUrl + "?text=" + URLEncoder.encode(text, "UTF-8") + "&format=" + format;
+        HttpURLConnection conn = open(apiCall, metrics.apiLatency, token);
+        if (conn == null) {
+            return null;
+        }
+        try {
+            ApiResponse response = ApiResponseParser.parse(conn.getInputStream());
+            if (!response.isSuccess() || response.getAudioUrl() == null) {
+                throw new IOException("API返回错误: code=" + response.getCode());
+            }
+            return response.getAudioUrl();
+        } finally {
+            conn.getInputStream().close();
+        }
+    }
+
+    /**
+     * 建立连接并确认 200，5xx 和网络错误按退避策略重试。被取消时返回 null。
+     */
+    private HttpURLConnection open(String url, LatencyHistogram latency, CancellationToken token)
+            throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            if (token.isCancelled()) {
+                return null;
+            }
+            long startNanos = System.nanoTime();
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(TIMEOUT_MS);
+            conn.setReadTimeout(TIMEOUT_MS);
+            Runnable abort = abortOnCancel(conn);
+            token.addListener(abort);
+            int status;
+            IOException failure;
+            try {
+                status = conn.getResponseCode();
+                failure = status < 500 ? null : new IOException("HTTP " + status);
+            } catch (IOException e) {
+                status = -1;
+                failure = e;
+            } catch (RuntimeException e) {
+                // JDK 的实现在别的线程断开连接时可能抛出 NullPointerException，按网络错误处理
+                status = -1;
+                failure = new IOException("连接被中断", e);
+            } finally {
+                token.removeListener(abort);
+            }
+            if (status == HttpURLConnection.HTTP_OK) {
+                latency.record((System.nanoTime() - startNanos) / 1000000);
+                return conn;
+            }
+            conn.disconnect();
+            if (token.isCancelled()) {
+                return null;
+            }
+            if (failure == null) {
+                throw new IOException("HTTP " + status + ": " + url);
+            }
+            if (attempt >= BACKOFF.getMaxAttempts()) {
+                throw failure;
+            }
+            metrics.retries.incrementAndGet();
+            if (!token.sleep(BACKOFF.delayMs(attempt))) {
+                return null;
+            }
+        }
+    }
+
+    private boolean decode(InputStream input, PcmSink sink, CancellationToken token) throws IOException {
+        if ("wav".equals(format)) {
+            WavReader reader = new WavReader(input);
+            reader.readHeader();
+            if (!sink.start(reader.getSampleRate(), reader.getChannelCount())) {
+                return false;
+            }
+            return reader.copyTo(sink, new byte[Math.min(sink.maxChunkSize(), WAV_CHUNK_BYTES)])
+                    && !token.isCancelled();
+        }
+        // 代替 MediaCodec：每个 MP3 帧输出同样时长的静音
+        Mp3FrameReader reader = new Mp3FrameReader(input);
+        byte[] frame = new byte[Mp3FrameReader.MAX_FRAME_SIZE];
+        byte[] pcm = null;
+        while (reader.readFrame(frame) > 0) {
+            if (pcm == null) {
+                if (!sink.start(reader.getSampleRate(), reader.getChannelCount())) {
+                    return false;
+                }
+                pcm = new byte[reader.getSamplesPerFrame() * reader.getChannelCount() * 2];
+            }
+            if (!sink.write(pcm, 0, pcm.length)) {
+                return false;
+            }
+        }
+        if (pcm == null && !token.isCancelled()) {
+            throw new IOException("音频流中没有 MP3 帧");
+        }
+        return !token.isCancelled();
+    }
+
+    private static Runnable abortOnCancel(final HttpURLConnection conn) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                conn.disconnect();
+            }
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package com.android.miloratts.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 回放用的朗读请求序列。文件每行一个请求，字段用制表符分隔：
+ * <pre>
+ * 相对开始的毫秒数	调用方	flush|add	文本
+ * </pre>
+ * flush 与 TextToSpeech.QUEUE_FLUSH 一样：丢弃排队的请求并停止正在朗读的一句，
+ * 读屏每次移动焦点都这样发出；add 排在后面，通知播报通常这样发出。以 # 开头的行是注释。
+ */
+final class ReplayTrace {
+    static final String TALKBACK = "talkback";
+    static final String NOTIFICATIONS = "notifications";
+
+    static final class Event {
+        final long offsetMs;
+        final String caller;
+        final boolean flush;
+        final String text;
+
+        Event(long offsetMs, String caller, boolean flush, String text) {
+            this.offsetMs = offsetMs;
+            this.caller = caller;
+            this.flush = flush;
+            this.text = text;
+        }
+    }
+
+    private static final String[][] SCREENS = {
+        {"返回", "设置", "搜索设置", "网络和互联网", "WLAN，已开启", "移动网络", "已连接的设备", "蓝牙，已关闭",
+            "应用", "通知", "电池", "存储", "声音和振动", "显示", "无障碍", "安全", "位置信息", "系统"},
+        {"返回", "收件箱", "搜索邮件", "撰写", "未读，张伟，周报，今天的进展见附件", "李娜，会议改到下午三点",
+            "已加星标，王强，报销单已审批", "促销", "社交网络", "已发送", "草稿", "垃圾邮件", "导航抽屉"},
+        {"返回", "聊天", "通讯录", "发现", "我", "文件传输助手", "家人群，未读 3 条", "妈妈，晚上回来吃饭吗",
+            "工作群，有人提到了你", "订阅号消息", "更多功能按钮", "搜索"},
+        {"主屏幕", "电话", "信息", "浏览器", "相机", "相册", "时钟", "日历", "天气", "文件管理", "应用商店",
+            "文件夹，工具，包含 6 个应用", "第 1 屏，共 2 屏"},
+    };
+
+    private static final String[] ARTICLE = {
+        "无障碍服务会把屏幕上的内容转换成语音，视障用户依靠它完成几乎所有日常操作。",
+        "当用户快速滑动时，每移动一次焦点都会打断上一句，所以第一个音频出来得越快，操作就越流畅。",
+        "长段落会被切分成若干片段，播放当前片段时，后面的片段已经在后台下载和解码。",
+        "网络不稳定的时候，缓存里已有的常用短句仍然可以立即朗读，不必等待服务器返回。",
+    };
+
+    private ReplayTrace() {
+    }
+
+    static List<Event> load(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    static List<Event> parse(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        List<Event> events = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t", 4);
+            if (fields.length != 4 || !("flush".equals(fields[2]) || "add".equals(fields[2]))) {
+                throw new IOException("第 " + lineNumber + " 行格式错误: " + line);
+            }
+            try {
+                events.add(new Event(Long.parseLong(fields[0].trim()), fields[1], "flush".equals(fields[2]),
+                        fields[3]));
+            } catch (NumberFormatException e) {
+                throw new IOException("第 " + lineNumber + " 行时间格式错误: " + line);
+            }
+        }
+        // 手工编辑的文件不一定有序
+        Collections.sort(events, new Comparator<Event>() {
+            @Override
+            public int compare(Event a, Event b) {
+                return Long.compare(a.offsetMs, b.offsetMs);
+            }
+        });
+        return events;
+    }
+
+    /**
+     * 按读屏的使用习惯生成序列：在几个界面之间切换，逐项滑动浏览，多数滑动很快、会打断上一句，
+     * 偶尔停下来听完一整段文章；通知不时插入，时间和电量这类文本每次都不同。同一个种子生成同样的序列。
+     */
+    static List<Event> talkBackSession(long seed, int count) {
+        Random random = new Random(seed);
+        List<Event> events = new ArrayList<>(count);
+        long time = 0;
+        String[] screen = SCREENS[0];
+        int focus = 0;
+        while (events.size() < count) {
+            double action = random.nextDouble();
+            if (action < 0.04) {
+                // 打开另一个界面，焦点回到第一项
+                screen = SCREENS[random.nextInt(SCREENS.length)];
+                focus = 0;
+                events.add(new Event(time, TALKBACK, true, screen[0]));
+                time += 600 + random.nextInt(800);
+            } else if (action < 0.07) {
+                StringBuilder article = new StringBuilder();
+                for (int i = 0; i < 2 + random.nextInt(3); i++) {
+                    article.append(ARTICLE[random.nextInt(ARTICLE.length)]);
+                }
+                events.add(new Event(time, TALKBACK, true, article.toString()));
+                time += 6000 + random.nextInt(6000);
+            } else if (action < 0.10) {
+                events.add(new Event(time, NOTIFICATIONS, false, String.format(Locale.US,
+                        "下午 %d:%02d，电量 %d%%，%s", 1 + random.nextInt(11), random.nextInt(60), 5 + random.nextInt(95),
+                        random.nextBoolean() ? "正在充电" : "收到 1 条新消息")));
+                time += 200 + random.nextInt(300);
+            } else {
+                // 大多是向后滑，偶尔回退一项
+                focus = random.nextDouble() < 0.85 ? (focus + 1) % screen.length
+                        : (focus + screen.length - 1) % screen.length;
+                events.add(new Event(time, TALKBACK, true, screen[focus]));
+                time += random.nextDouble() < 0.6 ? 120 + random.nextInt(280) : 800 + random.nextInt(1700);
+            }
+        }
+        return events;
+    }
+}
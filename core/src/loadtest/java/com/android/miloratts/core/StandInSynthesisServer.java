@@ -0,0 +1,319 @@
+package com.android.miloratts.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本机上代替 api.milorapart.top/apis/mbAIsc 的合成服务：API 返回同样的 {"code":200,"url":...}，
+ * url 指向本服务上的音频。延迟、带宽、错误率和长尾延迟都可以配置，错误以 503 返回，
+ * 与真实服务过载时一样可以重试。新连接上的第一个请求额外等待 handshakeLatencyMs，
+ * 模拟到真实主机的 TCP 和 TLS 握手往返，用来比较连接复用和每次新建连接。
+ * <p>
+ * 音频默认现场生成：MP3 是 128kbps 单声道的静音帧，WAV 是 24kHz 单声道的低音量正弦波，
+ * 时长随文本长度增长；指定样本目录时按文本哈希从目录里的 .mp3/.wav 文件中挑选。
+ */
+final class StandInSynthesisServer {
+    static final String API_PATH = "/apis/mbAIsc";
+    private static final String AUDIO_PATH = "/audio/";
+    // MPEG1 Layer III，128kbps，44.1kHz，单声道，每帧 1152 个采样、417 字节
+    private static final byte[] MP3_FRAME_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0xC4};
+    private static final int MP3_FRAME_BYTES = 417;
+    private static final double MP3_FRAME_MS = 1152 * 1000.0 / 44100;
+    private static final int WAV_SAMPLE_RATE = 24000;
+
+    /**
+     * 服务端行为。长尾延迟按 tailRate 的概率叠加在正常延迟之上。
+     */
+    static final class Profile {
+        long apiLatencyMs = 80;
+        long audioLatencyMs = 40;
+        long bytesPerSecond = 256 * 1024;
+        double errorRate = 0.01;
+        double tailRate = 0.02;
+        long tailLatencyMs = 1500;
+        long handshakeLatencyMs;
+        File fixtureDir;
+
+        @Override
+        public String toString() {
+            return "API 延迟 " + apiLatencyMs + "ms，音频延迟 " + audioLatencyMs + "ms，带宽 "
+                    + bytesPerSecond / 1024 + " KB/s，错误率 " + errorRate + "，长尾 " + tailRate + " × "
+                    + tailLatencyMs + "ms" + (handshakeLatencyMs > 0 ? "，新连接握手 " + handshakeLatencyMs + "ms" : "")
+                    + (fixtureDir != null ? "，样本 " + fixtureDir : "");
+        }
+    }
+
+    final AtomicLong apiRequests = new AtomicLong();
+    final AtomicLong audioRequests = new AtomicLong();
+    final AtomicLong injectedErrors = new AtomicLong();
+    final AtomicLong tailResponses = new AtomicLong();
+    final AtomicLong bytesServed = new AtomicLong();
+    final AtomicLong connections = new AtomicLong();
+
+    private final Profile profile;
+    private final HttpServer server;
+    private final ExecutorService executor =
+            Executors.newCachedThreadPool(new NamedThreadFactory("StandIn", Thread.NORM_PRIORITY));
+    // API 调用时生成或挑选的音频，按 url 里的名字取用
+    private final Map<String, byte[]> audio = new ConcurrentHashMap<>();
+    private final List<byte[]> mp3Fixtures = new ArrayList<>();
+    private final List<byte[]> wavFixtures = new ArrayList<>();
+    // 见过的客户端地址；HttpServer 没有连接建立的回调，客户端端口第一次出现就是一个新连接
+    private final Set<InetSocketAddress> clients = Collections.newSetFromMap(
+            new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
+    StandInSynthesisServer(Profile profile) throws IOException {
+        this.profile = profile;
+        if (profile.fixtureDir != null) {
+            loadFixtures(profile.fixtureDir);
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext(API_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleApi(exchange);
+            }
+        });
+        server.createContext(AUDIO_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleAudio(exchange);
+            }
+        });
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handleApi(HttpExchange exchange) throws IOException {
+        apiRequests.incrementAndGet();
+        acceptConnection(exchange);
+        if (!delayOrFail(exchange, profile.apiLatencyMs)) {
+            return;
+        }
+        String text = queryParameter(exchange, "text");
+        String format = queryParameter(exchange, "format");
+        if (text == null || text.isEmpty()) {
+            send(exchange, "{\"code\":400,\"msg\":\"缺少 text\"}".getBytes("UTF-8"), "application/json", false);
+            return;
+        }
+        if (!"wav".equals(format)) {
+            format = "mp3";
+        }
+        String name = CacheKeys.forText(text, "standin", "", format);
+        if (!audio.containsKey(name)) {
+            audio.put(name, audioFor(text, format));
+        }
+        String body = "{\"code\":200,\"msg\":\"ok\",\"url\":\"" + baseUrl() + AUDIO_PATH + name + "\"}";
+        send(exchange, body.getBytes("UTF-8"), "application/json", false);
+    }
+
+    private void handleAudio(HttpExchange exchange) throws IOException {
+        audioRequests.incrementAndGet();
+        acceptConnection(exchange);
+        if (!delayOrFail(exchange, profile.audioLatencyMs)) {
+            return;
+        }
+        String name = exchange.getRequestURI().getPath().substring(AUDIO_PATH.length());
+        byte[] body = audio.get(name);
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        send(exchange, body, name.endsWith(".wav") ? "audio/wav" : "audio/mpeg", true);
+    }
+
+    private void acceptConnection(HttpExchange exchange) {
+        if (clients.add(exchange.getRemoteAddress())) {
+            connections.incrementAndGet();
+            sleep(profile.handshakeLatencyMs);
+        }
+    }
+
+    // 按配置等待，之后按错误率返回 503。返回 false 表示已经回了错误
+    private boolean delayOrFail(HttpExchange exchange, long latencyMs) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMs + (latencyMs > 0 ? random.nextLong(latencyMs / 2 + 1) : 0);
+        if (random.nextDouble() < profile.tailRate) {
+            tailResponses.incrementAndGet();
+            delay += profile.tailLatencyMs;
+        }
+        sleep(delay);
+        if (random.nextDouble() < profile.errorRate) {
+            injectedErrors.incrementAndGet();
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return false;
+        }
+        return true;
+    }
+
+    // 按带宽分块发送；客户端中途断开时直接结束
+    private void send(HttpExchange exchange, byte[] body, String contentType, boolean throttle) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            int chunk = throttle ? (int) Math.max(1024, profile.bytesPerSecond / 50) : body.length;
+            long startNanos = System.nanoTime();
+            for (int offset = 0; offset < body.length; offset += chunk) {
+                int length = Math.min(chunk, body.length - offset);
+                out.write(body, offset, length);
+                out.flush();
+                bytesServed.addAndGet(length);
+                if (throttle) {
+                    long dueNanos = startNanos + (offset + length) * 1000000000L / profile.bytesPerSecond;
+                    sleep((dueNanos - System.nanoTime()) / 1000000);
+                }
+            }
+        } catch (IOException e) {
+            // 客户端已停止读取
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] audioFor(String text, String format) {
+        List<byte[]> fixtures = "wav".equals(format) ? wavFixtures : mp3Fixtures;
+        if (!fixtures.isEmpty()) {
+            return fixtures.get((text.hashCode() & 0x7fffffff) % fixtures.size());
+        }
+        long durationMs = Math.min(20000, Math.max(300, 120L * text.codePointCount(0, text.length()) + 200));
+        return "wav".equals(format) ? generateWav(durationMs) : generateMp3(durationMs);
+    }
+
+    private static byte[] generateMp3(long durationMs) {
+        int frames = (int) Math.ceil(durationMs / MP3_FRAME_MS);
+        byte[] data = new byte[frames * MP3_FRAME_BYTES];
+        for (int i = 0; i < frames; i++) {
+            System.arraycopy(MP3_FRAME_HEADER, 0, data, i * MP3_FRAME_BYTES, MP3_FRAME_HEADER.length);
+        }
+        return data;
+    }
+
+    private static byte[] generateWav(long durationMs) {
+        int samples = (int) (durationMs * WAV_SAMPLE_RATE / 1000);
+        int dataBytes = samples * 2;
+        byte[] wav = new byte[44 + dataBytes];
+        writeAscii(wav, 0, "RIFF");
+        writeLittleEndian(wav, 4, 36 + dataBytes, 4);
+        writeAscii(wav, 8, "WAVE");
+        writeAscii(wav, 12, "fmt ");
+        writeLittleEndian(wav, 16, 16, 4);
+        writeLittleEndian(wav, 20, 1, 2);
+        writeLittleEndian(wav, 22, 1, 2);
+        writeLittleEndian(wav, 24, WAV_SAMPLE_RATE, 4);
+        writeLittleEndian(wav, 28, WAV_SAMPLE_RATE * 2, 4);
+        writeLittleEndian(wav, 32, 2, 2);
+        writeLittleEndian(wav, 34, 16, 2);
+        writeAscii(wav, 36, "data");
+        writeLittleEndian(wav, 40, dataBytes, 4);
+        for (int i = 0; i < samples; i++) {
+            int sample = (int) (3000 * Math.sin(2 * Math.PI * 220 * i / WAV_SAMPLE_RATE));
+            writeLittleEndian(wav, 44 + i * 2, sample, 2);
+        }
+        return wav;
+    }
+
+    private static void writeAscii(byte[] dest, int offset, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            dest[offset + i] = (byte) value.charAt(i);
+        }
+    }
+
+    private static void writeLittleEndian(byte[] dest, int offset, int value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            dest[offset + i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    private void loadFixtures(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("无法读取样本目录: " + directory);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".mp3")) {
+                mp3Fixtures.add(readFile(file));
+            } else if (name.endsWith(".wav")) {
+                wavFixtures.add(readFile(file));
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
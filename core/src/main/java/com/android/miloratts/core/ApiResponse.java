@@ -0,0 +1,32 @@
+package com.android.miloratts.core;
+
+/**
+ * 合成 API 的响应中引擎关心的两个字段。
+ */
+public final class ApiResponse {
+    private final int code;
+    private final String audioUrl;
+
+    ApiResponse(int code, String audioUrl) {
+        this.code = code;
+        this.audioUrl = audioUrl;
+    }
+
+    /**
+     * 响应中的 code 字段，没有或不是数字时为 -1。
+     */
+    public int getCode() {
+        return code;
+    }
+
+    public boolean isSuccess() {
+        return code == 200;
+    }
+
+    /**
+     * 音频地址，没有 url 字段时为 null。
+     */
+    public String getAudioUrl() {
+        return audioUrl;
+    }
+}
@@ -0,0 +1,220 @@
+package com.android.miloratts.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * 从网络流中直接解析合成 API 返回的 JSON，例如 {"code":200,"url":"https://..."}。
+ * 只读取顶层的 code 和 url，其他字段逐字符跳过；两个字段都拿到后立即返回，
+ * 响应体不会整个读进一个字符串。
+ */
+public final class ApiResponseParser {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Reader reader;
+    private final char[] buffer = new char[256];
+    private int position;
+    private int limit;
+
+    private ApiResponseParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * 解析响应体，body 不会被关闭，可能没有读到末尾。JSON 格式错误时抛出 IOException。
+     */
+    public static ApiResponse parse(InputStream body) throws IOException {
+        return new ApiResponseParser(new InputStreamReader(body, UTF_8)).parseObject();
+    }
+
+    private ApiResponse parseObject() throws IOException {
+        int code = -1;
+        String url = null;
+        if (nextNonSpace() != '{') {
+            throw new IOException("API 响应不是 JSON 对象");
+        }
+        int c = nextNonSpace();
+        while (c != '}') {
+            if (c != '"') {
+                throw new IOException("JSON 字段名格式错误");
+            }
+            String name = readString();
+            if (nextNonSpace() != ':') {
+                throw new IOException("JSON 缺少冒号");
+            }
+            int valueStart = nextNonSpace();
+            if ("code".equals(name)) {
+                code = readCode(valueStart);
+            } else if ("url".equals(name) && valueStart == '"') {
+                url = readString();
+            } else {
+                skipValue(valueStart);
+            }
+            if (code != -1 && url != null) {
+                break;
+            }
+            c = nextNonSpace();
+            if (c == ',') {
+                c = nextNonSpace();
+            } else if (c != '}') {
+                throw new IOException("JSON 字段之间缺少逗号");
+            }
+        }
+        return new ApiResponse(code, url);
+    }
+
+    private int readCode(int first) throws IOException {
+        String text;
+        if (first == '"') {
+            text = readString();
+        } else {
+            StringBuilder digits = new StringBuilder();
+            int c = first;
+            while (c == '-' || (c >= '0' && c <= '9')) {
+                digits.append((char) c);
+                c = read();
+            }
+            unread();
+            if (digits.length() == 0) {
+                skipValue(first);
+                return -1;
+            }
+            text = digits.toString();
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // 起始的双引号已经读过
+    private String readString() throws IOException {
+        StringBuilder out = new StringBuilder();
+        while (true) {
+            int c = require();
+            if (c == '"') {
+                return out.toString();
+            }
+            if (c != '\\') {
+                out.append((char) c);
+                continue;
+            }
+            int escaped = require();
+            switch (escaped) {
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(require(), 16);
+                        if (digit < 0) {
+                            throw new IOException("JSON \\u 转义格式错误");
+                        }
+                        value = value * 16 + digit;
+                    }
+                    out.append((char) value);
+                    break;
+                default:
+                    // \" \\ \/ 以及不认识的转义都按字面字符处理
+                    out.append((char) escaped);
+                    break;
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            int c = require();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                require();
+            }
+        }
+    }
+
+    // first 是值的第一个字符；数字、true/false/null 读到分隔符为止，分隔符留给调用方
+    private void skipValue(int first) throws IOException {
+        if (first == '"') {
+            skipString();
+            return;
+        }
+        if (first == '{' || first == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                int c = require();
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+            return;
+        }
+        int c = first;
+        while (c != ',' && c != '}' && c != ']' && !isSpace(c)) {
+            c = require();
+        }
+        unread();
+    }
+
+    private int nextNonSpace() throws IOException {
+        int c;
+        do {
+            c = require();
+        } while (isSpace(c));
+        return c;
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private int require() throws IOException {
+        int c = read();
+        if (c < 0) {
+            throw new EOFException("JSON 响应不完整");
+        }
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    // 只退回刚读到的一个字符；读到末尾时 position 没有前进，不需要退回
+    private void unread() {
+        if (position > 0) {
+            position--;
+        }
+    }
+}
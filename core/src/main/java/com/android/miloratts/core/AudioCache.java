@@ -0,0 +1,426 @@
+package com.android.miloratts.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按字节预算淘汰的音频缓存。内存中用访问顺序的 LinkedHashMap 维护 LRU，
+ * 磁盘上用仿 DiskLruCache 的追加式日志持久化索引，命中时不再需要扫描目录或修改文件时间。
+ *
+ * 日志格式：
+ *     milora.audio.cache
+ *     1
+ *
+ *     CLEAN 3f2a...mp3 48213
+ *     READ 3f2a...mp3
+ *     REMOVE 3f2a...mp3
+ */
+public final class AudioCache implements AudioStore {
+    static final String JOURNAL_FILE = "audio_cache.journal";
+    private static final String JOURNAL_FILE_TEMP = "audio_cache.journal.tmp";
+    private static final String MAGIC = "milora.audio.cache";
+    private static final String VERSION = "1";
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File directory;
+    private final File journalFile;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(0, 0.75f, true);
+    private final Executor maintenanceExecutor;
+    private final AtomicBoolean trimScheduled = new AtomicBoolean();
+    private final Runnable trimTask = new Runnable() {
+        @Override
+        public void run() {
+            trimScheduled.set(false);
+            synchronized (AudioCache.this) {
+                if (closed) {
+                    return;
+                }
+                trimToSize();
+                if (journalRebuildRequired()) {
+                    rebuildJournal();
+                }
+            }
+        }
+    };
+
+    private long maxBytes;
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private int redundantOpCount;
+    private Writer journalWriter;
+    // 只在持有锁时写入；newTempFile 不加锁读取
+    private volatile boolean closed;
+
+    private AudioCache(File directory, long maxBytes, Executor maintenanceExecutor) {
+        this.directory = directory;
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.maxBytes = maxBytes;
+        this.maintenanceExecutor = maintenanceExecutor;
+    }
+
+    /**
+     * 打开缓存目录并载入索引。没有日志时会收编目录中已有的缓存文件（按修改时间排出 LRU 顺序）。
+     * 淘汰和日志压缩提交到 maintenanceExecutor 上执行。
+     */
+    public static AudioCache open(File directory, long maxBytes, Executor maintenanceExecutor) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建缓存目录: " + directory);
+        }
+        AudioCache cache = new AudioCache(directory, maxBytes, maintenanceExecutor);
+        synchronized (cache) {
+            if (cache.journalFile.exists()) {
+                try {
+                    cache.readJournal();
+                } catch (IOException e) {
+                    cache.entries.clear();
+                    cache.size = 0;
+                }
+            }
+            cache.reconcileDirectory();
+            cache.rebuildJournal();
+        }
+        cache.scheduleTrim();
+        return cache;
+    }
+
+    /**
+     * 查找缓存，命中时把条目移到 LRU 队尾。返回的文件可能随后被淘汰，读取失败时调用方应当 {@link #remove}。
+     */
+    @Override
+    public synchronized CachedAudio get(String key) {
+        Long entrySize = entries.get(key);
+        if (entrySize == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        // READ 行只记录访问顺序，重建日志时会被合并掉，与 REMOVE 一样计入冗余
+        redundantOpCount++;
+        appendJournal(READ + ' ' + key, false);
+        if (journalRebuildRequired()) {
+            scheduleTrim();
+        }
+        return CachedAudio.ofFile(new File(directory, key));
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * 为写入者创建一个临时文件，写完后交给 {@link #commit} 原子提交。
+     */
+    @Override
+    public File newTempFile(String key) throws IOException {
+        if (closed) {
+            throw new IOException("缓存已关闭");
+        }
+        return File.createTempFile(key, ".part", directory);
+    }
+
+    /**
+     * 把写好的临时文件重命名为缓存文件并登记到索引，超出预算时交给后台线程淘汰。
+     */
+    @Override
+    public synchronized boolean commit(String key, File tempFile) {
+        long length = tempFile.length();
+        File target = new File(directory, key);
+        if (closed || length <= 0 || !tempFile.renameTo(target)) {
+            tempFile.delete();
+            return false;
+        }
+        Long previous = entries.put(key, length);
+        if (previous != null) {
+            size -= previous;
+            redundantOpCount++;
+        }
+        size += length;
+        appendJournal(CLEAN + ' ' + key + ' ' + length, true);
+        if (size > maxBytes || journalRebuildRequired()) {
+            scheduleTrim();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        Long entrySize = entries.remove(key);
+        if (entrySize != null) {
+            size -= entrySize;
+            new File(directory, key).delete();
+            redundantOpCount++;
+            appendJournal(REMOVE + ' ' + key, true);
+        }
+    }
+
+    /**
+     * 删除所有缓存条目，返回删除的文件数。
+     */
+    @Override
+    public synchronized int clear() {
+        int deleted = 0;
+        for (String key : entries.keySet()) {
+            if (new File(directory, key).delete()) {
+                deleted++;
+            }
+        }
+        entries.clear();
+        size = 0;
+        rebuildJournal();
+        if (closed) {
+            // 留下一份空日志，但不再持有写入句柄
+            closeJournal();
+        }
+        return deleted;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        closeJournal();
+    }
+
+    @Override
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        scheduleTrim();
+    }
+
+    @Override
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized int entryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    @Override
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    // 连续多次提交只会排队一次；任务体持有缓存锁，即使线程池有多个线程也是串行淘汰
+    private void scheduleTrim() {
+        if (trimScheduled.compareAndSet(false, true)) {
+            maintenanceExecutor.execute(trimTask);
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getValue();
+            new File(directory, eldest.getKey()).delete();
+            evictionCount++;
+            redundantOpCount++;
+            appendJournal(REMOVE + ' ' + eldest.getKey(), false);
+        }
+        flushJournal();
+    }
+
+    private boolean journalRebuildRequired() {
+        return journalWriter == null
+                || (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size());
+    }
+
+    private void readJournal() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), "UTF-8"));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())
+                    || !"".equals(reader.readLine())) {
+                throw new IOException("缓存日志头无效");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && CLEAN.equals(parts[0])) {
+                    long length = Long.parseLong(parts[2]);
+                    Long previous = entries.put(parts[1], length);
+                    if (previous != null) {
+                        size -= previous;
+                    }
+                    size += length;
+                } else if (parts.length == 2 && READ.equals(parts[0])) {
+                    entries.get(parts[1]);
+                } else if (parts.length == 2 && REMOVE.equals(parts[0])) {
+                    Long previous = entries.remove(parts[1]);
+                    if (previous != null) {
+                        size -= previous;
+                    }
+                }
+                // 日志末尾被截断的行直接忽略
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("缓存日志格式错误", e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // 删除残留的临时文件，收编索引之外的旧缓存文件，剔除已不存在的条目
+    private void reconcileDirectory() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".part") || isCacheFileName(name);
+            }
+        });
+        if (files == null) {
+            return;
+        }
+        List<File> orphans = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".part")) {
+                file.delete();
+            } else if (!entries.containsKey(file.getName())) {
+                orphans.add(file);
+            }
+        }
+        File[] sorted = orphans.toArray(new File[0]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        // 旧文件按修改时间排在最前面，优先被淘汰
+        LinkedHashMap<String, Long> known = new LinkedHashMap<>(entries);
+        entries.clear();
+        for (File file : sorted) {
+            long length = file.length();
+            if (length > 0) {
+                entries.put(file.getName(), length);
+                size += length;
+            } else {
+                file.delete();
+            }
+        }
+        for (Map.Entry<String, Long> entry : known.entrySet()) {
+            if (new File(directory, entry.getKey()).exists()) {
+                entries.put(entry.getKey(), entry.getValue());
+            } else {
+                size -= entry.getValue();
+            }
+        }
+    }
+
+    private static boolean isCacheFileName(String name) {
+        int dot = name.lastIndexOf('.');
+        // 扩展名记录条目的音频格式
+        if (dot <= 0 || !(name.endsWith(".mp3") || name.endsWith(".wav"))) {
+            return false;
+        }
+        for (int i = 0; i < dot; i++) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rebuildJournal() {
+        closeJournal();
+        File tempFile = new File(directory, JOURNAL_FILE_TEMP);
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+            try {
+                writer.write(MAGIC + "\n" + VERSION + "\n\n");
+                for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                    writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+                }
+            } finally {
+                writer.close();
+            }
+            if (!tempFile.renameTo(journalFile)) {
+                throw new IOException("无法替换缓存日志");
+            }
+            journalWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(journalFile, true), "UTF-8"));
+            redundantOpCount = 0;
+        } catch (IOException e) {
+            // 日志不可写时只保留内存索引，下次维护时再重建
+            tempFile.delete();
+            journalWriter = null;
+        }
+    }
+
+    private void appendJournal(String line, boolean flush) {
+        if (journalWriter == null) {
+            return;
+        }
+        try {
+            journalWriter.write(line);
+            journalWriter.write('\n');
+            if (flush) {
+                journalWriter.flush();
+            }
+        } catch (IOException e) {
+            closeJournal();
+        }
+    }
+
+    private void flushJournal() {
+        if (journalWriter == null) {
+            return;
+        }
+        try {
+            journalWriter.flush();
+        } catch (IOException e) {
+            closeJournal();
+        }
+    }
+
+    private void closeJournal() {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            journalWriter = null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.android.miloratts.core;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 磁盘音频缓存的两种存储方式的共同接口：每条音频一个文件的 {@link AudioCache}，
+ * 以及把多条音频追加写进少数几个段文件的 {@link PackAudioCache}。
+ */
+public interface AudioStore {
+    /**
+     * 查找缓存，命中时把条目移到 LRU 队尾；未命中返回 null。
+     * 读取命中的数据失败时调用方应当 {@link #remove}。
+     */
+    CachedAudio get(String key);
+
+    /**
+     * 只检查条目是否存在，不计入命中统计，也不改变 LRU 顺序。
+     */
+    boolean contains(String key);
+
+    /**
+     * 为写入者创建一个临时文件，写完后交给 {@link #commit} 提交。
+     */
+    File newTempFile(String key) throws IOException;
+
+    /**
+     * 提交写好的临时文件并登记到索引，无论成功与否临时文件都归缓存处理。
+     */
+    boolean commit(String key, File tempFile);
+
+    void remove(String key);
+
+    /**
+     * 删除所有缓存条目，返回删除的条目数。
+     */
+    int clear();
+
+    /**
+     * 停用这个缓存：之后的 {@link #commit} 一律失败并删除临时文件，{@link #newTempFile} 抛出异常，
+     * 后台维护也不再写索引。切换存储方式时先关闭再 {@link #clear}，仍在下载的写入者不会把条目写回已清空的缓存。
+     */
+    void close();
+
+    void setMaxBytes(long maxBytes);
+
+    long getMaxBytes();
+
+    long size();
+
+    int entryCount();
+
+    long hitCount();
+
+    long missCount();
+
+    long evictionCount();
+}
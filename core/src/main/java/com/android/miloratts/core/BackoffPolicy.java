@@ -0,0 +1,37 @@
+package com.android.miloratts.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 重试策略：最多 maxAttempts 次，间隔按指数增长并加等值抖动（一半固定、一半随机），
+ * 避免多个请求在同一时刻一起重试。
+ */
+public final class BackoffPolicy {
+    private final int maxAttempts;
+    private final long baseMs;
+    private final long maxMs;
+
+    public BackoffPolicy(int maxAttempts, long baseMs, long maxMs) {
+        this.maxAttempts = maxAttempts;
+        this.baseMs = baseMs;
+        this.maxMs = maxMs;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 第 attempt 次（从 1 开始）失败后应当等待的毫秒数。
+     */
+    public long delayMs(int attempt) {
+        long ceiling = ceilingMs(attempt);
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    long ceilingMs(int attempt) {
+        int shift = Math.min(Math.max(attempt - 1, 0), 30);
+        return Math.min(maxMs, baseMs << shift);
+    }
+}
@@ -0,0 +1,45 @@
+package com.android.miloratts.core;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 以 InputStream 的形式顺序读取一个 ByteBuffer，读取位置就是 buffer 自己的 position。
+ */
+final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,126 @@
+package com.android.miloratts.core;
+
+/**
+ * 由发音人、语言、音频格式和（已规范化的）文本生成磁盘缓存文件名：
+ * 对这几个字段的 UTF-16 码元做 128 位 MurmurHash3（x64 变体），32 位十六进制加上格式后缀。
+ * 直接逐个读取字符参与计算，不拼接字符串，也不做编码转换。
+ */
+public final class CacheKeys {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    // 字段之间的分隔符，规范化后的文本里不会出现控制字符
+    private static final char SEPARATOR = '\u0000';
+
+    private CacheKeys() {
+    }
+
+    public static String forText(CharSequence text, String voice, String language, String format) {
+        Murmur3 hash = new Murmur3();
+        hash.add(voice);
+        hash.add(SEPARATOR);
+        hash.add(language);
+        hash.add(SEPARATOR);
+        hash.add(format);
+        hash.add(SEPARATOR);
+        hash.add(text);
+        hash.finish();
+
+        char[] out = new char[32 + 1 + format.length()];
+        writeHex(hash.h1, out, 0);
+        writeHex(hash.h2, out, 16);
+        out[32] = '.';
+        format.getChars(0, format.length(), out, 33);
+        return new String(out);
+    }
+
+    private static void writeHex(long value, char[] out, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            out[offset + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    /**
+     * 按 UTF-16LE 字节序列计算的流式 MurmurHash3_x64_128（种子为 0），每 8 个字符凑成一个 16 字节块。
+     */
+    static final class Murmur3 {
+        long h1;
+        long h2;
+        private long k1;
+        private long k2;
+        private int pending;
+        private long length;
+
+        void add(CharSequence s) {
+            for (int i = 0, n = s.length(); i < n; i++) {
+                add(s.charAt(i));
+            }
+        }
+
+        void add(char c) {
+            long v = c;
+            if (pending < 4) {
+                k1 |= v << (16 * pending);
+            } else {
+                k2 |= v << (16 * (pending - 4));
+            }
+            length += 2;
+            if (++pending == 8) {
+                mixBlock();
+                k1 = 0;
+                k2 = 0;
+                pending = 0;
+            }
+        }
+
+        void finish() {
+            if (pending > 4) {
+                h2 ^= mixK2(k2);
+            }
+            if (pending > 0) {
+                h1 ^= mixK1(k1);
+            }
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix64(h1);
+            h2 = fmix64(h2);
+            h1 += h2;
+            h2 += h1;
+        }
+
+        private void mixBlock() {
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        private static long mixK1(long k) {
+            k *= C1;
+            k = Long.rotateLeft(k, 31);
+            return k * C2;
+        }
+
+        private static long mixK2(long k) {
+            k *= C2;
+            k = Long.rotateLeft(k, 33);
+            return k * C1;
+        }
+
+        private static long fmix64(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.android.miloratts.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 边读边写缓存：读取网络流的同时把数据写入临时文件，完整读完后再提交到 {@link AudioStore}。
+ * 写缓存出错只会放弃缓存，不影响正在进行的播放。
+ */
+public final class CacheTeeInputStream extends FilterInputStream {
+    private final AudioStore cache;
+    private final String key;
+    private final long expectedLength;
+    private File partFile;
+    private FileOutputStream out;
+    private long written;
+    private long writeNanos;
+    private boolean eof;
+
+    public CacheTeeInputStream(InputStream in, AudioStore cache, String key, long expectedLength) {
+        super(in);
+        this.cache = cache;
+        this.key = key;
+        this.expectedLength = expectedLength;
+        try {
+            partFile = cache.newTempFile(key);
+            out = new FileOutputStream(partFile);
+        } catch (IOException e) {
+            abandon();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b < 0) {
+            eof = true;
+        } else if (out != null) {
+            try {
+                long start = System.nanoTime();
+                out.write(b);
+                writeNanos += System.nanoTime() - start;
+                written++;
+            } catch (IOException e) {
+                abandon();
+            }
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read < 0) {
+            eof = true;
+        } else if (read > 0 && out != null) {
+            try {
+                long start = System.nanoTime();
+                out.write(b, off, read);
+                writeNanos += System.nanoTime() - start;
+                written += read;
+            } catch (IOException e) {
+                abandon();
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // 跳过的数据不会进入缓存文件，缓存也就不完整了
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            abandon();
+        }
+        return skipped;
+    }
+
+    /**
+     * 写缓存文件累计花费的时间。
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * 流已完整读到末尾时把临时文件提交到缓存，返回是否提交成功。
+     */
+    public boolean commit() {
+        if (out == null || !eof || written == 0
+                || (expectedLength >= 0 && written != expectedLength)) {
+            abandon();
+            return false;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            abandon();
+            return false;
+        }
+        out = null;
+        File committed = partFile;
+        partFile = null;
+        return cache.commit(key, committed);
+    }
+
+    public void abandon() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            out = null;
+        }
+        if (partFile != null) {
+            partFile.delete();
+            partFile = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (out != null) {
+                abandon();
+            }
+        }
+    }
+}
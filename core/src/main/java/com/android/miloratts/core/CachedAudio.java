@@ -0,0 +1,51 @@
+package com.android.miloratts.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 一次磁盘缓存命中。逐文件缓存给出缓存文件，打包缓存给出段文件内存映射上的只读切片，
+ * 两者恰有一个不为 null。
+ */
+public final class CachedAudio {
+    private final File file;
+    private final ByteBuffer data;
+
+    private CachedAudio(File file, ByteBuffer data) {
+        this.file = file;
+        this.data = data;
+    }
+
+    static CachedAudio ofFile(File file) {
+        return new CachedAudio(file, null);
+    }
+
+    static CachedAudio ofData(ByteBuffer data) {
+        return new CachedAudio(null, data);
+    }
+
+    /**
+     * 逐文件缓存的缓存文件，打包缓存返回 null。
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * 打包缓存中这条音频的只读视图，不经过复制；每次调用返回独立的读取位置。逐文件缓存返回 null。
+     */
+    public ByteBuffer getData() {
+        return data != null ? data.duplicate() : null;
+    }
+
+    public long length() {
+        return data != null ? data.remaining() : file.length();
+    }
+
+    public InputStream openStream() throws IOException {
+        return data != null ? new ByteBufferInputStream(data.duplicate()) : new FileInputStream(file);
+    }
+}
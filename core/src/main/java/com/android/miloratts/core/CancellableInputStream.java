@@ -0,0 +1,72 @@
+package com.android.miloratts.core;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * 每次读取前检查取消标记；连接因取消被断开而抛出的异常统一转换为 InterruptedIOException。
+ * 同时统计读到的字节数和阻塞在读取上的时间，用来估计网络吞吐。
+ */
+public final class CancellableInputStream extends FilterInputStream {
+    private final CancellationToken token;
+    private long bytesRead;
+    private long readNanos;
+
+    public CancellableInputStream(InputStream in, CancellationToken token) {
+        super(in);
+        this.token = token;
+    }
+
+    @Override
+    public int read() throws IOException {
+        token.throwIfCancelled();
+        long start = System.nanoTime();
+        try {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead++;
+            }
+            return b;
+        } catch (IOException e) {
+            throw translate(e);
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        token.throwIfCancelled();
+        long start = System.nanoTime();
+        try {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                bytesRead += read;
+            }
+            return read;
+        } catch (IOException e) {
+            throw translate(e);
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    private IOException translate(IOException e) {
+        if (token.isCancelled() && !(e instanceof InterruptedIOException)) {
+            InterruptedIOException interrupted = new InterruptedIOException("合成已取消");
+            interrupted.initCause(e);
+            return interrupted;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,118 @@
+package com.android.miloratts.core;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 协作式取消标记。合成线程在每次网络读取和每一步编解码前检查它；
+ * 取消时还会执行登记的回调（例如断开正在阻塞读取的连接），让阻塞调用尽快返回。
+ */
+public final class CancellationToken {
+    private final List<Runnable> listeners = new ArrayList<>();
+    // 子标记在父标记上登记的转发回调，子标记取消时从父标记上摘掉
+    private final CancellationToken parent;
+    private final Runnable parentLink;
+    private volatile boolean cancelled;
+    private volatile long cancelledAtNanos;
+
+    public CancellationToken() {
+        this(null);
+    }
+
+    private CancellationToken(CancellationToken parent) {
+        this.parent = parent;
+        this.parentLink = parent == null ? null : new Runnable() {
+            @Override
+            public void run() {
+                cancel();
+            }
+        };
+    }
+
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelledAtNanos = System.nanoTime();
+            cancelled = true;
+            toRun = new ArrayList<>(listeners);
+            listeners.clear();
+            notifyAll();
+        }
+        if (parent != null) {
+            parent.removeListener(parentLink);
+        }
+        for (Runnable listener : toRun) {
+            listener.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("合成已取消");
+        }
+    }
+
+    /**
+     * 登记取消时要执行的回调；已经取消时立即执行。
+     */
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (!cancelled) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    public synchronized void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 创建一个子标记：本标记取消时子标记随之取消，子标记可以单独取消而不影响本标记。
+     * 子标记取消时会从本标记上摘除，用完后取消子标记即可，长期存在的父标记不会积累已结束的子标记。
+     */
+    public CancellationToken newChild() {
+        CancellationToken child = new CancellationToken(this);
+        addListener(child.parentLink);
+        return child;
+    }
+
+    synchronized int listenerCount() {
+        return listeners.size();
+    }
+
+    /**
+     * 可被取消打断的等待，用于重试间隔。返回 false 表示等待期间已被取消。
+     */
+    public synchronized boolean sleep(long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while (!cancelled && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return !cancelled;
+    }
+
+    /**
+     * 从调用 cancel 到现在经过的毫秒数，未取消时返回 -1。
+     */
+    public long millisSinceCancel() {
+        return cancelled ? (System.nanoTime() - cancelledAtNanos) / 1000000 : -1;
+    }
+}
@@ -0,0 +1,53 @@
+package com.android.miloratts.core;
+
+/**
+ * 在把 PCM 交给下游的同时复制一份，用于填充内存缓存；超过 maxBytes 的长片段放弃复制。
+ */
+public final class CapturingPcmSink implements PcmSink {
+    private final PcmSink delegate;
+    private final int maxBytes;
+    private PcmAccumulator captured = new PcmAccumulator();
+    private int sampleRate;
+    private int channelCount;
+    private boolean started;
+
+    public CapturingPcmSink(PcmSink delegate, int maxBytes) {
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public boolean start(int sampleRate, int channelCount) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.started = true;
+        return delegate.start(sampleRate, channelCount);
+    }
+
+    @Override
+    public boolean write(byte[] buffer, int offset, int length) {
+        if (captured != null) {
+            if (captured.size() + (long) length > maxBytes) {
+                captured = null;
+            } else {
+                captured.append(buffer, offset, length);
+            }
+        }
+        return delegate.write(buffer, offset, length);
+    }
+
+    @Override
+    public int maxChunkSize() {
+        return delegate.maxChunkSize();
+    }
+
+    /**
+     * 返回完整复制下来的音频；片段过长或从未开始时返回 null。
+     */
+    public PcmClip toClip() {
+        if (!started || captured == null || captured.size() == 0) {
+            return null;
+        }
+        return captured.toClip(sampleRate, channelCount);
+    }
+}
@@ -0,0 +1,104 @@
+package com.android.miloratts.core;
+
+/**
+ * 连续失败达到阈值后熔断一段时间，期间直接拒绝请求；冷却结束后只放行一个试探请求，
+ * 成功则恢复，失败则以加倍的冷却时间再次熔断。
+ */
+public final class CircuitBreaker {
+    static final int CLOSED = 0;
+    public static final int OPEN = 1;
+    public static final int HALF_OPEN = 2;
+
+    private final int failureThreshold;
+    private final long baseOpenMs;
+    private final long maxOpenMs;
+
+    private int state = CLOSED;
+    private int consecutiveFailures;
+    private long openMs;
+    private long openUntil;
+    private boolean trialInFlight;
+    private long openCount;
+
+    public CircuitBreaker(int failureThreshold, long baseOpenMs, long maxOpenMs) {
+        this.failureThreshold = failureThreshold;
+        this.baseOpenMs = baseOpenMs;
+        this.maxOpenMs = maxOpenMs;
+        this.openMs = baseOpenMs;
+    }
+
+    /**
+     * 是否允许发出请求。返回 true 后必须以 recordSuccess/recordFailure/recordIgnored 之一结束。
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() < openUntil) {
+                    return false;
+                }
+                state = HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            default:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        state = CLOSED;
+        consecutiveFailures = 0;
+        openMs = baseOpenMs;
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        if (state == HALF_OPEN) {
+            openMs = Math.min(maxOpenMs, openMs * 2);
+            trip();
+            return;
+        }
+        consecutiveFailures++;
+        if (state == CLOSED && consecutiveFailures >= failureThreshold) {
+            trip();
+        }
+    }
+
+    /**
+     * 请求被取消等无法判断服务好坏的情况，只释放试探名额。
+     */
+    public synchronized void recordIgnored() {
+        trialInFlight = false;
+    }
+
+    public synchronized int getState() {
+        if (state == OPEN && System.currentTimeMillis() >= openUntil) {
+            return HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * 距离允许试探还有多少毫秒，未熔断时返回 0。
+     */
+    public synchronized long remainingOpenMs() {
+        return state == OPEN ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+
+    synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    private void trip() {
+        state = OPEN;
+        openUntil = System.currentTimeMillis() + openMs;
+        trialInFlight = false;
+        consecutiveFailures = 0;
+        openCount++;
+    }
+}
@@ -0,0 +1,159 @@
+package com.android.miloratts.core;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 引擎各阶段的耗时和吞吐统计。全部基于原子计数器和 {@link LatencyHistogram}，
+ * 记录时不加锁；读取是近似快照，用于 dumpsys、设置界面和 CSV 导出。
+ * 耗时单位统一为毫秒，解码实时率以千分之一为单位记录。
+ */
+public final class EngineMetrics {
+    public static final String CSV_HEADER = "time,utterances,stops,errors,ttfa_p50,ttfa_p95,api_p50,api_p95,"
+            + "audio_connect_p50,download_p50,cache_write_p50,codec_setup_p50,decode_rtf_p50,"
+            + "memory_hits,disk_hits,network_fetches,coalesced,bytes_downloaded,retries,hedges,cache_only_rejects,"
+            + "resolved_url_hits,resolved_ahead,leading_silence_p50,trimmed_silence_ms,"
+            + "warmup_fetches,warmup_coverage,speculative_prefetches,speculative_hits,"
+            + "cold_start_first_audio_p50,warm_start_first_audio_p50";
+
+    public final LatencyHistogram timeToFirstAudio = new LatencyHistogram();
+    public final LatencyHistogram apiLatency = new LatencyHistogram();
+    public final LatencyHistogram audioConnectLatency = new LatencyHistogram();
+    public final LatencyHistogram downloadTime = new LatencyHistogram();
+    public final LatencyHistogram cacheWriteTime = new LatencyHistogram();
+    public final LatencyHistogram codecSetupTime = new LatencyHistogram();
+    final LatencyHistogram decodeRealTimeFactor = new LatencyHistogram();
+    // 每个片段开头去掉的静音，即本来要在听到第一个声音之前多等的时间
+    public final LatencyHistogram leadingSilence = new LatencyHistogram();
+    // 服务创建（系统绑定引擎）到创建后第一句话出声的时间，按是否同时启动了进程分开统计
+    public final LatencyHistogram coldStartFirstAudio = new LatencyHistogram();
+    public final LatencyHistogram warmStartFirstAudio = new LatencyHistogram();
+    // 每次后台预热缓存的总耗时
+    public final LatencyHistogram warmupTime = new LatencyHistogram();
+
+    public final AtomicLong utterances = new AtomicLong();
+    public final AtomicLong stops = new AtomicLong();
+    public final AtomicLong errors = new AtomicLong();
+    public final AtomicLong memoryHits = new AtomicLong();
+    public final AtomicLong diskHits = new AtomicLong();
+    public final AtomicLong networkFetches = new AtomicLong();
+    public final AtomicLong coalesced = new AtomicLong();
+    public final AtomicLong bytesDownloaded = new AtomicLong();
+    public final AtomicLong retries = new AtomicLong();
+    public final AtomicLong hedges = new AtomicLong();
+    public final AtomicLong cacheOnlyRejects = new AtomicLong();
+    // 用缓存的音频地址省掉的 API 请求，以及在轮到下载之前提前完成的地址解析
+    public final AtomicLong resolvedUrlHits = new AtomicLong();
+    public final AtomicLong resolvedAhead = new AtomicLong();
+    public final AtomicLong trimmedSilenceMs = new AtomicLong();
+    // 后台预热下载的片段和字节数；覆盖率是最近一次预热后常用短句已在缓存中的百分比，未预热过时为 -1
+    public final AtomicLong warmupFetches = new AtomicLong();
+    public final AtomicLong warmupBytes = new AtomicLong();
+    public final AtomicLong warmupCoverage = new AtomicLong(-1);
+    // 按预测提前合成的句子、其中被下一个请求用上的、因流量上限放弃的，以及推测期间的下载量
+    public final AtomicLong speculativePrefetches = new AtomicLong();
+    public final AtomicLong speculativeHits = new AtomicLong();
+    public final AtomicLong speculativeSkipped = new AtomicLong();
+    public final AtomicLong speculativeBytes = new AtomicLong();
+    // 系统要求释放内存的次数，以及预合成超出缓冲上限、改为朗读时再从缓存流式解码的片段
+    public final AtomicLong memoryTrims = new AtomicLong();
+    public final AtomicLong prefetchStreamed = new AtomicLong();
+    final AtomicLong decodedAudioMs = new AtomicLong();
+    final AtomicLong decodeWorkMs = new AtomicLong();
+
+    private final long startedAt = System.currentTimeMillis();
+
+    /**
+     * 记录一次解码：audioMs 是产出的音频时长，workNanos 是扣除网络等待和输出阻塞后解码器实际花费的时间。
+     */
+    public void recordDecode(long audioMs, long workNanos) {
+        if (audioMs <= 0) {
+            return;
+        }
+        long workMs = workNanos / 1000000;
+        decodedAudioMs.addAndGet(audioMs);
+        decodeWorkMs.addAndGet(workMs);
+        decodeRealTimeFactor.record(workNanos / 1000 / audioMs);
+    }
+
+    /**
+     * 各级缓存的命中率，分母是所有片段请求。
+     */
+    double hitRatio(AtomicLong tier) {
+        long total = memoryHits.get() + diskHits.get() + networkFetches.get() + coalesced.get();
+        return total == 0 ? 0 : tier.get() * 1.0 / total;
+    }
+
+    public void dump(PrintWriter pw) {
+        long uptimeSec = (System.currentTimeMillis() - startedAt) / 1000;
+        pw.println("Milora TTS 统计（运行 " + uptimeSec + " 秒）");
+        pw.println(String.format(Locale.US, "  合成请求 %d，停止 %d，失败 %d",
+                utterances.get(), stops.get(), errors.get()));
+        pw.println(String.format(Locale.US, "  片段来源: 内存 %d (%.0f%%)，磁盘 %d (%.0f%%)，网络 %d (%.0f%%)，合并 %d",
+                memoryHits.get(), hitRatio(memoryHits) * 100, diskHits.get(), hitRatio(diskHits) * 100,
+                networkFetches.get(), hitRatio(networkFetches) * 100, coalesced.get()));
+        pw.println(String.format(Locale.US, "  下载 %d KB，重试 %d，对冲 %d，熔断拒绝 %d",
+                bytesDownloaded.get() / 1024, retries.get(), hedges.get(), cacheOnlyRejects.get()));
+        pw.println(String.format(Locale.US, "  音频地址: 缓存命中 %d，提前解析 %d",
+                resolvedUrlHits.get(), resolvedAhead.get()));
+        pw.println(String.format(Locale.US, "  去掉静音 %.1f 秒", trimmedSilenceMs.get() / 1000.0));
+        long speculated = speculativePrefetches.get();
+        pw.println(String.format(Locale.US, "  推测: 发起 %d，命中 %d (%.0f%%)，超出流量上限跳过 %d，下载 %d KB",
+                speculated, speculativeHits.get(), speculated == 0 ? 0.0 : speculativeHits.get() * 100.0 / speculated,
+                speculativeSkipped.get(), speculativeBytes.get() / 1024));
+        pw.println(String.format(Locale.US, "  预热: %d 次，下载 %d 段 %d KB，覆盖率 %s",
+                warmupTime.count(), warmupFetches.get(), warmupBytes.get() / 1024,
+                warmupCoverage.get() < 0 ? "未知" : warmupCoverage.get() + "%"));
+        pw.println(String.format(Locale.US, "  内存: 释放 %d 次，预合成改为流式 %d 段",
+                memoryTrims.get(), prefetchStreamed.get()));
+        long audioMs = decodedAudioMs.get();
+        pw.println(String.format(Locale.US, "  解码音频 %.1f 秒，实时率 %.3f",
+                audioMs / 1000.0, audioMs == 0 ? 0.0 : decodeWorkMs.get() * 1.0 / audioMs));
+        pw.println("  阶段耗时 (ms)              count     p50     p95     p99     max");
+        dumpHistogram(pw, "首个音频", timeToFirstAudio);
+        dumpHistogram(pw, "冷启动首个音频", coldStartFirstAudio);
+        dumpHistogram(pw, "热启动首个音频", warmStartFirstAudio);
+        dumpHistogram(pw, "API 请求", apiLatency);
+        dumpHistogram(pw, "音频连接", audioConnectLatency);
+        dumpHistogram(pw, "音频下载", downloadTime);
+        dumpHistogram(pw, "缓存写入", cacheWriteTime);
+        dumpHistogram(pw, "解码器准备", codecSetupTime);
+        dumpHistogram(pw, "开头静音", leadingSilence);
+        dumpHistogram(pw, "缓存预热", warmupTime);
+        pw.println(String.format(Locale.US, "  解码实时率 p50 %.3f，p95 %.3f",
+                decodeRealTimeFactor.percentile(0.5) / 1000.0, decodeRealTimeFactor.percentile(0.95) / 1000.0));
+    }
+
+    /**
+     * 设置界面用的简短摘要。
+     */
+    public String summary() {
+        return String.format(Locale.US,
+                "首个音频 p50 %d ms / p95 %d ms\nAPI p50 %d ms，下载 p50 %d ms，解码器准备 p50 %d ms\n"
+                        + "网络 %d 段，下载 %d KB，重试 %d，对冲 %d，失败 %d",
+                timeToFirstAudio.percentile(0.5), timeToFirstAudio.percentile(0.95),
+                apiLatency.percentile(0.5), downloadTime.percentile(0.5), codecSetupTime.percentile(0.5),
+                networkFetches.get(), bytesDownloaded.get() / 1024, retries.get(), hedges.get(), errors.get());
+    }
+
+    public String csvRow(long timeMillis) {
+        return String.format(Locale.US, "%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.3f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d",
+                timeMillis, utterances.get(), stops.get(), errors.get(),
+                timeToFirstAudio.percentile(0.5), timeToFirstAudio.percentile(0.95),
+                apiLatency.percentile(0.5), apiLatency.percentile(0.95),
+                audioConnectLatency.percentile(0.5), downloadTime.percentile(0.5),
+                cacheWriteTime.percentile(0.5), codecSetupTime.percentile(0.5),
+                decodeRealTimeFactor.percentile(0.5) / 1000.0,
+                memoryHits.get(), diskHits.get(), networkFetches.get(), coalesced.get(),
+                bytesDownloaded.get(), retries.get(), hedges.get(), cacheOnlyRejects.get(),
+                resolvedUrlHits.get(), resolvedAhead.get(), leadingSilence.percentile(0.5), trimmedSilenceMs.get(),
+                warmupFetches.get(), warmupCoverage.get(), speculativePrefetches.get(), speculativeHits.get(),
+                coldStartFirstAudio.percentile(0.5), warmStartFirstAudio.percentile(0.5));
+    }
+
+    private static void dumpHistogram(PrintWriter pw, String name, LatencyHistogram histogram) {
+        pw.println(String.format(Locale.US, "    %-20s %7d %7d %7d %7d %7d", name, histogram.count(),
+                histogram.percentile(0.5), histogram.percentile(0.95), histogram.percentile(0.99), histogram.max()));
+    }
+}
@@ -0,0 +1,154 @@
+package com.android.miloratts.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 在共用线程池上按调用方公平地调度任务。
+ * 任务先按优先级分组，高优先级组里有任务时先执行它们；同一优先级内按调用方轮流取任务，
+ * 某个调用方一次排进很多任务（例如朗读长文的预取）也不会让其他调用方一直排在后面。
+ * 最多同时占用 maxConcurrent 个线程，直接提交到线程池的其他任务不受影响。
+ */
+public final class FairExecutor {
+    // 无障碍服务（读屏）的请求：用户每次操作都在等它出声
+    public static final int PRIORITY_ACCESSIBILITY = 0;
+    // 正在播放的请求：播放马上就要用到结果
+    public static final int PRIORITY_FOREGROUND = 1;
+    // 推测性的工作：提前解析地址、预热连接等，晚一点完成也不影响正确性
+    public static final int PRIORITY_BACKGROUND = 2;
+    private static final int PRIORITY_LEVELS = 3;
+
+    private final Executor executor;
+    private final int maxConcurrent;
+    // 每个优先级一个轮转队列，只包含还有任务的调用方
+    private final List<ArrayDeque<Lane>> ready = new ArrayList<>(PRIORITY_LEVELS);
+    private final List<Map<Object, Lane>> lanes = new ArrayList<>(PRIORITY_LEVELS);
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            runNext();
+        }
+    };
+    private int running;
+    private int queued;
+
+    public FairExecutor(Executor executor, int maxConcurrent) {
+        this.executor = executor;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        for (int i = 0; i < PRIORITY_LEVELS; i++) {
+            ready.add(new ArrayDeque<Lane>());
+            lanes.add(new HashMap<Object, Lane>());
+        }
+    }
+
+    /**
+     * 以 owner 的名义排入一个任务。owner 只用来区分调用方，按 equals 比较。
+     */
+    public void execute(Object owner, int priority, Runnable task) {
+        int level = Math.max(0, Math.min(PRIORITY_LEVELS - 1, priority));
+        boolean dispatch;
+        synchronized (this) {
+            Lane lane = lanes.get(level).get(owner);
+            if (lane == null) {
+                lane = new Lane(owner);
+                lanes.get(level).put(owner, lane);
+                ready.get(level).addLast(lane);
+            }
+            lane.tasks.addLast(task);
+            queued++;
+            dispatch = running < maxConcurrent;
+            if (dispatch) {
+                running++;
+            }
+        }
+        if (dispatch) {
+            dispatch();
+        }
+    }
+
+    public <T> Future<T> submit(Object owner, int priority, Callable<T> task) {
+        FutureTask<T> future = new FutureTask<>(task);
+        execute(owner, priority, future);
+        return future;
+    }
+
+    public synchronized int queuedCount() {
+        return queued;
+    }
+
+    public synchronized int runningCount() {
+        return running;
+    }
+
+    // 每次只执行一个任务，还有任务时重新提交自己，线程池里的其他任务可以穿插执行
+    private void runNext() {
+        Runnable task;
+        synchronized (this) {
+            task = poll();
+            if (task == null) {
+                running--;
+                return;
+            }
+        }
+        try {
+            task.run();
+        } finally {
+            boolean more;
+            synchronized (this) {
+                more = queued > 0;
+                if (!more) {
+                    running--;
+                }
+            }
+            if (more) {
+                dispatch();
+            }
+        }
+    }
+
+    private void dispatch() {
+        try {
+            executor.execute(worker);
+        } catch (RejectedExecutionException e) {
+            // 线程池已关闭，进程正在退出，排队的任务不再执行
+            synchronized (this) {
+                running--;
+            }
+        }
+    }
+
+    private Runnable poll() {
+        for (int level = 0; level < PRIORITY_LEVELS; level++) {
+            Lane lane = ready.get(level).pollFirst();
+            if (lane == null) {
+                continue;
+            }
+            Runnable task = lane.tasks.pollFirst();
+            if (lane.tasks.isEmpty()) {
+                lanes.get(level).remove(lane.owner);
+            } else {
+                ready.get(level).addLast(lane);
+            }
+            queued--;
+            return task;
+        }
+        return null;
+    }
+
+    private static final class Lane {
+        final Object owner;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        Lane(Object owner) {
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.android.miloratts.core;
+
+import java.util.Arrays;
+
+/**
+ * 记录某个端点的请求耗时，用类似 TCP RTO 的方式（平滑均值 + 4 倍平均偏差）推算超时，
+ * 并用最近若干次的样本估计分位数，作为发起对冲请求的等待时间。
+ */
+public final class LatencyEstimator {
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    private static final int WINDOW = 64;
+    // 样本太少时分位数没有意义
+    private static final int MIN_PERCENTILE_SAMPLES = 8;
+
+    private final long[] window = new long[WINDOW];
+    private int count;
+    private int next;
+    private double smoothed = -1;
+    private double deviation;
+
+    public synchronized void record(long latencyMs) {
+        if (smoothed < 0) {
+            smoothed = latencyMs;
+            deviation = latencyMs / 2.0;
+        } else {
+            deviation = (1 - BETA) * deviation + BETA * Math.abs(latencyMs - smoothed);
+            smoothed = (1 - ALPHA) * smoothed + ALPHA * latencyMs;
+        }
+        window[next] = latencyMs;
+        next = (next + 1) % WINDOW;
+        if (count < WINDOW) {
+            count++;
+        }
+    }
+
+    /**
+     * 根据观测到的耗时给出超时，限制在 [minMs, maxMs] 之间；还没有样本时返回 maxMs。
+     */
+    public synchronized long timeoutMs(long minMs, long maxMs) {
+        if (smoothed < 0) {
+            return maxMs;
+        }
+        long timeout = (long) (smoothed + 4 * deviation);
+        return Math.max(minMs, Math.min(maxMs, timeout));
+    }
+
+    /**
+     * 最近样本的分位数（0 < p < 1），样本不足时返回 -1。
+     */
+    public synchronized long percentileMs(double p) {
+        if (count < MIN_PERCENTILE_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(window, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    synchronized long smoothedMs() {
+        return smoothed < 0 ? -1 : (long) smoothed;
+    }
+}
@@ -0,0 +1,194 @@
+package com.android.miloratts.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 从输入流中增量切分 MPEG Layer III 帧，不需要等待整个文件下载完成。
+ * 解析到的第一帧会锁定采样率/声道等参数，之后只接受与之一致的帧头，避免误同步。
+ */
+public final class Mp3FrameReader {
+    // Layer III 单帧最大 1441 字节（MPEG1 320kbps@32kHz + padding）
+    public static final int MAX_FRAME_SIZE = 2048;
+
+    private static final int[] BITRATES_V1 = {
+        0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 0
+    };
+    private static final int[] BITRATES_V2 = {
+        0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0
+    };
+    private static final int[] SAMPLE_RATES_V1 = {44100, 48000, 32000};
+    // 用于比较帧头是否属于同一码流：同步字、版本、层、采样率
+    private static final int STREAM_MASK = 0xFFFE0C00;
+
+    private final InputStream in;
+    private final byte[] buf = new byte[16 * 1024];
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private boolean started;
+
+    private int lockedHeader;
+    private int sampleRate;
+    private int channelCount;
+    private int samplesPerFrame;
+    private long framesRead;
+
+    public Mp3FrameReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * 读取下一帧到 dest（长度至少 {@link #MAX_FRAME_SIZE}），返回帧长度，流结束返回 -1。
+     */
+    public int readFrame(byte[] dest) throws IOException {
+        if (!started) {
+            started = true;
+            skipId3Tag();
+        }
+        while (ensure(4)) {
+            int header = readHeader(pos);
+            int length = frameLength(header);
+            if (length <= 0 || (framesRead > 0 && (header & STREAM_MASK) != lockedHeader)) {
+                pos++;
+                continue;
+            }
+            if (framesRead == 0 && !confirmSync(header, length)) {
+                pos++;
+                continue;
+            }
+            if (!ensure(length)) {
+                // 末尾残缺帧，直接丢弃
+                pos = limit;
+                return -1;
+            }
+            if (framesRead == 0) {
+                lockStream(header);
+            }
+            System.arraycopy(buf, pos, dest, 0, length);
+            pos += length;
+            framesRead++;
+            return length;
+        }
+        return -1;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getSamplesPerFrame() {
+        return samplesPerFrame;
+    }
+
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    static int frameLength(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) {
+            return -1;
+        }
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 3;
+        int padding = (header >>> 9) & 1;
+        // version: 0=MPEG2.5, 1=保留, 2=MPEG2, 3=MPEG1；layer: 1=Layer III
+        if (version == 1 || layer != 1 || sampleRateIndex == 3) {
+            return -1;
+        }
+        int bitrate = (version == 3 ? BITRATES_V1 : BITRATES_V2)[bitrateIndex] * 1000;
+        if (bitrate == 0) {
+            return -1;
+        }
+        int sampleRate = sampleRateOf(version, sampleRateIndex);
+        int coefficient = version == 3 ? 144 : 72;
+        return coefficient * bitrate / sampleRate + padding;
+    }
+
+    private static int sampleRateOf(int version, int sampleRateIndex) {
+        int shift = version == 3 ? 0 : (version == 2 ? 1 : 2);
+        return SAMPLE_RATES_V1[sampleRateIndex] >> shift;
+    }
+
+    private void lockStream(int header) {
+        int version = (header >>> 19) & 3;
+        lockedHeader = header & STREAM_MASK;
+        sampleRate = sampleRateOf(version, (header >>> 10) & 3);
+        channelCount = ((header >>> 6) & 3) == 3 ? 1 : 2;
+        samplesPerFrame = version == 3 ? 1152 : 576;
+    }
+
+    // 首帧需要紧跟一个同类帧头才算同步成功（流在此结束时除外）
+    private boolean confirmSync(int header, int length) throws IOException {
+        if (!ensure(length + 4)) {
+            return true;
+        }
+        int next = readHeader(pos + length);
+        return frameLength(next) > 0 && (next & STREAM_MASK) == (header & STREAM_MASK);
+    }
+
+    private void skipId3Tag() throws IOException {
+        if (!ensure(10)) {
+            return;
+        }
+        if (buf[pos] != 'I' || buf[pos + 1] != 'D' || buf[pos + 2] != '3') {
+            return;
+        }
+        int flags = buf[pos + 5] & 0xFF;
+        long size = ((buf[pos + 6] & 0x7F) << 21) | ((buf[pos + 7] & 0x7F) << 14)
+                | ((buf[pos + 8] & 0x7F) << 7) | (buf[pos + 9] & 0x7F);
+        size += 10;
+        if ((flags & 0x10) != 0) {
+            size += 10;
+        }
+        long available = limit - pos;
+        if (size <= available) {
+            pos += (int) size;
+            return;
+        }
+        // 用 read 而不是 skip 跳过标签，保证上游的缓存镜像流拿到完整数据
+        size -= available;
+        pos = 0;
+        limit = 0;
+        while (size > 0) {
+            int read = in.read(buf, 0, (int) Math.min(size, buf.length));
+            if (read < 0) {
+                eof = true;
+                return;
+            }
+            size -= read;
+        }
+    }
+
+    private int readHeader(int offset) {
+        return ((buf[offset] & 0xFF) << 24) | ((buf[offset + 1] & 0xFF) << 16)
+                | ((buf[offset + 2] & 0xFF) << 8) | (buf[offset + 3] & 0xFF);
+    }
+
+    // 保证缓冲区内至少有 n 个可读字节，不足时只在必要时阻塞读取
+    private boolean ensure(int n) throws IOException {
+        if (limit - pos >= n) {
+            return true;
+        }
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < n && !eof) {
+            int read = in.read(buf, limit, buf.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+        return limit - pos >= n;
+    }
+}
@@ -0,0 +1,26 @@
+package com.android.miloratts.core;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 为引擎的后台线程命名并设为守护线程，便于在 traces 和 systrace 中辨认。
+ */
+public final class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final int priority;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public NamedThreadFactory(String prefix, int priority) {
+        this.prefix = prefix;
+        this.priority = priority;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(priority);
+        return thread;
+    }
+}
@@ -0,0 +1,304 @@
+package com.android.miloratts.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 一阶马尔可夫模型：记录每句话之后接着出现过哪些话，预测下一句最可能是什么。
+ * 读屏按焦点顺序遍历同一个界面时，朗读的句子序列几乎每次都一样，上一句能很好地预测下一句。
+ * <p>
+ * 句子用 64 位键表示（见 {@link #keyOf}），模型只存键和计数，不存文本。
+ * 表是固定容量的开放寻址表，全部是基本类型数组，记录和预测都不分配内存：
+ * 每个前驱最多保留 {@link #SUCCESSORS} 个后继，探测 {@link #MAX_PROBES} 个槽位都被占用时
+ * 替换其中总计数最少的前驱；某个计数达到上限时把这个前驱的所有计数减半，旧的习惯会逐渐被新的替代。
+ * 所有方法都是线程安全的。
+ */
+public final class NextUtterancePredictor {
+    static final int SUCCESSORS = 4;
+    private static final int MAX_PROBES = 8;
+    private static final int COUNT_LIMIT = 1 << 12;
+    // 后继占这个前驱全部后继次数的比例低于此值时不值得为它花流量
+    private static final double MIN_PROBABILITY = 0.2;
+    private static final long EMPTY = 0;
+    private static final int FILE_MAGIC = 0x4D4E5531;
+    private static final int FILE_VERSION = 1;
+
+    private final int mask;
+    private final long[] keys;
+    private final int[] totals;
+    private final long[] successors;
+    private final int[] counts;
+    private boolean dirty;
+
+    /**
+     * capacity 向上取整到 2 的幂，是最多能记住的前驱句子数。
+     */
+    public NextUtterancePredictor(int capacity) {
+        int slots = Integer.highestOneBit(Math.max(MAX_PROBES, capacity) - 1) << 1;
+        mask = slots - 1;
+        keys = new long[slots];
+        totals = new int[slots];
+        successors = new long[slots * SUCCESSORS];
+        counts = new int[slots * SUCCESSORS];
+    }
+
+    /**
+     * 把缓存键开头的 64 位十六进制哈希作为句子的键。0 留作空槽标记，碰到时换成 1。
+     */
+    public static long keyOf(String cacheKey) {
+        long key = 0;
+        for (int i = 0; i < 16; i++) {
+            key = key << 4 | Character.digit(cacheKey.charAt(i), 16);
+        }
+        return key == EMPTY ? 1 : key;
+    }
+
+    /**
+     * 记录 previous 之后出现了 next。
+     */
+    public synchronized void observe(long previous, long next) {
+        if (previous == next) {
+            return;
+        }
+        int slot = findOrClaim(previous);
+        int base = slot * SUCCESSORS;
+        int target = -1;
+        int weakest = base;
+        for (int i = base; i < base + SUCCESSORS; i++) {
+            if (successors[i] == next) {
+                target = i;
+                break;
+            }
+            if (counts[i] < counts[weakest]) {
+                weakest = i;
+            }
+        }
+        if (target < 0) {
+            // 后继都满了时替换次数最少的，新后继从 1 次开始，偶尔一次的跳转挤不掉稳定的顺序
+            target = weakest;
+            totals[slot] -= counts[target];
+            successors[target] = next;
+            counts[target] = 0;
+        }
+        counts[target]++;
+        totals[slot]++;
+        if (counts[target] >= COUNT_LIMIT) {
+            halve(slot);
+        }
+        dirty = true;
+    }
+
+    /**
+     * 按可能性从高到低把 current 之后最可能出现的句子写入 out，返回写入的个数。
+     */
+    public synchronized int predict(long current, long[] out) {
+        int slot = find(current);
+        if (slot < 0 || out.length == 0) {
+            return 0;
+        }
+        int base = slot * SUCCESSORS;
+        int threshold = (int) Math.ceil(totals[slot] * MIN_PROBABILITY);
+        int found = 0;
+        int lastCount = Integer.MAX_VALUE;
+        // 后继只有几个，每轮挑出剩下里次数最多的一个
+        while (found < out.length) {
+            int best = -1;
+            for (int i = base; i < base + SUCCESSORS; i++) {
+                int count = counts[i];
+                if (count == 0 || count < threshold || count > lastCount
+                        || (count == lastCount && contains(out, found, successors[i]))) {
+                    continue;
+                }
+                if (best < 0 || count > counts[best]) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            out[found++] = successors[best];
+            lastCount = counts[best];
+        }
+        return found;
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(totals, 0);
+        Arrays.fill(successors, EMPTY);
+        Arrays.fill(counts, 0);
+        dirty = true;
+    }
+
+    /**
+     * 载入保存的模型。文件不存在、损坏或容量不同时返回空模型。
+     */
+    public static NextUtterancePredictor load(File file, int capacity) {
+        NextUtterancePredictor predictor = new NextUtterancePredictor(capacity);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                    throw new IOException("预测模型文件头无效");
+                }
+                int entries = in.readInt();
+                for (int i = 0; i < entries; i++) {
+                    long key = in.readLong();
+                    int slot = predictor.findOrClaim(key);
+                    int base = slot * SUCCESSORS;
+                    for (int j = 0; j < SUCCESSORS; j++) {
+                        predictor.successors[base + j] = in.readLong();
+                        predictor.counts[base + j] = in.readInt();
+                        predictor.totals[slot] += predictor.counts[base + j];
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // 还没有模型
+        } catch (IOException e) {
+            predictor.clear();
+        }
+        predictor.dirty = false;
+        return predictor;
+    }
+
+    /**
+     * 有改动时写入文件，只写被占用的槽位，先写临时文件再改名。返回是否写入了新内容。
+     */
+    public boolean saveIfDirty(File file) throws IOException {
+        long[] keySnapshot;
+        long[] successorSnapshot;
+        int[] countSnapshot;
+        synchronized (this) {
+            if (!dirty) {
+                return false;
+            }
+            keySnapshot = keys.clone();
+            successorSnapshot = successors.clone();
+            countSnapshot = counts.clone();
+            dirty = false;
+        }
+        int entries = 0;
+        for (long key : keySnapshot) {
+            if (key != EMPTY) {
+                entries++;
+            }
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(entries);
+                for (int slot = 0; slot < keySnapshot.length; slot++) {
+                    if (keySnapshot[slot] == EMPTY) {
+                        continue;
+                    }
+                    out.writeLong(keySnapshot[slot]);
+                    for (int i = slot * SUCCESSORS; i < (slot + 1) * SUCCESSORS; i++) {
+                        out.writeLong(successorSnapshot[i]);
+                        out.writeInt(countSnapshot[i]);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("无法替换预测模型文件");
+            }
+            return true;
+        } catch (IOException e) {
+            tempFile.delete();
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+    }
+
+    private int find(long key) {
+        int start = hash(key);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = (start + probe) & mask;
+            if (keys[slot] == key) {
+                return slot;
+            }
+            if (keys[slot] == EMPTY) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // 找到 key 的槽位；没有时占用第一个空槽，探测范围内都被占用时替换总计数最少的前驱
+    private int findOrClaim(long key) {
+        int start = hash(key);
+        int victim = -1;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = (start + probe) & mask;
+            if (keys[slot] == key) {
+                return slot;
+            }
+            if (keys[slot] == EMPTY) {
+                victim = slot;
+                break;
+            }
+            if (victim < 0 || totals[slot] < totals[victim]) {
+                victim = slot;
+            }
+        }
+        keys[victim] = key;
+        totals[victim] = 0;
+        int base = victim * SUCCESSORS;
+        Arrays.fill(successors, base, base + SUCCESSORS, EMPTY);
+        Arrays.fill(counts, base, base + SUCCESSORS, 0);
+        return victim;
+    }
+
+    private void halve(int slot) {
+        int total = 0;
+        for (int i = slot * SUCCESSORS; i < (slot + 1) * SUCCESSORS; i++) {
+            counts[i] /= 2;
+            if (counts[i] == 0) {
+                successors[i] = EMPTY;
+            }
+            total += counts[i];
+        }
+        totals[slot] = total;
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    private static boolean contains(long[] values, int length, long value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
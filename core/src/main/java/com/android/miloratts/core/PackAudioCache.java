@@ -0,0 +1,672 @@
+package com.android.miloratts.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 打包存储的音频缓存：多条音频依次追加写进少数几个段文件，内存中的索引记录每条音频所在的段和偏移。
+ * 命中时从段文件的只读内存映射上切出一片交给解码器，不需要打开文件，也不需要逐条查询文件属性。
+ *
+ * 段文件由若干条记录组成：
+ *     int 魔数 | short 键长度 | int 数据长度 | 键（UTF-8） | 数据
+ * 记录只追加不修改。删除和淘汰只改内存索引，留下的死数据在段内占比过高时由后台把存活的记录
+ * 搬到当前段尾后删除整个旧段。索引快照 pack.index 保存 LRU 顺序和每个段已收录的长度，
+ * 打开时先载入快照，再扫描各段在快照之后追加的记录。键是文本的哈希，
+ * 所以即使快照落后、被删除的条目在重启后重新出现，内容也仍然是正确的。
+ */
+public final class PackAudioCache implements AudioStore {
+    static final String INDEX_FILE = "pack.index";
+    private static final String INDEX_FILE_TEMP = "pack.index.tmp";
+    private static final String SEGMENT_PREFIX = "pack-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int RECORD_MAGIC = 0x4D504B31;
+    private static final int INDEX_MAGIC = 0x4D504958;
+    private static final int INDEX_VERSION = 1;
+    // 魔数 + 键长度 + 数据长度
+    private static final int RECORD_HEADER_SIZE = 10;
+    static final long DEFAULT_SEGMENT_BYTES = 8L * 1024 * 1024;
+    // 死数据超过四分之一的旧段会被压缩，磁盘占用最多比 size() 多出约三分之一
+    private static final double COMPACT_DEAD_RATIO = 0.25;
+    // 自上次快照以来累计这么多次删除或淘汰后重写快照
+    private static final int INDEX_DIRTY_THRESHOLD = 200;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final File indexFile;
+    private final long segmentBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(0, 0.75f, true);
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Executor maintenanceExecutor;
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+    private final Runnable maintenanceTask = new Runnable() {
+        @Override
+        public void run() {
+            maintenanceScheduled.set(false);
+            synchronized (PackAudioCache.this) {
+                if (!closed) {
+                    runMaintenance();
+                }
+            }
+        }
+    };
+
+    private Segment active;
+    private long maxBytes;
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long compactionCount;
+    private int indexDirtyCount;
+    // 只在持有锁时写入；newTempFile 不加锁读取
+    private volatile boolean closed;
+
+    private PackAudioCache(File directory, long maxBytes, long segmentBytes, Executor maintenanceExecutor) {
+        this.directory = directory;
+        this.indexFile = new File(directory, INDEX_FILE);
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.maintenanceExecutor = maintenanceExecutor;
+    }
+
+    public static PackAudioCache open(File directory, long maxBytes, Executor maintenanceExecutor) throws IOException {
+        return open(directory, maxBytes, DEFAULT_SEGMENT_BYTES, maintenanceExecutor);
+    }
+
+    /**
+     * 打开缓存目录并载入索引，淘汰和压缩提交到 maintenanceExecutor 上执行。
+     * 单个段文件写到 segmentBytes 后换新段，超过这个大小的音频独占一个段。
+     */
+    public static PackAudioCache open(File directory, long maxBytes, long segmentBytes,
+            Executor maintenanceExecutor) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("无法创建缓存目录: " + directory);
+        }
+        PackAudioCache cache = new PackAudioCache(directory, maxBytes, segmentBytes, maintenanceExecutor);
+        synchronized (cache) {
+            cache.load();
+        }
+        cache.scheduleMaintenance();
+        return cache;
+    }
+
+    @Override
+    public synchronized CachedAudio get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        ByteBuffer data;
+        try {
+            data = entry.segment.slice(entry.dataOffset(), entry.length);
+        } catch (IOException e) {
+            removeEntry(key);
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return CachedAudio.ofData(data);
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    @Override
+    public File newTempFile(String key) throws IOException {
+        if (closed) {
+            throw new IOException("缓存已关闭");
+        }
+        return File.createTempFile(key, ".part", directory);
+    }
+
+    /**
+     * 把临时文件的内容作为一条记录追加到当前段尾并删除临时文件。写到一半失败时把段截回原来的长度。
+     */
+    @Override
+    public synchronized boolean commit(String key, File tempFile) {
+        try {
+            long length = tempFile.length();
+            byte[] keyBytes = key.getBytes(UTF_8);
+            if (closed || length <= 0 || length > Integer.MAX_VALUE / 2 || keyBytes.length > Short.MAX_VALUE) {
+                return false;
+            }
+            int recordBytes = RECORD_HEADER_SIZE + keyBytes.length + (int) length;
+            Segment segment;
+            try {
+                segment = segmentForAppend(recordBytes);
+            } catch (IOException e) {
+                return false;
+            }
+            int recordOffset = (int) segment.length;
+            try {
+                ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + keyBytes.length);
+                header.putInt(RECORD_MAGIC).putShort((short) keyBytes.length).putInt((int) length).put(keyBytes);
+                header.flip();
+                FileInputStream in = new FileInputStream(tempFile);
+                try {
+                    segment.append(header, in.getChannel(), length);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                segment.truncate(recordOffset);
+                return false;
+            }
+
+            Entry previous = entries.put(key, new Entry(segment, recordOffset, recordBytes, (int) length));
+            if (previous != null) {
+                size -= previous.length;
+                previous.segment.liveBytes -= previous.recordBytes;
+                indexDirtyCount++;
+            }
+            size += length;
+            segment.liveBytes += recordBytes;
+            if (size > maxBytes || maintenanceNeeded()) {
+                scheduleMaintenance();
+            }
+            return true;
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        if (removeEntry(key) && maintenanceNeeded()) {
+            scheduleMaintenance();
+        }
+    }
+
+    /**
+     * 删除所有段文件和索引快照，返回删除的条目数。
+     */
+    @Override
+    public synchronized int clear() {
+        int deleted = entries.size();
+        for (Segment segment : segments.values()) {
+            segment.close();
+            segment.file.delete();
+        }
+        segments.clear();
+        entries.clear();
+        active = null;
+        size = 0;
+        indexDirtyCount = 0;
+        indexFile.delete();
+        return deleted;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (active != null) {
+            active.close();
+        }
+    }
+
+    @Override
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        scheduleMaintenance();
+    }
+
+    @Override
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 存活音频数据的总字节数，不含记录头和等待压缩的死数据。
+     */
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized int entryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    @Override
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long compactionCount() {
+        return compactionCount;
+    }
+
+    private boolean removeEntry(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        size -= entry.length;
+        entry.segment.liveBytes -= entry.recordBytes;
+        indexDirtyCount++;
+        return true;
+    }
+
+    // 连续多次提交只会排队一次；任务体持有缓存锁，即使线程池有多个线程也是串行维护
+    private void scheduleMaintenance() {
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            maintenanceExecutor.execute(maintenanceTask);
+        }
+    }
+
+    private boolean maintenanceNeeded() {
+        return indexDirtyCount >= INDEX_DIRTY_THRESHOLD || findCompactionVictim() != null;
+    }
+
+    // 每次最多压缩一个段，避免长时间占着锁；还有需要压缩的段时重新排队
+    private void runMaintenance() {
+        boolean changed = trimToSize();
+        Segment victim = findCompactionVictim();
+        if (victim != null) {
+            compact(victim);
+            changed = true;
+        }
+        if (changed || indexDirtyCount >= INDEX_DIRTY_THRESHOLD) {
+            writeIndex();
+        }
+        if (findCompactionVictim() != null) {
+            scheduleMaintenance();
+        }
+    }
+
+    private boolean trimToSize() {
+        boolean evicted = false;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            size -= eldest.length;
+            eldest.segment.liveBytes -= eldest.recordBytes;
+            evictionCount++;
+            evicted = true;
+        }
+        if (evicted) {
+            dropEmptySegments();
+        }
+        return evicted;
+    }
+
+    // 没有存活记录的旧段直接删除，不需要搬运
+    private void dropEmptySegments() {
+        Iterator<Segment> iterator = segments.values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment != active && segment.liveBytes == 0) {
+                segment.close();
+                segment.file.delete();
+                iterator.remove();
+            }
+        }
+    }
+
+    private Segment findCompactionVictim() {
+        Segment victim = null;
+        double worst = COMPACT_DEAD_RATIO;
+        for (Segment segment : segments.values()) {
+            if (segment == active || segment.length == 0) {
+                continue;
+            }
+            double deadRatio = (segment.length - segment.liveBytes) / (double) segment.length;
+            if (deadRatio >= worst) {
+                worst = deadRatio;
+                victim = segment;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * 把 victim 中存活的记录原样追加到当前段尾，再删除 victim。已经交给解码器的映射切片不受影响。
+     */
+    private void compact(Segment victim) {
+        try {
+            for (Entry entry : entries.values()) {
+                if (entry.segment != victim) {
+                    continue;
+                }
+                ByteBuffer record = victim.slice(entry.recordOffset, entry.recordBytes);
+                Segment target = segmentForAppend(entry.recordBytes);
+                int recordOffset = (int) target.length;
+                try {
+                    target.append(record, null, 0);
+                } catch (IOException e) {
+                    target.truncate(recordOffset);
+                    throw e;
+                }
+                // 直接修改索引项而不是重新 put，不改变条目的 LRU 位置
+                victim.liveBytes -= entry.recordBytes;
+                target.liveBytes += entry.recordBytes;
+                entry.segment = target;
+                entry.recordOffset = recordOffset;
+            }
+        } catch (IOException e) {
+            // 没搬完的条目仍然指向 victim，下次维护时再试
+            return;
+        }
+        victim.close();
+        victim.file.delete();
+        segments.remove(victim.id);
+        compactionCount++;
+    }
+
+    private Segment segmentForAppend(int recordBytes) throws IOException {
+        if (active == null || (active.length > 0 && active.length + recordBytes > segmentBytes)) {
+            if (active != null) {
+                active.close();
+            }
+            int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            Segment segment = new Segment(id, new File(directory, SEGMENT_PREFIX + id + SEGMENT_SUFFIX));
+            segments.put(id, segment);
+            active = segment;
+        }
+        active.openForAppend();
+        return active;
+    }
+
+    private void load() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".part") || segmentIdOf(name) > 0;
+            }
+        });
+        if (files != null) {
+            for (File file : files) {
+                int id = segmentIdOf(file.getName());
+                if (id > 0) {
+                    Segment segment = new Segment(id, file);
+                    segment.length = file.length();
+                    segments.put(id, segment);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+
+        Map<Integer, Long> indexedLengths = new HashMap<>();
+        if (indexFile.exists()) {
+            try {
+                readIndex(indexedLengths);
+            } catch (IOException e) {
+                entries.clear();
+                indexedLengths.clear();
+            }
+        }
+        for (Segment segment : segments.values()) {
+            Long indexed = indexedLengths.get(segment.id);
+            scanSegment(segment, indexed != null ? indexed : 0);
+        }
+
+        for (Entry entry : entries.values()) {
+            entry.segment.liveBytes += entry.recordBytes;
+            size += entry.length;
+        }
+        if (!segments.isEmpty()) {
+            Segment last = segments.lastEntry().getValue();
+            if (last.length < segmentBytes) {
+                active = last;
+            }
+        }
+        dropEmptySegments();
+        writeIndex();
+    }
+
+    private void readIndex(Map<Integer, Long> indexedLengths) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                throw new IOException("缓存索引头无效");
+            }
+            int segmentCount = in.readInt();
+            for (int i = 0; i < segmentCount; i++) {
+                int id = in.readInt();
+                long length = in.readLong();
+                Segment segment = segments.get(id);
+                // 段文件比快照记录的短，说明被外部截断或替换过，整段重新扫描
+                if (segment != null && segment.length >= length) {
+                    indexedLengths.put(id, length);
+                }
+            }
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String key = in.readUTF();
+                int segmentId = in.readInt();
+                int recordOffset = in.readInt();
+                int recordBytes = in.readInt();
+                int length = in.readInt();
+                Segment segment = segments.get(segmentId);
+                Long indexed = indexedLengths.get(segmentId);
+                if (segment != null && indexed != null && recordOffset + (long) recordBytes <= indexed) {
+                    entries.put(key, new Entry(segment, recordOffset, recordBytes, length));
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    // 从 offset 开始顺序解析记录，遇到残缺或无效的记录时把段截断到最后一条完整记录之后
+    private void scanSegment(Segment segment, long offset) {
+        if (offset >= segment.length) {
+            return;
+        }
+        long position = offset;
+        try {
+            ByteBuffer buffer = segment.slice(0, (int) segment.length);
+            while (position + RECORD_HEADER_SIZE <= segment.length) {
+                int start = (int) position;
+                if (buffer.getInt(start) != RECORD_MAGIC) {
+                    break;
+                }
+                int keyLength = buffer.getShort(start + 4);
+                int length = buffer.getInt(start + 6);
+                long recordBytes = RECORD_HEADER_SIZE + (long) keyLength + length;
+                if (keyLength <= 0 || length <= 0 || position + recordBytes > segment.length) {
+                    break;
+                }
+                byte[] keyBytes = new byte[keyLength];
+                ByteBuffer keyView = buffer.duplicate();
+                keyView.position(start + RECORD_HEADER_SIZE);
+                keyView.get(keyBytes);
+                entries.put(new String(keyBytes, UTF_8), new Entry(segment, start, (int) recordBytes, length));
+                position += recordBytes;
+            }
+        } catch (IOException e) {
+            // 映射失败时保留已经解析出的记录，其余部分当作残缺数据截掉
+        }
+        if (position < segment.length) {
+            segment.truncate(position);
+        }
+    }
+
+    // 先写临时文件再改名，写快照的过程中崩溃不会破坏旧快照
+    private void writeIndex() {
+        File tempFile = new File(directory, INDEX_FILE_TEMP);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeInt(segments.size());
+                for (Segment segment : segments.values()) {
+                    out.writeInt(segment.id);
+                    out.writeLong(segment.length);
+                }
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                    Entry entry = item.getValue();
+                    out.writeUTF(item.getKey());
+                    out.writeInt(entry.segment.id);
+                    out.writeInt(entry.recordOffset);
+                    out.writeInt(entry.recordBytes);
+                    out.writeInt(entry.length);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                throw new IOException("无法替换缓存索引");
+            }
+            indexDirtyCount = 0;
+        } catch (IOException e) {
+            // 快照写不进去时保留旧快照，打开时会扫描之后追加的记录
+            tempFile.delete();
+        }
+    }
+
+    private static int segmentIdOf(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static final class Entry {
+        Segment segment;
+        int recordOffset;
+        final int recordBytes;
+        final int length;
+
+        Entry(Segment segment, int recordOffset, int recordBytes, int length) {
+            this.segment = segment;
+            this.recordOffset = recordOffset;
+            this.recordBytes = recordBytes;
+            this.length = length;
+        }
+
+        int dataOffset() {
+            return recordOffset + recordBytes - length;
+        }
+    }
+
+    /**
+     * 一个段文件。只有当前段持有可写的文件句柄；读取用整段的只读映射，段变长后按需重新映射。
+     */
+    private static final class Segment {
+        final int id;
+        final File file;
+        long length;
+        long liveBytes;
+        private RandomAccessFile writer;
+        private MappedByteBuffer mapped;
+
+        Segment(int id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        ByteBuffer slice(int offset, int size) throws IOException {
+            if (mapped == null || offset + size > mapped.capacity()) {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                } finally {
+                    raf.close();
+                }
+            }
+            ByteBuffer view = mapped.duplicate();
+            view.limit(offset + size);
+            view.position(offset);
+            return view.slice();
+        }
+
+        void openForAppend() throws IOException {
+            if (writer == null) {
+                writer = new RandomAccessFile(file, "rw");
+            }
+        }
+
+        /**
+         * 在段尾依次写入 head 和 source 中的 sourceLength 字节，source 可以为 null。
+         */
+        void append(ByteBuffer head, FileChannel source, long sourceLength) throws IOException {
+            FileChannel channel = writer.getChannel();
+            long position = length;
+            while (head.hasRemaining()) {
+                position += channel.write(head, position);
+            }
+            long copied = 0;
+            while (copied < sourceLength) {
+                long count = channel.transferFrom(source, position + copied, sourceLength - copied);
+                if (count <= 0) {
+                    throw new IOException("缓存数据写入不完整");
+                }
+                copied += count;
+            }
+            length = position + copied;
+        }
+
+        void truncate(long newLength) {
+            try {
+                RandomAccessFile raf = writer != null ? writer : new RandomAccessFile(file, "rw");
+                try {
+                    raf.setLength(newLength);
+                } finally {
+                    if (raf != writer) {
+                        raf.close();
+                    }
+                }
+                length = newLength;
+            } catch (IOException e) {
+                // 截不掉的残缺记录在下次打开时由扫描跳过
+            }
+        }
+
+        void close() {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                writer = null;
+            }
+        }
+    }
+}
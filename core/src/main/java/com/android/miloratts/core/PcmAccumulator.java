@@ -0,0 +1,49 @@
+package com.android.miloratts.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 按固定大小的块收集 PCM。与 ByteArrayOutputStream 不同，增长时不会按倍数重新分配并复制已有数据，
+ * 转成 {@link PcmClip} 时也只复制最后一个不满的块，峰值内存约等于数据本身的大小。
+ */
+final class PcmAccumulator {
+    static final int CHUNK_BYTES = 16 * 1024;
+
+    private final ArrayList<byte[]> chunks = new ArrayList<>();
+    private int size;
+    private int lastUsed = CHUNK_BYTES;
+
+    void append(byte[] buffer, int offset, int length) {
+        while (length > 0) {
+            if (lastUsed == CHUNK_BYTES) {
+                chunks.add(new byte[CHUNK_BYTES]);
+                lastUsed = 0;
+            }
+            int count = Math.min(length, CHUNK_BYTES - lastUsed);
+            System.arraycopy(buffer, offset, chunks.get(chunks.size() - 1), lastUsed, count);
+            lastUsed += count;
+            offset += count;
+            length -= count;
+            size += count;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        chunks.clear();
+        size = 0;
+        lastUsed = CHUNK_BYTES;
+    }
+
+    PcmClip toClip(int sampleRate, int channelCount) {
+        byte[][] data = chunks.toArray(new byte[chunks.size()][]);
+        if (data.length > 0 && lastUsed < CHUNK_BYTES) {
+            data[data.length - 1] = Arrays.copyOf(data[data.length - 1], lastUsed);
+        }
+        return new PcmClip(sampleRate, channelCount, data, size);
+    }
+}
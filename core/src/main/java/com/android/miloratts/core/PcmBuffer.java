@@ -0,0 +1,62 @@
+package com.android.miloratts.core;
+
+/**
+ * 预取片段的解码结果，先完整保存在内存中，轮到该片段时再原样写入真正的输出。
+ * 超过 maxBytes 时不再保存（之前的也丢掉），解码照常进行到结束，磁盘缓存仍会写完整；
+ * 调用方看到 {@link #isOverflowed()} 后改为从缓存边解码边播放，一个长片段不会整段占用内存。
+ */
+public final class PcmBuffer implements PcmSink {
+    private final PcmAccumulator data = new PcmAccumulator();
+    private final CancellationToken token;
+    private final long maxBytes;
+    private int sampleRate;
+    private int channelCount;
+    private boolean started;
+    private boolean overflowed;
+
+    public PcmBuffer(CancellationToken token) {
+        this(token, Long.MAX_VALUE);
+    }
+
+    public PcmBuffer(CancellationToken token, long maxBytes) {
+        this.token = token;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public boolean start(int sampleRate, int channelCount) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.started = true;
+        return !token.isCancelled();
+    }
+
+    @Override
+    public boolean write(byte[] buffer, int offset, int length) {
+        if (!overflowed) {
+            if (data.size() + (long) length > maxBytes) {
+                overflowed = true;
+                data.clear();
+            } else {
+                data.append(buffer, offset, length);
+            }
+        }
+        return !token.isCancelled();
+    }
+
+    @Override
+    public int maxChunkSize() {
+        return PcmChunkCopier.DEFAULT_CHUNK_SIZE;
+    }
+
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * 返回收集到的音频；解码从未开始或超过了上限时返回 null。
+     */
+    public PcmClip toClip() {
+        return started && !overflowed ? data.toClip(sampleRate, channelCount) : null;
+    }
+}
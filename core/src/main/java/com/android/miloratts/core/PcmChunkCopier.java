@@ -0,0 +1,33 @@
+package com.android.miloratts.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 把解码器输出缓冲中的 PCM 经由一块可复用的数组交给 {@link PcmSink}。
+ * 数组在构造时按 sink 允许的最大块大小分配一次，之后每个输出块都不再产生新的分配。
+ */
+public final class PcmChunkCopier {
+    static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final byte[] scratch;
+
+    public PcmChunkCopier(int maxChunkSize) {
+        scratch = new byte[Math.max(1, Math.min(maxChunkSize, DEFAULT_CHUNK_SIZE))];
+    }
+
+    /**
+     * 复制 source 中 [offset, offset + size) 的数据，超过缓冲大小时分多次写入。返回 false 表示 sink 已停止。
+     */
+    public boolean copy(ByteBuffer source, int offset, int size, PcmSink sink) {
+        source.limit(offset + size);
+        source.position(offset);
+        while (source.hasRemaining()) {
+            int length = Math.min(source.remaining(), scratch.length);
+            source.get(scratch, 0, length);
+            if (!sink.write(scratch, 0, length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+package com.android.miloratts.core;
+
+/**
+ * 一段已解码完成的 16 位 PCM 音频，创建后不再修改，可以在线程之间共享和重复播放。
+ * 数据分块保存（见 {@link PcmAccumulator}），长片段不需要一整块连续的大数组。
+ */
+public final class PcmClip {
+    private final int sampleRate;
+    private final int channelCount;
+    private final byte[][] chunks;
+    private final int size;
+
+    PcmClip(int sampleRate, int channelCount, byte[][] chunks, int size) {
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    int getChannelCount() {
+        return channelCount;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 把整段音频写入 sink，返回 false 表示 sink 已停止。
+     */
+    public boolean writeTo(PcmSink sink) {
+        if (!sink.start(sampleRate, channelCount)) {
+            return false;
+        }
+        for (byte[] chunk : chunks) {
+            if (chunk.length > 0 && !sink.write(chunk, 0, chunk.length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
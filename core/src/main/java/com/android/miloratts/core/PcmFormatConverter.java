@@ -0,0 +1,161 @@
+package com.android.miloratts.core;
+
+/**
+ * 把 16 位 PCM 转换成下游已经开始输出的采样率和声道数。一句话的输出格式在第一个片段时就定下了，
+ * 之后的片段若来自另一种格式的缓存（例如磁盘上只有另一种格式、内存缓存里是另一种格式解码的 PCM），
+ * 由这里转换后再交给下游，不能按原格式直接写出，否则会变速或声道错乱。
+ * <p>
+ * 采样率按线性插值转换；声道数不同时，转单声道取各声道平均，单声道转多声道复制到每个声道，
+ * 其余情况多出的输出声道重复最后一个输入声道。不是线程安全的，只在合成线程上使用。
+ */
+public final class PcmFormatConverter implements PcmSink {
+    // AudioFormat 支持的最大声道数
+    private static final int MAX_CHANNELS = 8;
+
+    private final PcmSink downstream;
+    private final int outputRate;
+    private final int outputChannels;
+
+    private int inputRate;
+    private int inputChannels;
+    private boolean configured;
+    private boolean stopped;
+    private double step;
+    private double phase;
+    private boolean hasPreviousFrame;
+    private final int[] previousFrame;
+    private final int[] currentFrame;
+    private final int[] interpolated;
+    // 上一次 write 末尾不完整的输入帧
+    private final byte[] pending = new byte[2 * MAX_CHANNELS];
+    private int pendingLength;
+    private final byte[] output;
+    private int outputLength;
+
+    /**
+     * downstream 已经按 outputRate 和 outputChannels 开始输出，这里不会再调用它的 start。
+     */
+    public PcmFormatConverter(PcmSink downstream, int outputRate, int outputChannels) {
+        this.downstream = downstream;
+        this.outputRate = outputRate;
+        this.outputChannels = outputChannels;
+        this.previousFrame = new int[outputChannels];
+        this.currentFrame = new int[outputChannels];
+        this.interpolated = new int[outputChannels];
+        int frameBytes = 2 * outputChannels;
+        this.output = new byte[Math.max(frameBytes, downstream.maxChunkSize() / frameBytes * frameBytes)];
+    }
+
+    /**
+     * 设置输入格式。与上一个片段格式相同时插值状态延续，片段衔接处不会重复或丢掉采样。
+     */
+    @Override
+    public boolean start(int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount < 1 || channelCount > MAX_CHANNELS) {
+            return false;
+        }
+        if (!configured || sampleRate != inputRate || channelCount != inputChannels) {
+            inputRate = sampleRate;
+            inputChannels = channelCount;
+            step = (double) sampleRate / outputRate;
+            phase = 0;
+            hasPreviousFrame = false;
+            pendingLength = 0;
+            configured = true;
+        }
+        return !stopped;
+    }
+
+    @Override
+    public boolean write(byte[] buffer, int offset, int length) {
+        if (stopped || !configured) {
+            return false;
+        }
+        int frameBytes = 2 * inputChannels;
+        int position = offset;
+        int end = offset + length;
+        if (pendingLength > 0) {
+            int count = Math.min(frameBytes - pendingLength, end - position);
+            System.arraycopy(buffer, position, pending, pendingLength, count);
+            pendingLength += count;
+            position += count;
+            if (pendingLength < frameBytes) {
+                return true;
+            }
+            convertFrame(pending, 0);
+            pendingLength = 0;
+        }
+        while (end - position >= frameBytes && !stopped) {
+            convertFrame(buffer, position);
+            position += frameBytes;
+        }
+        if (position < end && !stopped) {
+            pendingLength = end - position;
+            System.arraycopy(buffer, position, pending, 0, pendingLength);
+        }
+        flushOutput();
+        return !stopped;
+    }
+
+    @Override
+    public int maxChunkSize() {
+        return downstream.maxChunkSize();
+    }
+
+    private void convertFrame(byte[] buffer, int position) {
+        mapChannels(buffer, position);
+        if (inputRate == outputRate) {
+            emit(currentFrame);
+            return;
+        }
+        // 与 SpeechRateProcessor 的重采样相同：在相邻两个输入帧之间按相位插值出输出帧
+        if (hasPreviousFrame) {
+            while (phase < 1) {
+                for (int c = 0; c < outputChannels; c++) {
+                    interpolated[c] = (int) (previousFrame[c] + (currentFrame[c] - previousFrame[c]) * phase);
+                }
+                emit(interpolated);
+                phase += step;
+            }
+            phase -= 1;
+        }
+        System.arraycopy(currentFrame, 0, previousFrame, 0, outputChannels);
+        hasPreviousFrame = true;
+    }
+
+    private void mapChannels(byte[] buffer, int position) {
+        if (outputChannels == 1 && inputChannels > 1) {
+            int sum = 0;
+            for (int c = 0; c < inputChannels; c++) {
+                sum += sample(buffer, position + 2 * c);
+            }
+            currentFrame[0] = sum / inputChannels;
+            return;
+        }
+        for (int c = 0; c < outputChannels; c++) {
+            currentFrame[c] = sample(buffer, position + 2 * Math.min(c, inputChannels - 1));
+        }
+    }
+
+    private void emit(int[] frame) {
+        for (int c = 0; c < outputChannels; c++) {
+            int value = frame[c];
+            output[outputLength++] = (byte) value;
+            output[outputLength++] = (byte) (value >> 8);
+        }
+        if (outputLength == output.length) {
+            flushOutput();
+        }
+    }
+
+    private void flushOutput() {
+        if (outputLength > 0 && !stopped && !downstream.write(output, 0, outputLength)) {
+            stopped = true;
+        }
+        outputLength = 0;
+    }
+
+    private static int sample(byte[] buffer, int position) {
+        return (short) ((buffer[position] & 0xff) | buffer[position + 1] << 8);
+    }
+}
@@ -0,0 +1,106 @@
+package com.android.miloratts.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 已解码 PCM 的内存缓存（L1），按字节数限制容量并按 LRU 淘汰。
+ * 读屏、导航这类反复朗读的短语命中后直接从内存播放，不再读文件、也不再创建解码器。
+ */
+public final class PcmMemoryCache {
+    // 目前解码输出固定为 16 位 PCM，格式作为键的一部分，避免以后增加输出格式时串用
+    private static final String FORMAT_SUFFIX = "#pcm16";
+
+    private final LinkedHashMap<String, PcmClip> clips = new LinkedHashMap<>(0, 0.75f, true);
+    private final int maxEntryBytes;
+    private long maxBytes;
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public PcmMemoryCache(long maxBytes, int maxEntryBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    public synchronized PcmClip get(String cacheKey) {
+        PcmClip clip = clips.get(cacheKey + FORMAT_SUFFIX);
+        if (clip == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return clip;
+    }
+
+    /**
+     * 只检查是否已缓存，不计入命中统计，也不改变 LRU 顺序。
+     */
+    public synchronized boolean contains(String cacheKey) {
+        return clips.containsKey(cacheKey + FORMAT_SUFFIX);
+    }
+
+    public synchronized void put(String cacheKey, PcmClip clip) {
+        if (clip.size() > maxEntryBytes || clip.size() > maxBytes) {
+            return;
+        }
+        PcmClip previous = clips.put(cacheKey + FORMAT_SUFFIX, clip);
+        if (previous != null) {
+            size -= previous.size();
+        }
+        size += clip.size();
+        trimToSize();
+    }
+
+    public synchronized void clear() {
+        clips.clear();
+        size = 0;
+    }
+
+    /**
+     * 调整容量，缩小时立即按 LRU 淘汰到新的容量以内。
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize();
+    }
+
+    public int getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int entryCount() {
+        return clips.size();
+    }
+
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, PcmClip>> iterator = clips.entrySet().iterator();
+        while (size > maxBytes && iterator.hasNext()) {
+            size -= iterator.next().getValue().size();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+}
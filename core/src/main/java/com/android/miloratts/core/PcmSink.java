@@ -0,0 +1,16 @@
+package com.android.miloratts.core;
+
+/**
+ * 解码输出的去向：直接交给系统 SynthesisCallback，或者先缓存在内存里等待按顺序播放。
+ * 两个方法返回 false 都表示调用方已停止，解码应当尽快结束。
+ */
+public interface PcmSink {
+    boolean start(int sampleRate, int channelCount);
+
+    boolean write(byte[] buffer, int offset, int length);
+
+    /**
+     * 单次 write 建议的最大字节数，解码器按这个大小分配可复用的输出数组。
+     */
+    int maxChunkSize();
+}
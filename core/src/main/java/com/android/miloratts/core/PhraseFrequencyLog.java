@@ -0,0 +1,250 @@
+package com.android.miloratts.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 记录合成过的短句出现的次数，供后台预热缓存时挑选最常用的句子。
+ * <p>
+ * 为了不把朗读过的内容原样留在磁盘上，记录有几条限制：
+ * 只记录不超过 {@link #MAX_PHRASE_LENGTH} 个字符、不含连续数字（验证码、电话号码、金额）的短句；
+ * 第一次出现只记缓存键，重复出现之后才保留文本；条目总数有上限，计数定期减半，不再出现的句子会逐渐被淘汰。
+ * 所有方法都是线程安全的。
+ */
+public final class PhraseFrequencyLog {
+    public static final int MAX_PHRASE_LENGTH = 40;
+    private static final Pattern DIGIT_RUN = Pattern.compile("\\p{Nd}{4,}");
+    // 出现过这么多次才保留文本，只出现一次的内容不会写到磁盘上
+    private static final int MIN_COUNT_FOR_TEXT = 2;
+    // 每记录这么多次把所有计数减半，常用句子的变化能在几天内反映出来
+    private static final int DECAY_INTERVAL = 1000;
+    private static final int FILE_MAGIC = 0x4D504631;
+    private static final int FILE_VERSION = 1;
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private int recordsSinceDecay;
+    private boolean dirty;
+
+    public PhraseFrequencyLog(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * 记录一次合成。key 是这句话的缓存键，用来识别同一句话；返回 false 表示这句话不符合记录条件。
+     */
+    public synchronized boolean record(String key, String text, String language) {
+        if (!isRecordable(text)) {
+            return false;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= maxEntries) {
+                evictLeastFrequent();
+            }
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        entry.count++;
+        if (entry.text == null && entry.count >= MIN_COUNT_FOR_TEXT) {
+            entry.text = text;
+            entry.language = language;
+        }
+        if (++recordsSinceDecay >= DECAY_INTERVAL) {
+            decay();
+        }
+        dirty = true;
+        return true;
+    }
+
+    public static boolean isRecordable(String text) {
+        return !text.isEmpty() && text.length() <= MAX_PHRASE_LENGTH && !DIGIT_RUN.matcher(text).find();
+    }
+
+    /**
+     * 按出现次数从高到低返回最多 limit 条已保留文本的短句。
+     */
+    public synchronized List<Phrase> top(int limit) {
+        List<Phrase> phrases = new ArrayList<>();
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            Entry entry = item.getValue();
+            if (entry.text != null) {
+                phrases.add(new Phrase(item.getKey(), entry.text, entry.language, entry.count));
+            }
+        }
+        Collections.sort(phrases, new Comparator<Phrase>() {
+            @Override
+            public int compare(Phrase a, Phrase b) {
+                return a.count != b.count ? (a.count > b.count ? -1 : 1) : a.key.compareTo(b.key);
+            }
+        });
+        return phrases.size() > limit ? new ArrayList<>(phrases.subList(0, limit)) : phrases;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        recordsSinceDecay = 0;
+        dirty = true;
+    }
+
+    /**
+     * 载入之前保存的记录。文件不存在或损坏时返回空记录。
+     */
+    public static PhraseFrequencyLog load(File file, int maxEntries) {
+        PhraseFrequencyLog log = new PhraseFrequencyLog(maxEntries);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                    throw new IOException("短句记录文件头无效");
+                }
+                log.recordsSinceDecay = in.readInt();
+                int count = Math.min(in.readInt(), log.maxEntries);
+                for (int i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    Entry entry = new Entry();
+                    entry.count = in.readInt();
+                    if (in.readBoolean()) {
+                        entry.text = in.readUTF();
+                        entry.language = in.readUTF();
+                    }
+                    log.entries.put(key, entry);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // 还没有记录
+        } catch (IOException e) {
+            // 文件残缺时宁可从头统计，也不使用读了一半的计数
+            log.entries.clear();
+            log.recordsSinceDecay = 0;
+        }
+        return log;
+    }
+
+    /**
+     * 有改动时写入文件，先写临时文件再改名。返回是否写入了新内容。
+     */
+    public boolean saveIfDirty(File file) throws IOException {
+        Map<String, Entry> snapshot;
+        int decayCounter;
+        synchronized (this) {
+            if (!dirty) {
+                return false;
+            }
+            snapshot = new HashMap<>();
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                snapshot.put(item.getKey(), item.getValue().copy());
+            }
+            decayCounter = recordsSinceDecay;
+            dirty = false;
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(decayCounter);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> item : snapshot.entrySet()) {
+                    Entry entry = item.getValue();
+                    out.writeUTF(item.getKey());
+                    out.writeInt(entry.count);
+                    out.writeBoolean(entry.text != null);
+                    if (entry.text != null) {
+                        out.writeUTF(entry.text);
+                        out.writeUTF(entry.language);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("无法替换短句记录文件");
+            }
+            return true;
+        } catch (IOException e) {
+            tempFile.delete();
+            synchronized (this) {
+                dirty = true;
+            }
+            throw e;
+        }
+    }
+
+    // 淘汰次数最少的条目，次数相同时先淘汰还没有保留文本的
+    private void evictLeastFrequent() {
+        String victim = null;
+        Entry victimEntry = null;
+        for (Map.Entry<String, Entry> item : entries.entrySet()) {
+            Entry entry = item.getValue();
+            if (victimEntry == null || entry.count < victimEntry.count
+                    || (entry.count == victimEntry.count && entry.text == null && victimEntry.text != null)) {
+                victim = item.getKey();
+                victimEntry = entry;
+            }
+        }
+        entries.remove(victim);
+    }
+
+    private void decay() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            entry.count /= 2;
+            if (entry.count == 0) {
+                iterator.remove();
+            }
+        }
+        recordsSinceDecay = 0;
+    }
+
+    public static final class Phrase {
+        public final String key;
+        public final String text;
+        public final String language;
+        public final int count;
+
+        Phrase(String key, String text, String language, int count) {
+            this.key = key;
+            this.text = text;
+            this.language = language;
+            this.count = count;
+        }
+    }
+
+    private static final class Entry {
+        int count;
+        String text;
+        String language;
+
+        Entry copy() {
+            Entry copy = new Entry();
+            copy.count = count;
+            copy.text = text;
+            copy.language = language;
+            return copy;
+        }
+    }
+}
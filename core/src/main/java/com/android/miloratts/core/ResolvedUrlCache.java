@@ -0,0 +1,79 @@
+package com.android.miloratts.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓存键到 API 解析出的音频地址的映射，带过期时间。磁盘缓存淘汰后重新下载同一段文本时
+ * 可以跳过 API 请求直接连接音频主机；服务器上的音频文件不会永久保留，所以地址只在 ttlMs 内有效。
+ */
+public final class ResolvedUrlCache {
+    private final int maxEntries;
+    private final long ttlMs;
+    private final LinkedHashMap<String, Resolved> entries = new LinkedHashMap<String, Resolved>(0, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resolved> eldest) {
+            return size() > ResolvedUrlCache.this.maxEntries;
+        }
+    };
+    private long hitCount;
+    private long missCount;
+
+    public ResolvedUrlCache(int maxEntries, long ttlMs) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * 返回仍在有效期内的地址，没有或已过期时返回 null。
+     */
+    public synchronized String get(String key) {
+        Resolved resolved = entries.get(key);
+        if (resolved != null && System.currentTimeMillis() - resolved.resolvedAt < ttlMs) {
+            hitCount++;
+            return resolved.url;
+        }
+        if (resolved != null) {
+            entries.remove(key);
+        }
+        missCount++;
+        return null;
+    }
+
+    public synchronized void put(String key, String url) {
+        entries.put(key, new Resolved(url, System.currentTimeMillis()));
+    }
+
+    /**
+     * 地址在音频主机上已经失效（例如返回 404）时移除，下次重新请求 API。
+     */
+    public synchronized void remove(String key) {
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    private static final class Resolved {
+        final String url;
+        final long resolvedAt;
+
+        Resolved(String url, long resolvedAt) {
+            this.url = url;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
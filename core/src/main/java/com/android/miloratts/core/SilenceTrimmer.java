@@ -0,0 +1,277 @@
+package com.android.miloratts.core;
+
+import java.util.Arrays;
+
+/**
+ * 去掉每个片段开头和结尾的静音，并把片段之间的间隔统一为 gapMs。
+ * API 返回的音频前后带有填充的静音，开头的静音直接加在听到第一个声音之前的等待时间上。
+ * <p>
+ * 以 10ms 为一块按平均能量判断是否有声。片段开头的静音块直接丢掉，只保留有声之前的 {@link #PREROLL_MS}，
+ * 避免切掉轻声的起始辅音；有声之后遇到静音块先暂存，最多 {@link #HOLD_MS}，后面重新有声时原样补上，
+ * 片段结束时还没有补上的部分就是结尾静音，直接丢掉。暂存的只是静音，不会推迟有声部分的输出。
+ * 每个片段以一次 start 开始，最后调用 {@link #flush}。缓冲区在 start 时分配，之后处理每块数据都不再分配内存。
+ */
+public final class SilenceTrimmer implements PcmSink {
+    static final int BLOCK_MS = 10;
+    static final int PREROLL_MS = 30;
+    static final int HOLD_MS = 300;
+    // 块内平均幅度低于约 -44dBFS 视为静音
+    private static final long SILENCE_AMPLITUDE = 200;
+
+    private final PcmSink downstream;
+    private final int gapMs;
+    private final EngineMetrics metrics;
+
+    private int sampleRate;
+    private int channels;
+    private boolean configured;
+    private boolean stopped;
+
+    private int blockBytes;
+    private byte[] block;
+    private int blockLength;
+    private BlockRing preroll;
+    private BlockRing hold;
+    private byte[] output;
+    private int outputLength;
+
+    private boolean audible;
+    private boolean emittedAudio;
+    private long skippedFrames;
+
+    /**
+     * metrics 记录每个片段开头去掉的静音时长和去掉的静音总时长。
+     */
+    public SilenceTrimmer(PcmSink downstream, int gapMs, EngineMetrics metrics) {
+        this.downstream = downstream;
+        this.gapMs = Math.max(0, gapMs);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean start(int sampleRate, int channelCount) {
+        if (configured) {
+            finishSegment();
+        }
+        if (!configured || sampleRate != this.sampleRate || channelCount != channels) {
+            flushOutput();
+            configure(sampleRate, channelCount);
+        }
+        audible = false;
+        skippedFrames = 0;
+        return !stopped && downstream.start(sampleRate, channelCount);
+    }
+
+    @Override
+    public boolean write(byte[] buffer, int offset, int length) {
+        int position = offset;
+        int end = offset + length;
+        while (position < end && !stopped) {
+            int count = Math.min(blockBytes - blockLength, end - position);
+            System.arraycopy(buffer, position, block, blockLength, count);
+            blockLength += count;
+            position += count;
+            if (blockLength == blockBytes) {
+                handleBlock();
+            }
+        }
+        flushOutput();
+        return !stopped;
+    }
+
+    @Override
+    public int maxChunkSize() {
+        return downstream.maxChunkSize();
+    }
+
+    /**
+     * 最后一个片段写完后调用，丢掉它的结尾静音并输出剩余数据。返回 false 表示下游已停止。
+     */
+    public boolean flush() {
+        if (configured) {
+            finishSegment();
+        }
+        flushOutput();
+        return !stopped;
+    }
+
+    private void configure(int sampleRate, int channelCount) {
+        this.sampleRate = sampleRate;
+        this.channels = channelCount;
+        int frameBytes = 2 * channelCount;
+        blockBytes = Math.max(1, sampleRate * BLOCK_MS / 1000) * frameBytes;
+        block = new byte[blockBytes];
+        blockLength = 0;
+        preroll = new BlockRing(PREROLL_MS / BLOCK_MS, blockBytes);
+        hold = new BlockRing(HOLD_MS / BLOCK_MS, blockBytes);
+        output = new byte[Math.max(frameBytes, downstream.maxChunkSize() / frameBytes * frameBytes)];
+        outputLength = 0;
+        configured = true;
+    }
+
+    private void handleBlock() {
+        boolean silent = isSilent(block, blockLength);
+        if (!audible) {
+            if (silent) {
+                // 开头的静音只留最近的几块，更早的直接丢掉
+                if (preroll.isFull()) {
+                    preroll.removeOldest();
+                    skippedFrames += blockBytes / (2 * channels);
+                }
+                preroll.add(block, blockLength);
+            } else {
+                startAudio();
+                emit(block, 0, blockLength);
+            }
+        } else if (silent) {
+            if (hold.isFull()) {
+                // 停顿比暂存窗口长，是句中的停顿，最早的一块照常输出
+                emit(hold.data, hold.oldestOffset(), blockBytes);
+                hold.removeOldest();
+            }
+            hold.add(block, blockLength);
+        } else {
+            emitAll(hold);
+            emit(block, 0, blockLength);
+        }
+        blockLength = 0;
+    }
+
+    private void startAudio() {
+        if (metrics != null) {
+            long skippedMs = skippedFrames * 1000 / sampleRate;
+            metrics.leadingSilence.record(skippedMs);
+            metrics.trimmedSilenceMs.addAndGet(skippedMs);
+        }
+        if (emittedAudio) {
+            emitSilence((long) gapMs * sampleRate / 1000 * 2 * channels);
+        }
+        emitAll(preroll);
+        audible = true;
+        emittedAudio = true;
+    }
+
+    // 片段结束：不完整的最后一块按同样规则处理，暂存的结尾静音丢掉
+    private void finishSegment() {
+        if (audible) {
+            long droppedBytes = 0;
+            if (blockLength > 0 && !isSilent(block, blockLength)) {
+                emitAll(hold);
+                emit(block, 0, blockLength);
+            } else {
+                droppedBytes = (long) hold.size() * blockBytes + blockLength;
+            }
+            if (metrics != null) {
+                metrics.trimmedSilenceMs.addAndGet(droppedBytes / (2 * channels) * 1000 / sampleRate);
+            }
+        }
+        blockLength = 0;
+        hold.clear();
+        preroll.clear();
+        audible = false;
+    }
+
+    private static boolean isSilent(byte[] data, int length) {
+        int samples = length / 2;
+        if (samples == 0) {
+            return true;
+        }
+        long energy = 0;
+        for (int i = 0; i + 1 < length; i += 2) {
+            int sample = (short) ((data[i] & 0xff) | data[i + 1] << 8);
+            energy += sample * sample;
+        }
+        return energy < SILENCE_AMPLITUDE * SILENCE_AMPLITUDE * samples;
+    }
+
+    private void emitAll(BlockRing ring) {
+        for (int i = 0; i < ring.size(); i++) {
+            emit(ring.data, ring.offset(i), blockBytes);
+        }
+        ring.clear();
+    }
+
+    private void emit(byte[] data, int offset, int length) {
+        while (length > 0 && !stopped) {
+            int count = Math.min(output.length - outputLength, length);
+            System.arraycopy(data, offset, output, outputLength, count);
+            outputLength += count;
+            offset += count;
+            length -= count;
+            if (outputLength == output.length) {
+                flushOutput();
+            }
+        }
+    }
+
+    private void emitSilence(long bytes) {
+        while (bytes > 0 && !stopped) {
+            int count = (int) Math.min(output.length - outputLength, bytes);
+            Arrays.fill(output, outputLength, outputLength + count, (byte) 0);
+            outputLength += count;
+            bytes -= count;
+            if (outputLength == output.length) {
+                flushOutput();
+            }
+        }
+    }
+
+    private void flushOutput() {
+        if (outputLength > 0 && !stopped && !downstream.write(output, 0, outputLength)) {
+            stopped = true;
+        }
+        outputLength = 0;
+    }
+
+    /**
+     * 固定容量的环形块缓冲，存满后由调用方决定丢掉还是输出最早的一块。
+     */
+    private static final class BlockRing {
+        final byte[] data;
+        private final int capacity;
+        private final int blockBytes;
+        private int head;
+        private int size;
+
+        BlockRing(int capacity, int blockBytes) {
+            this.capacity = Math.max(1, capacity);
+            this.blockBytes = blockBytes;
+            data = new byte[this.capacity * blockBytes];
+        }
+
+        boolean isFull() {
+            return size == capacity;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int offset(int index) {
+            return (head + index) % capacity * blockBytes;
+        }
+
+        int oldestOffset() {
+            return offset(0);
+        }
+
+        void removeOldest() {
+            head = (head + 1) % capacity;
+            size--;
+        }
+
+        void add(byte[] block, int length) {
+            int offset = offset(size);
+            System.arraycopy(block, 0, data, offset, length);
+            if (length < blockBytes) {
+                Arrays.fill(data, offset + length, offset + blockBytes, (byte) 0);
+            }
+            size++;
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.android.miloratts.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按缓存键合并同时进行的下载：同一段文本只有第一个请求（领头者）真正访问网络并写缓存，
+ * 之后到达的请求等待它结束，再各自从缓存解码出自己的 PCM 流。
+ * 等待者用自己的取消标记，领头者停止不会连带取消等待者。
+ */
+public final class SingleFlight {
+    private final Map<String, Flight> flights = new HashMap<>();
+    private long leaderCount;
+    private long coalescedCount;
+
+    /**
+     * 加入某个键的下载。返回的凭证若是领头者，必须以 {@link Ticket#finish} 或 {@link Ticket#fail} 结束。
+     */
+    public synchronized Ticket join(String key) {
+        Flight flight = flights.get(key);
+        if (flight != null) {
+            coalescedCount++;
+            return new Ticket(key, flight, false);
+        }
+        flight = new Flight();
+        flights.put(key, flight);
+        leaderCount++;
+        return new Ticket(key, flight, true);
+    }
+
+    public synchronized int inFlightCount() {
+        return flights.size();
+    }
+
+    /**
+     * 真正发出的下载次数。
+     */
+    synchronized long leaderCount() {
+        return leaderCount;
+    }
+
+    /**
+     * 被合并、没有单独访问网络的请求次数。
+     */
+    public synchronized long coalescedCount() {
+        return coalescedCount;
+    }
+
+    private synchronized void remove(String key, Flight flight) {
+        if (flights.get(key) == flight) {
+            flights.remove(key);
+        }
+    }
+
+    public final class Ticket {
+        private final String key;
+        private final Flight flight;
+        private final boolean leader;
+
+        private Ticket(String key, Flight flight, boolean leader) {
+            this.key = key;
+            this.flight = flight;
+            this.leader = leader;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * 领头者结束下载（完整结束或中途停止都算）。等待者醒来后重新查缓存，
+         * 缓存里没有结果时其中一个成为新的领头者。已经调用过 {@link #fail} 时什么也不做。
+         */
+        public void finish() {
+            complete(null);
+        }
+
+        /**
+         * 领头者下载失败，等待者收到同样的错误，不再各自重试一遍。
+         */
+        public void fail(SynthesisException error) {
+            complete(error);
+        }
+
+        /**
+         * 等待领头者结束。返回 false 表示等待期间自己被取消；领头者失败时抛出同样的错误。
+         * 返回 true 后应当重新查缓存，缓存里没有时再次 {@link #join}。
+         */
+        public boolean await(CancellationToken token) throws SynthesisException {
+            Runnable wake = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (flight) {
+                        flight.notifyAll();
+                    }
+                }
+            };
+            token.addListener(wake);
+            try {
+                synchronized (flight) {
+                    while (!flight.done && !token.isCancelled()) {
+                        flight.wait();
+                    }
+                    if (!flight.done) {
+                        return false;
+                    }
+                    if (flight.error != null) {
+                        throw new SynthesisException(flight.error.getErrorCode(),
+                                "共享的下载失败: " + flight.error.getMessage(), flight.error);
+                    }
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                token.removeListener(wake);
+            }
+        }
+
+        private void complete(SynthesisException error) {
+            if (!leader) {
+                return;
+            }
+            remove(key, flight);
+            synchronized (flight) {
+                if (flight.done) {
+                    return;
+                }
+                flight.done = true;
+                flight.error = error;
+                flight.notifyAll();
+            }
+        }
+    }
+
+    private static final class Flight {
+        boolean done;
+        SynthesisException error;
+    }
+}
@@ -0,0 +1,345 @@
+package com.android.miloratts.core;
+
+/**
+ * 在解码后的 16 位 PCM 上本地实现语速和音调，处理完交给下游 sink。
+ * 先用 WSOLA 按 rate / pitch 改变时长而不改变音调，再用线性插值按 pitch 重采样：
+ * 重采样把音调提高 pitch 倍的同时把时长缩短 pitch 倍，两步合起来时长变为 1 / rate，音调变为 pitch 倍。
+ * 缓存里始终是原速音频，同一份缓存适用于所有语速和音调设置。
+ * <p>
+ * 缓冲区只在 start 时按采样率和声道数分配，之后每次 write 都不再分配内存。
+ * 前后片段格式相同时处理状态延续，片段衔接处不会重新淡入；全部写完后调用 {@link #flush} 输出剩余音频。
+ * 不是线程安全的，只在合成线程上使用。
+ */
+public final class SpeechRateProcessor implements PcmSink {
+    // WSOLA 窗长 30ms，相邻窗重叠一半；在理想位置前后 8ms 内找与上一窗自然延续最相似的位置
+    private static final int WINDOW_MS = 30;
+    private static final int SEEK_MS = 8;
+    private static final int COARSE_STEP = 4;
+    // 输入缓冲除了 WSOLA 需要保留的部分之外，每轮最多再读入这么多帧
+    private static final int INPUT_CHUNK_FRAMES = 2048;
+    private static final float MIN_RATE = 0.25f;
+    private static final float MAX_RATE = 4f;
+    private static final float MIN_PITCH = 0.5f;
+    private static final float MAX_PITCH = 2f;
+    // 变化小于 1% 听不出来，直接跳过对应的处理
+    private static final double NEUTRAL_TOLERANCE = 0.01;
+
+    private final PcmSink downstream;
+    private final double tempo;
+    private final double pitch;
+    private final boolean stretching;
+    private final boolean shifting;
+
+    private int sampleRate;
+    private int channels;
+    private boolean started;
+    private boolean stopped;
+
+    private int hop;
+    private int seek;
+    private float[] window;
+    private short[] input;
+    private int inputSamples;
+    private int pendingByte = -1;
+    private boolean primed;
+    private int previousPos;
+    private double nextPos;
+    private float[] overlap;
+    private short[] stretched;
+
+    private short[] previousFrame;
+    private boolean hasPreviousFrame;
+    private double phase;
+
+    private byte[] output;
+    private int outputLength;
+
+    /**
+     * rate 和 pitch 以 1 为正常值，分别限制在 [0.25, 4] 和 [0.5, 2] 之内。
+     */
+    public SpeechRateProcessor(PcmSink downstream, float rate, float pitch) {
+        this.downstream = downstream;
+        double clampedRate = Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+        this.pitch = Math.max(MIN_PITCH, Math.min(MAX_PITCH, pitch));
+        this.tempo = clampedRate / this.pitch;
+        this.stretching = Math.abs(tempo - 1) >= NEUTRAL_TOLERANCE;
+        this.shifting = Math.abs(this.pitch - 1) >= NEUTRAL_TOLERANCE;
+    }
+
+    /**
+     * 语速和音调都接近正常值时不需要处理，调用方可以直接把 PCM 交给下游。
+     */
+    public static boolean isNeutral(float rate, float pitch) {
+        return Math.abs(rate - 1) < NEUTRAL_TOLERANCE && Math.abs(pitch - 1) < NEUTRAL_TOLERANCE;
+    }
+
+    @Override
+    public boolean start(int sampleRate, int channelCount) {
+        if (started && (sampleRate != this.sampleRate || channelCount != channels)) {
+            // 格式变了，旧格式剩下的音频先输出，再按新格式重新分配
+            if (!flush()) {
+                return false;
+            }
+            started = false;
+        }
+        if (!started) {
+            configure(sampleRate, channelCount);
+            started = true;
+        }
+        return downstream.start(sampleRate, channelCount);
+    }
+
+    @Override
+    public boolean write(byte[] buffer, int offset, int length) {
+        if (stopped) {
+            return false;
+        }
+        int position = offset;
+        int end = offset + length;
+        if (pendingByte >= 0 && position < end) {
+            input[inputSamples++] = (short) (pendingByte | buffer[position++] << 8);
+            pendingByte = -1;
+        }
+        while (end - position >= 2 && !stopped) {
+            int count = Math.min(input.length - inputSamples, (end - position) / 2);
+            for (int i = 0; i < count; i++) {
+                input[inputSamples++] = (short) ((buffer[position] & 0xff) | buffer[position + 1] << 8);
+                position += 2;
+            }
+            process();
+        }
+        if (position < end) {
+            pendingByte = buffer[position] & 0xff;
+        }
+        flushOutput();
+        return !stopped;
+    }
+
+    @Override
+    public int maxChunkSize() {
+        return downstream.maxChunkSize();
+    }
+
+    /**
+     * 输出缓冲里剩余的音频并清空处理状态。返回 false 表示下游已停止。
+     */
+    public boolean flush() {
+        if (!started || stopped) {
+            return !stopped;
+        }
+        int frames = inputSamples / channels;
+        if (!stretching || !primed) {
+            resample(input, 0, frames);
+        } else {
+            // 上一窗的自然延续与重叠部分相加正好还原原始样本，从这里起按语速截取剩余部分
+            int from = previousPos + hop;
+            int remaining = frames - from;
+            int count = Math.min(remaining, Math.max(hop, (int) Math.round(remaining / tempo)));
+            if (count < remaining) {
+                fadeOut(from, count);
+            }
+            resample(input, from, count);
+        }
+        inputSamples = 0;
+        pendingByte = -1;
+        primed = false;
+        hasPreviousFrame = false;
+        phase = 0;
+        flushOutput();
+        return !stopped;
+    }
+
+    private void configure(int sampleRate, int channelCount) {
+        this.sampleRate = sampleRate;
+        this.channels = channelCount;
+        hop = Math.max(1, sampleRate * WINDOW_MS / 2000);
+        seek = sampleRate * SEEK_MS / 1000;
+        // 周期 Hann 窗：前后两半逐点相加恒为 1，重叠相加后幅度不变
+        window = new float[2 * hop];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / window.length));
+        }
+        int inputFrames = 3 * hop + 2 * seek + (int) Math.ceil(hop * tempo) + INPUT_CHUNK_FRAMES;
+        input = new short[inputFrames * channelCount];
+        overlap = new float[hop * channelCount];
+        stretched = new short[hop * channelCount];
+        previousFrame = new short[channelCount];
+        int frameBytes = 2 * channelCount;
+        output = new byte[Math.max(frameBytes, downstream.maxChunkSize() / frameBytes * frameBytes)];
+        inputSamples = 0;
+        outputLength = 0;
+        pendingByte = -1;
+        primed = false;
+        hasPreviousFrame = false;
+        phase = 0;
+    }
+
+    private void process() {
+        int frames = inputSamples / channels;
+        if (!stretching) {
+            resample(input, 0, frames);
+            discard(frames);
+            return;
+        }
+        if (!primed) {
+            if (frames < 2 * hop) {
+                return;
+            }
+            // 第一窗的前半原样输出，开头不会被窗函数淡入
+            resample(input, 0, hop);
+            for (int i = 0; i < hop * channels; i++) {
+                overlap[i] = window[hop + i / channels] * input[hop * channels + i];
+            }
+            previousPos = 0;
+            nextPos = hop * tempo;
+            primed = true;
+        }
+        while (!stopped) {
+            int target = (int) Math.round(nextPos);
+            if (target + seek + 2 * hop > frames) {
+                break;
+            }
+            int best = bestMatch(Math.max(0, target - seek), target + seek);
+            overlapAdd(best);
+            previousPos = best;
+            nextPos += hop * tempo;
+        }
+        discard(Math.min((int) nextPos - seek, previousPos + hop));
+    }
+
+    /**
+     * 在 [from, to] 中找与上一窗自然延续最相似的起点，只看第一个声道。
+     * 先每隔 COARSE_STEP 个位置、隔一个样本粗找，再在粗找结果附近逐个位置细找。
+     */
+    private int bestMatch(int from, int to) {
+        int best = from;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int candidate = from; candidate <= to; candidate += COARSE_STEP) {
+            double score = similarity(candidate, 2);
+            if (score > bestScore) {
+                bestScore = score;
+                best = candidate;
+            }
+        }
+        int coarseBest = best;
+        bestScore = Double.NEGATIVE_INFINITY;
+        int fineFrom = Math.max(from, coarseBest - COARSE_STEP + 1);
+        int fineTo = Math.min(to, coarseBest + COARSE_STEP - 1);
+        for (int candidate = fineFrom; candidate <= fineTo; candidate++) {
+            double score = similarity(candidate, 1);
+            if (score > bestScore) {
+                bestScore = score;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    // 候选段与自然延续的互相关，用候选段能量归一化，保留符号以排除反相的位置
+    private double similarity(int candidate, int step) {
+        int reference = (previousPos + hop) * channels;
+        int base = candidate * channels;
+        int stride = step * channels;
+        long correlation = 0;
+        long energy = 0;
+        for (int n = 0; n < hop * channels; n += stride) {
+            int sample = input[base + n];
+            correlation += input[reference + n] * sample;
+            energy += sample * sample;
+        }
+        if (energy == 0) {
+            return 0;
+        }
+        return Math.signum(correlation) * ((double) correlation * correlation) / energy;
+    }
+
+    private void overlapAdd(int start) {
+        int base = start * channels;
+        int half = hop * channels;
+        for (int i = 0; i < half; i++) {
+            int frame = i / channels;
+            float value = overlap[i] + window[frame] * input[base + i];
+            stretched[i] = clamp(value);
+            overlap[i] = window[hop + frame] * input[base + half + i];
+        }
+        resample(stretched, 0, hop);
+    }
+
+    /**
+     * 按 pitch 做线性插值重采样，结果写入输出缓冲。不改变音调时直接复制。
+     */
+    private void resample(short[] source, int frameOffset, int frames) {
+        if (!shifting) {
+            int end = (frameOffset + frames) * channels;
+            for (int i = frameOffset * channels; i < end; i++) {
+                emit(source[i]);
+            }
+            return;
+        }
+        for (int frame = 0; frame < frames && !stopped; frame++) {
+            int base = (frameOffset + frame) * channels;
+            if (hasPreviousFrame) {
+                while (phase < 1) {
+                    for (int c = 0; c < channels; c++) {
+                        int previous = previousFrame[c];
+                        emit((short) (previous + (source[base + c] - previous) * phase));
+                    }
+                    phase += pitch;
+                }
+                phase -= 1;
+            }
+            System.arraycopy(source, base, previousFrame, 0, channels);
+            hasPreviousFrame = true;
+        }
+    }
+
+    private void emit(short sample) {
+        output[outputLength++] = (byte) sample;
+        output[outputLength++] = (byte) (sample >> 8);
+        if (outputLength == output.length) {
+            flushOutput();
+        }
+    }
+
+    private void flushOutput() {
+        if (outputLength > 0 && !stopped && !downstream.write(output, 0, outputLength)) {
+            stopped = true;
+        }
+        outputLength = 0;
+    }
+
+    // 丢掉输入缓冲中 frames 帧之前已经用不到的数据
+    private void discard(int frames) {
+        if (frames <= 0) {
+            return;
+        }
+        int samples = frames * channels;
+        System.arraycopy(input, samples, input, 0, inputSamples - samples);
+        inputSamples -= samples;
+        previousPos -= frames;
+        nextPos -= frames;
+    }
+
+    // 按语速截掉结尾时在保留部分的最后一个窗长内线性淡出，避免截断处的爆音
+    private void fadeOut(int fromFrame, int frames) {
+        int fadeFrames = Math.min(frames, hop);
+        int start = fromFrame + frames - fadeFrames;
+        for (int frame = 0; frame < fadeFrames; frame++) {
+            float gain = (float) (fadeFrames - frame) / fadeFrames;
+            for (int c = 0; c < channels; c++) {
+                int i = (start + frame) * channels + c;
+                input[i] = (short) (input[i] * gain);
+            }
+        }
+    }
+
+    private static short clamp(float value) {
+        if (value > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (value < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) value;
+    }
+}
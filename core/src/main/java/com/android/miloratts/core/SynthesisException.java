@@ -0,0 +1,24 @@
+package com.android.miloratts.core;
+
+/**
+ * 合成流程中的失败，携带需要回报给 SynthesisCallback.error 的错误码。
+ */
+public final class SynthesisException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final int errorCode;
+
+    public SynthesisException(int errorCode, String message) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+
+    public SynthesisException(int errorCode, String message, Throwable cause) {
+        super(message, cause);
+        this.errorCode = errorCode;
+    }
+
+    public int getErrorCode() {
+        return errorCode;
+    }
+}
@@ -0,0 +1,126 @@
+package com.android.miloratts.core;
+
+import java.text.Normalizer;
+
+/**
+ * 分段和计算缓存键之前的文本规范化，让读音相同、只在书写形式上不同的文本得到同一个缓存条目：
+ * NFKC（全角字母数字和标点转成半角、兼容字符展开），去掉零宽字符等不可见字符，
+ * 连续空白合并成一个空格（含换行的合并成一个换行），中文前后和标点前的空格去掉，
+ * 重复的标点只保留一个，省略号统一为三个点，去掉双引号和书名号式引号，弯单引号统一为 '。
+ */
+public final class TextNormalizer {
+    private static final int NO_SPACE = 0;
+    private static final int SPACE = 1;
+    private static final int NEWLINE = 2;
+
+    private TextNormalizer() {
+    }
+
+    public static String normalize(CharSequence text) {
+        String nfkc = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        StringBuilder out = new StringBuilder(nfkc.length());
+        int pendingSpace = NO_SPACE;
+        for (int i = 0; i < nfkc.length(); i++) {
+            char c = nfkc.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029') {
+                pendingSpace = NEWLINE;
+                continue;
+            }
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                if (pendingSpace == NO_SPACE) {
+                    pendingSpace = SPACE;
+                }
+                continue;
+            }
+            int type = Character.getType(c);
+            if (type == Character.FORMAT || type == Character.CONTROL || isDroppedQuote(c)) {
+                continue;
+            }
+            if (c == '‘' || c == '’') {
+                c = '\'';
+            }
+
+            int length = out.length();
+            if (length > 0) {
+                char previous = out.charAt(length - 1);
+                if (pendingSpace == NEWLINE) {
+                    out.append('\n');
+                } else if (pendingSpace == SPACE && isSignificantSpace(previous, c)) {
+                    out.append(' ');
+                } else if (isRedundantPunctuation(out, c)) {
+                    continue;
+                }
+            }
+            pendingSpace = NO_SPACE;
+            out.append(c);
+        }
+        return out.toString();
+    }
+
+    // 只有两侧都是非中文、且后面不是标点时空格才影响读法，例如英文单词之间
+    private static boolean isSignificantSpace(char previous, char next) {
+        if (isCjk(previous) || isCjk(next) || previous == '\n') {
+            return false;
+        }
+        switch (next) {
+            case ',':
+            case '.':
+            case '!':
+            case '?':
+            case ';':
+            case ':':
+            case ')':
+                return false;
+            default:
+                return previous != '(';
+        }
+    }
+
+    private static boolean isRedundantPunctuation(StringBuilder out, char c) {
+        int length = out.length();
+        if (c == '.') {
+            return length >= 3 && out.charAt(length - 1) == '.' && out.charAt(length - 2) == '.'
+                    && out.charAt(length - 3) == '.';
+        }
+        if (out.charAt(length - 1) != c) {
+            return false;
+        }
+        switch (c) {
+            case '!':
+            case '?':
+            case ',':
+            case ';':
+            case ':':
+            case '、':
+            case '。':
+            case '~':
+            case '-':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isDroppedQuote(char c) {
+        switch (c) {
+            case '"':
+            case '“':
+            case '”':
+            case '「':
+            case '」':
+            case '『':
+            case '』':
+            case '«':
+            case '»':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // CJK 部首、符号、假名、统一汉字、谚文和兼容汉字
+    private static boolean isCjk(char c) {
+        return (c >= '\u2E80' && c <= '\u9FFF') || (c >= '\uAC00' && c <= '\uD7AF')
+                || (c >= '\uF900' && c <= '\uFAFF') || (c >= '\uFF00' && c <= '\uFFEF');
+    }
+}
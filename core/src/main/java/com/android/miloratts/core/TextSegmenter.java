@@ -0,0 +1,131 @@
+package com.android.miloratts.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按中英文句末标点把长文本切成句子级片段，超长的句子再按逗号、空格等次级断点切开。
+ * 每个片段单独请求和缓存，重复出现的句子在不同的朗读请求之间也能命中缓存。
+ */
+public final class TextSegmenter {
+    public static final int DEFAULT_MAX_LENGTH = 100;
+
+    private TextSegmenter() {
+    }
+
+    public static List<String> split(CharSequence text, int maxLength) {
+        List<String> segments = new ArrayList<>();
+        int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (!isSentenceEnd(text, i)) {
+                continue;
+            }
+            int end = i + 1;
+            // 连续的句末标点和右引号、右括号都归到当前句子
+            while (end < length && (isTerminator(text.charAt(end)) || isClosing(text.charAt(end)))) {
+                end++;
+            }
+            addSegment(segments, text, start, end, maxLength);
+            start = end;
+            i = end - 1;
+        }
+        addSegment(segments, text, start, length, maxLength);
+        return segments;
+    }
+
+    private static boolean isSentenceEnd(CharSequence text, int index) {
+        char c = text.charAt(index);
+        if (c == '.') {
+            // 只有后面是空白、右引号或文本结尾时才算句号，避免切开 3.14、www.example.com
+            int next = index + 1;
+            return next >= text.length() || Character.isWhitespace(text.charAt(next))
+                    || isClosing(text.charAt(next));
+        }
+        return isTerminator(c);
+    }
+
+    private static boolean isTerminator(char c) {
+        switch (c) {
+            case '。':
+            case '！':
+            case '？':
+            case '；':
+            case '!':
+            case '?':
+            // 规范化（NFKC）会把全角的 ！？； 转成半角，分段看到的是半角形式
+            case ';':
+            case '\n':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isClosing(char c) {
+        switch (c) {
+            case '"':
+            case '\'':
+            case '”':
+            case '’':
+            case '」':
+            case '』':
+            case '）':
+            case ')':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isSoftBreak(char c) {
+        switch (c) {
+            case '，':
+            case '、':
+            case '：':
+            case ',':
+            case ':':
+            case ';':
+            case ' ':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void addSegment(List<String> segments, CharSequence text, int start, int end, int maxLength) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        while (end - start > maxLength) {
+            int cut = start + maxLength;
+            for (int i = cut - 1; i > start + maxLength / 2; i--) {
+                if (isSoftBreak(text.charAt(i))) {
+                    cut = i + 1;
+                    break;
+                }
+            }
+            if (Character.isHighSurrogate(text.charAt(cut - 1))) {
+                cut--;
+            }
+            addIfSpeakable(segments, text, start, cut);
+            start = cut;
+            while (start < end && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+        }
+        addIfSpeakable(segments, text, start, end);
+    }
+
+    private static void addIfSpeakable(List<String> segments, CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (Character.isLetterOrDigit(text.charAt(i))) {
+                segments.add(text.subSequence(start, end).toString().trim());
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.android.miloratts.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 增量解析 RIFF/WAVE 头，之后把 data 块里的 16 位 PCM 原样交给 {@link PcmSink}，不经过解码器。
+ * 只读到 data 块开头就可以开始输出，不需要等整个文件下载完成；
+ * 流式生成的 WAV 常把 data 长度写成 0 或 0xFFFFFFFF，这种情况一直读到流结束。
+ */
+public final class WavReader {
+    private static final int RIFF = 0x52494646;
+    private static final int WAVE = 0x57415645;
+    private static final int FMT = 0x666d7420;
+    private static final int DATA = 0x64617461;
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+    // WAVE_FORMAT_EXTENSIBLE 的 fmt 块：16 字节基本部分 + cbSize + 有效位数 + 声道掩码 + 16 字节 SubFormat
+    private static final int EXTENSIBLE_FMT_SIZE = 40;
+    private static final int EXTENSION_SIZE = 22;
+    // KSDATAFORMAT_SUBTYPE_PCM（00000001-0000-0010-8000-00AA00389B71）在文件中的字节顺序
+    private static final byte[] SUBTYPE_PCM = {
+            0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x10, 0x00,
+            (byte) 0x80, 0x00, 0x00, (byte) 0xAA, 0x00, 0x38, (byte) 0x9B, 0x71};
+
+    private final InputStream in;
+    private final byte[] header = new byte[16];
+    // 丢弃头部不关心的块时用的缓冲，只有遇到这类块时才分配
+    private byte[] discard;
+    private int sampleRate;
+    private int channelCount;
+    private long dataRemaining = -1;
+
+    public WavReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * 读取到 data 块开头。不是 16 位 PCM 的 WAV 抛出 IOException。
+     */
+    public void readHeader() throws IOException {
+        readFully(header, 12);
+        if (bigEndianInt(0) != RIFF || bigEndianInt(8) != WAVE) {
+            throw new IOException("不是 RIFF/WAVE 数据");
+        }
+        boolean formatSeen = false;
+        while (true) {
+            readFully(header, 8);
+            int id = bigEndianInt(0);
+            long size = littleEndianInt(4) & 0xFFFFFFFFL;
+            if (id == DATA) {
+                if (!formatSeen) {
+                    throw new IOException("WAV 缺少 fmt 块");
+                }
+                // 0 和 0xFFFFFFFF 表示生成时还不知道长度
+                dataRemaining = size == 0 || size == 0xFFFFFFFFL ? -1 : size;
+                return;
+            }
+            if (id == FMT) {
+                if (size < 16) {
+                    throw new IOException("WAV fmt 块过短: " + size);
+                }
+                readFully(header, 16);
+                int format = littleEndianShort(0);
+                channelCount = littleEndianShort(2);
+                sampleRate = littleEndianInt(4);
+                int bitsPerSample = littleEndianShort(14);
+                if ((format != FORMAT_PCM && format != FORMAT_EXTENSIBLE) || bitsPerSample != 16
+                        || channelCount < 1 || sampleRate <= 0) {
+                    throw new IOException("不支持的 WAV 编码: format=" + format + ", " + bitsPerSample + "位, "
+                            + channelCount + "声道, " + sampleRate + "Hz");
+                }
+                size -= 16;
+                if (format == FORMAT_EXTENSIBLE) {
+                    if (size + 16 < EXTENSIBLE_FMT_SIZE) {
+                        throw new IOException("WAV 扩展 fmt 块过短: " + (size + 16));
+                    }
+                    readExtension();
+                    size -= EXTENSIBLE_FMT_SIZE - 16;
+                }
+                formatSeen = true;
+            }
+            // RIFF 块按偶数字节对齐
+            discardFully(size + (size & 1));
+        }
+    }
+
+    // 扩展格式里 16 位的也可能是浮点、A 律等编码，只有 SubFormat 是 PCM 时才能原样交给 sink
+    private void readExtension() throws IOException {
+        readFully(header, 8);
+        int extensionSize = littleEndianShort(0);
+        if (extensionSize < EXTENSION_SIZE) {
+            throw new IOException("WAV 扩展 fmt 块的 cbSize 过小: " + extensionSize);
+        }
+        readFully(header, 16);
+        for (int i = 0; i < SUBTYPE_PCM.length; i++) {
+            if (header[i] != SUBTYPE_PCM[i]) {
+                throw new IOException("不支持的 WAV 扩展编码，SubFormat 不是 PCM");
+            }
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * 把 data 块的内容分块交给 sink，每块不超过 buffer 的长度，且总是完整的采样帧，之后读完流的剩余部分。
+     * 返回 false 表示 sink 已停止。
+     */
+    public boolean copyTo(PcmSink sink, byte[] buffer) throws IOException {
+        int frameBytes = 2 * channelCount;
+        int chunk = Math.max(frameBytes, buffer.length / frameBytes * frameBytes);
+        int pending = 0;
+        while (dataRemaining != 0) {
+            int want = chunk - pending;
+            if (dataRemaining > 0) {
+                want = (int) Math.min(want, dataRemaining);
+            }
+            int read = in.read(buffer, pending, want);
+            if (read < 0) {
+                break;
+            }
+            if (dataRemaining > 0) {
+                dataRemaining -= read;
+            }
+            pending += read;
+            // 网络每次到达多少就交出多少，只把不完整的最后一帧留到下一次
+            int whole = pending / frameBytes * frameBytes;
+            if (whole > 0) {
+                if (!sink.write(buffer, 0, whole)) {
+                    return false;
+                }
+                pending -= whole;
+                System.arraycopy(buffer, whole, buffer, 0, pending);
+            }
+        }
+        // data 块后面可能还有 LIST 等块。读到流末尾，边下边存的缓存才能确认下载完整，连接也才能复用；
+        // 不能用 skip，跳过的数据不会写进缓存
+        while (dataRemaining == 0 && in.read(buffer) >= 0) {
+            // 丢弃
+        }
+        return true;
+    }
+
+    private void readFully(byte[] dest, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(dest, offset, length - offset);
+            if (read < 0) {
+                throw new EOFException("WAV 头不完整");
+            }
+            offset += read;
+        }
+    }
+
+    // 读出来丢掉而不是 skip：输入可能是边下边存的 CacheTeeInputStream，跳过的数据不会写进缓存，缓存就被放弃了
+    private void discardFully(long bytes) throws IOException {
+        if (bytes > 0 && discard == null) {
+            discard = new byte[512];
+        }
+        while (bytes > 0) {
+            int read = in.read(discard, 0, (int) Math.min(bytes, discard.length));
+            if (read < 0) {
+                throw new EOFException("WAV 头不完整");
+            }
+            bytes -= read;
+        }
+    }
+
+    private int bigEndianInt(int offset) {
+        return (header[offset] & 0xff) << 24 | (header[offset + 1] & 0xff) << 16
+                | (header[offset + 2] & 0xff) << 8 | (header[offset + 3] & 0xff);
+    }
+
+    private int littleEndianInt(int offset) {
+        return (header[offset] & 0xff) | (header[offset + 1] & 0xff) << 8
+                | (header[offset + 2] & 0xff) << 16 | (header[offset + 3] & 0xff) << 24;
+    }
+
+    private int littleEndianShort(int offset) {
+        return (header[offset] & 0xff) | (header[offset + 1] & 0xff) << 8;
+    }
+}
@@ -0,0 +1,137 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class ApiResponseParserTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void readsCodeAndUrl() throws IOException {
+        ApiResponse response = parse("{\"code\":200,\"url\":\"https://example.com/a.mp3\"}");
+
+        assertTrue(response.isSuccess());
+        assertEquals(200, response.getCode());
+        assertEquals("https://example.com/a.mp3", response.getAudioUrl());
+    }
+
+    @Test
+    public void decodesEscapedStrings() throws IOException {
+        ApiResponse response = parse("{\"url\":\"https:\\/\\/example.com\\/\\u4f60\\u597D.mp3?a=\\\"b\\\"\\\\c\\td\","
+                + "\"code\":200}");
+
+        assertEquals("https://example.com/你好.mp3?a=\"b\"\\c\td", response.getAudioUrl());
+        assertEquals(200, response.getCode());
+    }
+
+    @Test
+    public void acceptsCodeAsStringOrNumber() throws IOException {
+        assertEquals(200, parse("{\"code\":\"200\"}").getCode());
+        assertEquals(200, parse("{ \"code\" : 200 }").getCode());
+        assertEquals(-1, parse("{\"code\":-1}").getCode());
+        assertEquals(-1, parse("{\"code\":\"ok\"}").getCode());
+        assertEquals(-1, parse("{\"code\":null}").getCode());
+        assertFalse(parse("{\"code\":500,\"url\":null}").isSuccess());
+        assertNull(parse("{\"code\":500,\"url\":null}").getAudioUrl());
+    }
+
+    @Test
+    public void skipsNestedValuesBeforeUrl() throws IOException {
+        ApiResponse response = parse("{\"meta\":{\"list\":[1,{\"url\":\"inner\"},\"]}\"],\"ok\":true},"
+                + "\"tags\":[[],{}],\"flag\":false,\"n\":-1.5e3,\"note\":\"\\\"}\",\n"
+                + "\"code\":200,\"url\":\"outer\"}");
+
+        assertEquals(200, response.getCode());
+        assertEquals("outer", response.getAudioUrl());
+    }
+
+    @Test
+    public void truncatedBodyThrowsEofException() throws IOException {
+        String[] bodies = {
+                "",
+                "{",
+                "{\"code\":200,",
+                "{\"code\":200,\"url\":\"https://exa",
+                "{\"url\":\"\\u4f",
+                "{\"meta\":{\"a\":[1,2",
+        };
+        for (String body : bodies) {
+            try {
+                parse(body);
+                fail("应当抛出 EOFException：" + body);
+            } catch (EOFException expected) {
+                // 预期
+            }
+        }
+    }
+
+    @Test
+    public void malformedBodyThrowsIoException() {
+        String[] bodies = {"[]", "{code:200}", "{\"code\" 200}", "{\"code\":200 \"url\":\"x\"}", "{\"url\":\"\\uzzzz\"}"};
+        for (String body : bodies) {
+            try {
+                parse(body);
+                fail("应当抛出 IOException：" + body);
+            } catch (IOException expected) {
+                // 预期
+            }
+        }
+    }
+
+    @Test
+    public void returnsOnceBothFieldsAreRead() throws IOException {
+        byte[] prefix = "{\"code\":200,\"url\":\"https://example.com/a.mp3\",".getBytes(UTF_8);
+        // 两个字段之后的内容不能被读取：读到前缀之外就失败
+        InputStream body = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (position == prefix.length) {
+                    throw new IOException("读取超过了两个字段");
+                }
+                int count = Math.min(length, prefix.length - position);
+                System.arraycopy(prefix, position, buffer, offset, count);
+                position += count;
+                return count;
+            }
+        };
+
+        ApiResponse response = ApiResponseParser.parse(body);
+
+        assertEquals(200, response.getCode());
+        assertEquals("https://example.com/a.mp3", response.getAudioUrl());
+    }
+
+    @Test
+    public void handlesBodiesLongerThanReadBuffer() throws IOException {
+        char[] padding = new char[1000];
+        Arrays.fill(padding, 'x');
+        ApiResponse response = parse("{\"pad\":\"" + new String(padding) + "\",\"code\":12345678,\"url\":\"u\"}");
+
+        assertEquals(12345678, response.getCode());
+        assertEquals("u", response.getAudioUrl());
+    }
+
+    private static ApiResponse parse(String body) throws IOException {
+        return ApiResponseParser.parse(new ByteArrayInputStream(body.getBytes(UTF_8)));
+    }
+}
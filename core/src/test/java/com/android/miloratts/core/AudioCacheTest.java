@@ -0,0 +1,101 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.Executor;
+
+public class AudioCacheTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsDoNotGrowJournalWithoutBound() throws IOException {
+        File directory = folder.newFolder("cache");
+        AudioCache cache = AudioCache.open(directory, 1024 * 1024, DIRECT);
+        String key = "0123456789abcdef.mp3";
+        assertTrue(cache.commit(key, tempFile(cache, key, 1000)));
+
+        for (int i = 0; i < 10000; i++) {
+            assertNotNull(cache.get(key));
+        }
+
+        // 读命中也计入冗余，日志超过压缩阈值后会被重建，不会留下一万行 READ
+        assertTrue("日志行数 " + journalLines(directory), journalLines(directory) < 2100);
+        AudioCache reopened = AudioCache.open(directory, 1024 * 1024, DIRECT);
+        assertEquals(1, reopened.entryCount());
+        assertEquals(1000, reopened.size());
+    }
+
+    @Test
+    public void closedCacheRejectsLateCommits() throws IOException {
+        File directory = folder.newFolder("cache");
+        AudioCache cache = AudioCache.open(directory, 1024 * 1024, DIRECT);
+        String key = "0123456789abcdef.mp3";
+        assertTrue(cache.commit(key, tempFile(cache, key, 1000)));
+        // 切换存储方式时还在下载的写入者
+        String lateKey = "fedcba9876543210.mp3";
+        File late = tempFile(cache, lateKey, 1000);
+
+        cache.close();
+        assertEquals(1, cache.clear());
+
+        assertFalse(cache.commit(lateKey, late));
+        assertFalse(late.exists());
+        assertNull(cache.get(lateKey));
+        try {
+            cache.newTempFile(lateKey);
+            fail();
+        } catch (IOException expected) {
+            // 关闭后不再接受新的写入
+        }
+        AudioCache reopened = AudioCache.open(directory, 1024 * 1024, DIRECT);
+        assertEquals(0, reopened.entryCount());
+    }
+
+    private static File tempFile(AudioCache cache, String key, int length) throws IOException {
+        File file = cache.newTempFile(key);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static int journalLines(File directory) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(new File(directory, AudioCache.JOURNAL_FILE)), "UTF-8"));
+        try {
+            int lines = 0;
+            while (reader.readLine() != null) {
+                lines++;
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+}
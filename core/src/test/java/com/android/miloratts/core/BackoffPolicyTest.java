@@ -0,0 +1,41 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BackoffPolicyTest {
+
+    @Test
+    public void ceilingDoublesUpToMaximum() {
+        BackoffPolicy policy = new BackoffPolicy(5, 250, 4000);
+
+        assertEquals(250, policy.ceilingMs(1));
+        assertEquals(500, policy.ceilingMs(2));
+        assertEquals(1000, policy.ceilingMs(3));
+        assertEquals(4000, policy.ceilingMs(5));
+        assertEquals(4000, policy.ceilingMs(6));
+        // 次数很大时不能移位溢出
+        assertEquals(4000, policy.ceilingMs(100));
+    }
+
+    @Test
+    public void jitterStaysWithinHalfToFullCeiling() {
+        BackoffPolicy policy = new BackoffPolicy(3, 250, 4000);
+        for (int attempt = 1; attempt <= 8; attempt++) {
+            long ceiling = policy.ceilingMs(attempt);
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < 5000; i++) {
+                long delay = policy.delayMs(attempt);
+                assertTrue("第 " + attempt + " 次: " + delay, delay >= ceiling / 2 && delay <= ceiling);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            // 抖动确实铺开在整个区间里，不是固定值
+            long span = ceiling - ceiling / 2;
+            assertTrue("第 " + attempt + " 次抖动范围 " + min + "-" + max, max - min >= span * 8 / 10);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CacheKeysTest {
+    private static final String VOICE = "zh-CN-XiaoxiaoNeural";
+    private static final String LANGUAGE = "zh-CN";
+
+    // 参考值由 Guava 的 Hashing.murmur3_128() 对同一串 UTF-16LE 字节计算，asBytes() 按小端读出 h1、h2
+    @Test
+    public void murmur3MatchesReferenceImplementation() {
+        assertHash("", 0L, 0L);
+        assertHash("hello", 0xee2ee18fe1bfd387L, 0x7b927262d8c336c4L);
+        assertHash("The quick brown fox jumps over the lazy dog", 0xc0026631b551ae4cL, 0xe75f3e8442567c1cL);
+    }
+
+    @Test
+    public void keyHashesSeparatedFields() {
+        assertEquals("4ee080a13f818fca66cc1cb86af797ce.mp3",
+                CacheKeys.forText("你好，世界。", VOICE, LANGUAGE, "mp3"));
+    }
+
+    @Test
+    public void normalizedVariantsShareKey() {
+        String key = CacheKeys.forText(TextNormalizer.normalize("Hello world"), VOICE, LANGUAGE, "mp3");
+
+        assertEquals(key, CacheKeys.forText(TextNormalizer.normalize("Hello  world "), VOICE, LANGUAGE, "mp3"));
+        assertEquals(key, CacheKeys.forText(TextNormalizer.normalize("Ｈｅｌｌｏ　ｗｏｒｌｄ"), VOICE, LANGUAGE, "mp3"));
+    }
+
+    @Test
+    public void everyFieldChangesKey() {
+        String key = CacheKeys.forText("你好", VOICE, LANGUAGE, "mp3");
+
+        assertNotEquals(key, CacheKeys.forText("你好!", VOICE, LANGUAGE, "mp3"));
+        assertNotEquals(key, CacheKeys.forText("你好", "zh-CN-YunxiNeural", LANGUAGE, "mp3"));
+        assertNotEquals(key, CacheKeys.forText("你好", VOICE, "zh-TW", "mp3"));
+        String wav = CacheKeys.forText("你好", VOICE, LANGUAGE, "wav");
+        assertNotEquals(key.substring(0, 32), wav.substring(0, 32));
+        assertTrue(wav.endsWith(".wav"));
+    }
+
+    @Test
+    public void separatorKeepsFieldBoundaries() {
+        // 字段拼接结果相同但边界不同，也不能得到同一个键
+        assertNotEquals(CacheKeys.forText("x", "ab", "c", "mp3"),
+                CacheKeys.forText("x", "a", "bc", "mp3"));
+    }
+
+    private static void assertHash(String input, long h1, long h2) {
+        CacheKeys.Murmur3 hash = new CacheKeys.Murmur3();
+        hash.add(input);
+        hash.finish();
+        assertEquals("h1: " + input, h1, hash.h1);
+        assertEquals("h2: " + input, h2, hash.h2);
+    }
+}
@@ -0,0 +1,188 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CancellationTokenTest {
+    // 停止之后到合成线程返回的上限，远小于一句话的长度
+    private static final long STOP_BOUND_MS = 500;
+
+    @Test(timeout = 10000)
+    public void cancelWakesRetrySleep() throws Exception {
+        final CancellationToken token = new CancellationToken();
+        final AtomicBoolean result = new AtomicBoolean(true);
+        Thread sleeper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(token.sleep(60000));
+            }
+        });
+        sleeper.start();
+        Thread.sleep(50);
+
+        token.cancel();
+        sleeper.join(STOP_BOUND_MS);
+
+        assertFalse(sleeper.isAlive());
+        assertFalse(result.get());
+    }
+
+    /**
+     * 模拟阻塞在网络读取上的合成：停止时登记的回调断开连接，读取立即失败，之后不再有音频写出。
+     */
+    @Test(timeout = 10000)
+    public void stopSilencesBlockedDownloadWithinBound() throws Exception {
+        final CancellationToken token = new CancellationToken();
+        final StallingInputStream connection = new StallingInputStream(4096);
+        token.addListener(new Runnable() {
+            @Override
+            public void run() {
+                connection.disconnect();
+            }
+        });
+        final AtomicLong writesAfterStop = new AtomicLong();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        final CountDownLatch playing = new CountDownLatch(1);
+        Thread synthesis = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in = new CancellableInputStream(connection, token);
+                byte[] buffer = new byte[1024];
+                try {
+                    while (in.read(buffer, 0, buffer.length) > 0) {
+                        if (stopped.get()) {
+                            writesAfterStop.incrementAndGet();
+                        }
+                        playing.countDown();
+                    }
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            }
+        });
+        synthesis.start();
+        assertTrue(playing.await(5, TimeUnit.SECONDS));
+        // 等到合成线程把已到达的数据读完，阻塞在下一次读取上
+        Thread.sleep(100);
+
+        long stopAt = System.nanoTime();
+        stopped.set(true);
+        token.cancel();
+        synthesis.join(STOP_BOUND_MS);
+        long stopMs = (System.nanoTime() - stopAt) / 1000000;
+
+        assertFalse("停止后 " + stopMs + "ms 仍未返回", synthesis.isAlive());
+        assertTrue(failure.get() instanceof InterruptedIOException);
+        assertEquals(0, writesAfterStop.get());
+        assertTrue(token.millisSinceCancel() >= 0);
+    }
+
+    @Test
+    public void childFollowsParentButNotTheOtherWay() {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken first = parent.newChild();
+        CancellationToken second = parent.newChild();
+
+        first.cancel();
+        assertTrue(first.isCancelled());
+        assertFalse(parent.isCancelled());
+        assertFalse(second.isCancelled());
+
+        parent.cancel();
+        assertTrue(second.isCancelled());
+    }
+
+    @Test
+    public void finishedChildrenDetachFromParent() {
+        CancellationToken session = new CancellationToken();
+        // 一个长期存在的会话标记上反复创建并结束子标记，例如每个片段的对冲请求
+        for (int i = 0; i < 1000; i++) {
+            CancellationToken primary = session.newChild();
+            CancellationToken hedge = session.newChild();
+            primary.cancel();
+            hedge.cancel();
+        }
+
+        assertEquals(0, session.listenerCount());
+        assertFalse(session.isCancelled());
+        CancellationToken live = session.newChild();
+        session.cancel();
+        assertTrue(live.isCancelled());
+    }
+
+    @Test
+    public void listenerAddedAfterCancelRunsImmediately() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        final AtomicBoolean ran = new AtomicBoolean();
+
+        token.addListener(new Runnable() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        });
+
+        assertTrue(ran.get());
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void cancelledStreamRefusesToRead() throws IOException {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        new CancellableInputStream(new StallingInputStream(16), token).read();
+    }
+
+    /**
+     * 先给出 available 字节，之后像网络连接一样阻塞，直到 disconnect 让读取抛出异常。
+     */
+    static final class StallingInputStream extends InputStream {
+        private int available;
+        private boolean disconnected;
+
+        StallingInputStream(int available) {
+            this.available = available;
+        }
+
+        synchronized void disconnect() {
+            disconnected = true;
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            while (available == 0 && !disconnected) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (disconnected) {
+                throw new IOException("Socket closed");
+            }
+            int count = Math.min(len, available);
+            available -= count;
+            return count;
+        }
+    }
+}
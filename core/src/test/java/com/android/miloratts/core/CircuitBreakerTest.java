@@ -0,0 +1,81 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+    private static final long OPEN_MS = 100;
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, OPEN_MS, 1000);
+        failTimes(breaker, 2);
+        // 中间一次成功会清零连续失败次数
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        failTimes(breaker, 2);
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+
+        failTimes(breaker, 1);
+
+        assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.remainingOpenMs() > 0 && breaker.remainingOpenMs() <= OPEN_MS);
+        assertEquals(1, breaker.getOpenCount());
+    }
+
+    @Test
+    public void halfOpensAfterCooldownWithSingleTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(2, OPEN_MS, 1000);
+        failTimes(breaker, 2);
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(OPEN_MS + 50);
+
+        assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        // 试探请求还没有结果时，其他请求继续被拒绝
+        assertFalse(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void failedTrialReopensWithDoubledCooldown() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MS, 150);
+        failTimes(breaker, 1);
+        Thread.sleep(OPEN_MS + 50);
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        // 冷却时间加倍，但不超过上限
+        assertTrue(breaker.remainingOpenMs() > OPEN_MS);
+        assertTrue(breaker.remainingOpenMs() <= 150);
+        assertEquals(2, breaker.getOpenCount());
+    }
+
+    @Test
+    public void ignoredTrialReleasesTheSlot() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, OPEN_MS, 1000);
+        failTimes(breaker, 1);
+        Thread.sleep(OPEN_MS + 50);
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordIgnored();
+
+        assertTrue(breaker.allowRequest());
+    }
+
+    private static void failTimes(CircuitBreaker breaker, int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+    }
+}
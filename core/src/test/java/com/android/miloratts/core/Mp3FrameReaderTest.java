@@ -0,0 +1,242 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class Mp3FrameReaderTest {
+    // MPEG1 Layer III，128kbps，44.1kHz，单声道，无 padding：每帧 417 字节
+    private static final int HEADER = 0xFFFB90C4;
+    private static final int FRAME_BYTES = 417;
+
+    @Test
+    public void readsFramesSplitAcrossReads() throws IOException {
+        byte[] stream = frames(5);
+        Mp3FrameReader reader = new Mp3FrameReader(new TrickleInputStream(stream, 7));
+
+        assertFrames(reader, stream, 5);
+        assertEquals(44100, reader.getSampleRate());
+        assertEquals(1, reader.getChannelCount());
+        assertEquals(1152, reader.getSamplesPerFrame());
+    }
+
+    @Test
+    public void skipsId3v2Tag() throws IOException {
+        // 标签内容里放上同步字，跳过标签时不能把它当成帧头
+        byte[] tag = id3Tag(300);
+        byte[] audio = frames(3);
+        Mp3FrameReader reader = new Mp3FrameReader(new ByteArrayInputStream(concat(tag, audio)));
+
+        assertFrames(reader, audio, 3);
+    }
+
+    @Test
+    public void skipsId3v2TagLargerThanReadBuffer() throws IOException {
+        byte[] tag = id3Tag(40 * 1024);
+        byte[] audio = frames(3);
+        Mp3FrameReader reader = new Mp3FrameReader(new TrickleInputStream(concat(tag, audio), 4096));
+
+        assertFrames(reader, audio, 3);
+    }
+
+    @Test
+    public void ignoresSyncWordInsideFrameBody() throws IOException {
+        byte[] audio = frames(4);
+        // 每帧正文中间都放一个完整的帧头，锁定码流后按帧长前进，不会在正文里重新同步
+        for (int i = 0; i < 4; i++) {
+            writeHeader(audio, i * FRAME_BYTES + 100, HEADER);
+        }
+        Mp3FrameReader reader = new Mp3FrameReader(new ByteArrayInputStream(audio));
+
+        assertFrames(reader, audio, 4);
+    }
+
+    @Test
+    public void rejectsFalseSyncBeforeFirstFrame() throws IOException {
+        // 开头的垃圾数据里有一个帧头，但它后面隔一个帧长的位置不是帧头，不能从这里同步
+        byte[] garbage = new byte[64];
+        writeHeader(garbage, 5, HEADER);
+        byte[] audio = frames(3);
+        Mp3FrameReader reader = new Mp3FrameReader(new ByteArrayInputStream(concat(garbage, audio)));
+
+        assertFrames(reader, audio, 3);
+    }
+
+    @Test
+    public void dropsTruncatedLastFrame() throws IOException {
+        byte[] audio = frames(4);
+        byte[] truncated = Arrays.copyOf(audio, 3 * FRAME_BYTES + FRAME_BYTES / 2);
+        Mp3FrameReader reader = new Mp3FrameReader(new ByteArrayInputStream(truncated));
+
+        assertFrames(reader, audio, 3);
+        assertEquals(-1, reader.readFrame(new byte[Mp3FrameReader.MAX_FRAME_SIZE]));
+    }
+
+    @Test(timeout = 10000)
+    public void returnsFirstFrameBeforeDownloadFinishes() throws Exception {
+        byte[] audio = frames(20);
+        final GatedInputStream in = new GatedInputStream(audio);
+        // 只放出前两帧：第一帧加上确认同步用的下一个帧头
+        in.release(2 * FRAME_BYTES);
+        final Mp3FrameReader reader = new Mp3FrameReader(in);
+        final byte[] frame = new byte[Mp3FrameReader.MAX_FRAME_SIZE];
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> first = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    return reader.readFrame(frame);
+                }
+            });
+            assertEquals(FRAME_BYTES, (int) first.get(2, TimeUnit.SECONDS));
+            assertArrayEquals(Arrays.copyOfRange(audio, 0, FRAME_BYTES), Arrays.copyOf(frame, FRAME_BYTES));
+        } finally {
+            in.release(audio.length);
+            executor.shutdownNow();
+        }
+        int count = 1;
+        while (reader.readFrame(frame) > 0) {
+            count++;
+        }
+        assertEquals(20, count);
+    }
+
+    private static void assertFrames(Mp3FrameReader reader, byte[] audio, int count) throws IOException {
+        byte[] frame = new byte[Mp3FrameReader.MAX_FRAME_SIZE];
+        for (int i = 0; i < count; i++) {
+            assertEquals("第 " + i + " 帧", FRAME_BYTES, reader.readFrame(frame));
+            assertArrayEquals("第 " + i + " 帧",
+                    Arrays.copyOfRange(audio, i * FRAME_BYTES, (i + 1) * FRAME_BYTES), Arrays.copyOf(frame, FRAME_BYTES));
+        }
+        assertEquals(-1, reader.readFrame(frame));
+        assertEquals(count, reader.getFramesRead());
+    }
+
+    // 帧正文按帧序号和位置填充，不含 0xFF，每一帧的内容都不同
+    static byte[] frames(int count) {
+        byte[] data = new byte[count * FRAME_BYTES];
+        for (int i = 0; i < count; i++) {
+            int start = i * FRAME_BYTES;
+            writeHeader(data, start, HEADER);
+            for (int j = 4; j < FRAME_BYTES; j++) {
+                data[start + j] = (byte) ((i * 31 + j) % 0xFF);
+            }
+        }
+        return data;
+    }
+
+    private static byte[] id3Tag(int bodyBytes) {
+        byte[] tag = new byte[10 + bodyBytes];
+        tag[0] = 'I';
+        tag[1] = 'D';
+        tag[2] = '3';
+        tag[3] = 4;
+        tag[6] = (byte) ((bodyBytes >> 21) & 0x7F);
+        tag[7] = (byte) ((bodyBytes >> 14) & 0x7F);
+        tag[8] = (byte) ((bodyBytes >> 7) & 0x7F);
+        tag[9] = (byte) (bodyBytes & 0x7F);
+        for (int i = 10; i + 4 <= tag.length; i += 97) {
+            writeHeader(tag, i, HEADER);
+        }
+        return tag;
+    }
+
+    private static void writeHeader(byte[] dest, int offset, int header) {
+        dest[offset] = (byte) (header >>> 24);
+        dest[offset + 1] = (byte) (header >>> 16);
+        dest[offset + 2] = (byte) (header >>> 8);
+        dest[offset + 3] = (byte) header;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(a.length + b.length);
+        out.write(a, 0, a.length);
+        out.write(b, 0, b.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * 每次 read 最多返回 maxRead 字节，模拟网络上零碎到达的数据。
+     */
+    static final class TrickleInputStream extends InputStream {
+        private final byte[] data;
+        private final int maxRead;
+        private int pos;
+
+        TrickleInputStream(byte[] data, int maxRead) {
+            this.data = data;
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= data.length) {
+                return -1;
+            }
+            int count = Math.min(Math.min(len, maxRead), data.length - pos);
+            System.arraycopy(data, pos, b, off, count);
+            pos += count;
+            return count;
+        }
+    }
+
+    /**
+     * 只能读到已经放出的部分，其余的要等 {@link #release} 之后才可读，模拟仍在下载的响应体。
+     */
+    static final class GatedInputStream extends InputStream {
+        private final byte[] data;
+        private int released;
+        private int pos;
+
+        GatedInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        synchronized void release(int upTo) {
+            released = Math.max(released, Math.min(upTo, data.length));
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            while (pos >= released && released < data.length) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (pos >= data.length) {
+                return -1;
+            }
+            int count = Math.min(len, released - pos);
+            System.arraycopy(data, pos, b, off, count);
+            pos += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class NextUtterancePredictorTest {
+    private static final long A = 11;
+    private static final long B = 12;
+    private static final long C = 13;
+    private static final long D = 14;
+    private static final long E = 15;
+    private static final long F = 16;
+    // 与 NextUtterancePredictor.COUNT_LIMIT 相同
+    private static final int COUNT_LIMIT = 1 << 12;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final NextUtterancePredictor predictor = new NextUtterancePredictor(64);
+
+    @Test
+    public void keyOfUsesLeadingHexAndAvoidsEmptyKey() {
+        assertEquals(0x0123456789abcdefL, NextUtterancePredictor.keyOf("0123456789abcdef0000000000000000.mp3"));
+        assertEquals(1, NextUtterancePredictor.keyOf("00000000000000000123456789abcdef.mp3"));
+    }
+
+    @Test
+    public void predictsByDescendingCountAboveThreshold() {
+        observe(A, B, 5);
+        observe(A, C, 3);
+        observe(A, D, 2);
+
+        // 共 10 次，门槛是 2 次
+        assertArrayEquals(new long[] {B, C, D}, predict(A, 4));
+        assertArrayEquals(new long[] {B}, predict(A, 1));
+
+        observe(A, E, 1);
+
+        // 共 11 次，门槛升到 3 次，D 的 2 次不到 20%
+        assertArrayEquals(new long[] {B, C}, predict(A, 4));
+        assertArrayEquals(new long[0], predict(B, 4));
+    }
+
+    @Test
+    public void returnsTiedSuccessorsOnce() {
+        observe(A, B, 3);
+        observe(A, C, 3);
+
+        long[] predicted = predict(A, 4);
+
+        assertEquals(2, predicted.length);
+        Arrays.sort(predicted);
+        assertArrayEquals(new long[] {B, C}, predicted);
+    }
+
+    @Test
+    public void ignoresSelfTransitions() {
+        observe(A, A, 5);
+
+        assertEquals(0, predictor.size());
+    }
+
+    @Test
+    public void newSuccessorReplacesWeakest() {
+        observe(A, B, 5);
+        observe(A, C, 4);
+        observe(A, D, 3);
+        observe(A, E, 2);
+
+        observe(A, F, 1);
+
+        // E 被替换，F 从 1 次开始；共 13 次，门槛 3 次
+        assertArrayEquals(new long[] {B, C, D}, predict(A, 4));
+
+        observe(A, F, 3);
+
+        // 共 16 次，门槛 4 次：F 追上 C，D 掉出
+        long[] predicted = predict(A, 4);
+        assertEquals(3, predicted.length);
+        assertEquals(B, predicted[0]);
+        Arrays.sort(predicted, 1, 3);
+        assertArrayEquals(new long[] {B, C, F}, predicted);
+    }
+
+    @Test
+    public void halvesCountsAtLimit() {
+        observe(A, B, COUNT_LIMIT - 1);
+        observe(A, C, 1);
+        assertArrayEquals(new long[] {B}, predict(A, 4));
+
+        // B 达到上限，全部计数减半：B 剩一半，C 的 1 次归零被移除
+        observe(A, B, 1);
+        observe(A, D, COUNT_LIMIT / 2 / 4);
+
+        // 如果没有减半，D 的 512 次不到 20%
+        assertArrayEquals(new long[] {B, D}, predict(A, 4));
+    }
+
+    @Test
+    public void fullTableReplacesLeastUsedPredecessor() {
+        NextUtterancePredictor small = new NextUtterancePredictor(8);
+        for (long key = 1; key <= 8; key++) {
+            for (int i = 0; i < key; i++) {
+                small.observe(key, 100 + key);
+            }
+        }
+        assertEquals(8, small.size());
+
+        small.observe(9, 109);
+
+        assertEquals(8, small.size());
+        long[] out = new long[4];
+        assertEquals(0, small.predict(1, out));
+        assertEquals(1, small.predict(9, out));
+        assertEquals(109, out[0]);
+        assertEquals(1, small.predict(8, out));
+    }
+
+    @Test
+    public void saveThenLoadGivesSamePredictions() throws IOException {
+        observe(A, B, 5);
+        observe(A, C, 3);
+        observe(A, D, 2);
+        observe(B, C, 7);
+        observe(C, D, 1);
+        observe(D, A, 9);
+        observe(D, E, 4);
+        File file = new File(folder.getRoot(), "predictor.bin");
+
+        assertTrue(predictor.saveIfDirty(file));
+        assertFalse(predictor.saveIfDirty(file));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        NextUtterancePredictor loaded = NextUtterancePredictor.load(file, 64);
+
+        assertEquals(predictor.size(), loaded.size());
+        assertFalse(loaded.saveIfDirty(file));
+        for (long key = A; key <= F; key++) {
+            assertArrayEquals("前驱 " + key, predict(predictor, key, 4), predict(loaded, key, 4));
+        }
+
+        // 载入后继续记录，计数接着保存的值累加
+        observe(A, D, 2);
+        loaded.observe(A, D);
+        loaded.observe(A, D);
+        assertArrayEquals(predict(A, 4), predict(loaded, A, 4));
+    }
+
+    @Test
+    public void missingOrCorruptFileLoadsEmptyModel() throws IOException {
+        File missing = new File(folder.getRoot(), "missing.bin");
+        assertEquals(0, NextUtterancePredictor.load(missing, 64).size());
+
+        File corrupt = folder.newFile("corrupt.bin");
+        FileOutputStream out = new FileOutputStream(corrupt);
+        try {
+            out.write(new byte[] {0x4D, 0x4E, 0x55, 0x31, 0, 0, 0, 1, 0, 0, 0, 5, 1, 2});
+        } finally {
+            out.close();
+        }
+        NextUtterancePredictor loaded = NextUtterancePredictor.load(corrupt, 64);
+        assertEquals(0, loaded.size());
+        assertEquals(0, loaded.predict(A, new long[4]));
+    }
+
+    private void observe(long previous, long next, int times) {
+        for (int i = 0; i < times; i++) {
+            predictor.observe(previous, next);
+        }
+    }
+
+    private long[] predict(long current, int limit) {
+        return predict(predictor, current, limit);
+    }
+
+    private static long[] predict(NextUtterancePredictor predictor, long current, int limit) {
+        long[] out = new long[limit];
+        return Arrays.copyOf(out, predictor.predict(current, out));
+    }
+}
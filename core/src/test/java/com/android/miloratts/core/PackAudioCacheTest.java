@@ -0,0 +1,66 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+public class PackAudioCacheTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void closedCacheRejectsLateCommits() throws IOException {
+        File directory = folder.newFolder("pack");
+        PackAudioCache cache = PackAudioCache.open(directory, 1024 * 1024, DIRECT);
+        String key = "0123456789abcdef.mp3";
+        assertTrue(cache.commit(key, tempFile(cache, key, 1000)));
+        // 切换存储方式时还在下载的写入者
+        String lateKey = "fedcba9876543210.mp3";
+        File late = tempFile(cache, lateKey, 1000);
+
+        cache.close();
+        assertEquals(1, cache.clear());
+
+        assertFalse(cache.commit(lateKey, late));
+        assertFalse(late.exists());
+        assertNull(cache.get(lateKey));
+        assertEquals(0, cache.segmentCount());
+        try {
+            cache.newTempFile(lateKey);
+            fail();
+        } catch (IOException expected) {
+            // 关闭后不再接受新的写入
+        }
+        PackAudioCache reopened = PackAudioCache.open(directory, 1024 * 1024, DIRECT);
+        assertEquals(0, reopened.entryCount());
+    }
+
+    private static File tempFile(AudioStore cache, String key, int length) throws IOException {
+        File file = cache.newTempFile(key);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,180 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PcmChunkCopierTest {
+
+    @Test
+    public void preservesBytesAndChunkBoundaries() {
+        // 奇数和偶数大小的输出块、奇数和偶数的 sink 块大小，块边界可能落在一个采样的中间
+        int[] outputSizes = {1, 2, 7, 8, 4095, 4096, 8191, 8192, 8193, 20001};
+        int[] chunkSizes = {7, 8, 1024, PcmChunkCopier.DEFAULT_CHUNK_SIZE};
+        for (int chunkSize : chunkSizes) {
+            PcmChunkCopier copier = new PcmChunkCopier(chunkSize);
+            for (int outputSize : outputSizes) {
+                // 解码器的输出缓冲是 direct 的，有效数据从 offset 开始
+                int offset = 3;
+                ByteBuffer output = pcmBuffer(offset, outputSize);
+                RecordingSink sink = new RecordingSink(chunkSize);
+
+                assertTrue(copier.copy(output, offset, outputSize, sink));
+
+                String label = "输出 " + outputSize + "，块 " + chunkSize;
+                assertArrayEquals(label, expected(output, offset, outputSize), sink.bytes());
+                for (int i = 0; i < sink.lengths.size(); i++) {
+                    int expectedLength = Math.min(chunkSize, outputSize - i * chunkSize);
+                    assertEquals(label + "，第 " + i + " 块", expectedLength, (int) sink.lengths.get(i));
+                }
+                assertEquals(label, (outputSize + chunkSize - 1) / chunkSize, sink.lengths.size());
+            }
+        }
+    }
+
+    @Test
+    public void keepsLittleEndianSamplesIntact() {
+        ByteBuffer output = ByteBuffer.allocateDirect(2000).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 1000; i++) {
+            output.putShort((short) (i * 37 - 18000));
+        }
+        RecordingSink sink = new RecordingSink(7);
+
+        assertTrue(new PcmChunkCopier(7).copy(output, 0, 2000, sink));
+
+        byte[] bytes = sink.bytes();
+        for (int i = 0; i < 1000; i++) {
+            short sample = (short) ((bytes[2 * i] & 0xFF) | (bytes[2 * i + 1] << 8));
+            assertEquals((short) (i * 37 - 18000), sample);
+        }
+    }
+
+    @Test
+    public void reusesOneScratchArray() {
+        PcmChunkCopier copier = new PcmChunkCopier(1024);
+        RecordingSink sink = new RecordingSink(1024);
+        for (int i = 0; i < 5; i++) {
+            copier.copy(pcmBuffer(0, 5000), 0, 5000, sink);
+        }
+        for (byte[] array : sink.arrays) {
+            assertSame(sink.arrays.get(0), array);
+        }
+    }
+
+    @Test
+    public void stopsWhenSinkStops() {
+        final int[] writes = new int[1];
+        PcmSink sink = new CountingSink() {
+            @Override
+            public boolean write(byte[] buffer, int offset, int length) {
+                return ++writes[0] < 2;
+            }
+        };
+
+        assertFalse(new PcmChunkCopier(100).copy(pcmBuffer(0, 1000), 0, 1000, sink));
+        assertEquals(2, writes[0]);
+    }
+
+    @Test
+    public void steadyStateCopyDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        PcmChunkCopier copier = new PcmChunkCopier(PcmChunkCopier.DEFAULT_CHUNK_SIZE);
+        ByteBuffer output = pcmBuffer(0, 16384);
+        CountingSink sink = new CountingSink();
+        // 先预热，让解释执行和 JIT 的一次性分配发生在测量之前
+        for (int i = 0; i < 20000; i++) {
+            copier.copy(output, 0, 16384, sink);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10000; i++) {
+            copier.copy(output, 0, 16384, sink);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // 每块都分配新数组的话是 20000 × 8 KB；留出测量本身的少量开销
+        assertTrue("分配了 " + allocated + " 字节", allocated < 64 * 1024);
+        assertEquals(30000L * 2, sink.chunks);
+    }
+
+    private static ByteBuffer pcmBuffer(int offset, int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(offset + size + 5);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) (i * 131 + 7));
+        }
+        return buffer;
+    }
+
+    private static byte[] expected(ByteBuffer buffer, int offset, int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+
+    private static class CountingSink implements PcmSink {
+        long chunks;
+
+        @Override
+        public boolean start(int sampleRate, int channelCount) {
+            return true;
+        }
+
+        @Override
+        public boolean write(byte[] buffer, int offset, int length) {
+            chunks++;
+            return true;
+        }
+
+        @Override
+        public int maxChunkSize() {
+            return PcmChunkCopier.DEFAULT_CHUNK_SIZE;
+        }
+    }
+
+    private static final class RecordingSink extends CountingSink {
+        final int maxChunkSize;
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final List<Integer> lengths = new ArrayList<>();
+        final List<byte[]> arrays = new ArrayList<>();
+
+        RecordingSink(int maxChunkSize) {
+            this.maxChunkSize = maxChunkSize;
+        }
+
+        @Override
+        public boolean write(byte[] buffer, int offset, int length) {
+            assertTrue(length <= maxChunkSize);
+            data.write(buffer, offset, length);
+            lengths.add(length);
+            arrays.add(buffer);
+            return true;
+        }
+
+        @Override
+        public int maxChunkSize() {
+            return maxChunkSize;
+        }
+
+        byte[] bytes() {
+            return data.toByteArray();
+        }
+    }
+}
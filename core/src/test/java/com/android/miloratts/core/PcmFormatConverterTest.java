@@ -0,0 +1,139 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class PcmFormatConverterTest {
+
+    @Test
+    public void downsamplesToOutputRate() {
+        RecordingSink sink = new RecordingSink();
+        PcmFormatConverter converter = new PcmFormatConverter(sink, 24000, 1);
+
+        assertTrue(converter.start(48000, 1));
+        assertTrue(converter.write(ramp(4800, 1), 0, 4800 * 2));
+
+        // 0.1 秒的音频转换后仍然是 0.1 秒，只差插值末尾的一帧
+        short[] out = sink.samples();
+        assertEquals(2400, out.length, 1);
+        // 线性信号插值后仍在同一条直线上
+        for (int i = 0; i < out.length; i++) {
+            assertEquals(i * 2 * 3, out[i], 1);
+        }
+    }
+
+    @Test
+    public void upsamplesToOutputRate() {
+        RecordingSink sink = new RecordingSink();
+        PcmFormatConverter converter = new PcmFormatConverter(sink, 44100, 1);
+
+        converter.start(22050, 1);
+        converter.write(ramp(2205, 1), 0, 2205 * 2);
+
+        assertEquals(4410, sink.samples().length, 2);
+    }
+
+    @Test
+    public void mapsChannelsAtSameRate() {
+        RecordingSink stereo = new RecordingSink();
+        PcmFormatConverter toStereo = new PcmFormatConverter(stereo, 24000, 2);
+        toStereo.start(24000, 1);
+        toStereo.write(samples(100, -200), 0, 4);
+        assertArrayEquals(new short[] {100, 100, -200, -200}, stereo.samples());
+
+        RecordingSink mono = new RecordingSink();
+        PcmFormatConverter toMono = new PcmFormatConverter(mono, 24000, 1);
+        toMono.start(24000, 2);
+        toMono.write(samples(100, 300, -200, -400), 0, 8);
+        assertArrayEquals(new short[] {200, -300}, mono.samples());
+    }
+
+    @Test
+    public void oddByteSplitsMatchSingleWrite() {
+        byte[] input = ramp(3001, 2);
+        RecordingSink whole = new RecordingSink();
+        PcmFormatConverter reference = new PcmFormatConverter(whole, 16000, 1);
+        reference.start(22050, 2);
+        reference.write(input, 0, input.length);
+
+        RecordingSink split = new RecordingSink();
+        PcmFormatConverter converter = new PcmFormatConverter(split, 16000, 1);
+        converter.start(22050, 2);
+        // 写入边界落在采样中间和帧中间
+        int[] sizes = {1, 3, 5, 7, 2, 1001};
+        int position = 0;
+        for (int i = 0; position < input.length; i++) {
+            int count = Math.min(sizes[i % sizes.length], input.length - position);
+            converter.write(input, position, count);
+            position += count;
+        }
+
+        assertArrayEquals(whole.samples(), split.samples());
+    }
+
+    @Test
+    public void stopsWhenDownstreamStops() {
+        RecordingSink sink = new RecordingSink();
+        sink.accept = false;
+        PcmFormatConverter converter = new PcmFormatConverter(sink, 24000, 1);
+        converter.start(24000, 2);
+
+        assertFalse(converter.write(ramp(100, 2), 0, 400));
+        assertFalse(converter.start(24000, 2));
+    }
+
+    // 第 i 帧的每个声道都是 i * 3
+    private static byte[] ramp(int frames, int channels) {
+        ByteBuffer buffer = ByteBuffer.allocate(frames * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < channels; c++) {
+                buffer.putShort((short) (i * 3));
+            }
+        }
+        return buffer.array();
+    }
+
+    private static byte[] samples(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int value : values) {
+            buffer.putShort((short) value);
+        }
+        return buffer.array();
+    }
+
+    private static final class RecordingSink implements PcmSink {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        boolean accept = true;
+
+        @Override
+        public boolean start(int sampleRate, int channelCount) {
+            return true;
+        }
+
+        @Override
+        public boolean write(byte[] buffer, int offset, int length) {
+            data.write(buffer, offset, length);
+            return accept;
+        }
+
+        @Override
+        public int maxChunkSize() {
+            return 1024;
+        }
+
+        short[] samples() {
+            byte[] bytes = data.toByteArray();
+            short[] samples = new short[bytes.length / 2];
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+            return samples;
+        }
+    }
+}
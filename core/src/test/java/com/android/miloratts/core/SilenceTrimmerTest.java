@@ -0,0 +1,148 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+public class SilenceTrimmerTest {
+    // 8kHz 单声道：每块 10ms 是 80 帧、160 字节
+    private static final int SAMPLE_RATE = 8000;
+    private static final int BLOCK_BYTES = SAMPLE_RATE * SilenceTrimmer.BLOCK_MS / 1000 * 2;
+    private static final int PREROLL_BLOCKS = SilenceTrimmer.PREROLL_MS / SilenceTrimmer.BLOCK_MS;
+    private static final int HOLD_BLOCKS = SilenceTrimmer.HOLD_MS / SilenceTrimmer.BLOCK_MS;
+
+    private final EngineMetrics metrics = new EngineMetrics();
+    private final RecordingSink sink = new RecordingSink();
+
+    @Test
+    public void dropsLeadingSilenceButKeepsPreroll() {
+        SilenceTrimmer trimmer = new SilenceTrimmer(sink, 0, metrics);
+        trimmer.start(SAMPLE_RATE, 1);
+        trimmer.write(silence(100), 0, 100 * BLOCK_BYTES);
+        byte[] voice = voice(10);
+        trimmer.write(voice, 0, voice.length);
+        assertTrue(trimmer.flush());
+
+        // 有声之前只保留最近 30ms，不切掉轻声的起始辅音
+        assertArrayEquals(concat(silence(PREROLL_BLOCKS), voice), sink.bytes());
+        assertEquals((100 - PREROLL_BLOCKS) * SilenceTrimmer.BLOCK_MS, metrics.leadingSilence.sum());
+    }
+
+    @Test
+    public void reEmitsPausesInsideSpeech() {
+        SilenceTrimmer trimmer = new SilenceTrimmer(sink, 0, metrics);
+        // 比暂存窗口短的停顿和比它长的停顿，后面重新有声时都原样保留
+        byte[] input = concat(voice(10), silence(HOLD_BLOCKS - 10), voice(5), silence(HOLD_BLOCKS + 20), voice(5));
+        trimmer.start(SAMPLE_RATE, 1);
+        trimmer.write(input, 0, input.length);
+        trimmer.flush();
+
+        assertArrayEquals(input, sink.bytes());
+    }
+
+    @Test
+    public void dropsTrailingSilenceAtFlush() {
+        SilenceTrimmer trimmer = new SilenceTrimmer(sink, 0, metrics);
+        byte[] voice = voice(10);
+        trimmer.start(SAMPLE_RATE, 1);
+        trimmer.write(voice, 0, voice.length);
+        trimmer.write(silence(20), 0, 20 * BLOCK_BYTES);
+        // 结尾静音在 flush 之前一直暂存，不会输出
+        assertArrayEquals(voice, sink.bytes());
+
+        trimmer.flush();
+
+        assertArrayEquals(voice, sink.bytes());
+        assertEquals(200, metrics.trimmedSilenceMs.get());
+    }
+
+    @Test
+    public void insertsGapOnlyBetweenAudibleSegments() {
+        SilenceTrimmer trimmer = new SilenceTrimmer(sink, 100, metrics);
+        byte[] first = voice(5);
+        byte[] third = voice(7);
+        trimmer.start(SAMPLE_RATE, 1);
+        trimmer.write(concat(silence(20), first, silence(20)), 0, 45 * BLOCK_BYTES);
+        // 整段都是静音的片段不输出，也不产生间隔
+        trimmer.start(SAMPLE_RATE, 1);
+        trimmer.write(silence(30), 0, 30 * BLOCK_BYTES);
+        trimmer.start(SAMPLE_RATE, 1);
+        trimmer.write(third, 0, third.length);
+        trimmer.flush();
+
+        byte[] gap = new byte[SAMPLE_RATE * 100 / 1000 * 2];
+        assertArrayEquals(concat(silence(PREROLL_BLOCKS), first, gap, third), sink.bytes());
+    }
+
+    @Test
+    public void handlesPartialFinalBlock() {
+        SilenceTrimmer trimmer = new SilenceTrimmer(sink, 0, metrics);
+        byte[] voice = concat(voice(3), Arrays.copyOf(voice(1), 50));
+        trimmer.start(SAMPLE_RATE, 1);
+        trimmer.write(voice, 0, voice.length);
+        trimmer.flush();
+        // 有声的不完整块在片段结束时输出
+        assertArrayEquals(voice, sink.bytes());
+
+        RecordingSink quiet = new RecordingSink();
+        SilenceTrimmer trailing = new SilenceTrimmer(quiet, 0, metrics);
+        byte[] input = concat(voice(3), new byte[50]);
+        trailing.start(SAMPLE_RATE, 1);
+        trailing.write(input, 0, input.length);
+        trailing.flush();
+        // 静音的不完整块属于结尾静音
+        assertArrayEquals(voice(3), quiet.bytes());
+    }
+
+    private static byte[] silence(int blocks) {
+        return new byte[blocks * BLOCK_BYTES];
+    }
+
+    // 幅度 1000 的方波，远高于静音阈值
+    private static byte[] voice(int blocks) {
+        byte[] data = new byte[blocks * BLOCK_BYTES];
+        for (int i = 0; i < data.length; i += 2) {
+            short sample = (short) ((i / 2) % 16 < 8 ? 1000 : -1000);
+            data[i] = (byte) sample;
+            data[i + 1] = (byte) (sample >> 8);
+        }
+        return data;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class RecordingSink implements PcmSink {
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        @Override
+        public boolean start(int sampleRate, int channelCount) {
+            return true;
+        }
+
+        @Override
+        public boolean write(byte[] buffer, int offset, int length) {
+            data.write(buffer, offset, length);
+            return true;
+        }
+
+        @Override
+        public int maxChunkSize() {
+            return 1000;
+        }
+
+        byte[] bytes() {
+            return data.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+    private static final String KEY = "0123456789abcdef.mp3";
+    private static final int CALLERS = 16;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+    // 代替磁盘缓存：领头者下载成功后写入，等待者醒来后从这里取
+    private final Map<String, String> cache = new ConcurrentHashMap<>();
+    private final AtomicInteger downloads = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * 领头者的下载过程，返回 null 表示中途停止、没有写缓存。
+     */
+    private interface Download {
+        String run() throws SynthesisException, InterruptedException;
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentRequestsShareOneDownload() throws Exception {
+        final CountDownLatch allJoined = new CountDownLatch(1);
+        Download download = new Download() {
+            @Override
+            public String run() throws InterruptedException {
+                // 等其余请求都加入之后才完成，保证它们确实是并发的
+                allJoined.await();
+                return "audio";
+            }
+        };
+        List<Future<String>> results = submitCallers(CALLERS, download);
+        waitForCoalesced(CALLERS - 1);
+        allJoined.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("audio", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, downloads.get());
+        assertEquals(1, singleFlight.leaderCount());
+        assertEquals(CALLERS - 1, singleFlight.coalescedCount());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test(timeout = 10000)
+    public void leaderFailureReachesEveryFollower() throws Exception {
+        final CountDownLatch allJoined = new CountDownLatch(1);
+        Download download = new Download() {
+            @Override
+            public String run() throws SynthesisException, InterruptedException {
+                allJoined.await();
+                throw new SynthesisException(-6, "服务器返回 503");
+            }
+        };
+        List<Future<String>> results = submitCallers(CALLERS, download);
+        waitForCoalesced(CALLERS - 1);
+        allJoined.countDown();
+
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                // 等待者收到同样的错误码，不再各自重新下载
+                assertTrue(e.getCause() instanceof SynthesisException);
+                assertEquals(-6, ((SynthesisException) e.getCause()).getErrorCode());
+            }
+        }
+        assertEquals(1, downloads.get());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test(timeout = 10000)
+    public void stoppedLeaderHandsOffToOneFollower() throws Exception {
+        final CountDownLatch allJoined = new CountDownLatch(1);
+        Download download = new Download() {
+            @Override
+            public String run() throws InterruptedException {
+                if (downloads.get() == 1) {
+                    allJoined.await();
+                    // 第一个领头者被停止，没有留下缓存
+                    return null;
+                }
+                return "audio";
+            }
+        };
+        List<Future<String>> results = submitCallers(CALLERS, download);
+        waitForCoalesced(CALLERS - 1);
+        allJoined.countDown();
+
+        int stopped = 0;
+        for (Future<String> result : results) {
+            String audio = result.get(5, TimeUnit.SECONDS);
+            if (audio == null) {
+                stopped++;
+            } else {
+                assertEquals("audio", audio);
+            }
+        }
+        // 只有停止的领头者自己没有结果；等待者之一重新下载，其余的共享它的结果
+        assertEquals(1, stopped);
+        assertEquals(2, downloads.get());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test(timeout = 10000)
+    public void cancelledFollowerStopsWaitingWithoutAffectingOthers() throws Exception {
+        SingleFlight.Ticket leader = singleFlight.join(KEY);
+        assertTrue(leader.isLeader());
+        final SingleFlight.Ticket cancelled = singleFlight.join(KEY);
+        final SingleFlight.Ticket patient = singleFlight.join(KEY);
+        final CancellationToken cancelledToken = new CancellationToken();
+        Future<Boolean> cancelledResult = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws SynthesisException {
+                return cancelled.await(cancelledToken);
+            }
+        });
+        Future<Boolean> patientResult = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws SynthesisException {
+                return patient.await(new CancellationToken());
+            }
+        });
+        Thread.sleep(50);
+
+        cancelledToken.cancel();
+
+        assertFalse(cancelledResult.get(1, TimeUnit.SECONDS));
+        assertFalse(patientResult.isDone());
+        assertEquals(1, singleFlight.inFlightCount());
+        leader.finish();
+        assertTrue(patientResult.get(1, TimeUnit.SECONDS));
+        assertEquals(0, cancelledToken.listenerCount());
+    }
+
+    /**
+     * 和 TtsService.downloadShared 一样的调用方式：领头者下载，等待者醒来后查缓存，没有时重新加入。
+     */
+    private String fetchShared(Download download, CancellationToken token) throws Exception {
+        while (true) {
+            SingleFlight.Ticket ticket = singleFlight.join(KEY);
+            if (ticket.isLeader()) {
+                downloads.incrementAndGet();
+                try {
+                    String audio = download.run();
+                    if (audio != null) {
+                        cache.put(KEY, audio);
+                    }
+                    return audio;
+                } catch (SynthesisException e) {
+                    ticket.fail(e);
+                    throw e;
+                } finally {
+                    ticket.finish();
+                }
+            }
+            if (!ticket.await(token)) {
+                return null;
+            }
+            String cached = cache.get(KEY);
+            if (cached != null) {
+                return cached;
+            }
+        }
+    }
+
+    private List<Future<String>> submitCallers(int count, final Download download) {
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return fetchShared(download, new CancellationToken());
+                }
+            }));
+        }
+        return results;
+    }
+
+    private void waitForCoalesced(long count) throws InterruptedException {
+        while (singleFlight.coalescedCount() < count) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SpeechRateProcessorTest {
+    private static final int SAMPLE_RATE = 24000;
+
+    @Test
+    public void outputLengthFollowsRate() {
+        float[][] settings = {{2f, 1f}, {0.5f, 1f}, {1f, 2f}, {1f, 0.5f}, {1.5f, 1.3f}, {0.75f, 0.8f}, {3f, 1f}};
+        byte[] input = speech(2 * SAMPLE_RATE, 1);
+        for (float[] setting : settings) {
+            RecordingSink sink = new RecordingSink();
+            SpeechRateProcessor processor = new SpeechRateProcessor(sink, setting[0], setting[1]);
+
+            assertTrue(processor.start(SAMPLE_RATE, 1));
+            assertTrue(processor.write(input, 0, input.length));
+            assertTrue(processor.flush());
+
+            // 时长变为 1 / rate，与音调无关；允许 2% 加一个窗长的误差
+            double expected = input.length / 2 / setting[0];
+            int frames = sink.bytes().length / 2;
+            String label = "rate " + setting[0] + ", pitch " + setting[1] + ": " + frames + " 帧";
+            assertTrue(label, Math.abs(frames - expected) < expected * 0.02 + SAMPLE_RATE * 30 / 1000);
+        }
+    }
+
+    @Test
+    public void stereoOutputStaysFrameAligned() {
+        byte[] input = speech(SAMPLE_RATE, 2);
+        RecordingSink sink = new RecordingSink();
+        SpeechRateProcessor processor = new SpeechRateProcessor(sink, 1.7f, 1.2f);
+
+        processor.start(SAMPLE_RATE, 2);
+        processor.write(input, 0, input.length);
+        processor.flush();
+
+        for (int length : sink.lengths) {
+            assertEquals(0, length % 4);
+        }
+        double expected = SAMPLE_RATE / 1.7;
+        assertEquals(expected, sink.bytes().length / 4, expected * 0.02 + SAMPLE_RATE * 30 / 1000);
+    }
+
+    @Test
+    public void neutralSettingsPassAudioThroughUnchanged() {
+        byte[] input = speech(SAMPLE_RATE / 2, 1);
+        RecordingSink sink = new RecordingSink();
+        SpeechRateProcessor processor = new SpeechRateProcessor(sink, 1f, 1f);
+
+        processor.start(SAMPLE_RATE, 1);
+        processor.write(input, 0, input.length);
+        processor.flush();
+
+        assertTrue(SpeechRateProcessor.isNeutral(1.005f, 0.995f));
+        assertArrayEquals(input, sink.bytes());
+    }
+
+    @Test
+    public void oddByteSplitsMatchSingleWrite() {
+        byte[] input = speech(SAMPLE_RATE, 1);
+        float[][] settings = {{1f, 1f}, {1.8f, 1f}, {0.6f, 1.4f}};
+        for (float[] setting : settings) {
+            RecordingSink whole = new RecordingSink();
+            SpeechRateProcessor reference = new SpeechRateProcessor(whole, setting[0], setting[1]);
+            reference.start(SAMPLE_RATE, 1);
+            reference.write(input, 0, input.length);
+            reference.flush();
+
+            RecordingSink split = new RecordingSink();
+            SpeechRateProcessor processor = new SpeechRateProcessor(split, setting[0], setting[1]);
+            processor.start(SAMPLE_RATE, 1);
+            // 每次写入奇数个字节，采样被拆在两次写入之间
+            int[] sizes = {1, 3, 4097, 7, 999};
+            int position = 0;
+            for (int i = 0; position < input.length; i++) {
+                int count = Math.min(sizes[i % sizes.length], input.length - position);
+                processor.write(input, position, count);
+                position += count;
+            }
+            processor.flush();
+
+            assertArrayEquals("rate " + setting[0] + ", pitch " + setting[1], whole.bytes(), split.bytes());
+        }
+    }
+
+    @Test
+    public void formatChangeFlushesAndReconfigures() {
+        RecordingSink sink = new RecordingSink();
+        SpeechRateProcessor processor = new SpeechRateProcessor(sink, 2f, 1f);
+        byte[] mono = speech(SAMPLE_RATE, 1);
+        byte[] stereo = speech(16000, 2);
+
+        processor.start(SAMPLE_RATE, 1);
+        processor.write(mono, 0, mono.length);
+        int monoBytes = sink.bytes().length;
+        processor.start(16000, 2);
+        int flushedMonoBytes = sink.bytes().length;
+        processor.write(stereo, 0, stereo.length);
+        processor.flush();
+
+        // 新格式开始前先输出旧格式剩下的音频，下游收到新格式
+        assertTrue(flushedMonoBytes > monoBytes);
+        assertEquals(SAMPLE_RATE / 2.0, flushedMonoBytes / 2, SAMPLE_RATE * 0.02 + SAMPLE_RATE * 30 / 1000);
+        assertEquals(2, sink.formats.size());
+        assertArrayEquals(new int[] {16000, 2}, sink.formats.get(1));
+        int stereoFrames = (sink.bytes().length - flushedMonoBytes) / 4;
+        assertEquals(8000, stereoFrames, 8000 * 0.02 + 16000 * 30 / 1000);
+        assertEquals(0, (sink.bytes().length - flushedMonoBytes) % 4);
+    }
+
+    // 几个谐波叠加、幅度缓慢变化的浊音，每个声道相位不同
+    private static byte[] speech(int frames, int channels) {
+        ByteBuffer buffer = ByteBuffer.allocate(frames * channels * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            double t = i / (double) SAMPLE_RATE;
+            double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 3 * t);
+            for (int c = 0; c < channels; c++) {
+                double value = Math.sin(2 * Math.PI * 140 * t + c) + 0.5 * Math.sin(2 * Math.PI * 280 * t)
+                        + 0.25 * Math.sin(2 * Math.PI * 560 * t);
+                buffer.putShort((short) (value * envelope * 8000));
+            }
+        }
+        return buffer.array();
+    }
+
+    private static final class RecordingSink implements PcmSink {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final List<Integer> lengths = new ArrayList<>();
+        final List<int[]> formats = new ArrayList<>();
+
+        @Override
+        public boolean start(int sampleRate, int channelCount) {
+            formats.add(new int[] {sampleRate, channelCount});
+            return true;
+        }
+
+        @Override
+        public boolean write(byte[] buffer, int offset, int length) {
+            assertTrue(length <= maxChunkSize());
+            data.write(buffer, offset, length);
+            lengths.add(length);
+            return true;
+        }
+
+        @Override
+        public int maxChunkSize() {
+            return 4096;
+        }
+
+        byte[] bytes() {
+            return data.toByteArray();
+        }
+    }
+}
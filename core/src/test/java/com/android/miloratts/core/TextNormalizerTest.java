@@ -0,0 +1,42 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TextNormalizerTest {
+    @Test
+    public void spacingAndFullWidthVariantsNormalizeToSameText() {
+        String expected = TextNormalizer.normalize("Hello world");
+
+        assertEquals("Hello world", expected);
+        assertEquals(expected, TextNormalizer.normalize("Hello  world "));
+        assertEquals(expected, TextNormalizer.normalize(" Hello\tworld"));
+        assertEquals(expected, TextNormalizer.normalize("Ｈｅｌｌｏ　ｗｏｒｌｄ"));
+        assertEquals(expected, TextNormalizer.normalize("Hello\u200B world"));
+    }
+
+    @Test
+    public void removesSpacesAroundChinese() {
+        assertEquals("你好,世界。", TextNormalizer.normalize("你好 ， 世界 。"));
+        assertEquals("Hello你好", TextNormalizer.normalize("Hello 你好"));
+    }
+
+    @Test
+    public void collapsesRepeatedPunctuationAndEllipsis() {
+        assertEquals("真的吗?!", TextNormalizer.normalize("真的吗？？？！！"));
+        assertEquals("等等...", TextNormalizer.normalize("等等……"));
+        assertEquals("等等...", TextNormalizer.normalize("等等......"));
+    }
+
+    @Test
+    public void dropsQuotesAndUnifiesApostrophes() {
+        assertEquals("他说你好", TextNormalizer.normalize("他说“你好”"));
+        assertEquals("it's", TextNormalizer.normalize("it’s"));
+    }
+
+    @Test
+    public void keepsLineBreaksAsSingleNewline() {
+        assertEquals("第一行\n第二行", TextNormalizer.normalize("第一行 \r\n\n  第二行"));
+    }
+}
@@ -0,0 +1,32 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TextSegmenterTest {
+
+    @Test
+    public void splitsAtFullWidthSemicolonAfterNormalization() {
+        String normalized = TextNormalizer.normalize("第一句；第二句。");
+
+        assertEquals(Arrays.asList("第一句;", "第二句。"),
+                TextSegmenter.split(normalized, TextSegmenter.DEFAULT_MAX_LENGTH));
+    }
+
+    @Test
+    public void splitsAtFullWidthTerminatorsAfterNormalization() {
+        String normalized = TextNormalizer.normalize("真的吗？真的！好。");
+
+        assertEquals(Arrays.asList("真的吗?", "真的!", "好。"),
+                TextSegmenter.split(normalized, TextSegmenter.DEFAULT_MAX_LENGTH));
+    }
+
+    @Test
+    public void keepsDecimalPointInsideSentence() {
+        assertEquals(Arrays.asList("圆周率约是 3.14。", "记住了."),
+                TextSegmenter.split("圆周率约是 3.14。记住了.", TextSegmenter.DEFAULT_MAX_LENGTH));
+    }
+}
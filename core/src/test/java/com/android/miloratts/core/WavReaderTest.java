@@ -0,0 +1,164 @@
+package com.android.miloratts.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.Executor;
+
+public class WavReaderTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    // KSDATAFORMAT_SUBTYPE_PCM
+    private static final byte[] PCM_GUID = {
+            0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x10, 0x00,
+            (byte) 0x80, 0x00, 0x00, (byte) 0xAA, 0x00, 0x38, (byte) 0x9B, 0x71};
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void wavWithExtraChunksIsCommittedThroughCacheTee() throws IOException {
+        byte[] pcm = pcm(4000);
+        byte[] wav = wav(pcmFormat(), pcm);
+        AudioCache cache = AudioCache.open(folder.newFolder("cache"), 1024 * 1024, DIRECT);
+        String key = "0123456789abcdef.wav";
+        CacheTeeInputStream tee = new CacheTeeInputStream(new ByteArrayInputStream(wav), cache, key, wav.length);
+        WavReader reader = new WavReader(tee);
+        RecordingSink sink = new RecordingSink();
+
+        reader.readHeader();
+        assertTrue(reader.copyTo(sink, new byte[1000]));
+
+        assertEquals(22050, reader.getSampleRate());
+        assertEquals(1, reader.getChannelCount());
+        assertArrayEquals(pcm, sink.data.toByteArray());
+        // 头部的 LIST、fact 和 fmt 扩展部分都经过了 tee，缓存里是完整的文件
+        assertTrue(tee.commit());
+        CachedAudio cached = cache.get(key);
+        assertNotNull(cached);
+        assertEquals(wav.length, cached.length());
+    }
+
+    @Test
+    public void acceptsExtensibleFormatWithPcmSubFormat() throws IOException {
+        byte[] pcm = pcm(1000);
+        WavReader reader = new WavReader(new ByteArrayInputStream(wav(extensibleFormat(PCM_GUID), pcm)));
+        RecordingSink sink = new RecordingSink();
+
+        reader.readHeader();
+        assertTrue(reader.copyTo(sink, new byte[1000]));
+
+        assertEquals(1, reader.getChannelCount());
+        assertArrayEquals(pcm, sink.data.toByteArray());
+    }
+
+    @Test
+    public void rejectsExtensibleFormatWithOtherSubFormat() throws IOException {
+        // 16 位的 A 律等编码也会标成扩展格式，按 PCM 输出就是噪音
+        byte[] alaw = PCM_GUID.clone();
+        alaw[0] = 0x06;
+        assertRejected(wav(extensibleFormat(alaw), pcm(100)));
+    }
+
+    @Test
+    public void rejectsExtensibleFormatWithoutExtension() throws IOException {
+        ByteBuffer fmt = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+        fmt.putShort((short) 0xFFFE).putShort((short) 1).putInt(22050).putInt(22050 * 2)
+                .putShort((short) 2).putShort((short) 16).putShort((short) 0);
+        assertRejected(wav(fmt.array(), pcm(100)));
+    }
+
+    private static void assertRejected(byte[] wav) {
+        try {
+            new WavReader(new ByteArrayInputStream(wav)).readHeader();
+            fail();
+        } catch (IOException expected) {
+            // 不是 16 位 PCM，调用方会报告错误而不是输出噪音
+        }
+    }
+
+    // 带 cbSize 的 18 字节 PCM fmt 块，常见编码器的输出
+    private static byte[] pcmFormat() {
+        ByteBuffer fmt = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+        fmt.putShort((short) 1).putShort((short) 1).putInt(22050).putInt(22050 * 2)
+                .putShort((short) 2).putShort((short) 16).putShort((short) 0);
+        return fmt.array();
+    }
+
+    private static byte[] extensibleFormat(byte[] subFormat) {
+        ByteBuffer fmt = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        fmt.putShort((short) 0xFFFE).putShort((short) 1).putInt(22050).putInt(22050 * 2)
+                .putShort((short) 2).putShort((short) 16).putShort((short) 22).putShort((short) 16).putInt(4);
+        fmt.put(subFormat);
+        return fmt.array();
+    }
+
+    private static byte[] pcm(int samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            buffer.putShort((short) (i * 97 - 20000));
+        }
+        return buffer.array();
+    }
+
+    // 给定 fmt 块，后面跟奇数长度的 LIST 块和 fact 块的 WAV
+    private static byte[] wav(byte[] fmt, byte[] pcm) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024 + pcm.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(0x52494646).order(ByteOrder.LITTLE_ENDIAN).putInt(0);
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(0x57415645);
+        buffer.putInt(0x666d7420).order(ByteOrder.LITTLE_ENDIAN).putInt(fmt.length);
+        buffer.put(fmt);
+        byte[] info = "INFOISFT\u0007\u0000\u0000\u0000Lavf58".getBytes();
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(0x4c495354).order(ByteOrder.LITTLE_ENDIAN).putInt(info.length);
+        buffer.put(info);
+        if ((info.length & 1) != 0) {
+            buffer.put((byte) 0);
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(0x66616374).order(ByteOrder.LITTLE_ENDIAN).putInt(4)
+                .putInt(pcm.length / 2);
+        buffer.order(ByteOrder.BIG_ENDIAN).putInt(0x64617461).order(ByteOrder.LITTLE_ENDIAN).putInt(pcm.length);
+        buffer.put(pcm);
+        int length = buffer.position();
+        buffer.putInt(4, length - 8);
+        byte[] wav = new byte[length];
+        System.arraycopy(buffer.array(), 0, wav, 0, length);
+        return wav;
+    }
+
+    private static final class RecordingSink implements PcmSink {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        @Override
+        public boolean start(int sampleRate, int channelCount) {
+            return true;
+        }
+
+        @Override
+        public boolean write(byte[] buffer, int offset, int length) {
+            data.write(buffer, offset, length);
+            return true;
+        }
+
+        @Override
+        public int maxChunkSize() {
+            return 1000;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+#!/usr/bin/env bash
+# 测量冷启动和热启动时从绑定引擎到第一块音频的时间（设备需已安装本应用并通过 adb 连接）。
+# 用法: scripts/startup_benchmark.sh [每种启动方式的次数] [朗读文本]
+set -euo pipefail
+
+RUNS="${1:-10}"
+TEXT="${2:-启动测试}"
+PACKAGE="com.android.miloratts"
+RECEIVER="$PACKAGE/.StartupBenchmarkReceiver"
+
+run_once() {
+    adb logcat -c
+    adb shell am broadcast --include-stopped-packages -n "$RECEIVER" --es text "'$TEXT'" > /dev/null
+    for _ in $(seq 1 100); do
+        line=$(adb logcat -d -s MiloraTTS:I | grep "启动基准:" || true)
+        if [ -n "$line" ]; then
+            echo "$line" | tail -n 1
+            return
+        fi
+        sleep 0.2
+    done
+    echo "超时" >&2
+}
+
+first_audio_ms() {
+    sed -n 's/.*bind_to_first_audio_ms=\(-\?[0-9]*\).*/\1/p'
+}
+
+median() {
+    sort -n | awk '{ v[NR] = $1 } END { if (NR == 0) print "-"; else if (NR % 2) print v[(NR + 1) / 2]; else print (v[NR / 2] + v[NR / 2 + 1]) / 2 }'
+}
+
+# 先合成一次，让这句话进入缓存，后面的测量不含网络时间
+run_once > /dev/null
+
+cold=()
+for _ in $(seq 1 "$RUNS"); do
+    adb shell am kill "$PACKAGE"
+    sleep 2
+    cold+=("$(run_once | first_audio_ms)")
+done
+
+warm=()
+for _ in $(seq 1 "$RUNS"); do
+    warm+=("$(run_once | first_audio_ms)")
+    sleep 1
+done
+
+echo "冷启动 绑定到首个音频 中位数: $(printf '%s\n' "${cold[@]}" | grep -v '^-' | median) ms (${cold[*]})"
+echo "热启动 绑定到首个音频 中位数: $(printf '%s\n' "${warm[@]}" | grep -v '^-' | median) ms (${warm[*]})"